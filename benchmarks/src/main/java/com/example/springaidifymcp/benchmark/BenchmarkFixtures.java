@@ -0,0 +1,101 @@
+package com.example.springaidifymcp.benchmark;
+
+import com.example.springaidifymcp.classifier.QuestionClassifier;
+import com.example.springaidifymcp.engine.WorkflowCompiler;
+import com.example.springaidifymcp.limit.BulkheadRegistry;
+import com.example.springaidifymcp.llm.LlmGateway;
+import com.example.springaidifymcp.llm.ModelRouter;
+import com.example.springaidifymcp.llm.ResiliencePolicy;
+import com.example.springaidifymcp.llm.TieredLlmResponseCache;
+import com.example.springaidifymcp.metrics.WorkflowMetrics;
+import com.example.springaidifymcp.retrieval.KnowledgeBase;
+import com.example.springaidifymcp.service.DifyService;
+import com.example.springaidifymcp.service.WorkflowProcessor;
+import com.example.springaidifymcp.trace.OtlpTraceExporter;
+import com.example.springaidifymcp.trace.RunTraceRecorder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 不经过Spring容器，按生产配置的默认值手工组装工作流处理所需的组件。
+ * 所有模型路由共用一个StubChatClient，知识库与分类记录使用临时目录，隔离舱与OTLP导出关闭。
+ */
+public final class BenchmarkFixtures {
+
+    public static final String STUB_ANSWER = "这是一个用于基准测试的固定回答，长度与常见的模型输出相近。";
+
+    private final Path tempDir;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService nodeExecutor = Executors.newFixedThreadPool(4);
+    private final WorkflowCompiler compiler;
+    private final DifyService difyService;
+    private final WorkflowProcessor processor;
+
+    /**
+     * @param llmCache 是否启用模型响应缓存
+     * @param tracing  是否记录运行轨迹
+     */
+    public BenchmarkFixtures(boolean llmCache, boolean tracing) throws IOException {
+        this.tempDir = Files.createTempDirectory("workflow-bench");
+        ObjectMapper objectMapper = new ObjectMapper();
+        StubChatClient chatClient = new StubChatClient(STUB_ANSWER);
+        // 桩客户端在调用线程上执行，不经过执行器，也不重试、不熔断
+        ResiliencePolicy resilience = ResiliencePolicy.none(Duration.ofSeconds(60));
+        ModelRouter modelRouter = new ModelRouter((baseUrl, apiKey, model) -> chatClient,
+                OpenAiChatOptions.builder().withModel("gpt-3.5-turbo").withTemperature(0.7f).withMaxTokens(2000).build(),
+                List.of("http://localhost"), "", Map.of(), Map.of(), "", 32, Map.of(), null, false, 0.95,
+                Duration.ofMillis(50), resilience);
+        this.compiler = new WorkflowCompiler(modelRouter, new String[0], 1.0, 16, 4, 100);
+
+        this.difyService = new DifyService("http://localhost", compiler, objectMapper, 200000, Duration.ofHours(6),
+                meterRegistry);
+        BulkheadRegistry bulkheads = new BulkheadRegistry(false, Duration.ofSeconds(2), false, 2, 200,
+                32, 64, Map.of(), 16, 64, Map.of());
+        WorkflowMetrics metrics = new WorkflowMetrics(meterRegistry, true, false);
+        LlmGateway llmGateway = new LlmGateway(new TieredLlmResponseCache(10000, Duration.ofHours(1), Duration.ZERO), bulkheads, metrics, resilience, llmCache);
+        QuestionClassifier questionClassifier = new QuestionClassifier(llmGateway, true, 0.6, 0.2, false, 200, 1000,
+                false, tempDir.resolve("classifier").toString(), 10000);
+        KnowledgeBase knowledgeBase = new KnowledgeBase(objectMapper,
+                new StaticListableBeanFactory().getBeanProvider(EmbeddingClient.class),
+                tempDir.resolve("datasets").toString(), 500, 50, 16, false, 0.5);
+        RunTraceRecorder traceRecorder = new RunTraceRecorder(
+                new OtlpTraceExporter("", 64, 2048, Duration.ofSeconds(5), "benchmark"), tracing, 1.0, 1024);
+
+        this.processor = new WorkflowProcessor(difyService, llmGateway, questionClassifier, knowledgeBase, compiler,
+                bulkheads, metrics, traceRecorder, nodeExecutor, Schedulers.boundedElastic(),
+                1000, Duration.ofSeconds(60), 4, false);
+    }
+
+    public WorkflowCompiler compiler() {
+        return compiler;
+    }
+
+    public DifyService difyService() {
+        return difyService;
+    }
+
+    public WorkflowProcessor processor() {
+        return processor;
+    }
+
+    public Path tempDir() {
+        return tempDir;
+    }
+
+    public void close() {
+        nodeExecutor.shutdownNow();
+    }
+}
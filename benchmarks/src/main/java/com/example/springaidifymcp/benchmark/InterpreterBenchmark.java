@@ -0,0 +1,91 @@
+package com.example.springaidifymcp.benchmark;
+
+import com.example.springaidifymcp.engine.CompiledNode;
+import com.example.springaidifymcp.engine.ExecutableWorkflow;
+import com.example.springaidifymcp.engine.NodeKind;
+import com.example.springaidifymcp.engine.WorkflowInterpreter;
+import com.example.springaidifymcp.engine.WorkflowRun;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解释器本身的开销：节点处理器不做任何工作，问题分类节点触发全部分支，所以每次运行遍历所有节点。
+ * traversal只计调度与上下文的获取/归还；contextWrites中每个节点还向自己的输出槽位写入结果。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    @Param({"10", "100", "1000", "5000"})
+    public int nodes;
+
+    @Param({"1", "4"})
+    public int parallelBranches;
+
+    private BenchmarkFixtures fixtures;
+    private ExecutorService executor;
+    private ExecutableWorkflow workflow;
+    private WorkflowInterpreter traversal;
+    private WorkflowInterpreter contextWrites;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixtures = new BenchmarkFixtures(false, false);
+        executor = Executors.newFixedThreadPool(4);
+        workflow = fixtures.difyService().parseAndCompile(SyntheticWorkflows.yaml(nodes));
+        traversal = new WorkflowInterpreter(handlers(false), executor, parallelBranches);
+        contextWrites = new WorkflowInterpreter(handlers(true), executor, parallelBranches);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        fixtures.close();
+    }
+
+    @Benchmark
+    public WorkflowRun traversal() {
+        return run(traversal);
+    }
+
+    @Benchmark
+    public WorkflowRun contextWrites() {
+        return run(contextWrites);
+    }
+
+    private WorkflowRun run(WorkflowInterpreter interpreter) {
+        WorkflowRun run = new WorkflowRun(workflow, "benchmark", workflow.size(), TimeUnit.SECONDS.toNanos(60));
+        interpreter.run(run);
+        run.releaseContext();
+        return run;
+    }
+
+    private static WorkflowInterpreter.NodeHandler[] handlers(boolean writeOutputs) {
+        WorkflowInterpreter.NodeHandler[] handlers = new WorkflowInterpreter.NodeHandler[NodeKind.values().length];
+        WorkflowInterpreter.NodeHandler handler = writeOutputs
+                ? (node, run) -> writeOutput(node, run)
+                : (node, run) -> node.getKind() == NodeKind.ANSWER ? WorkflowRun.END : WorkflowRun.ALL_SUCCESSORS;
+        Arrays.fill(handlers, handler);
+        return handlers;
+    }
+
+    private static int writeOutput(CompiledNode node, WorkflowRun run) {
+        if (node.getKind() == NodeKind.ANSWER) {
+            run.setAnswer(node.getIndex(), BenchmarkFixtures.STUB_ANSWER);
+            return WorkflowRun.END;
+        }
+        if (node.getOutputSlot() >= 0) {
+            run.getContext().set(node.getOutputSlot(), BenchmarkFixtures.STUB_ANSWER);
+        }
+        return WorkflowRun.ALL_SUCCESSORS;
+    }
+}
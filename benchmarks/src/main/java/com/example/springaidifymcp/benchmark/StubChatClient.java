@@ -0,0 +1,32 @@
+package com.example.springaidifymcp.benchmark;
+
+import org.springframework.ai.chat.ChatClient;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.Generation;
+import org.springframework.ai.chat.StreamingChatClient;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * 立即返回固定内容的模型客户端，基准测试只测量本地处理的开销
+ */
+public class StubChatClient implements ChatClient, StreamingChatClient {
+
+    private final ChatResponse response;
+
+    public StubChatClient(String content) {
+        this.response = new ChatResponse(List.of(new Generation(content)));
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return response;
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.just(response);
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.springaidifymcp.benchmark;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 生成指定节点数的Dify工作流YAML，结构与真实的问答工作流相同：
+ * 开始 -> 问题分类 -> 每个类别一条分支（知识检索 -> 若干LLM节点串联 -> 回答）。
+ * 每个LLM节点的提示引用用户查询、检索结果和上一个LLM节点的输出，回答节点引用最后一个LLM节点。
+ */
+public final class SyntheticWorkflows {
+
+    public static final int CLASS_COUNT = 4;
+    public static final String[] CLASS_NAMES = {"产品咨询", "售后服务", "账单问题", "技术支持"};
+
+    private SyntheticWorkflows() {
+    }
+
+    public static byte[] yaml(int nodeCount) {
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        return new Yaml(options).dump(workflow(nodeCount)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 工作流的Map结构，键名与DifyWorkflow的属性名一致
+     *
+     * @param nodeCount 节点总数，至少为 2 + 2 * CLASS_COUNT
+     */
+    public static Map<String, Object> workflow(int nodeCount) {
+        int total = Math.max(nodeCount, 2 + 2 * CLASS_COUNT);
+        List<Object> nodes = new ArrayList<>(total);
+        List<Object> edges = new ArrayList<>(total);
+
+        nodes.add(node("start", "start", "开始", Map.of("variables", List.of())));
+
+        List<Object> classes = new ArrayList<>();
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            classes.add(Map.of("id", "class_" + c, "name", CLASS_NAMES[c]));
+        }
+        Map<String, Object> classifierData = new LinkedHashMap<>();
+        classifierData.put("classes", classes);
+        classifierData.put("model", model("gpt-4o-mini", 0.0));
+        nodes.add(node("classifier", "question-classifier", "问题分类", classifierData));
+        edges.add(edge("start", "classifier", "source"));
+
+        // 剩余节点平均分给各条分支，每条分支至少有一个LLM节点和一个回答节点
+        int remaining = total - 2;
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            int branchSize = remaining / CLASS_COUNT + (c < remaining % CLASS_COUNT ? 1 : 0);
+            String previous = "classifier";
+            String handle = "class_" + c;
+            String knowledge = null;
+            if (branchSize >= 3) {
+                knowledge = "knowledge_" + c;
+                Map<String, Object> data = new LinkedHashMap<>();
+                data.put("datasetIds", List.of());
+                data.put("retrievalMode", "multiple");
+                nodes.add(node(knowledge, "knowledge-retrieval", "知识检索 " + c, data));
+                edges.add(edge(previous, knowledge, handle));
+                previous = knowledge;
+                handle = "source";
+                branchSize--;
+            }
+            String previousLlm = null;
+            for (int i = 0; i < branchSize - 1; i++) {
+                String id = "llm_" + c + "_" + i;
+                nodes.add(node(id, "llm", "LLM " + c + "-" + i, llmData(knowledge, previousLlm)));
+                edges.add(edge(previous, id, handle));
+                previous = id;
+                previousLlm = id;
+                handle = "source";
+            }
+            String answer = "answer_" + c;
+            nodes.add(node(answer, "answer", "回答 " + c,
+                    Map.of("answer", previousLlm != null ? "{{#" + previousLlm + ".text#}}" : "暂无回答")));
+            edges.add(edge(previous, answer, handle));
+        }
+
+        Map<String, Object> graph = new LinkedHashMap<>();
+        graph.put("nodes", nodes);
+        graph.put("edges", edges);
+        Map<String, Object> workflow = new LinkedHashMap<>();
+        workflow.put("graph", graph);
+        Map<String, Object> app = new LinkedHashMap<>();
+        app.put("name", "synthetic-" + total);
+        app.put("mode", "advanced-chat");
+        app.put("description", "基准测试生成的工作流");
+        Map<String, Object> root = new LinkedHashMap<>();
+        root.put("app", app);
+        root.put("kind", "app");
+        root.put("version", "0.1.2");
+        root.put("workflow", workflow);
+        return root;
+    }
+
+    /**
+     * 能被本地分类器按关键词直接分类的查询
+     */
+    public static String query(int i) {
+        return "我想了解一下" + CLASS_NAMES[i % CLASS_COUNT] + "的相关情况，编号 " + i;
+    }
+
+    private static Map<String, Object> llmData(String knowledge, String previousLlm) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("model", model("gpt-4o", 0.7));
+        List<Object> prompts = new ArrayList<>();
+        prompts.add(Map.of("role", "system", "text", "你是一个客服助手，请根据以下资料回答问题。\n资料：{{#context#}}"));
+        prompts.add(Map.of("role", "user", "text", previousLlm != null
+                ? "问题：{{#sys.query#}}\n上一步的结论：{{#" + previousLlm + ".text#}}\n请补充完善。"
+                : "问题：{{#sys.query#}}"));
+        data.put("promptTemplate", prompts);
+        if (knowledge != null) {
+            data.put("context", Map.of("enabled", true, "variableSelector", List.of(knowledge, "result")));
+        }
+        return data;
+    }
+
+    private static Map<String, Object> model(String name, double temperature) {
+        Map<String, Object> model = new LinkedHashMap<>();
+        model.put("provider", "openai");
+        model.put("name", name);
+        model.put("mode", "chat");
+        model.put("completion_params", Map.of("temperature", temperature));
+        return model;
+    }
+
+    private static Map<String, Object> node(String id, String type, String title, Map<String, Object> data) {
+        Map<String, Object> nodeData = new LinkedHashMap<>(data);
+        nodeData.put("type", type);
+        nodeData.put("title", title);
+        Map<String, Object> node = new LinkedHashMap<>();
+        node.put("id", id);
+        node.put("type", "custom");
+        node.put("data", nodeData);
+        node.put("position", Map.of("x", 0.0, "y", 0.0));
+        node.put("width", 244);
+        node.put("height", 98);
+        return node;
+    }
+
+    private static Map<String, Object> edge(String source, String target, String sourceHandle) {
+        Map<String, Object> edge = new LinkedHashMap<>();
+        edge.put("id", source + "-" + sourceHandle + "-" + target);
+        edge.put("source", source);
+        edge.put("sourceHandle", sourceHandle);
+        edge.put("target", target);
+        edge.put("targetHandle", "target");
+        edge.put("type", "custom");
+        return edge;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.springaidifymcp.benchmark;
+
+import com.example.springaidifymcp.engine.CompiledNode;
+import com.example.springaidifymcp.engine.CompiledTemplate;
+import com.example.springaidifymcp.engine.ExecutableWorkflow;
+import com.example.springaidifymcp.engine.NodeKind;
+import com.example.springaidifymcp.engine.RunContext;
+import com.example.springaidifymcp.engine.WorkflowRun;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 提示与回答模板：编译（解析变量引用）和按槽位渲染。
+ * 上下文中预先填入各LLM节点的输出与contextSize个检索分段，模拟带知识检索的真实提示。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateRenderBenchmark {
+
+    @Param({"1", "8"})
+    public int contextSize;
+
+    private BenchmarkFixtures fixtures;
+    private CompiledTemplate[] templates;
+    private String[] sources;
+    private RunContext context;
+    private List<String> contextValue;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixtures = new BenchmarkFixtures(false, false);
+        ExecutableWorkflow workflow = fixtures.difyService().parseAndCompile(SyntheticWorkflows.yaml(100));
+        WorkflowRun run = new WorkflowRun(workflow, SyntheticWorkflows.query(0), workflow.size(),
+                TimeUnit.SECONDS.toNanos(60));
+        context = run.getContext();
+
+        List<CompiledTemplate> compiled = new ArrayList<>();
+        for (int i = 0; i < workflow.size(); i++) {
+            CompiledNode node = workflow.node(i);
+            if (node.getKind() == NodeKind.LLM) {
+                context.set(node.getOutputSlot(), BenchmarkFixtures.STUB_ANSWER);
+                compiled.addAll(List.of(node.getPromptTemplates()));
+            } else if (node.getKind() == NodeKind.ANSWER) {
+                compiled.add(node.getAnswerTemplate());
+            }
+        }
+        templates = compiled.toArray(new CompiledTemplate[0]);
+        sources = new String[]{
+                "你是一个客服助手，请根据以下资料回答问题。\n资料：{{#context#}}",
+                "问题：{{#sys.query#}}\n上一步的结论：{{#llm_0_0.text#}}\n请补充完善。",
+                "{{#llm_0_3.text#}}"
+        };
+
+        contextValue = new ArrayList<>(contextSize);
+        for (int i = 0; i < contextSize; i++) {
+            contextValue.add("检索到的分段 " + i + "：" + BenchmarkFixtures.STUB_ANSWER.repeat(8));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixtures.close();
+    }
+
+    @Benchmark
+    public void compile(Blackhole blackhole) {
+        for (String source : sources) {
+            blackhole.consume(CompiledTemplate.compile(source));
+        }
+    }
+
+    /**
+     * 渲染工作流中所有LLM节点的提示与所有回答
+     */
+    @Benchmark
+    public void renderAll(Blackhole blackhole) {
+        for (CompiledTemplate template : templates) {
+            blackhole.consume(template.render(context, contextValue));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.springaidifymcp.benchmark;
+
+import com.example.springaidifymcp.engine.ExecutableWorkflow;
+import com.example.springaidifymcp.model.DifyWorkflow;
+import org.openjdk.jmh.annotations.*;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 工作流加载：YAML解析、编译，以及命中编译缓存时的loadExecutableWorkflow（只比较文件属性）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkflowLoadBenchmark {
+
+    @Param({"10", "100", "1000", "5000"})
+    public int nodes;
+
+    private BenchmarkFixtures fixtures;
+    private byte[] content;
+    private DifyWorkflow parsed;
+    private String yamlPath;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixtures = new BenchmarkFixtures(false, false);
+        content = SyntheticWorkflows.yaml(nodes);
+        parsed = new Yaml().loadAs(new ByteArrayInputStream(content), DifyWorkflow.class);
+        Path file = fixtures.tempDir().resolve("workflow-" + nodes + ".yml");
+        Files.write(file, content);
+        yamlPath = file.toString();
+        fixtures.difyService().loadExecutableWorkflow(yamlPath);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixtures.close();
+    }
+
+    /**
+     * 只做YAML解析，与生产代码一样每个线程复用一个Yaml实例
+     */
+    @Benchmark
+    public DifyWorkflow parseYaml(YamlHolder holder) {
+        return holder.yaml.loadAs(new ByteArrayInputStream(content), DifyWorkflow.class);
+    }
+
+    @Benchmark
+    public ExecutableWorkflow compile() {
+        return fixtures.compiler().compile(parsed);
+    }
+
+    @Benchmark
+    public ExecutableWorkflow parseAndCompile() {
+        return fixtures.difyService().parseAndCompile(content);
+    }
+
+    @Benchmark
+    public ExecutableWorkflow loadCached() {
+        return fixtures.difyService().loadExecutableWorkflow(yamlPath);
+    }
+
+    @State(Scope.Thread)
+    public static class YamlHolder {
+        final Yaml yaml = new Yaml();
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.springaidifymcp.benchmark;
+
+import com.example.springaidifymcp.engine.ExecutableWorkflow;
+import com.example.springaidifymcp.engine.WorkflowRun;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端的单次运行：本地问题分类、空知识检索、多个LLM节点（StubChatClient立即返回）与回答。
+ * 用 -prof gc 查看每次运行的分配量；tracing与llmCache分别对比轨迹记录和响应缓存的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkflowRunBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int nodes;
+
+    @Param({"false", "true"})
+    public boolean tracing;
+
+    @Param({"false"})
+    public boolean llmCache;
+
+    private BenchmarkFixtures fixtures;
+    private ExecutableWorkflow workflow;
+    private int counter;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixtures = new BenchmarkFixtures(llmCache, tracing);
+        workflow = fixtures.difyService().parseAndCompile(SyntheticWorkflows.yaml(nodes));
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixtures.close();
+    }
+
+    @Benchmark
+    public WorkflowRun execute() {
+        return fixtures.processor().execute(workflow, SyntheticWorkflows.query(counter++));
+    }
+}
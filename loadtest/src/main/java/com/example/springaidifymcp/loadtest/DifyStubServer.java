@@ -0,0 +1,97 @@
+package com.example.springaidifymcp.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Dify chat-messages接口的桩服务。同时响应应用使用的 /v1/app-api/{appId}/chat-messages
+ * 和Dify官方的 /v1/chat-messages；response_mode为streaming时逐个token写出message事件，
+ * 最后写出带用量的message_end事件，否则返回阻塞式的完整回答。应用通过dify.api.base-url指向它。
+ */
+public class DifyStubServer extends StubServer {
+
+    public DifyStubServer(StubProfile profile) {
+        super("dify-stub", profile);
+    }
+
+    @Override
+    protected void register(HttpServer server) {
+        server.createContext("/v1/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.endsWith("/chat-messages")) {
+                handle(exchange, this::chatMessages);
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+    }
+
+    private void chatMessages(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        Map<String, Object> request = readJson(exchange);
+        if (injectFailure(exchange, Map.of(
+                "status", 503, "code", "provider_not_initialize", "message", "stub overloaded"))) {
+            return;
+        }
+
+        String query = request.get("query") != null ? request.get("query").toString() : "";
+        String conversationId = request.get("conversation_id") != null
+                && !request.get("conversation_id").toString().isEmpty()
+                ? request.get("conversation_id").toString() : UUID.randomUUID().toString();
+        String messageId = UUID.randomUUID().toString();
+        String taskId = UUID.randomUUID().toString();
+        int tokens = profile.getCompletionTokens();
+        Map<String, Object> usage = usage(estimateTokens(query), tokens);
+
+        if (!"streaming".equals(request.get("response_mode"))) {
+            Map<String, Object> response = event("message", taskId, messageId, conversationId);
+            response.put("mode", "chat");
+            response.put("answer", generate(tokens));
+            response.put("metadata", Map.of("usage", usage));
+            sendJson(exchange, 200, response);
+            return;
+        }
+
+        OutputStream out = startEventStream(exchange);
+        pause(profile.firstTokenNanos());
+        for (int i = 0; i < tokens; i++) {
+            if (i > 0) {
+                pause(profile.tokenIntervalNanos());
+            }
+            Map<String, Object> message = event("message", taskId, messageId, conversationId);
+            message.put("answer", token(i));
+            sendEvent(out, null, JSON.writeValueAsString(message));
+        }
+        Map<String, Object> end = event("message_end", taskId, messageId, conversationId);
+        end.put("metadata", Map.of("usage", usage));
+        sendEvent(out, null, JSON.writeValueAsString(end));
+    }
+
+    private static Map<String, Object> event(String name, String taskId, String messageId, String conversationId) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("event", name);
+        event.put("task_id", taskId);
+        event.put("message_id", messageId);
+        event.put("conversation_id", conversationId);
+        event.put("created_at", System.currentTimeMillis() / 1000);
+        return event;
+    }
+
+    private static Map<String, Object> usage(int promptTokens, int completionTokens) {
+        Map<String, Object> usage = new LinkedHashMap<>();
+        usage.put("prompt_tokens", promptTokens);
+        usage.put("completion_tokens", completionTokens);
+        usage.put("total_tokens", promptTokens + completionTokens);
+        return usage;
+    }
+}
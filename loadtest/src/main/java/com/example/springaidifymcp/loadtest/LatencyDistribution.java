@@ -0,0 +1,127 @@
+package com.example.springaidifymcp.loadtest;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 桩服务的延迟分布，由字符串描述：
+ * <ul>
+ *     <li>none：无延迟</li>
+ *     <li>fixed:200ms：固定延迟</li>
+ *     <li>uniform:100ms..400ms：均匀分布</li>
+ *     <li>exponential:200ms：给定均值的指数分布</li>
+ *     <li>lognormal:300ms,2s：给定中位数与p99的对数正态分布，接近真实模型接口的长尾</li>
+ * </ul>
+ */
+public final class LatencyDistribution {
+
+    // 标准正态分布的99分位点
+    private static final double Z_99 = 2.3263478740408408;
+
+    private enum Kind {NONE, FIXED, UNIFORM, EXPONENTIAL, LOGNORMAL}
+
+    private final String spec;
+    private final Kind kind;
+    private final long a;
+    private final long b;
+    // 对数正态分布的参数
+    private final double mu;
+    private final double sigma;
+
+    private LatencyDistribution(String spec, Kind kind, long a, long b) {
+        this.spec = spec;
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+        if (kind == Kind.LOGNORMAL) {
+            this.mu = Math.log(a);
+            this.sigma = Math.log((double) b / a) / Z_99;
+        } else {
+            this.mu = 0;
+            this.sigma = 0;
+        }
+    }
+
+    public static LatencyDistribution parse(String spec) {
+        String value = spec.trim();
+        if (value.isEmpty() || "none".equals(value) || "0".equals(value)) {
+            return new LatencyDistribution("none", Kind.NONE, 0, 0);
+        }
+        int colon = value.indexOf(':');
+        if (colon < 0) {
+            return new LatencyDistribution(value, Kind.FIXED, parseDuration(value).toNanos(), 0);
+        }
+        String name = value.substring(0, colon);
+        String args = value.substring(colon + 1);
+        switch (name) {
+            case "fixed":
+                return new LatencyDistribution(value, Kind.FIXED, parseDuration(args).toNanos(), 0);
+            case "uniform": {
+                String[] range = args.split("\\.\\.");
+                if (range.length != 2) {
+                    throw new IllegalArgumentException("均匀分布的格式为 uniform:最小值..最大值: " + spec);
+                }
+                long min = parseDuration(range[0]).toNanos();
+                long max = parseDuration(range[1]).toNanos();
+                if (max < min) {
+                    throw new IllegalArgumentException("均匀分布的最大值小于最小值: " + spec);
+                }
+                return new LatencyDistribution(value, Kind.UNIFORM, min, max);
+            }
+            case "exponential":
+                return new LatencyDistribution(value, Kind.EXPONENTIAL, parseDuration(args).toNanos(), 0);
+            case "lognormal": {
+                String[] params = args.split(",");
+                if (params.length != 2) {
+                    throw new IllegalArgumentException("对数正态分布的格式为 lognormal:中位数,p99: " + spec);
+                }
+                long median = parseDuration(params[0]).toNanos();
+                long p99 = parseDuration(params[1]).toNanos();
+                if (median <= 0 || p99 < median) {
+                    throw new IllegalArgumentException("对数正态分布要求 0 < 中位数 <= p99: " + spec);
+                }
+                return new LatencyDistribution(value, Kind.LOGNORMAL, median, p99);
+            }
+            default:
+                throw new IllegalArgumentException("未知的延迟分布: " + spec);
+        }
+    }
+
+    /**
+     * 解析带单位的时长，支持ms、s、m，不带单位时按毫秒处理
+     */
+    public static Duration parseDuration(String text) {
+        String value = text.trim();
+        if (value.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2).trim()));
+        }
+        if (value.endsWith("s")) {
+            return Duration.ofMillis(Math.round(Double.parseDouble(value.substring(0, value.length() - 1).trim()) * 1000));
+        }
+        if (value.endsWith("m")) {
+            return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1).trim()) * 60);
+        }
+        return Duration.ofMillis(Long.parseLong(value));
+    }
+
+    public long sampleNanos() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (kind) {
+            case FIXED:
+                return a;
+            case UNIFORM:
+                return a == b ? a : random.nextLong(a, b + 1);
+            case EXPONENTIAL:
+                return (long) (-a * Math.log(1.0 - random.nextDouble()));
+            case LOGNORMAL:
+                return (long) Math.exp(mu + sigma * random.nextGaussian());
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.springaidifymcp.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.PrintStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * 开放模型的负载生成器：请求按预先计算的到达时刻发送，不等待之前的请求完成，
+ * 服务变慢时请求会堆积而不是自动降低发送速率，更接近真实流量。
+ * 延迟从计划发送时刻开始计算，调度线程自身的滞后也计入延迟。
+ */
+public class LoadGenerator {
+
+    /**
+     * 到达过程：固定间隔或泊松过程（间隔服从指数分布）
+     */
+    public enum Arrival {CONSTANT, POISSON}
+
+    private final HttpClient client;
+    private final IntFunction<HttpRequest> requests;
+    private final Arrival arrival;
+    private final int maxOutstanding;
+    private final Duration drainTimeout;
+    private final PrintStream out;
+
+    /**
+     * @param requests       按序号创建第i个请求
+     * @param maxOutstanding 进行中的请求上限，超过时新请求直接计为丢弃，防止压测客户端自身耗尽内存
+     * @param drainTimeout   发送结束后等待进行中请求完成的最长时间
+     * @param out            每秒输出一行进度，为null时不输出
+     */
+    public LoadGenerator(HttpClient client, IntFunction<HttpRequest> requests, Arrival arrival, int maxOutstanding,
+                         Duration drainTimeout, PrintStream out) {
+        this.client = client;
+        this.requests = requests;
+        this.arrival = arrival;
+        this.maxOutstanding = maxOutstanding;
+        this.drainTimeout = drainTimeout;
+        this.out = out;
+    }
+
+    public LoadResult run(String label, double rate, Duration duration) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("请求速率必须大于0: " + rate);
+        }
+        AtomicInteger outstanding = new AtomicInteger();
+        LongAdder succeeded = new LongAdder();
+        LongAdder timeouts = new LongAdder();
+        LongAdder ioErrors = new LongAdder();
+        Map<Integer, LongAdder> statusErrors = new ConcurrentHashMap<>();
+        long dropped = 0;
+        long scheduled = 0;
+
+        double meanIntervalNanos = 1e9 / rate;
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        Progress progress = new Progress(label, start, succeeded, outstanding);
+        double nextArrival = start;
+
+        while ((long) nextArrival < end) {
+            long intended = (long) nextArrival;
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                progress.tick(now);
+                LockSupport.parkNanos(Math.min(intended, progress.nextReport) - now);
+            }
+            progress.tick(now);
+
+            if (outstanding.get() >= maxOutstanding) {
+                dropped++;
+            } else {
+                outstanding.incrementAndGet();
+                send(requests.apply((int) scheduled), intended, progress.recorder, outstanding, succeeded, timeouts,
+                        ioErrors, statusErrors);
+            }
+            scheduled++;
+
+            nextArrival += arrival == Arrival.POISSON
+                    ? -meanIntervalNanos * Math.log(1.0 - ThreadLocalRandom.current().nextDouble())
+                    : meanIntervalNanos;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long drainDeadline = System.nanoTime() + drainTimeout.toNanos();
+        long now;
+        while (outstanding.get() > 0 && (now = System.nanoTime()) < drainDeadline) {
+            progress.tick(now);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+
+        Map<Integer, Long> errors = statusErrors.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().sum()));
+        // 等待超时后仍未完成的请求计为超时
+        long unfinished = outstanding.get();
+        return new LoadResult(label, rate, elapsed, scheduled, succeeded.sum(), dropped,
+                timeouts.sum() + unfinished, ioErrors.sum(), errors, progress.finish());
+    }
+
+    private void send(HttpRequest request, long intended, Recorder recorder, AtomicInteger outstanding,
+                      LongAdder succeeded, LongAdder timeouts, LongAdder ioErrors,
+                      Map<Integer, LongAdder> statusErrors) {
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    long latencyMicros = (System.nanoTime() - intended) / 1000;
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        if (cause instanceof HttpTimeoutException) {
+                            timeouts.increment();
+                        } else {
+                            ioErrors.increment();
+                        }
+                    } else if (response.statusCode() / 100 == 2) {
+                        recorder.recordValue(Math.max(latencyMicros, 1));
+                        succeeded.increment();
+                    } else {
+                        statusErrors.computeIfAbsent(response.statusCode(), status -> new LongAdder()).increment();
+                    }
+                    outstanding.decrementAndGet();
+                });
+    }
+
+    /**
+     * 记录成功请求的延迟，每秒把区间直方图合并到总直方图并输出一行进度
+     */
+    private final class Progress {
+        final Recorder recorder = new Recorder(3);
+        final Histogram total = new Histogram(3);
+        final String label;
+        final long start;
+        final LongAdder succeeded;
+        final AtomicInteger outstanding;
+        Histogram interval;
+        long nextReport;
+        long lastSucceeded;
+
+        Progress(String label, long start, LongAdder succeeded, AtomicInteger outstanding) {
+            this.label = label;
+            this.start = start;
+            this.succeeded = succeeded;
+            this.outstanding = outstanding;
+            this.nextReport = start + TimeUnit.SECONDS.toNanos(1);
+        }
+
+        void tick(long now) {
+            if (now < nextReport) {
+                return;
+            }
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            long done = succeeded.sum();
+            if (out != null) {
+                out.printf("[%s] %3ds 成功 %d/s  p50 %.1fms  p99 %.1fms  进行中 %d%n", label,
+                        TimeUnit.NANOSECONDS.toSeconds(now - start), done - lastSucceeded,
+                        interval.getTotalCount() > 0 ? interval.getValueAtPercentile(50) / 1000.0 : 0,
+                        interval.getTotalCount() > 0 ? interval.getValueAtPercentile(99) / 1000.0 : 0,
+                        outstanding.get());
+            }
+            lastSucceeded = done;
+            while (nextReport <= now) {
+                nextReport += TimeUnit.SECONDS.toNanos(1);
+            }
+        }
+
+        Histogram finish() {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            return total;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.springaidifymcp.loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一轮压测的结果。延迟只统计成功的请求，单位为微秒，从计划发送时刻开始计算，
+ * 因此包含了请求因客户端或服务端排队而推迟的时间（避免协调遗漏）。
+ */
+public final class LoadResult {
+
+    private final String label;
+    private final double targetRate;
+    private final long elapsedNanos;
+    private final long scheduled;
+    private final long succeeded;
+    private final long dropped;
+    private final long timeouts;
+    private final long ioErrors;
+    private final Map<Integer, Long> statusErrors;
+    private final Histogram histogram;
+
+    LoadResult(String label, double targetRate, long elapsedNanos, long scheduled, long succeeded, long dropped,
+               long timeouts, long ioErrors, Map<Integer, Long> statusErrors, Histogram histogram) {
+        this.label = label;
+        this.targetRate = targetRate;
+        this.elapsedNanos = elapsedNanos;
+        this.scheduled = scheduled;
+        this.succeeded = succeeded;
+        this.dropped = dropped;
+        this.timeouts = timeouts;
+        this.ioErrors = ioErrors;
+        this.statusErrors = new TreeMap<>(statusErrors);
+        this.histogram = histogram;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * 每秒成功完成的请求数
+     */
+    public double getThroughput() {
+        return elapsedNanos > 0 ? succeeded * 1e9 / elapsedNanos : 0;
+    }
+
+    public long getErrors() {
+        return scheduled - succeeded;
+    }
+
+    public double getErrorRate() {
+        return scheduled > 0 ? (double) getErrors() / scheduled : 0;
+    }
+
+    /**
+     * 成功请求延迟的百分位，单位毫秒
+     */
+    public double percentileMillis(double percentile) {
+        return histogram.getTotalCount() > 0 ? histogram.getValueAtPercentile(percentile) / 1000.0 : 0;
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    public void print(PrintStream out) {
+        out.printf("== %s：目标 %.1f 请求/秒，持续 %.1f 秒%n", label, targetRate, elapsedNanos / 1e9);
+        out.printf("   计划 %d，成功 %d，吞吐 %.1f 请求/秒，错误率 %.2f%%%n",
+                scheduled, succeeded, getThroughput(), getErrorRate() * 100);
+        if (getErrors() > 0) {
+            out.printf("   错误：HTTP状态 %s，超时 %d，连接错误 %d，客户端积压丢弃 %d%n",
+                    statusErrors, timeouts, ioErrors, dropped);
+        }
+        out.printf("   延迟(ms)：p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                percentileMillis(50), percentileMillis(90), percentileMillis(99), percentileMillis(99.9),
+                histogram.getTotalCount() > 0 ? histogram.getMaxValue() / 1000.0 : 0);
+    }
+
+    /**
+     * 以HdrHistogram的百分位分布格式（.hgrm，单位毫秒）写出，可用HistogramLogAnalyzer等工具绘图
+     */
+    public void writeHistogram(Path file) throws IOException {
+        try (PrintStream out = new PrintStream(Files.newOutputStream(file), true, StandardCharsets.UTF_8)) {
+            histogram.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+}
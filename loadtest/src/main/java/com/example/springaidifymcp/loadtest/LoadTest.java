@@ -0,0 +1,310 @@
+package com.example.springaidifymcp.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * 端到端压测入口：启动本地的OpenAI与Dify桩服务，可选地以指向桩服务的配置启动应用，
+ * 然后按给定的各档速率依次施加开放模型负载，输出每档的吞吐、错误率与延迟分布，
+ * 并给出满足p99目标与错误率上限的最大速率。参数见README的"压测"一节。
+ */
+public final class LoadTest {
+
+    // 与示例工作流的问题分类一致，查询能被本地分类器按关键词直接分类
+    private static final String[] TOPICS = {"产品咨询", "售后服务"};
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = new LoadTestOptions(args);
+
+        List<OpenAiStubServer> openAis = new ArrayList<>();
+        DifyStubServer dify = null;
+        Process app = null;
+        try {
+            if (!options.getBoolean("no-stubs")) {
+                StubProfile openAiProfile = options.stubProfile("openai", "lognormal:400ms,2s", 60, 64);
+                StubProfile difyProfile = options.stubProfile("dify", "lognormal:600ms,3s", 40, 64);
+                // 多个OpenAI桩服务使用相邻端口，最后一个可以单独设置更慢的延迟，用于观察负载均衡与对冲请求
+                int endpoints = options.getInt("openai-endpoints", 1);
+                int openAiPort = options.getInt("openai-port", 18080);
+                for (int i = 0; i < endpoints; i++) {
+                    StubProfile profile = i == endpoints - 1 && options.has("openai-slow-latency")
+                            ? options.stubProfile("openai-slow", options.get("openai-latency", "lognormal:400ms,2s"),
+                            options.getDouble("openai-tokens-per-second", 60), options.getInt("openai-completion-tokens", 64))
+                            : openAiProfile;
+                    OpenAiStubServer openAi = new OpenAiStubServer(profile);
+                    openAis.add(openAi);
+                    openAi.start(openAiPort == 0 ? 0 : openAiPort + i);
+                    System.out.println("OpenAI桩服务: " + openAi.getBaseUrl() + "（" + profile + "）");
+                }
+                dify = new DifyStubServer(difyProfile);
+                dify.start(options.getInt("dify-port", openAiPort == 0 ? 0 : openAiPort + endpoints));
+                System.out.println("Dify桩服务:   " + dify.getBaseUrl() + "（" + difyProfile + "）");
+
+                if (options.getBoolean("stubs-only")) {
+                    System.out.println("只运行桩服务，按Ctrl+C结束。应用的启动方式：");
+                    System.out.println("  OPENAI_BASE_URLS=" + openAiBaseUrls(openAis) + " OPENAI_API_KEY=stub DIFY_API_URL="
+                            + dify.getBaseUrl() + " DIFY_API_KEY=stub java -jar target/spring-ai-dify-mcp-0.0.1-SNAPSHOT-exec.jar");
+                    Thread.currentThread().join();
+                    return;
+                }
+            }
+
+            String target = options.get("target", "http://localhost:8080");
+            if (options.has("app-jar")) {
+                int port = options.getInt("app-port", 8080);
+                target = "http://localhost:" + port;
+                app = startApp(options, port, openAis, dify);
+            }
+
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            awaitHealthy(client, target, app, options.getDuration("startup-timeout", "120s"));
+
+            Scenario scenario = Scenario.valueOf(options.get("scenario", "process").toUpperCase(Locale.ROOT));
+            String workflowId = scenario == Scenario.CHAT ? null : resolveWorkflow(client, target, options);
+            Duration requestTimeout = options.getDuration("request-timeout", "60s");
+            int distinctQueries = options.getInt("distinct-queries", 0);
+            String base = target;
+            IntFunction<HttpRequest> requests = i -> scenario.request(base, workflowId,
+                    query(distinctQueries > 0 ? i % distinctQueries : i), requestTimeout);
+
+            LoadGenerator generator = new LoadGenerator(client, requests,
+                    LoadGenerator.Arrival.valueOf(options.get("arrival", "poisson").toUpperCase(Locale.ROOT)),
+                    options.getInt("max-outstanding", 10000), requestTimeout,
+                    options.getBoolean("quiet") ? null : System.out);
+
+            List<Double> rates = options.getRates("rates", "10");
+            Duration warmup = options.getDuration("warmup", "10s");
+            if (!warmup.isZero()) {
+                System.out.println("预热 " + warmup.toSeconds() + " 秒...");
+                generator.run("warmup", rates.get(0), warmup);
+            }
+
+            Duration duration = options.getDuration("duration", "60s");
+            double sloMillis = options.getDuration("slo-p99", "2s").toMillis();
+            double maxErrorRate = options.getDouble("max-error-rate", 0.01);
+            String histogramDir = options.get("histogram-dir", null);
+            List<LoadResult> results = new ArrayList<>();
+            for (double rate : rates) {
+                LoadResult result = generator.run(scenario.name().toLowerCase(Locale.ROOT) + "@" + rate, rate, duration);
+                result.print(System.out);
+                if (histogramDir != null) {
+                    Path dir = Paths.get(histogramDir);
+                    Files.createDirectories(dir);
+                    result.writeHistogram(dir.resolve(scenario.name().toLowerCase(Locale.ROOT) + "-" + rate + ".hgrm"));
+                }
+                results.add(result);
+            }
+
+            summarize(results, sloMillis, maxErrorRate);
+            for (OpenAiStubServer openAi : openAis) {
+                System.out.println(openAi.stats());
+            }
+            if (dify != null) {
+                System.out.println(dify.stats());
+            }
+        } finally {
+            if (app != null) {
+                app.destroy();
+                if (!app.waitFor(30, TimeUnit.SECONDS)) {
+                    app.destroyForcibly();
+                }
+            }
+            for (OpenAiStubServer openAi : openAis) {
+                openAi.close();
+            }
+            if (dify != null) {
+                dify.close();
+            }
+        }
+    }
+
+    /**
+     * 被压测的接口
+     */
+    enum Scenario {
+        PROCESS, STREAM, CHAT;
+
+        HttpRequest request(String target, String workflowId, String query, Duration timeout) {
+            HttpRequest.Builder builder = HttpRequest.newBuilder().timeout(timeout)
+                    .header("Content-Type", "application/json");
+            try {
+                switch (this) {
+                    case CHAT:
+                        return builder.uri(URI.create(target + "/api/v1/chat"))
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(
+                                        StubServer.JSON.writeValueAsBytes(Map.of("message", query))))
+                                .build();
+                    case STREAM:
+                        builder.header("Accept", "text/event-stream");
+                        // fall through
+                    default:
+                        return builder.uri(URI.create(target + "/api/v1/workflow/" + workflowId + "/process"))
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(
+                                        StubServer.JSON.writeValueAsBytes(Map.of("query", query))))
+                                .build();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * 第i个查询。默认每个查询都不同，不命中响应缓存也不会被合并；
+     * 指定distinct-queries时查询循环重复，用于测量缓存与合并生效时的表现
+     */
+    static String query(int i) {
+        return "我想了解一下" + TOPICS[i % TOPICS.length] + "的相关情况，编号 " + i;
+    }
+
+    private static Process startApp(LoadTestOptions options, int port, List<OpenAiStubServer> openAis,
+                                    DifyStubServer dify)
+            throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.addAll(options.getWords("app-jvm-args"));
+        command.add("-jar");
+        command.add(options.get("app-jar", null));
+        command.add("--server.port=" + port);
+        command.addAll(options.getWords("app-args"));
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.environment().putIfAbsent("OPENAI_API_KEY", "stub");
+        builder.environment().putIfAbsent("DIFY_API_KEY", "stub");
+        if (!openAis.isEmpty()) {
+            builder.environment().put("OPENAI_BASE_URL", openAis.get(0).getBaseUrl());
+            builder.environment().put("OPENAI_BASE_URLS", openAiBaseUrls(openAis));
+            builder.environment().put("DIFY_API_URL", dify.getBaseUrl());
+        }
+        File log = new File(options.get("app-log", "loadtest-app.log"));
+        builder.redirectErrorStream(true).redirectOutput(log);
+        System.out.println("启动应用: " + String.join(" ", command) + "，日志写入 " + log);
+        return builder.start();
+    }
+
+    private static String openAiBaseUrls(List<OpenAiStubServer> openAis) {
+        List<String> urls = new ArrayList<>();
+        for (OpenAiStubServer openAi : openAis) {
+            urls.add(openAi.getBaseUrl());
+        }
+        return String.join(",", urls);
+    }
+
+    private static void awaitHealthy(HttpClient client, String target, Process app, Duration timeout)
+            throws InterruptedException {
+        HttpRequest health = HttpRequest.newBuilder(URI.create(target + "/api/v1/health"))
+                .timeout(Duration.ofSeconds(2)).GET().build();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (app != null && !app.isAlive()) {
+                throw new IllegalStateException("应用启动失败，退出码 " + app.exitValue());
+            }
+            try {
+                if (client.send(health, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // 应用尚未开始监听
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException("等待应用就绪超时: " + target);
+    }
+
+    /**
+     * 使用--workflow-id指定的已上传工作流，否则上传--workflow-file或内置的示例工作流
+     */
+    private static String resolveWorkflow(HttpClient client, String target, LoadTestOptions options)
+            throws IOException, InterruptedException {
+        if (options.has("workflow-id")) {
+            return options.get("workflow-id", null);
+        }
+        String fileName;
+        byte[] content;
+        if (options.has("workflow-file")) {
+            Path file = Paths.get(options.get("workflow-file", null));
+            fileName = file.getFileName().toString();
+            content = Files.readAllBytes(file);
+        } else {
+            fileName = "loadtest-workflow.yml";
+            try (InputStream in = LoadTest.class.getResourceAsStream("/" + fileName)) {
+                content = in.readAllBytes();
+            }
+        }
+
+        String boundary = "----loadtest" + UUID.randomUUID().toString().replace("-", "");
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: application/x-yaml\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(content);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        HttpRequest upload = HttpRequest.newBuilder(URI.create(target + "/api/v1/workflow/upload"))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+        HttpResponse<String> response = client.send(upload, HttpResponse.BodyHandlers.ofString());
+        JsonNode json = StubServer.JSON.readTree(response.body());
+        if (response.statusCode() != 200 || !json.hasNonNull("workflowId")) {
+            throw new IllegalStateException("上传工作流失败: " + response.body());
+        }
+        System.out.println("已上传工作流 " + fileName + ": " + json.get("workflowId").asText());
+        return json.get("workflowId").asText();
+    }
+
+    /**
+     * 最大可持续速率：吞吐达到目标速率的95%，且错误率与p99都在限制之内的最高一档
+     */
+    private static void summarize(List<LoadResult> results, double sloMillis, double maxErrorRate) {
+        LoadResult best = null;
+        System.out.println();
+        System.out.printf("%-16s %10s %10s %10s %10s %10s%n", "档位", "吞吐/s", "错误率", "p50(ms)", "p99(ms)", "达标");
+        for (LoadResult result : results) {
+            boolean sustainable = result.getThroughput() >= result.getTargetRate() * 0.95
+                    && result.getErrorRate() <= maxErrorRate
+                    && result.percentileMillis(99) <= sloMillis;
+            System.out.printf("%-16s %10.1f %9.2f%% %10.1f %10.1f %10s%n", result.getLabel(), result.getThroughput(),
+                    result.getErrorRate() * 100, result.percentileMillis(50), result.percentileMillis(99),
+                    sustainable ? "是" : "否");
+            if (sustainable && (best == null || result.getTargetRate() > best.getTargetRate())) {
+                best = result;
+            }
+        }
+        if (best != null) {
+            System.out.printf("最大可持续速率: %.1f 请求/秒（p99 %.1fms <= %.0fms，错误率 %.2f%% <= %.2f%%）%n",
+                    best.getTargetRate(), best.percentileMillis(99), sloMillis, best.getErrorRate() * 100,
+                    maxErrorRate * 100);
+        } else {
+            System.out.printf("没有一档满足 p99 <= %.0fms 且错误率 <= %.2f%%%n", sloMillis, maxErrorRate * 100);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.springaidifymcp.loadtest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 命令行参数，格式为 --name=value 或 --name value，不带值的参数视为true
+ */
+final class LoadTestOptions {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    LoadTestOptions(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("无法识别的参数: " + arg);
+            }
+            String name = arg.substring(2);
+            int equals = name.indexOf('=');
+            if (equals >= 0) {
+                values.put(name.substring(0, equals), name.substring(equals + 1));
+            } else if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                values.put(name, args[++i]);
+            } else {
+                values.put(name, "true");
+            }
+        }
+    }
+
+    boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    String get(String name, String defaultValue) {
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    int getInt(String name, int defaultValue) {
+        return values.containsKey(name) ? Integer.parseInt(values.get(name)) : defaultValue;
+    }
+
+    double getDouble(String name, double defaultValue) {
+        return values.containsKey(name) ? Double.parseDouble(values.get(name)) : defaultValue;
+    }
+
+    boolean getBoolean(String name) {
+        return Boolean.parseBoolean(values.getOrDefault(name, "false"));
+    }
+
+    Duration getDuration(String name, String defaultValue) {
+        return LatencyDistribution.parseDuration(get(name, defaultValue));
+    }
+
+    List<Double> getRates(String name, String defaultValue) {
+        List<Double> rates = new ArrayList<>();
+        for (String rate : get(name, defaultValue).split(",")) {
+            if (!rate.isBlank()) {
+                rates.add(Double.parseDouble(rate.trim()));
+            }
+        }
+        return rates;
+    }
+
+    List<String> getWords(String name) {
+        String value = values.get(name);
+        return value == null || value.isBlank() ? List.of() : Arrays.asList(value.trim().split("\\s+"));
+    }
+
+    /**
+     * 以prefix开头的一组桩服务参数：latency、tokens-per-second、completion-tokens、error-rate
+     */
+    StubProfile stubProfile(String prefix, String defaultLatency, double defaultTokensPerSecond,
+                            int defaultCompletionTokens) {
+        return new StubProfile(
+                LatencyDistribution.parse(get(prefix + "-latency", defaultLatency)),
+                getDouble(prefix + "-tokens-per-second", defaultTokensPerSecond),
+                getInt(prefix + "-completion-tokens", defaultCompletionTokens),
+                getDouble(prefix + "-error-rate", 0));
+    }
+}
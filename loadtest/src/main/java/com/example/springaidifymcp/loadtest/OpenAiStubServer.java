@@ -0,0 +1,134 @@
+package com.example.springaidifymcp.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OpenAI chat-completions接口的桩服务（POST /v1/chat/completions），支持阻塞式与stream=true的SSE响应。
+ * 应用通过spring.ai.openai.base-url指向它。问题分类提示中列出了"- ID: 类别ID"，
+ * 桩服务直接回答第一个类别的ID，使分类节点走正常的分支而不是相似度兜底。
+ */
+public class OpenAiStubServer extends StubServer {
+
+    private static final Pattern CLASS_ID = Pattern.compile("- ID: (\\S+)");
+
+    public OpenAiStubServer(StubProfile profile) {
+        super("openai-stub", profile);
+    }
+
+    @Override
+    protected void register(HttpServer server) {
+        server.createContext("/v1/chat/completions", exchange -> handle(exchange, this::chatCompletions));
+    }
+
+    private void chatCompletions(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        Map<String, Object> request = readJson(exchange);
+        if (injectFailure(exchange, Map.of("error", Map.of(
+                "message", "stub overloaded", "type", "server_error", "code", "overloaded")))) {
+            return;
+        }
+
+        String model = request.get("model") != null ? request.get("model").toString() : "gpt-3.5-turbo";
+        String prompt = promptText(request.get("messages"));
+        int promptTokens = estimateTokens(prompt);
+        String id = "chatcmpl-" + UUID.randomUUID();
+        long created = System.currentTimeMillis() / 1000;
+
+        Matcher classId = CLASS_ID.matcher(prompt);
+        String fixedAnswer = classId.find() ? classId.group(1) : null;
+        if (Boolean.TRUE.equals(request.get("stream"))) {
+            stream(exchange, id, created, model, fixedAnswer);
+            return;
+        }
+
+        int completionTokens = fixedAnswer != null ? 1 : profile.getCompletionTokens();
+        // 分类回答同样要等待生成延迟
+        String generated = generate(completionTokens);
+        String content = fixedAnswer != null ? fixedAnswer : generated;
+
+        Map<String, Object> message = new LinkedHashMap<>();
+        message.put("role", "assistant");
+        message.put("content", content);
+        Map<String, Object> choice = new LinkedHashMap<>();
+        choice.put("index", 0);
+        choice.put("message", message);
+        choice.put("finish_reason", "stop");
+
+        Map<String, Object> response = completion(id, "chat.completion", created, model, choice);
+        response.put("usage", Map.of(
+                "prompt_tokens", promptTokens,
+                "completion_tokens", completionTokens,
+                "total_tokens", promptTokens + completionTokens));
+        sendJson(exchange, 200, response);
+    }
+
+    /**
+     * 逐个token写出chat.completion.chunk，最后一个分片带finish_reason，以[DONE]结束
+     */
+    private void stream(HttpExchange exchange, String id, long created, String model, String fixedAnswer)
+            throws IOException {
+        int tokens = fixedAnswer != null ? 1 : profile.getCompletionTokens();
+        OutputStream out = startEventStream(exchange);
+        pause(profile.firstTokenNanos());
+        for (int i = 0; i < tokens; i++) {
+            if (i > 0) {
+                pause(profile.tokenIntervalNanos());
+            }
+            Map<String, Object> delta = new LinkedHashMap<>();
+            if (i == 0) {
+                delta.put("role", "assistant");
+            }
+            delta.put("content", fixedAnswer != null ? fixedAnswer : token(i));
+            sendEvent(out, null, JSON.writeValueAsString(chunk(id, created, model, delta, null)));
+        }
+        sendEvent(out, null, JSON.writeValueAsString(chunk(id, created, model, Map.of(), "stop")));
+        sendEvent(out, null, "[DONE]");
+    }
+
+    private static Map<String, Object> chunk(String id, long created, String model, Map<String, Object> delta,
+                                             String finishReason) {
+        Map<String, Object> choice = new LinkedHashMap<>();
+        choice.put("index", 0);
+        choice.put("delta", delta);
+        choice.put("finish_reason", finishReason);
+        return completion(id, "chat.completion.chunk", created, model, choice);
+    }
+
+    private static Map<String, Object> completion(String id, String object, long created, String model,
+                                                  Map<String, Object> choice) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("id", id);
+        response.put("object", object);
+        response.put("created", created);
+        response.put("model", model);
+        response.put("choices", List.of(choice));
+        return response;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String promptText(Object messages) {
+        if (!(messages instanceof List)) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Object message : (List<Object>) messages) {
+            if (message instanceof Map && ((Map<String, Object>) message).get("content") != null) {
+                text.append(((Map<String, Object>) message).get("content")).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
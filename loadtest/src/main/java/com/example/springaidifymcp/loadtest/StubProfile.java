@@ -0,0 +1,54 @@
+package com.example.springaidifymcp.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 桩服务模拟的模型行为：首个token之前的延迟、之后每秒生成的token数、每次回答的token数，以及返回错误的比例。
+ * 阻塞式请求在整个回答"生成完"后才返回，耗时为首token延迟加上全部token的生成时间。
+ */
+public final class StubProfile {
+
+    private final LatencyDistribution firstTokenLatency;
+    private final double tokensPerSecond;
+    private final int completionTokens;
+    private final double errorRate;
+
+    public StubProfile(LatencyDistribution firstTokenLatency, double tokensPerSecond, int completionTokens,
+                       double errorRate) {
+        if (completionTokens < 1) {
+            throw new IllegalArgumentException("回答的token数至少为1");
+        }
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("错误比例应在0到1之间: " + errorRate);
+        }
+        this.firstTokenLatency = firstTokenLatency;
+        this.tokensPerSecond = tokensPerSecond;
+        this.completionTokens = completionTokens;
+        this.errorRate = errorRate;
+    }
+
+    public long firstTokenNanos() {
+        return firstTokenLatency.sampleNanos();
+    }
+
+    /**
+     * 相邻两个token之间的间隔，tokensPerSecond不大于0时不限速
+     */
+    public long tokenIntervalNanos() {
+        return tokensPerSecond > 0 ? (long) (1_000_000_000L / tokensPerSecond) : 0;
+    }
+
+    public int getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public boolean shouldFail() {
+        return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    @Override
+    public String toString() {
+        return "首token延迟=" + firstTokenLatency + ", token/s=" + (tokensPerSecond > 0 ? tokensPerSecond : "不限")
+                + ", 回答token数=" + completionTokens + ", 错误比例=" + errorRate;
+    }
+}
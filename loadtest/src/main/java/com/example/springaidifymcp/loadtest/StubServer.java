@@ -0,0 +1,215 @@
+package com.example.springaidifymcp.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 基于JDK HttpServer的桩服务。每个请求占用一个线程睡眠模拟生成耗时，
+ * Java 21及以上使用虚拟线程，否则使用不限大小的线程池，桩服务本身不应成为瓶颈。
+ */
+abstract class StubServer implements AutoCloseable {
+
+    static final ObjectMapper JSON = new ObjectMapper();
+
+    // 模拟回答时循环使用的token
+    private static final String[] WORDS = {"这是", "桩服务", "生成的", "回答", "，", "用于", "压测", "。"};
+
+    protected final StubProfile profile;
+    private final String name;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong streamed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong active = new AtomicLong();
+
+    StubServer(String name, StubProfile profile) {
+        this.name = name;
+        this.profile = profile;
+    }
+
+    /**
+     * 注册请求处理器
+     */
+    protected abstract void register(HttpServer server);
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        executor = newExecutor(name);
+        server.setExecutor(executor);
+        register(server);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    public String stats() {
+        return name + "(" + getPort() + "): 请求=" + requests.get() + ", 流式=" + streamed.get() + ", 注入错误=" + failed.get()
+                + ", 进行中=" + active.get();
+    }
+
+    /**
+     * 统计请求，处理结束或抛出异常后关闭连接
+     */
+    protected void handle(HttpExchange exchange, ExchangeHandler handler) {
+        requests.incrementAndGet();
+        active.incrementAndGet();
+        try {
+            handler.handle(exchange);
+        } catch (IOException e) {
+            // 客户端提前断开，例如流式请求被取消
+        } catch (RuntimeException e) {
+            System.err.println(name + " 处理请求失败: " + e);
+        } finally {
+            exchange.close();
+            active.decrementAndGet();
+        }
+    }
+
+    @FunctionalInterface
+    protected interface ExchangeHandler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static Map<String, Object> readJson(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            byte[] bytes = body.readAllBytes();
+            return bytes.length == 0 ? Map.of() : JSON.readValue(bytes, Map.class);
+        }
+    }
+
+    protected static void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = JSON.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * 按比例注入错误，返回true时已写出错误响应
+     */
+    protected boolean injectFailure(HttpExchange exchange, Object errorBody) throws IOException {
+        if (!profile.shouldFail()) {
+            return false;
+        }
+        failed.incrementAndGet();
+        sendJson(exchange, 503, errorBody);
+        return true;
+    }
+
+    /**
+     * 开始SSE响应，之后用sendEvent逐个写出事件
+     */
+    protected OutputStream startEventStream(HttpExchange exchange) throws IOException {
+        streamed.incrementAndGet();
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        return exchange.getResponseBody();
+    }
+
+    protected static void sendEvent(OutputStream out, String event, String data) throws IOException {
+        StringBuilder builder = new StringBuilder(data.length() + 32);
+        if (event != null) {
+            builder.append("event: ").append(event).append('\n');
+        }
+        builder.append("data: ").append(data).append("\n\n");
+        out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * 生成回答的第i个token
+     */
+    protected static String token(int i) {
+        return WORDS[i % WORDS.length];
+    }
+
+    /**
+     * 阻塞式请求的回答：等待首token延迟与全部token的生成时间
+     */
+    protected String generate(int tokens) {
+        pause(profile.firstTokenNanos() + profile.tokenIntervalNanos() * (tokens - 1));
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < tokens; i++) {
+            text.append(token(i));
+        }
+        return text.toString();
+    }
+
+    /**
+     * 按提示长度粗略估算的token数
+     */
+    protected static int estimateTokens(String text) {
+        return Math.max(1, text.length() / 2);
+    }
+
+    protected static void pause(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Java 21及以上通过反射创建虚拟线程执行器，与应用的虚拟线程模式相同，否则使用缓存线程池
+     */
+    private static ExecutorService newExecutor(String name) {
+        if (Runtime.version().feature() >= 21) {
+            try {
+                Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+                ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("创建虚拟线程执行器失败，使用平台线程: " + e.getMessage());
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
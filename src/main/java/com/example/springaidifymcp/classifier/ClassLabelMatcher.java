@@ -0,0 +1,98 @@
+package com.example.springaidifymcp.classifier;
+
+import java.util.Locale;
+
+/**
+ * 将模型返回的分类文本对应到节点的类别。
+ * 依次尝试：与ID或名称完全一致、包含某个ID、包含某个名称；都不满足时返回-1，由调用方按相似度选择。
+ */
+final class ClassLabelMatcher {
+
+    // 短ID（例如"1"）只按完整单词匹配，避免匹配到其他数字中
+    private static final int MIN_SUBSTRING_ID_LENGTH = 4;
+
+    private ClassLabelMatcher() {
+    }
+
+    static int match(String output, String[] classIds, String[] classNames) {
+        if (output == null) {
+            return -1;
+        }
+        String normalizedOutput = TextFeatures.normalize(output);
+        if (normalizedOutput.isEmpty()) {
+            return -1;
+        }
+
+        for (int i = 0; i < classIds.length; i++) {
+            if (normalizedOutput.equals(TextFeatures.normalize(classIds[i]))) {
+                return i;
+            }
+        }
+        for (int i = 0; i < classNames.length; i++) {
+            if (normalizedOutput.equals(TextFeatures.normalize(classNames[i]))) {
+                return i;
+            }
+        }
+
+        // 模型附带了说明文字时，取最早出现的ID或名称
+        int match = earliestIdOccurrence(output, classIds);
+        if (match >= 0) {
+            return match;
+        }
+        return earliestOccurrence(normalizedOutput, classNames);
+    }
+
+    private static int earliestIdOccurrence(String output, String[] classIds) {
+        String lowerOutput = output.toLowerCase(Locale.ROOT);
+        int match = -1;
+        int matchPosition = Integer.MAX_VALUE;
+        for (int i = 0; i < classIds.length; i++) {
+            String id = classIds[i].toLowerCase(Locale.ROOT);
+            if (id.isEmpty()) {
+                continue;
+            }
+            int position = id.length() >= MIN_SUBSTRING_ID_LENGTH
+                    ? lowerOutput.indexOf(id)
+                    : indexOfWord(lowerOutput, id);
+            if (position >= 0 && position < matchPosition) {
+                match = i;
+                matchPosition = position;
+            }
+        }
+        return match;
+    }
+
+    private static int earliestOccurrence(String normalizedOutput, String[] classNames) {
+        int match = -1;
+        int matchPosition = Integer.MAX_VALUE;
+        for (int i = 0; i < classNames.length; i++) {
+            String name = TextFeatures.normalize(classNames[i]);
+            if (name.length() < 2) {
+                continue;
+            }
+            int position = normalizedOutput.indexOf(name);
+            if (position >= 0 && position < matchPosition) {
+                match = i;
+                matchPosition = position;
+            }
+        }
+        return match;
+    }
+
+    private static int indexOfWord(String text, String word) {
+        int from = 0;
+        while (true) {
+            int position = text.indexOf(word, from);
+            if (position < 0) {
+                return -1;
+            }
+            int end = position + word.length();
+            boolean startsWord = position == 0 || !Character.isLetterOrDigit(text.charAt(position - 1));
+            boolean endsWord = end == text.length() || !Character.isLetterOrDigit(text.charAt(end));
+            if (startsWord && endsWord) {
+                return position;
+            }
+            from = position + 1;
+        }
+    }
+}
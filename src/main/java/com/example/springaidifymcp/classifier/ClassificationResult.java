@@ -0,0 +1,30 @@
+package com.example.springaidifymcp.classifier;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 一次问题分类的结果
+ */
+@Getter
+@AllArgsConstructor
+public class ClassificationResult {
+
+    public enum Source {
+        // 查询中出现了类别名称
+        KEYWORD,
+        // 本地TF-IDF模型
+        LOCAL,
+        // 模型输出与类别精确或包含匹配
+        LLM,
+        // 模型输出无法直接对应类别，按相似度选择
+        LLM_FUZZY
+    }
+
+    // 类别在节点类别数组中的下标
+    private final int classIndex;
+    private final double confidence;
+    // 最高分与次高分之差
+    private final double margin;
+    private final Source source;
+}
@@ -0,0 +1,243 @@
+package com.example.springaidifymcp.classifier;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个问题分类节点的本地分类模型。
+ * 每个类别以类别名称和已记录的分类结果作为样本，使用TF-IDF向量的余弦相似度打分；
+ * 查询中只出现一个类别名称时直接判定为该类别。
+ * 分类读取不可变的模型快照，学习新样本时在锁内重建快照。
+ */
+class LocalClassifier {
+
+    private final String[] classIds;
+    private final String[] normalizedNames;
+    private final int maxExamplesPerClass;
+
+    // 类别名称的特征始终保留，学习到的样本每个类别只保留最近的若干条
+    private final List<Map<String, Integer>> nameFeatures;
+    private final List<Deque<Map<String, Integer>>> examples;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile Model model;
+
+    LocalClassifier(String[] classIds, String[] classNames, int maxExamplesPerClass) {
+        this.classIds = classIds;
+        this.normalizedNames = new String[classNames.length];
+        this.maxExamplesPerClass = maxExamplesPerClass;
+        this.nameFeatures = new ArrayList<>(classIds.length);
+        this.examples = new ArrayList<>(classIds.length);
+        for (int i = 0; i < classIds.length; i++) {
+            normalizedNames[i] = TextFeatures.normalize(classNames[i]);
+            nameFeatures.add(TextFeatures.termCounts(classNames[i]));
+            examples.add(new ArrayDeque<>());
+        }
+        this.model = buildModel();
+    }
+
+    /**
+     * 对查询分类，返回得分最高的类别及其置信度；没有任何特征匹配时返回null
+     */
+    ClassificationResult classify(String query) {
+        int keywordMatch = matchSingleName(TextFeatures.normalize(query));
+        if (keywordMatch >= 0) {
+            return new ClassificationResult(keywordMatch, 1.0, 1.0, ClassificationResult.Source.KEYWORD);
+        }
+
+        Model current = model;
+        Map<String, Double> vector = current.vectorize(TextFeatures.termCounts(query));
+        if (vector.isEmpty()) {
+            return null;
+        }
+        int best = -1;
+        double bestScore = 0;
+        double secondScore = 0;
+        for (int i = 0; i < current.centroids.size(); i++) {
+            double score = cosine(vector, current.centroids.get(i));
+            if (score > bestScore) {
+                secondScore = bestScore;
+                bestScore = score;
+                best = i;
+            } else if (score > secondScore) {
+                secondScore = score;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        return new ClassificationResult(best, bestScore, bestScore - secondScore, ClassificationResult.Source.LOCAL);
+    }
+
+    /**
+     * 记录一条已确定类别的查询作为样本，每个类别只保留最近的样本
+     */
+    void learn(String query, int classIndex) {
+        learnAll(List.of(new Example(query, classIndex)));
+    }
+
+    /**
+     * 批量记录样本，只重建一次模型
+     */
+    void learnAll(Collection<Example> newExamples) {
+        lock.lock();
+        try {
+            for (Example example : newExamples) {
+                if (example.classIndex < 0 || example.classIndex >= classIds.length) {
+                    continue;
+                }
+                Map<String, Integer> features = TextFeatures.termCounts(example.query);
+                if (features.isEmpty()) {
+                    continue;
+                }
+                Deque<Map<String, Integer>> classExamples = examples.get(example.classIndex);
+                classExamples.addLast(features);
+                while (classExamples.size() > maxExamplesPerClass) {
+                    classExamples.removeFirst();
+                }
+            }
+            model = buildModel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int classCount() {
+        return classIds.length;
+    }
+
+    int indexOf(String classId) {
+        for (int i = 0; i < classIds.length; i++) {
+            if (classIds[i].equals(classId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 查询中恰好包含一个类别名称时返回该类别，名称过短时不参与匹配
+     */
+    private int matchSingleName(String normalizedQuery) {
+        int match = -1;
+        for (int i = 0; i < normalizedNames.length; i++) {
+            String name = normalizedNames[i];
+            if (name.length() >= 2 && normalizedQuery.contains(name)) {
+                if (match >= 0) {
+                    return -1;
+                }
+                match = i;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * 以每个类别的全部样本作为一篇文档计算IDF，类别中心为各样本TF-IDF向量之和的归一化结果
+     */
+    private Model buildModel() {
+        int classCount = classIds.length;
+        Map<String, Integer> documentFrequency = new HashMap<>();
+        List<Map<String, Double>> termFrequencies = new ArrayList<>(classCount);
+        for (int i = 0; i < classCount; i++) {
+            Map<String, Double> tf = new HashMap<>();
+            addCounts(tf, nameFeatures.get(i));
+            for (Map<String, Integer> example : examples.get(i)) {
+                addCounts(tf, example);
+            }
+            for (String term : tf.keySet()) {
+                documentFrequency.merge(term, 1, Integer::sum);
+            }
+            termFrequencies.add(tf);
+        }
+
+        Map<String, Double> idf = new HashMap<>(documentFrequency.size() * 2);
+        documentFrequency.forEach((term, df) -> idf.put(term, Math.log((classCount + 1.0) / (df + 1.0)) + 1.0));
+
+        List<Map<String, Double>> centroids = new ArrayList<>(classCount);
+        for (Map<String, Double> tf : termFrequencies) {
+            Map<String, Double> centroid = new HashMap<>(tf.size() * 2);
+            tf.forEach((term, count) -> centroid.put(term, (1.0 + Math.log(count)) * idf.get(term)));
+            normalizeInPlace(centroid);
+            centroids.add(centroid);
+        }
+        return new Model(idf, Math.log(classCount + 1.0) + 1.0, centroids);
+    }
+
+    private static void addCounts(Map<String, Double> target, Map<String, Integer> counts) {
+        counts.forEach((term, count) -> target.merge(term, count.doubleValue(), Double::sum));
+    }
+
+    private static void normalizeInPlace(Map<String, Double> vector) {
+        double norm = 0;
+        for (double value : vector.values()) {
+            norm += value * value;
+        }
+        if (norm == 0) {
+            return;
+        }
+        double scale = 1.0 / Math.sqrt(norm);
+        vector.replaceAll((term, value) -> value * scale);
+    }
+
+    private static double cosine(Map<String, Double> query, Map<String, Double> centroid) {
+        double dot = 0;
+        for (Map.Entry<String, Double> entry : query.entrySet()) {
+            Double weight = centroid.get(entry.getKey());
+            if (weight != null) {
+                dot += entry.getValue() * weight;
+            }
+        }
+        return dot;
+    }
+
+    /**
+     * 不可变的模型快照
+     */
+    private static final class Model {
+        private final Map<String, Double> idf;
+        // 未出现在任何样本中的特征的IDF，这些特征不参与打分但计入查询向量的长度
+        private final double unseenIdf;
+        private final List<Map<String, Double>> centroids;
+
+        Model(Map<String, Double> idf, double unseenIdf, List<Map<String, Double>> centroids) {
+            this.idf = idf;
+            this.unseenIdf = unseenIdf;
+            this.centroids = centroids;
+        }
+
+        /**
+         * 查询中没有任何已知特征时返回空向量
+         */
+        Map<String, Double> vectorize(Map<String, Integer> counts) {
+            Map<String, Double> vector = new HashMap<>(counts.size() * 2);
+            boolean known = false;
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                Double weight = idf.get(entry.getKey());
+                known |= weight != null;
+                vector.put(entry.getKey(), (1.0 + Math.log(entry.getValue())) * (weight != null ? weight : unseenIdf));
+            }
+            if (!known) {
+                return Map.of();
+            }
+            normalizeInPlace(vector);
+            return vector;
+        }
+    }
+
+    static final class Example {
+        final String query;
+        final int classIndex;
+
+        Example(String query, int classIndex) {
+            this.query = query;
+            this.classIndex = classIndex;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.example.springaidifymcp.classifier;
+
+import com.example.springaidifymcp.engine.CompiledNode;
+import com.example.springaidifymcp.engine.WorkflowRun;
+import com.example.springaidifymcp.llm.LlmCallResult;
+import com.example.springaidifymcp.llm.LlmGateway;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 问题分类节点的分类服务。
+ * 先使用本地分类模型，置信度足够时直接返回；否则调用模型，并把模型输出约束到节点定义的类别上。
+ * 模型给出的明确分类结果会作为样本记录下来，用于改进本地模型。
+ * 分类记录由一个后台线程写入，请求线程只把记录放入有界队列，队列已满时丢弃；
+ * 分类记录只需要覆盖本地模型保留的样本（每个类别最近的maxExamplesPerClass条），
+ * 加载时或追加的行数超过保留窗口的两倍时重写为保留的部分。
+ */
+@Service
+@Slf4j
+public class QuestionClassifier {
+
+    private static final int MAX_OPEN_WRITERS = 64;
+    private static final int MAX_BATCH = 1024;
+
+    private final LlmGateway llmGateway;
+    private final boolean localEnabled;
+    private final double minConfidence;
+    private final double minMargin;
+    private final boolean learningEnabled;
+    private final int maxExamplesPerClass;
+    // 为空时不保存分类记录
+    private final Path decisionLogDir;
+    // 串行化分类记录的追加与重写；classifierKey -> 记录文件当前的行数
+    private final ReentrantLock decisionLogLock = new ReentrantLock();
+    private final Map<String, Integer> decisionLogLines = new HashMap<>();
+    // 等待写入的分类记录，以及写入线程为每个记录文件保持打开的writer（最近使用的MAX_OPEN_WRITERS个）
+    private final BlockingQueue<Decision> pendingDecisions;
+    private final Map<String, BufferedWriter> decisionWriters = new LinkedHashMap<>(16, 0.75f, true);
+    private final Thread decisionWriter;
+    private volatile boolean closed;
+
+    // classifierKey -> 本地分类模型
+    private final Cache<String, LocalClassifier> classifiers;
+
+    private final AtomicLong keywordHits = new AtomicLong();
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong llmClassifications = new AtomicLong();
+    private final AtomicLong fuzzyMatches = new AtomicLong();
+    private final AtomicLong learnedExamples = new AtomicLong();
+    private final AtomicLong droppedDecisions = new AtomicLong();
+
+    /**
+     * 等待写入的分类记录，line为null时表示压缩该记录文件
+     */
+    private static final class Decision {
+        final String classifierKey;
+        final LocalClassifier classifier;
+        final String line;
+
+        Decision(String classifierKey, LocalClassifier classifier, String line) {
+            this.classifierKey = classifierKey;
+            this.classifier = classifier;
+            this.line = line;
+        }
+    }
+
+    public QuestionClassifier(LlmGateway llmGateway,
+                              @Value("${workflow.classifier.local-enabled:true}") boolean localEnabled,
+                              @Value("${workflow.classifier.min-confidence:0.6}") double minConfidence,
+                              @Value("${workflow.classifier.min-margin:0.2}") double minMargin,
+                              @Value("${workflow.classifier.learning-enabled:true}") boolean learningEnabled,
+                              @Value("${workflow.classifier.max-examples-per-class:200}") int maxExamplesPerClass,
+                              @Value("${workflow.classifier.max-nodes:1000}") long maxNodes,
+                              @Value("${workflow.classifier.decision-log.enabled:true}") boolean decisionLogEnabled,
+                              @Value("${workflow.classifier.decision-log.dir:./data/classifier}") String decisionLogDir,
+                              @Value("${workflow.classifier.decision-log.queue-capacity:10000}") int decisionQueueCapacity)
+            throws IOException {
+        this.llmGateway = llmGateway;
+        this.localEnabled = localEnabled;
+        this.minConfidence = minConfidence;
+        this.minMargin = minMargin;
+        this.learningEnabled = learningEnabled;
+        this.maxExamplesPerClass = maxExamplesPerClass;
+        this.decisionLogDir = decisionLogEnabled ? Path.of(decisionLogDir) : null;
+        if (this.decisionLogDir != null) {
+            Files.createDirectories(this.decisionLogDir);
+        }
+        this.classifiers = Caffeine.newBuilder()
+                .maximumSize(maxNodes)
+                .build();
+        this.pendingDecisions = new ArrayBlockingQueue<>(Math.max(decisionQueueCapacity, 1));
+        if (this.decisionLogDir == null || !learningEnabled) {
+            this.decisionWriter = null;
+            return;
+        }
+        this.decisionWriter = new Thread(this::writeDecisions, "classifier-decision-writer");
+        decisionWriter.setDaemon(true);
+        decisionWriter.start();
+    }
+
+    /**
+     * 写完队列中剩余的分类记录并关闭文件，由Spring在关闭时调用
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        closed = true;
+        if (decisionWriter != null) {
+            decisionWriter.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    /**
+     * 对查询分类，返回的类别下标总是节点类别数组中的有效下标
+     */
+    public ClassificationResult classify(CompiledNode node, WorkflowRun run, String query) {
+        String[] classIds = node.getClassIds();
+        LocalClassifier localClassifier = localClassifier(node);
+
+        ClassificationResult local = localEnabled ? localClassifier.classify(query) : null;
+        if (local != null && local.getSource() == ClassificationResult.Source.KEYWORD) {
+            keywordHits.incrementAndGet();
+            return local;
+        }
+        if (local != null && local.getConfidence() >= minConfidence && local.getMargin() >= minMargin) {
+            localHits.incrementAndGet();
+            return local;
+        }
+
+        LlmCallResult callResult = llmGateway.call(buildPrompt(node, query), node.getModelRoute(), node.isLlmCacheable(),
+                run.remainingNanos());
+        run.recordLlmCall(callResult.isCacheHit());
+        llmClassifications.incrementAndGet();
+        String output = callResult.getContent();
+        log.debug("分类结果: {}", output);
+
+        int classIndex = ClassLabelMatcher.match(output, classIds, node.getClassNames());
+        if (classIndex >= 0) {
+            // 缓存命中的结果已经学习过
+            if (learningEnabled && query != null && !callResult.isCacheHit()) {
+                localClassifier.learn(query, classIndex);
+                learnedExamples.incrementAndGet();
+                appendDecision(node.getClassifierKey(), localClassifier, classIds[classIndex], query);
+            }
+            return new ClassificationResult(classIndex, 1.0, 1.0, ClassificationResult.Source.LLM);
+        }
+
+        // 模型输出无法对应到任何类别：按输出与类别的相似度选择，仍无法判断时使用本地模型的结果或第一个类别
+        fuzzyMatches.incrementAndGet();
+        ClassificationResult fuzzy = localClassifier.classify(output);
+        if (fuzzy == null) {
+            fuzzy = local;
+        }
+        int fallbackIndex = fuzzy != null ? fuzzy.getClassIndex() : 0;
+        log.warn("分类结果无法对应到类别，按相似度选择类别 {}: {}", classIds[fallbackIndex], output);
+        return new ClassificationResult(fallbackIndex, fuzzy != null ? fuzzy.getConfidence() : 0, 0,
+                ClassificationResult.Source.LLM_FUZZY);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("keywordHits", keywordHits.get());
+        stats.put("localHits", localHits.get());
+        stats.put("llmClassifications", llmClassifications.get());
+        stats.put("fuzzyMatches", fuzzyMatches.get());
+        stats.put("learnedExamples", learnedExamples.get());
+        stats.put("pendingDecisions", pendingDecisions.size());
+        stats.put("droppedDecisions", droppedDecisions.get());
+        stats.put("classifiers", classifiers.estimatedSize());
+        return stats;
+    }
+
+    private Prompt buildPrompt(CompiledNode node, String query) {
+        String[] classIds = node.getClassIds();
+        String[] classNames = node.getClassNames();
+        StringBuilder promptBuilder = new StringBuilder();
+        promptBuilder.append("请将以下问题分类到最合适的类别中，只返回类别ID，不要返回其他内容：\n\n");
+        promptBuilder.append("问题: ").append(query).append("\n\n");
+        promptBuilder.append("类别:\n");
+        for (int i = 0; i < classIds.length; i++) {
+            promptBuilder.append("- ID: ").append(classIds[i])
+                    .append(", 名称: ").append(classNames[i]).append("\n");
+        }
+        return new Prompt(new UserMessage(promptBuilder.toString()));
+    }
+
+    /**
+     * 获取节点的本地分类模型。创建时要读取分类记录，不放在缓存的加载函数里：
+     * 加载函数在ConcurrentHashMap的内置锁中执行，其中的文件I/O会钉住虚拟线程并阻塞同一桶上的其他节点。
+     * 并发创建时以先放入缓存的为准
+     */
+    private LocalClassifier localClassifier(CompiledNode node) {
+        LocalClassifier existing = classifiers.getIfPresent(node.getClassifierKey());
+        if (existing != null) {
+            return existing;
+        }
+        LocalClassifier created = createClassifier(node);
+        existing = classifiers.asMap().putIfAbsent(node.getClassifierKey(), created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * 创建节点的本地分类模型，并加载以往记录的分类结果
+     */
+    private LocalClassifier createClassifier(CompiledNode node) {
+        LocalClassifier classifier = new LocalClassifier(node.getClassIds(), node.getClassNames(), maxExamplesPerClass);
+        if (decisionLogDir == null || !learningEnabled) {
+            return classifier;
+        }
+        Path logFile = decisionLogDir.resolve(node.getClassifierKey() + ".log");
+        decisionLogLock.lock();
+        try {
+            if (!Files.exists(logFile)) {
+                return classifier;
+            }
+            List<LocalClassifier.Example> examples = readDecisions(node.getClassifierKey(), classifier, false);
+            classifier.learnAll(examples);
+            if (decisionLogLines.get(node.getClassifierKey()) > examples.size()
+                    && !pendingDecisions.offer(new Decision(node.getClassifierKey(), classifier, null))) {
+                log.debug("分类记录队列已满，暂不压缩: {}", node.getClassifierKey());
+            }
+            log.info("已加载问题分类节点 {} 的 {} 条分类记录", node.getId(), examples.size());
+        } catch (IOException e) {
+            log.warn("读取分类记录失败: {}", logFile, e);
+        } finally {
+            decisionLogLock.unlock();
+        }
+        return classifier;
+    }
+
+    /**
+     * 逐行读取分类记录，每个类别只保留最近的maxExamplesPerClass条；
+     * compact为true且文件中有更多记录（包括已不存在的类别）时重写为保留的部分，只在写入线程中进行。
+     * 调用方持有decisionLogLock
+     */
+    private List<LocalClassifier.Example> readDecisions(String classifierKey, LocalClassifier classifier,
+                                                        boolean compact) throws IOException {
+        Path logFile = decisionLogDir.resolve(classifierKey + ".log");
+        if (compact) {
+            // 文件会被替换，先写出并关闭打开的writer，之后的追加重新打开新文件
+            closeWriter(classifierKey);
+        }
+        List<ArrayDeque<String>> retained = new ArrayList<>();
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                int tab = line.indexOf('\t');
+                int classIndex = tab > 0 ? classifier.indexOf(line.substring(0, tab)) : -1;
+                if (classIndex < 0) {
+                    continue;
+                }
+                while (retained.size() <= classIndex) {
+                    retained.add(new ArrayDeque<>());
+                }
+                ArrayDeque<String> window = retained.get(classIndex);
+                window.addLast(line);
+                if (window.size() > maxExamplesPerClass) {
+                    window.removeFirst();
+                }
+            }
+        }
+
+        List<LocalClassifier.Example> examples = new ArrayList<>();
+        for (int classIndex = 0; classIndex < retained.size(); classIndex++) {
+            for (String line : retained.get(classIndex)) {
+                examples.add(new LocalClassifier.Example(line.substring(line.indexOf('\t') + 1), classIndex));
+            }
+        }
+        if (!compact || lines == examples.size()) {
+            decisionLogLines.put(classifierKey, lines);
+            return examples;
+        }
+        Path temp = decisionLogDir.resolve(classifierKey + ".log.tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (ArrayDeque<String> window : retained) {
+                for (String line : window) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+        }
+        Files.move(temp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("压缩分类记录 {}: {} 行 -> {} 行", classifierKey, lines, examples.size());
+        decisionLogLines.put(classifierKey, examples.size());
+        return examples;
+    }
+
+    /**
+     * 把一条分类记录交给写入线程，每行为 类别ID\t查询；队列已满时丢弃，不阻塞请求
+     */
+    private void appendDecision(String classifierKey, LocalClassifier classifier, String classId, String query) {
+        if (decisionWriter == null || closed) {
+            return;
+        }
+        String line = classId + '\t' + query.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ') + '\n';
+        if (!pendingDecisions.offer(new Decision(classifierKey, classifier, line))) {
+            droppedDecisions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 写入线程：批量取出分类记录追加到各自的文件，行数超过保留窗口的两倍时压缩；关闭后写完剩余的记录
+     */
+    private void writeDecisions() {
+        List<Decision> batch = new ArrayList<>();
+        while (!closed || !pendingDecisions.isEmpty()) {
+            try {
+                Decision first = pendingDecisions.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                break;
+            }
+            pendingDecisions.drainTo(batch, MAX_BATCH - 1);
+            writeBatch(batch);
+            batch.clear();
+        }
+        decisionLogLock.lock();
+        try {
+            for (String classifierKey : new ArrayList<>(decisionWriters.keySet())) {
+                closeWriter(classifierKey);
+            }
+        } finally {
+            decisionLogLock.unlock();
+        }
+    }
+
+    private void writeBatch(List<Decision> batch) {
+        decisionLogLock.lock();
+        try {
+            for (Decision decision : batch) {
+                try {
+                    if (decision.line == null) {
+                        // 加载时发现的多余记录
+                        readDecisions(decision.classifierKey, decision.classifier, true);
+                        continue;
+                    }
+                    writer(decision.classifierKey).write(decision.line);
+                    int lines = decisionLogLines.merge(decision.classifierKey, 1, Integer::sum);
+                    if (lines > 2L * maxExamplesPerClass * decision.classifier.classCount()) {
+                        readDecisions(decision.classifierKey, decision.classifier, true);
+                    }
+                } catch (IOException e) {
+                    log.warn("保存分类记录失败: {}", e.getMessage());
+                    closeWriter(decision.classifierKey);
+                }
+            }
+            for (Map.Entry<String, BufferedWriter> entry : decisionWriters.entrySet()) {
+                try {
+                    entry.getValue().flush();
+                } catch (IOException e) {
+                    log.warn("保存分类记录失败: {}", e.getMessage());
+                }
+            }
+        } finally {
+            decisionLogLock.unlock();
+        }
+    }
+
+    /**
+     * 记录文件的writer，超过MAX_OPEN_WRITERS个时关闭最久未使用的一个。调用方持有decisionLogLock
+     */
+    private BufferedWriter writer(String classifierKey) throws IOException {
+        BufferedWriter writer = decisionWriters.get(classifierKey);
+        if (writer != null) {
+            return writer;
+        }
+        if (decisionWriters.size() >= MAX_OPEN_WRITERS) {
+            closeWriter(decisionWriters.keySet().iterator().next());
+        }
+        writer = Files.newBufferedWriter(decisionLogDir.resolve(classifierKey + ".log"), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        decisionWriters.put(classifierKey, writer);
+        return writer;
+    }
+
+    /**
+     * 写出并关闭记录文件的writer。调用方持有decisionLogLock
+     */
+    private void closeWriter(String classifierKey) {
+        BufferedWriter writer = decisionWriters.remove(classifierKey);
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.warn("关闭分类记录文件失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.springaidifymcp.classifier;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 文本特征提取：英文与数字按单词切分，中文按单字与相邻二字切分
+ */
+final class TextFeatures {
+
+    private TextFeatures() {
+    }
+
+    /**
+     * 统计文本中各特征出现的次数
+     */
+    static Map<String, Integer> termCounts(String text) {
+        Map<String, Integer> counts = new HashMap<>();
+        if (text == null || text.isEmpty()) {
+            return counts;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        StringBuilder word = new StringBuilder();
+        char previousIdeograph = 0;
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.isIdeographic(c)) {
+                flushWord(word, counts);
+                counts.merge(String.valueOf(c), 1, Integer::sum);
+                if (previousIdeograph != 0) {
+                    counts.merge(new String(new char[]{previousIdeograph, c}), 1, Integer::sum);
+                }
+                previousIdeograph = c;
+            } else if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+                previousIdeograph = 0;
+            } else {
+                flushWord(word, counts);
+                previousIdeograph = 0;
+            }
+        }
+        flushWord(word, counts);
+        return counts;
+    }
+
+    /**
+     * 去除空白与标点并转为小写，用于类别名称的精确比较
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static void flushWord(StringBuilder word, Map<String, Integer> counts) {
+        if (word.length() > 0) {
+            // 单词特征加前缀，避免与中文单字混淆
+            counts.merge("w:" + word, 1, Integer::sum);
+            word.setLength(0);
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package com.example.springaidifymcp.config;
 
+import com.example.springaidifymcp.llm.ModelRouter;
+import com.example.springaidifymcp.llm.ResiliencePolicy;
 import com.example.springaidifymcp.service.DifyService;
 import org.springframework.ai.chat.ChatClient;
 import org.springframework.ai.chat.ChatResponse;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.openai.OpenAiChatClient;
 import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
@@ -21,56 +24,60 @@ import java.util.List;
 public class DifyAiConfig {
 
     private final DifyService difyService;
-    private final OpenAiChatClient openAiChatClient;
 
-    public DifyAiConfig(DifyService difyService, OpenAiChatClient openAiChatClient) {
+    public DifyAiConfig(DifyService difyService) {
         this.difyService = difyService;
-        this.openAiChatClient = openAiChatClient;
     }
 
     /**
-     * 创建一个包装了Dify功能的ChatClient
+     * 创建一个包装了Dify功能的ChatClient，按提示参数中的模型路由到共享的模型客户端，
+     * 未指定模型时使用默认模型与默认参数，超时为workflow.models.resilience.node-timeout。
+     * 工作流节点在编译期解析自己的路由，不经过这里
      */
     @Bean
     @Primary
-    public ChatClient difyIntegratedChatClient() {
+    public ChatClient difyIntegratedChatClient(ModelRouter modelRouter, ResiliencePolicy policy) {
         return new ChatClient() {
             
             @Override
             public ChatResponse call(Prompt prompt) {
-                // 默认使用OpenAI实现，如果需要特定工作流处理，可以根据消息内容或其他条件判断
-                return openAiChatClient.call(prompt);
+                ChatOptions options = prompt.getOptions();
+                if (options instanceof OpenAiChatOptions && ((OpenAiChatOptions) options).getModel() != null) {
+                    // 提示自带的参数覆盖客户端的默认参数
+                    return modelRouter.routeForModel(((OpenAiChatOptions) options).getModel()).getPool().call(prompt);
+                }
+                return modelRouter.defaultRoute().call(prompt, policy.getNodeTimeout());
             }
 
             @Override
             public ChatResponse call(Message message) {
-                // 默认使用OpenAI实现
-                return openAiChatClient.call(message);
+                return call(new Prompt(message));
             }
 
             @Override
             public ChatResponse call(List<Message> messages) {
-                // 默认使用OpenAI实现
-                return openAiChatClient.call(messages);
+                return call(new Prompt(messages));
             }
 
             @Override
             public ChatResponse call(UserMessage userMessage) {
-                // 默认使用OpenAI实现
-                return openAiChatClient.call(userMessage);
+                return call(new Prompt(userMessage));
             }
         };
     }
 
     /**
-     * 配置OpenAI选项的Bean
+     * 默认模型参数，未配置模型的节点与直接聊天使用；节点的completion_params未设置的参数也取这里的值
      */
     @Bean
-    public OpenAiChatOptions openAiChatOptions() {
+    public OpenAiChatOptions openAiChatOptions(
+            @Value("${workflow.models.default.model:gpt-3.5-turbo}") String model,
+            @Value("${workflow.models.default.temperature:0.7}") float temperature,
+            @Value("${workflow.models.default.max-tokens:2000}") int maxTokens) {
         return OpenAiChatOptions.builder()
-                .withModel("gpt-3.5-turbo")
-                .withTemperature(0.7f)
-                .withMaxTokens(2000)
+                .withModel(model)
+                .withTemperature(temperature)
+                .withMaxTokens(maxTokens)
                 .build();
     }
 }
\ No newline at end of file
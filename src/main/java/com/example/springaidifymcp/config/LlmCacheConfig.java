@@ -0,0 +1,36 @@
+package com.example.springaidifymcp.config;
+
+import com.example.springaidifymcp.llm.LlmResponseCache;
+import com.example.springaidifymcp.llm.TieredLlmResponseCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * 配置类，用于设置模型响应缓存
+ */
+@Configuration
+public class LlmCacheConfig {
+
+    /**
+     * 内存缓存加可选的磁盘缓存，可以替换为其他LlmResponseCache实现
+     */
+    @Bean
+    public LlmResponseCache llmResponseCache(
+            @Value("${workflow.llm-cache.maximum-size:10000}") long maximumSize,
+            @Value("${workflow.llm-cache.ttl:1h}") Duration ttl,
+            @Value("${workflow.llm-cache.stale-if-error:1h}") Duration staleTtl,
+            @Value("${workflow.llm-cache.disk.enabled:false}") boolean diskEnabled,
+            @Value("${workflow.llm-cache.disk.dir:./data/llm-cache}") String diskDir,
+            @Value("${workflow.llm-cache.disk.max-entries:100000}") long diskMaxEntries,
+            @Value("${workflow.llm-cache.disk.max-size:1GB}") DataSize diskMaxSize,
+            @Value("${workflow.llm-cache.disk.sweep-interval:10m}") Duration sweepInterval) throws IOException {
+        return new TieredLlmResponseCache(maximumSize, ttl, staleTtl, diskEnabled ? Path.of(diskDir) : null,
+                diskMaxEntries, diskMaxSize.toBytes(), sweepInterval);
+    }
+}
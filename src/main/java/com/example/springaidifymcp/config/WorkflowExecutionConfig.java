@@ -0,0 +1,104 @@
+package com.example.springaidifymcp.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 配置类，用于设置工作流节点执行所用的线程池。
+ * spring.threads.virtual.enabled为true且运行在Java 21及以上时，节点、流式与批量任务都在虚拟线程上执行，
+ * 阻塞在模型调用上的运行不再占用平台线程；并发上限由隔离舱（workflow.bulkhead.*）控制。
+ */
+@Configuration
+@Slf4j
+public class WorkflowExecutionConfig {
+
+    /**
+     * 并发执行工作流分支的线程池：虚拟线程模式下每个节点一个虚拟线程，
+     * 否则为有界线程池，队列满时由调度线程自己执行节点
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService workflowNodeExecutor(
+            @Value("${workflow.execution.threads:16}") int threads,
+            @Value("${workflow.execution.queue-capacity:256}") int queueCapacity,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            ExecutorService executor = newVirtualThreadExecutor("workflow-node-");
+            if (executor != null) {
+                log.info("工作流节点在虚拟线程上执行");
+                return executor;
+            }
+            log.warn("当前JDK {} 不支持虚拟线程，工作流节点使用平台线程池", Runtime.version());
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "workflow-node-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 执行流式与批量运行的调度器。boundedElastic的线程数有上限（默认为CPU数的10倍），
+     * 虚拟线程模式下改为每个任务一个虚拟线程；boundedElastic是全局共享的，不在这里销毁
+     */
+    @Bean(destroyMethod = "")
+    public Scheduler workflowScheduler(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            ExecutorService executor = newVirtualThreadExecutor("workflow-run-");
+            if (executor != null) {
+                return Schedulers.fromExecutorService(executor, "workflow-run");
+            }
+        }
+        return Schedulers.boundedElastic();
+    }
+
+    /**
+     * 执行阻塞模型调用的线程池，调用方可以在超时后放弃等待并取消调用，开启workflow.models.hedging时
+     * 对冲请求也在这里执行。模型调用是阻塞IO，并发数已由隔离舱限制，这里不再设上限
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService llmCallExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        if (virtualThreads) {
+            ExecutorService executor = newVirtualThreadExecutor("llm-call-");
+            if (executor != null) {
+                return executor;
+            }
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "llm-call-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器。项目仍按Java 17编译，因此通过反射调用
+     * Thread.ofVirtual().name(prefix, 1).factory()与Executors.newThreadPerTaskExecutor，低于21时返回null
+     */
+    static ExecutorService newVirtualThreadExecutor(String namePrefix) {
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            log.warn("创建虚拟线程执行器失败: {}", e.getMessage());
+            return null;
+        }
+    }
+}
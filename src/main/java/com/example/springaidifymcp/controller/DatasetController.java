@@ -0,0 +1,163 @@
+package com.example.springaidifymcp.controller;
+
+import com.example.springaidifymcp.model.KnowledgeDataset;
+import com.example.springaidifymcp.model.RetrievedChunk;
+import com.example.springaidifymcp.retrieval.KnowledgeBase;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * 本地知识库的数据集管理与检索接口
+ */
+@RestController
+@RequestMapping("/api/v1/datasets")
+@Slf4j
+public class DatasetController {
+
+    private final KnowledgeBase knowledgeBase;
+    // 单次检索最多返回的分段数，检索按它的两倍分配候选堆
+    private final int maxTopK;
+
+    public DatasetController(KnowledgeBase knowledgeBase,
+                             @Value("${workflow.retrieval.max-top-k:100}") int maxTopK) {
+        this.knowledgeBase = knowledgeBase;
+        this.maxTopK = Math.max(maxTopK, 1);
+    }
+
+    /**
+     * 创建数据集
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> createDataset(@RequestBody Map<String, String> request) {
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            String name = request.get("name");
+            if (name == null || name.isEmpty()) {
+                response.put("status", "error");
+                response.put("message", "数据集名称不能为空");
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            response.put("dataset", knowledgeBase.createDataset(name, request.get("description")));
+            response.put("status", "success");
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            log.error("创建数据集失败: {}", e.getMessage(), e);
+            response.put("status", "error");
+            response.put("message", "创建数据集失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 列出所有数据集
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> listDatasets() {
+        Map<String, Object> response = new HashMap<>();
+        List<KnowledgeDataset> datasets = knowledgeBase.listDatasets();
+        response.put("datasets", datasets);
+        response.put("count", datasets.size());
+        response.put("status", "success");
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 删除数据集及其全部分段
+     */
+    @DeleteMapping("/{datasetId}")
+    public ResponseEntity<Map<String, Object>> deleteDataset(@PathVariable String datasetId) {
+        Map<String, Object> response = new HashMap<>();
+
+        try {
+            if (!knowledgeBase.deleteDataset(datasetId)) {
+                return ResponseEntity.notFound().build();
+            }
+            response.put("datasetId", datasetId);
+            response.put("status", "success");
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            log.error("删除数据集失败: {}", e.getMessage(), e);
+            response.put("status", "error");
+            response.put("message", "删除数据集失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 上传文本文档导入数据集，一次上传的所有文档写入同一个分段
+     */
+    @PostMapping("/{datasetId}/documents")
+    public ResponseEntity<Map<String, Object>> uploadDocuments(@PathVariable String datasetId,
+                                                               @RequestParam("files") List<MultipartFile> files) {
+        Map<String, Object> response = new HashMap<>();
+
+        if (knowledgeBase.getDataset(datasetId) == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        try {
+            Map<String, String> documents = new LinkedHashMap<>();
+            for (MultipartFile file : files) {
+                String name = file.getOriginalFilename() != null ? file.getOriginalFilename() : "document-" + documents.size();
+                documents.put(name, new String(file.getBytes(), StandardCharsets.UTF_8));
+            }
+
+            response.put("dataset", knowledgeBase.ingest(datasetId, documents));
+            response.put("documents", documents.size());
+            response.put("status", "success");
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            log.error("导入文档失败: {}", e.getMessage(), e);
+            response.put("status", "error");
+            response.put("message", "导入文档失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 在数据集中检索，用于检查导入效果
+     */
+    @PostMapping("/{datasetId}/retrieve")
+    public ResponseEntity<Map<String, Object>> retrieve(@PathVariable String datasetId,
+                                                        @RequestBody Map<String, Object> request) {
+        Map<String, Object> response = new HashMap<>();
+
+        if (knowledgeBase.getDataset(datasetId) == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        try {
+            Object query = request.get("query");
+            if (query == null || query.toString().isEmpty()) {
+                response.put("status", "error");
+                response.put("message", "查询不能为空");
+                return ResponseEntity.badRequest().body(response);
+            }
+            int topK = request.get("topK") instanceof Number ? ((Number) request.get("topK")).intValue() : 4;
+            topK = Math.min(Math.max(topK, 1), maxTopK);
+
+            List<RetrievedChunk> hits = knowledgeBase.search(datasetId, query.toString(), topK);
+            response.put("records", hits);
+            response.put("count", hits.size());
+            response.put("status", "success");
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            log.error("检索失败: {}", e.getMessage(), e);
+            response.put("status", "error");
+            response.put("message", "检索失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+}
@@ -1,41 +1,88 @@
 package com.example.springaidifymcp.controller;
 
+import com.example.springaidifymcp.classifier.QuestionClassifier;
+import com.example.springaidifymcp.engine.ExecutableWorkflow;
+import com.example.springaidifymcp.engine.RunTrace;
+import com.example.springaidifymcp.engine.WorkflowExecutionException;
+import com.example.springaidifymcp.engine.WorkflowRun;
+import com.example.springaidifymcp.limit.Bulkhead;
+import com.example.springaidifymcp.limit.BulkheadFullException;
+import com.example.springaidifymcp.limit.BulkheadRegistry;
+import com.example.springaidifymcp.llm.LlmGateway;
+import com.example.springaidifymcp.llm.ModelRouter;
+import com.example.springaidifymcp.llm.ModelUnavailableException;
+import com.example.springaidifymcp.model.BatchQuery;
 import com.example.springaidifymcp.model.DifyWorkflow;
+import com.example.springaidifymcp.model.RegisteredWorkflow;
+import com.example.springaidifymcp.model.RunTraceRecord;
+import com.example.springaidifymcp.model.WorkflowStreamEvent;
+import com.example.springaidifymcp.model.WorkflowSummary;
+import com.example.springaidifymcp.retrieval.KnowledgeBase;
 import com.example.springaidifymcp.service.DifyService;
+import com.example.springaidifymcp.service.SingleFlight;
 import com.example.springaidifymcp.service.WorkflowProcessor;
+import com.example.springaidifymcp.service.WorkflowRegistry;
+import com.example.springaidifymcp.trace.RunTraceRecorder;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.ChatClient;
 import org.springframework.ai.chat.ChatResponse;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.InputStream;
+import java.util.*;
 
 @RestController
 @RequestMapping("/api/v1")
 @Slf4j
 public class MCPController {
 
+    private static final int MAX_PAGE_SIZE = 500;
+
     private final DifyService difyService;
     private final WorkflowProcessor workflowProcessor;
     private final ChatClient chatClient;
-    
-    // 保存上传的工作流文件路径
-    private final Map<String, String> uploadedWorkflows = new ConcurrentHashMap<>();
+    private final WorkflowRegistry workflowRegistry;
+    private final ObjectMapper objectMapper;
+    private final LlmGateway llmGateway;
+    private final ModelRouter modelRouter;
+    private final QuestionClassifier questionClassifier;
+    private final KnowledgeBase knowledgeBase;
+    private final BulkheadRegistry bulkheads;
+    private final RunTraceRecorder runTraceRecorder;
+    private final int batchConcurrency;
+    private final int batchMaxConcurrency;
 
-    public MCPController(DifyService difyService, WorkflowProcessor workflowProcessor, ChatClient chatClient) {
+    public MCPController(DifyService difyService, WorkflowProcessor workflowProcessor, ChatClient chatClient,
+                         WorkflowRegistry workflowRegistry, ObjectMapper objectMapper, LlmGateway llmGateway,
+                         ModelRouter modelRouter, QuestionClassifier questionClassifier, KnowledgeBase knowledgeBase,
+                         BulkheadRegistry bulkheads, RunTraceRecorder runTraceRecorder,
+                         @Value("${workflow.batch.concurrency:8}") int batchConcurrency,
+                         @Value("${workflow.batch.max-concurrency:64}") int batchMaxConcurrency) {
         this.difyService = difyService;
         this.workflowProcessor = workflowProcessor;
         this.chatClient = chatClient;
+        this.workflowRegistry = workflowRegistry;
+        this.objectMapper = objectMapper;
+        this.llmGateway = llmGateway;
+        this.modelRouter = modelRouter;
+        this.questionClassifier = questionClassifier;
+        this.knowledgeBase = knowledgeBase;
+        this.bulkheads = bulkheads;
+        this.runTraceRecorder = runTraceRecorder;
+        this.batchConcurrency = batchConcurrency;
+        this.batchMaxConcurrency = batchMaxConcurrency;
     }
 
     /**
@@ -50,6 +97,25 @@ public class MCPController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * 运行统计信息
+     */
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("workflowCache", difyService.getCacheStats());
+        response.put("llmCache", llmGateway.getCacheStats());
+        response.put("models", modelRouter.getStats());
+        response.put("fallbacks", llmGateway.getFallbackStats());
+        response.put("classifier", questionClassifier.getStats());
+        response.put("retrieval", knowledgeBase.getStats());
+        response.put("coalescing", workflowProcessor.getCoalescingStats());
+        response.put("bulkheads", bulkheads.getStats());
+        response.put("traces", runTraceRecorder.getStats());
+        response.put("status", "success");
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * 上传Dify工作流文件
      */
@@ -57,24 +123,16 @@ public class MCPController {
     public ResponseEntity<Map<String, Object>> uploadWorkflow(@RequestParam("file") MultipartFile file) {
         Map<String, Object> response = new HashMap<>();
         
-        try {
-            // 生成唯一ID作为工作流ID
-            String workflowId = UUID.randomUUID().toString();
-            
-            // 保存上传的文件
-            String fileName = workflowId + "_" + file.getOriginalFilename();
-            Path tempFile = Files.createTempFile("workflow_", fileName);
-            Files.copy(file.getInputStream(), tempFile, StandardCopyOption.REPLACE_EXISTING);
-            
-            // 保存工作流信息
-            uploadedWorkflows.put(workflowId, tempFile.toString());
+        try (InputStream inputStream = file.getInputStream()) {
+            // 直接从上传流解析并编译，内容相同的工作流复用已有的注册
+            WorkflowRegistry.Registration registration = workflowRegistry.register(inputStream, file.getOriginalFilename());
+            DifyWorkflow workflow = registration.getExecutable().getSource();
             
-            // 加载工作流验证有效性
-            DifyWorkflow workflow = difyService.loadWorkflowFromYaml(tempFile.toString());
-            
-            response.put("workflowId", workflowId);
+            response.put("workflowId", registration.getWorkflow().getWorkflowId());
             response.put("name", workflow.getApp().getName());
             response.put("description", workflow.getApp().getDescription());
+            response.put("contentHash", registration.getWorkflow().getContentHash());
+            response.put("deduplicated", registration.isDeduplicated());
             response.put("status", "success");
             
             return ResponseEntity.ok(response);
@@ -87,37 +145,40 @@ public class MCPController {
     }
 
     /**
-     * 列出所有上传的工作流
+     * 分页列出上传的工作流，只读取上传时生成的摘要索引。
+     * 支持按mode/model过滤，响应带ETag，客户端可以用If-None-Match做条件请求。
      */
     @GetMapping("/workflow")
-    public ResponseEntity<Map<String, Object>> listWorkflows() {
+    public ResponseEntity<Map<String, Object>> listWorkflows(
+            @RequestParam(required = false) Long cursor,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestParam(required = false) String mode,
+            @RequestParam(required = false) String model,
+            WebRequest webRequest) {
         Map<String, Object> response = new HashMap<>();
         
         try {
-            Map<String, Object> workflows = new HashMap<>();
+            String etag = "\"" + workflowRegistry.getVersion() + "-"
+                    + Integer.toHexString(Objects.hash(cursor, limit, mode, model)) + "\"";
+            if (webRequest.checkNotModified(etag)) {
+                return null;
+            }
             
-            for (Map.Entry<String, String> entry : uploadedWorkflows.entrySet()) {
-                String workflowId = entry.getKey();
-                String filePath = entry.getValue();
-                
-                try {
-                    DifyWorkflow workflow = difyService.loadWorkflowFromYaml(filePath);
-                    Map<String, Object> workflowInfo = new HashMap<>();
-                    workflowInfo.put("name", workflow.getApp().getName());
-                    workflowInfo.put("description", workflow.getApp().getDescription());
-                    workflowInfo.put("filePath", filePath);
-                    
-                    workflows.put(workflowId, workflowInfo);
-                } catch (Exception e) {
-                    log.warn("无法加载工作流 {}: {}", workflowId, e.getMessage());
-                }
+            int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+            List<WorkflowSummary> page = workflowRegistry.listSummaries(cursor, pageSize, mode, model);
+            Map<String, Object> workflows = new LinkedHashMap<>();
+            for (WorkflowSummary summary : page) {
+                workflows.put(summary.getWorkflowId(), summary);
             }
             
             response.put("workflows", workflows);
             response.put("count", workflows.size());
+            if (page.size() == pageSize) {
+                response.put("nextCursor", page.get(page.size() - 1).getSequence());
+            }
             response.put("status", "success");
             
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok().eTag(etag).body(response);
         } catch (Exception e) {
             log.error("列出工作流失败: {}", e.getMessage(), e);
             response.put("status", "error");
@@ -133,15 +194,15 @@ public class MCPController {
     public ResponseEntity<Map<String, Object>> getWorkflow(@PathVariable String workflowId) {
         Map<String, Object> response = new HashMap<>();
         
-        if (!uploadedWorkflows.containsKey(workflowId)) {
+        RegisteredWorkflow registered = workflowRegistry.get(workflowId);
+        if (registered == null) {
             response.put("status", "error");
             response.put("message", "工作流不存在");
             return ResponseEntity.notFound().build();
         }
         
         try {
-            String filePath = uploadedWorkflows.get(workflowId);
-            DifyWorkflow workflow = difyService.loadWorkflowFromYaml(filePath);
+            DifyWorkflow workflow = difyService.loadWorkflowFromYaml(registered.getFilePath());
             
             response.put("workflowId", workflowId);
             response.put("name", workflow.getApp().getName());
@@ -167,16 +228,14 @@ public class MCPController {
     public ResponseEntity<Map<String, Object>> deleteWorkflow(@PathVariable String workflowId) {
         Map<String, Object> response = new HashMap<>();
         
-        if (!uploadedWorkflows.containsKey(workflowId)) {
+        if (!workflowRegistry.contains(workflowId)) {
             response.put("status", "error");
             response.put("message", "工作流不存在");
             return ResponseEntity.notFound().build();
         }
         
         try {
-            String filePath = uploadedWorkflows.get(workflowId);
-            Files.deleteIfExists(Path.of(filePath));
-            uploadedWorkflows.remove(workflowId);
+            workflowRegistry.remove(workflowId);
             
             response.put("status", "success");
             response.put("message", "工作流已删除");
@@ -200,7 +259,8 @@ public class MCPController {
         
         Map<String, Object> response = new HashMap<>();
         
-        if (!uploadedWorkflows.containsKey(workflowId)) {
+        RegisteredWorkflow registered = workflowRegistry.get(workflowId);
+        if (registered == null) {
             response.put("status", "error");
             response.put("message", "工作流不存在");
             return ResponseEntity.notFound().build();
@@ -215,18 +275,45 @@ public class MCPController {
         }
         
         try {
-            // 加载工作流
-            String filePath = uploadedWorkflows.get(workflowId);
-            DifyWorkflow workflow = difyService.loadWorkflowFromYaml(filePath);
+            // 加载已编译的工作流
+            ExecutableWorkflow workflow = difyService.loadExecutableWorkflow(registered.getFilePath());
             
-            // 处理工作流
-            String result = workflowProcessor.processWorkflow(workflow, query);
+            // 处理工作流，相同查询的并发请求共享同一次运行
+            SingleFlight.Result<WorkflowRun> shared = workflowProcessor.executeShared(workflowKey(registered), workflow, query);
+            WorkflowRun run = shared.getValue();
+            
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("steps", run.getSteps());
+            metadata.put("llmCalls", run.getLlmCalls());
+            metadata.put("cacheHits", run.getLlmCacheHits());
+            metadata.put("elapsedMs", run.elapsedNanos() / 1_000_000);
+            metadata.put("coalesced", shared.isShared());
+            if (run.getTrace() != null) {
+                // 用于在/workflow/{workflowId}/runs/{runId}中查询这次运行的轨迹
+                metadata.put("runId", run.getTrace().getTraceId());
+            }
             
             response.put("workflowId", workflowId);
-            response.put("result", result);
+            response.put("result", run.getResult());
+            response.put("metadata", metadata);
             response.put("status", "success");
             
             return ResponseEntity.ok(response);
+        } catch (BulkheadFullException e) {
+            log.warn("拒绝处理工作流: {}", e.getMessage());
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return rejected(e).body(response);
+        } catch (ModelUnavailableException e) {
+            log.warn("处理工作流失败，模型不可用: {}", e.getMessage());
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return unavailable(e).body(response);
+        } catch (WorkflowExecutionException e) {
+            log.warn("处理工作流失败，运行提前终止: {}", e.getMessage());
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return terminated(e).body(response);
         } catch (Exception e) {
             log.error("处理工作流失败: {}", e.getMessage(), e);
             response.put("status", "error");
@@ -235,6 +322,209 @@ public class MCPController {
         }
     }
     
+    /**
+     * 使用工作流处理用户查询，以SSE事件流返回节点事件和模型逐段输出的内容
+     */
+    @PostMapping(value = "/workflow/{workflowId}/process", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<WorkflowStreamEvent>>> processWorkflowStream(
+            @PathVariable String workflowId,
+            @RequestBody Map<String, Object> request) {
+        
+        RegisteredWorkflow registered = workflowRegistry.get(workflowId);
+        if (registered == null) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        String query = (String) request.get("query");
+        if (query == null || query.isEmpty()) {
+            WorkflowStreamEvent error = WorkflowStreamEvent.of(WorkflowStreamEvent.ERROR);
+            error.setText("查询不能为空");
+            return ResponseEntity.badRequest().body(Flux.just(toServerSentEvent(error)));
+        }
+        
+        try {
+            ExecutableWorkflow workflow = difyService.loadExecutableWorkflow(registered.getFilePath());
+            return ResponseEntity.ok(workflowProcessor.streamShared(workflowKey(registered), workflow, query)
+                    // 许可在订阅时获取，此时响应头已经发出，拒绝以错误事件的形式返回
+                    .onErrorResume(BulkheadFullException.class, e -> {
+                        log.warn("拒绝处理工作流: {}", e.getMessage());
+                        WorkflowStreamEvent error = WorkflowStreamEvent.of(WorkflowStreamEvent.ERROR);
+                        error.setText(e.getMessage());
+                        error.setRetryAfter(e.getRetryAfterSeconds());
+                        return Flux.just(error);
+                    })
+                    .map(this::toServerSentEvent));
+        } catch (Exception e) {
+            log.error("处理工作流失败: {}", e.getMessage(), e);
+            WorkflowStreamEvent error = WorkflowStreamEvent.of(WorkflowStreamEvent.ERROR);
+            error.setText("处理工作流失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(Flux.just(toServerSentEvent(error)));
+        }
+    }
+    
+    /**
+     * 工作流最近的运行轨迹，按从新到旧排列；format=otlp时返回OTLP/JSON格式
+     */
+    @GetMapping("/workflow/{workflowId}/runs")
+    public ResponseEntity<Map<String, Object>> listRuns(@PathVariable String workflowId,
+                                                        @RequestParam(defaultValue = "20") int limit,
+                                                        @RequestParam(defaultValue = "json") String format) {
+        if (!workflowRegistry.contains(workflowId)) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        List<RunTrace> traces = runTraceRecorder.recent(workflowId, Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        if ("otlp".equalsIgnoreCase(format)) {
+            return ResponseEntity.ok(runTraceRecorder.toOtlp(traces));
+        }
+        
+        List<RunTraceRecord> runs = new ArrayList<>(traces.size());
+        for (RunTrace trace : traces) {
+            runs.add(RunTraceRecorder.toRecord(trace));
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("workflowId", workflowId);
+        response.put("runs", runs);
+        response.put("count", runs.size());
+        response.put("status", "success");
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 单次运行的轨迹，runId见处理结果的metadata.runId
+     */
+    @GetMapping("/workflow/{workflowId}/runs/{runId}")
+    public ResponseEntity<Map<String, Object>> getRun(@PathVariable String workflowId, @PathVariable String runId,
+                                                      @RequestParam(defaultValue = "json") String format) {
+        RunTrace trace = runTraceRecorder.find(workflowId, runId);
+        if (trace == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if ("otlp".equalsIgnoreCase(format)) {
+            return ResponseEntity.ok(runTraceRecorder.toOtlp(List.of(trace)));
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("run", RunTraceRecorder.toRecord(trace));
+        response.put("status", "success");
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * 隔离舱已满时的响应：工作流的并发超限返回429，模型的并发超限说明上游过载，返回503，都带Retry-After
+     */
+    private ResponseEntity.BodyBuilder rejected(BulkheadFullException e) {
+        HttpStatus status = e.getScope() == Bulkhead.Scope.WORKFLOW
+                ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE;
+        return ResponseEntity.status(status)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+    }
+    
+    /**
+     * 模型不可用（熔断、超时或重试后仍失败）是上游故障而不是请求错误，返回503并带Retry-After
+     */
+    private ResponseEntity.BodyBuilder unavailable(ModelUnavailableException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+    }
+    
+    /**
+     * 运行超出时间预算时调用方已经等满了超时时间，返回504；超出步数上限或被中断是服务端的问题，返回500
+     */
+    private ResponseEntity.BodyBuilder terminated(WorkflowExecutionException e) {
+        return ResponseEntity.status(e.getStatus() == WorkflowRun.Status.TIMED_OUT
+                ? HttpStatus.GATEWAY_TIMEOUT : HttpStatus.INTERNAL_SERVER_ERROR);
+    }
+    
+    /**
+     * 合并相同查询时使用的工作流标识，内容变化后不会与旧版本的运行合并
+     */
+    private String workflowKey(RegisteredWorkflow registered) {
+        return registered.getWorkflowId() + "@" + registered.getContentHash();
+    }
+    
+    private ServerSentEvent<WorkflowStreamEvent> toServerSentEvent(WorkflowStreamEvent event) {
+        return ServerSentEvent.builder(event).event(event.getEvent()).build();
+    }
+    
+    /**
+     * 批量处理查询，请求体为JSON数组，元素可以是查询字符串或{"id": ..., "query": ...}，
+     * 结果以NDJSON按完成顺序逐行返回
+     */
+    @PostMapping(value = "/workflow/{workflowId}/batch",
+            consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Flux<Map<String, Object>>> processBatch(
+            @PathVariable String workflowId,
+            @RequestParam(required = false) Integer concurrency,
+            @RequestBody List<Object> items) {
+        List<BatchQuery> queries = new ArrayList<>(items.size());
+        for (Object item : items) {
+            queries.add(toBatchQuery(item, queries.size()));
+        }
+        return runBatch(workflowId, queries, concurrency);
+    }
+
+    /**
+     * 批量处理查询，请求体为NDJSON，每行一个查询
+     */
+    @PostMapping(value = "/workflow/{workflowId}/batch",
+            consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Flux<Map<String, Object>>> processBatchNdjson(
+            @PathVariable String workflowId,
+            @RequestParam(required = false) Integer concurrency,
+            @RequestBody String body) {
+        List<BatchQuery> queries = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            Object item;
+            try {
+                item = objectMapper.readValue(line, Object.class);
+            } catch (Exception e) {
+                // 无法解析的行作为空查询，在结果中报告错误
+                item = null;
+            }
+            queries.add(toBatchQuery(item, queries.size()));
+        }
+        return runBatch(workflowId, queries, concurrency);
+    }
+
+    private ResponseEntity<Flux<Map<String, Object>>> runBatch(String workflowId, List<BatchQuery> queries,
+                                                               Integer concurrency) {
+        RegisteredWorkflow registered = workflowRegistry.get(workflowId);
+        if (registered == null) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        int parallelism = Math.max(1, Math.min(concurrency != null ? concurrency : batchConcurrency, batchMaxConcurrency));
+        try {
+            // 整个批次共享同一个编译后的工作流
+            ExecutableWorkflow workflow = difyService.loadExecutableWorkflow(registered.getFilePath());
+            return ResponseEntity.ok(workflowProcessor.processBatch(workflowKey(registered), workflow, queries, parallelism));
+        } catch (Exception e) {
+            log.error("批量处理工作流失败: {}", e.getMessage(), e);
+            Map<String, Object> error = new HashMap<>();
+            error.put("status", "error");
+            error.put("message", "批量处理工作流失败: " + e.getMessage());
+            return ResponseEntity.badRequest().body(Flux.just(error));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private BatchQuery toBatchQuery(Object item, int index) {
+        BatchQuery query = new BatchQuery();
+        query.setIndex(index);
+        if (item instanceof String) {
+            query.setQuery((String) item);
+        } else if (item instanceof Map) {
+            Map<String, Object> itemMap = (Map<String, Object>) item;
+            query.setId(itemMap.get("id") != null ? String.valueOf(itemMap.get("id")) : null);
+            query.setQuery(itemMap.get("query") != null ? String.valueOf(itemMap.get("query")) : null);
+        }
+        return query;
+    }
+    
     /**
      * 直接使用ChatClient进行会话
      */
@@ -252,13 +542,27 @@ public class MCPController {
         try {
             // 使用Spring AI进行聊天
             Prompt prompt = new Prompt(new UserMessage(message));
-            ChatResponse chatResponse = chatClient.call(prompt);
+            ChatResponse chatResponse;
+            // 未指定模型的调用路由到默认模型，使用默认模型的隔离舱
+            try (Bulkhead.Permit permit = bulkheads.acquireModel(modelRouter.defaultRoute().getName())) {
+                chatResponse = chatClient.call(prompt);
+            }
             String result = chatResponse.getResult().getOutput().getContent();
             
             response.put("result", result);
             response.put("status", "success");
             
             return ResponseEntity.ok(response);
+        } catch (BulkheadFullException e) {
+            log.warn("拒绝聊天请求: {}", e.getMessage());
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return rejected(e).body(response);
+        } catch (ModelUnavailableException e) {
+            log.warn("聊天失败，模型不可用: {}", e.getMessage());
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+            return unavailable(e).body(response);
         } catch (Exception e) {
             log.error("聊天失败: {}", e.getMessage(), e);
             response.put("status", "error");
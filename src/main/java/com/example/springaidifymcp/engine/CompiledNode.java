@@ -0,0 +1,134 @@
+package com.example.springaidifymcp.engine;
+
+import com.example.springaidifymcp.llm.ModelRoute;
+import com.example.springaidifymcp.model.DifyWorkflow.Graph.Node;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 编译后的节点，持有节点在稠密数组中的下标以及出边邻接信息
+ */
+@Getter
+public class CompiledNode {
+
+    private static final int[] NO_SUCCESSORS = new int[0];
+
+    private final int index;
+    private final String id;
+    private final String title;
+    private final String type;
+    private final NodeKind kind;
+    private final Node source;
+
+    // 按边定义顺序排列的出边、入边下标
+    private int[] outEdges = NO_SUCCESSORS;
+    private int[] inEdges = NO_SUCCESSORS;
+    // 按边定义顺序排列的后继节点下标
+    private int[] successors = NO_SUCCESSORS;
+    // sourceHandle -> 后继节点下标
+    private Map<String, Integer> handleTargets = Collections.emptyMap();
+
+    // 该节点读取其变量的节点，以及读取该节点变量的节点
+    private int[] dataDependencies = NO_SUCCESSORS;
+    private int[] dataDependents = NO_SUCCESSORS;
+
+    // LLM节点的输出是否被回答节点直接引用，此类节点在流式运行中逐段输出
+    private boolean streamsToAnswer;
+
+    // 编译期解析的模型路由（共享的客户端与模型参数），非模型节点为null
+    private ModelRoute modelRoute;
+    // 是否允许使用模型响应缓存
+    private boolean llmCacheable;
+
+    // 问题分类节点的类别，编译期统一为ID/名称数组
+    private String[] classIds = new String[0];
+    private String[] classNames = new String[0];
+    // 节点ID与类别定义的摘要，相同定义的节点共享本地分类模型与分类记录
+    private String classifierKey;
+
+    // LLM节点的提示模板与对应的角色（system/user/assistant），以及回答节点的回答模板
+    private String[] promptRoles = new String[0];
+    private CompiledTemplate[] promptTemplates = new CompiledTemplate[0];
+    private CompiledTemplate answerTemplate = CompiledTemplate.EMPTY;
+
+    // 知识检索节点的数据集、检索方式（多路/单路）、返回的分段数与最低得分
+    private String[] datasetIds = new String[0];
+    private boolean multipleRetrieval = true;
+    private int retrievalTopK;
+    private double retrievalScoreThreshold;
+
+    // 节点输出变量（LLM的text、知识检索的result）的槽位，以及LLM节点上下文变量的槽位
+    private int outputSlot = -1;
+    private int contextSlot = -1;
+
+    CompiledNode(int index, Node source) {
+        this.index = index;
+        this.id = source.getId();
+        this.title = source.getData().getTitle();
+        this.type = source.getData().getType();
+        this.kind = NodeKind.fromType(this.type);
+        this.source = source;
+    }
+
+    void setOutEdges(int[] outEdges) {
+        this.outEdges = outEdges;
+    }
+
+    void setInEdges(int[] inEdges) {
+        this.inEdges = inEdges;
+    }
+
+    void setDataDependencies(int[] dataDependencies) {
+        this.dataDependencies = dataDependencies;
+    }
+
+    void setDataDependents(int[] dataDependents) {
+        this.dataDependents = dataDependents;
+    }
+
+    void setSuccessors(int[] successors) {
+        this.successors = successors;
+    }
+
+    void setHandleTargets(Map<String, Integer> handleTargets) {
+        this.handleTargets = handleTargets;
+    }
+
+    void setStreamsToAnswer(boolean streamsToAnswer) {
+        this.streamsToAnswer = streamsToAnswer;
+    }
+
+    void setModelRoute(ModelRoute modelRoute, boolean llmCacheable) {
+        this.modelRoute = modelRoute;
+        this.llmCacheable = llmCacheable;
+    }
+
+    void setClasses(String[] classIds, String[] classNames, String classifierKey) {
+        this.classIds = classIds;
+        this.classNames = classNames;
+        this.classifierKey = classifierKey;
+    }
+
+    void setPrompt(String[] promptRoles, CompiledTemplate[] promptTemplates) {
+        this.promptRoles = promptRoles;
+        this.promptTemplates = promptTemplates;
+    }
+
+    void setAnswerTemplate(CompiledTemplate answerTemplate) {
+        this.answerTemplate = answerTemplate;
+    }
+
+    void setSlots(int outputSlot, int contextSlot) {
+        this.outputSlot = outputSlot;
+        this.contextSlot = contextSlot;
+    }
+
+    void setRetrieval(String[] datasetIds, boolean multipleRetrieval, int retrievalTopK, double retrievalScoreThreshold) {
+        this.datasetIds = datasetIds;
+        this.multipleRetrieval = multipleRetrieval;
+        this.retrievalTopK = retrievalTopK;
+        this.retrievalScoreThreshold = retrievalScoreThreshold;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.springaidifymcp.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * 编译后的Dify模板，由交替的字面量与变量引用组成：
+ * literals[0] variables[0] literals[1] ... variables[n-1] literals[n]。
+ * 渲染时按顺序写入预先分配好容量的缓冲区，不需要再扫描或匹配模板文本。
+ */
+public class CompiledTemplate {
+
+    public static final CompiledTemplate EMPTY = new CompiledTemplate(new String[]{""}, new String[0]);
+
+    /** LLM提示中的{{#context#}}，渲染时使用调用方传入的上下文内容 */
+    public static final String CONTEXT_VARIABLE = "context";
+    static final int CONTEXT_SLOT = -2;
+
+    private static final String OPEN = "{{#";
+    private static final String CLOSE = "#}}";
+
+    private final String[] literals;
+    // 变量引用，例如 1711528914102.text、sys.query、context
+    private final String[] variables;
+    // 变量对应的上下文槽位，编译期绑定
+    private final int[] slots;
+    private final int literalLength;
+    // 最近一次渲染结果的长度，用于估计缓冲区容量
+    private volatile int lastRenderedLength;
+
+    private CompiledTemplate(String[] literals, String[] variables) {
+        this.literals = literals;
+        this.variables = variables;
+        this.slots = new int[variables.length];
+        Arrays.fill(slots, -1);
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * 解析模板文本，{{#与#}}之间为变量引用，未闭合的{{#按字面量处理
+     */
+    public static CompiledTemplate compile(String text) {
+        if (text == null || text.isEmpty()) {
+            return EMPTY;
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        int position = 0;
+        int literalStart = 0;
+        while (true) {
+            int open = text.indexOf(OPEN, position);
+            if (open < 0) {
+                break;
+            }
+            int close = text.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                break;
+            }
+            String reference = text.substring(open + OPEN.length(), close).trim();
+            if (reference.isEmpty() || reference.indexOf('{') >= 0 || reference.indexOf('}') >= 0) {
+                // 不是合法的变量引用，跳过开头继续查找
+                position = open + 1;
+                continue;
+            }
+            literals.add(text.substring(literalStart, open));
+            variables.add(reference);
+            position = close + CLOSE.length();
+            literalStart = position;
+        }
+        literals.add(text.substring(literalStart));
+        return new CompiledTemplate(literals.toArray(new String[0]), variables.toArray(new String[0]));
+    }
+
+    /**
+     * 绑定各变量的上下文槽位，只在编译期调用
+     */
+    void bind(ToIntFunction<String> slotOf, boolean allowContext) {
+        for (int i = 0; i < variables.length; i++) {
+            slots[i] = allowContext && CONTEXT_VARIABLE.equals(variables[i]) ? CONTEXT_SLOT : slotOf.applyAsInt(variables[i]);
+        }
+    }
+
+    /**
+     * 渲染模板，没有值的变量渲染为空字符串
+     *
+     * @param contextValue {{#context#}}的内容
+     */
+    public String render(RunContext context, Object contextValue) {
+        if (variables.length == 0) {
+            return literals[0];
+        }
+        StringBuilder buffer = new StringBuilder(Math.max(lastRenderedLength, literalLength + 16 * variables.length));
+        buffer.append(literals[0]);
+        for (int i = 0; i < variables.length; i++) {
+            appendValue(buffer, slots[i] == CONTEXT_SLOT ? contextValue : context.get(slots[i]));
+            buffer.append(literals[i + 1]);
+        }
+        lastRenderedLength = buffer.length();
+        return buffer.toString();
+    }
+
+    public boolean isLiteral() {
+        return variables.length == 0;
+    }
+
+    /**
+     * 模板是否只由一个变量引用组成
+     */
+    public boolean isSingleVariable() {
+        return variables.length == 1 && literalLength == 0;
+    }
+
+    public int getVariableCount() {
+        return variables.length;
+    }
+
+    public String getVariable(int i) {
+        return variables[i];
+    }
+
+    public int getSlot(int i) {
+        return slots[i];
+    }
+
+    private static void appendValue(StringBuilder buffer, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Collection) {
+            // 列表类型的变量（例如检索结果）逐项换行拼接
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) {
+                    buffer.append('\n');
+                }
+                buffer.append(item);
+                first = false;
+            }
+            return;
+        }
+        buffer.append(value);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.springaidifymcp.engine;
+
+import com.example.springaidifymcp.model.DifyWorkflow;
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 编译后的可执行工作流。
+ * 节点保存在稠密数组中，出边按(source, sourceHandle)建立邻接表，执行时每一步只需一次数组访问。
+ */
+public class ExecutableWorkflow {
+
+    /** sys.query 固定使用第一个槽位 */
+    public static final int SYS_QUERY_SLOT = 0;
+    public static final String SYS_QUERY = "sys.query";
+
+    @Getter
+    private final DifyWorkflow source;
+    private final CompiledNode[] nodes;
+    private final Map<String, Integer> indexById;
+    @Getter
+    private final int startIndex;
+    // 边下标 -> 目标节点下标
+    private final int[] edgeTargets;
+    @Getter
+    private final int dataDependencyCount;
+
+    // 变量名（例如 1711528914102.text）-> 上下文槽位
+    private final Map<String, Integer> slotByVariable;
+    private final int slotCount;
+    // 已完成运行归还的槽位数组
+    private final ArrayBlockingQueue<Object[]> slotPool;
+
+    ExecutableWorkflow(DifyWorkflow source, CompiledNode[] nodes, Map<String, Integer> indexById, int startIndex,
+                       int[] edgeTargets, int dataDependencyCount, Map<String, Integer> slotByVariable,
+                       int slotPoolSize) {
+        this.source = source;
+        this.nodes = nodes;
+        this.indexById = indexById;
+        this.startIndex = startIndex;
+        this.edgeTargets = edgeTargets;
+        this.dataDependencyCount = dataDependencyCount;
+        this.slotByVariable = slotByVariable;
+        this.slotCount = slotByVariable.size();
+        this.slotPool = new ArrayBlockingQueue<>(Math.max(slotPoolSize, 1));
+    }
+
+    public String getName() {
+        return source.getApp() != null ? source.getApp().getName() : null;
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public int edgeCount() {
+        return edgeTargets.length;
+    }
+
+    public int edgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    public CompiledNode node(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * 通过节点ID获取节点下标，不存在返回-1
+     */
+    public int indexOf(String nodeId) {
+        Integer index = indexById.get(nodeId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * 默认的下一个节点（第一条出边的目标），不存在返回-1
+     */
+    public int defaultNext(int index) {
+        int[] successors = nodes[index].getSuccessors();
+        return successors.length > 0 ? successors[0] : -1;
+    }
+
+    /**
+     * 按源句柄查找下一个节点，不存在返回-1
+     */
+    public int nextByHandle(int index, String sourceHandle) {
+        Integer target = nodes[index].getHandleTargets().get(sourceHandle);
+        return target != null ? target : -1;
+    }
+
+    /**
+     * 变量对应的上下文槽位，未被任何节点读写的变量返回-1
+     */
+    public int slotOf(String variable) {
+        Integer slot = slotByVariable.get(variable);
+        return slot != null ? slot : -1;
+    }
+
+    public int slotCount() {
+        return slotCount;
+    }
+
+    /**
+     * 创建一次运行的上下文，优先复用对象池中的槽位数组
+     */
+    RunContext newContext() {
+        Object[] values = slotPool.poll();
+        return new RunContext(this, values != null ? values : new Object[slotCount]);
+    }
+
+    void releaseSlots(Object[] values) {
+        Arrays.fill(values, null);
+        slotPool.offer(values);
+    }
+}
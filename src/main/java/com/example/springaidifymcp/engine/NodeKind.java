@@ -0,0 +1,37 @@
+package com.example.springaidifymcp.engine;
+
+/**
+ * 节点类型，在编译期由节点的type字符串解析得到
+ */
+public enum NodeKind {
+    START("start"),
+    QUESTION_CLASSIFIER("question-classifier"),
+    KNOWLEDGE_RETRIEVAL("knowledge-retrieval"),
+    LLM("llm"),
+    ANSWER("answer"),
+    UNKNOWN(null);
+
+    private final String type;
+
+    NodeKind(String type) {
+        this.type = type;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * 根据Dify节点类型解析节点种类，未知类型返回UNKNOWN
+     */
+    public static NodeKind fromType(String type) {
+        if (type != null) {
+            for (NodeKind kind : values()) {
+                if (type.equals(kind.type)) {
+                    return kind;
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.springaidifymcp.engine;
+
+/**
+ * 一次运行的变量上下文，按编译期分配的槽位存放变量值。
+ * 不同分支只写入各自节点的输出槽位；读取某个槽位的节点要等写入它的节点结束后才会被调度，
+ * 完成结果经由线程池交接，因此写入对读取可见，不需要额外同步。
+ */
+public class RunContext {
+
+    private final ExecutableWorkflow workflow;
+    private Object[] values;
+
+    RunContext(ExecutableWorkflow workflow, Object[] values) {
+        this.workflow = workflow;
+        this.values = values;
+    }
+
+    public Object get(int slot) {
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    public void set(int slot, Object value) {
+        if (slot >= 0) {
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * 按变量名读取，例如 1711528914102.text，只用于调试等非热点路径
+     */
+    public Object get(String variable) {
+        return get(workflow.slotOf(variable));
+    }
+
+    /**
+     * 把槽位数组归还给工作流的对象池，之后不能再访问该上下文
+     */
+    void release() {
+        if (values != null) {
+            workflow.releaseSlots(values);
+            values = null;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.springaidifymcp.engine;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一次运行的执行轨迹：按节点下标记录开始时间、耗时、选择的分类分支、提示长度与缓存命中，以及节点的执行顺序。
+ * 每个节点在一次运行中最多执行一次，不同分支写入各自的下标。
+ * 超时或失败的运行结束时可能仍有被取消的分支在执行，所以写入与finish在同一把锁中进行，
+ * finish之后的写入被丢弃；读取方看到status后，轨迹不会再变化。
+ * 轨迹只保存基本类型数组和已编译的工作流，不引用运行上下文（上下文会被下一次运行复用）。
+ */
+public class RunTrace {
+
+    private static final byte EXECUTED = 1;
+    private static final byte FAILED = 2;
+    private static final byte CACHE_HIT = 4;
+    private static final byte CACHE_MISS = 8;
+
+    @Getter
+    private final String traceId;
+    // 工作流ID与内容哈希（id@hash），直接执行未注册的工作流时为null
+    @Getter
+    private final String workflowKey;
+    @Getter
+    private final ExecutableWorkflow workflow;
+    @Getter
+    private final long startEpochMillis;
+    private final long startNanos;
+    @Getter
+    private final int queryLength;
+
+    private final long[] nodeStartNanos;
+    private final long[] nodeDurationNanos;
+    private final String[] branches;
+    private final int[] promptChars;
+    private final byte[] flags;
+    private final int[] order;
+    private final AtomicInteger executedCount = new AtomicInteger();
+    // 只在采样的运行中使用，每个节点加锁几次，没有竞争
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean finished;
+
+    // 运行结束时填写
+    @Getter
+    private volatile WorkflowRun.Status status;
+    @Getter
+    private long durationNanos;
+    @Getter
+    private int steps;
+    @Getter
+    private int llmCalls;
+    @Getter
+    private int llmCacheHits;
+    @Getter
+    private String error;
+
+    public RunTrace(String traceId, String workflowKey, WorkflowRun run) {
+        this.traceId = traceId;
+        this.workflowKey = workflowKey;
+        this.workflow = run.getWorkflow();
+        this.startEpochMillis = System.currentTimeMillis();
+        this.startNanos = run.getStartNanos();
+        String query = run.getQuery();
+        this.queryLength = query != null ? query.length() : 0;
+        int size = workflow.size();
+        this.nodeStartNanos = new long[size];
+        this.nodeDurationNanos = new long[size];
+        this.branches = new String[size];
+        this.promptChars = new int[size];
+        this.flags = new byte[size];
+        this.order = new int[size];
+    }
+
+    /**
+     * 为节点处理器加上轨迹记录，未采样的运行（没有轨迹）直接执行
+     */
+    public static WorkflowInterpreter.NodeHandler instrument(WorkflowInterpreter.NodeHandler handler) {
+        return (node, run) -> {
+            RunTrace trace = run.getTrace();
+            if (trace == null) {
+                return handler.execute(node, run);
+            }
+            int index = node.getIndex();
+            long startNanos = System.nanoTime();
+            boolean failed = true;
+            try {
+                int decision = handler.execute(node, run);
+                failed = false;
+                return decision;
+            } finally {
+                trace.nodeFinished(index, startNanos, System.nanoTime() - startNanos, failed);
+            }
+        };
+    }
+
+    private void nodeFinished(int nodeIndex, long startNanos, long durationNanos, boolean failed) {
+        lock.lock();
+        try {
+            if (!finished) {
+                nodeStartNanos[nodeIndex] = startNanos;
+                nodeDurationNanos[nodeIndex] = durationNanos;
+                flags[nodeIndex] |= failed ? EXECUTED | FAILED : EXECUTED;
+                order[executedCount.getAndIncrement()] = nodeIndex;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setBranch(int nodeIndex, String branch) {
+        lock.lock();
+        try {
+            if (!finished) {
+                branches[nodeIndex] = branch;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setPromptChars(int nodeIndex, int chars) {
+        lock.lock();
+        try {
+            if (!finished) {
+                promptChars[nodeIndex] = chars;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setCacheHit(int nodeIndex, boolean cacheHit) {
+        lock.lock();
+        try {
+            if (!finished) {
+                flags[nodeIndex] |= cacheHit ? CACHE_HIT : CACHE_MISS;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 记录运行的最终状态，error为运行失败的原因；之后仍在执行的分支不再修改轨迹
+     */
+    public void finish(WorkflowRun run, String error) {
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            this.durationNanos = run.elapsedNanos();
+            this.steps = run.getSteps();
+            this.llmCalls = run.getLlmCalls();
+            this.llmCacheHits = run.getLlmCacheHits();
+            this.error = error;
+            // volatile写，之后读取到status的线程能看到以上所有字段和节点数据
+            this.status = run.getStatus();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已执行的节点数
+     */
+    public int executedNodes() {
+        return executedCount.get();
+    }
+
+    /**
+     * 第i个执行的节点下标
+     */
+    public int executedNode(int i) {
+        return order[i];
+    }
+
+    public long nodeOffsetNanos(int nodeIndex) {
+        return nodeStartNanos[nodeIndex] - startNanos;
+    }
+
+    public long nodeDurationNanos(int nodeIndex) {
+        return nodeDurationNanos[nodeIndex];
+    }
+
+    public String branch(int nodeIndex) {
+        return branches[nodeIndex];
+    }
+
+    public int promptChars(int nodeIndex) {
+        return promptChars[nodeIndex];
+    }
+
+    public boolean nodeFailed(int nodeIndex) {
+        return (flags[nodeIndex] & FAILED) != 0;
+    }
+
+    /**
+     * 节点的模型调用是否命中缓存，没有模型调用时返回null
+     */
+    public Boolean nodeCacheHit(int nodeIndex) {
+        if ((flags[nodeIndex] & CACHE_HIT) != 0) {
+            return true;
+        }
+        return (flags[nodeIndex] & CACHE_MISS) != 0 ? false : null;
+    }
+}
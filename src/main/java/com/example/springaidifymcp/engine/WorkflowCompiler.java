@@ -0,0 +1,436 @@
+package com.example.springaidifymcp.engine;
+
+import com.example.springaidifymcp.llm.ModelRoute;
+import com.example.springaidifymcp.llm.ModelRouter;
+import com.example.springaidifymcp.model.DifyWorkflow;
+import com.example.springaidifymcp.model.DifyWorkflow.Graph.Edge;
+import com.example.springaidifymcp.model.DifyWorkflow.Graph.Node;
+import com.example.springaidifymcp.model.DifyWorkflow.Graph.Node.NodeData.NodeClass;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/**
+ * 工作流编译器，将解析得到的DifyWorkflow编译为ExecutableWorkflow
+ */
+@Component
+@Slf4j
+public class WorkflowCompiler {
+
+    private final ModelRouter modelRouter;
+    // 不使用模型响应缓存的节点
+    private final Set<String> cacheExcludedNodes;
+    // temperature高于该值的节点输出不确定，不使用缓存
+    private final double cacheMaxTemperature;
+    // 每个工作流保留的可复用上下文数
+    private final int contextPoolSize;
+    // 知识检索节点未配置top_k时返回的分段数
+    private final int defaultRetrievalTopK;
+    // 知识检索节点top_k的上限
+    private final int maxRetrievalTopK;
+
+    public WorkflowCompiler(ModelRouter modelRouter,
+                            @Value("${workflow.llm-cache.excluded-nodes:}") String[] cacheExcludedNodes,
+                            @Value("${workflow.llm-cache.max-temperature:1.0}") double cacheMaxTemperature,
+                            @Value("${workflow.execution.context-pool-size:16}") int contextPoolSize,
+                            @Value("${workflow.retrieval.default-top-k:4}") int defaultRetrievalTopK,
+                            @Value("${workflow.retrieval.max-top-k:100}") int maxRetrievalTopK) {
+        this.modelRouter = modelRouter;
+        this.cacheExcludedNodes = new HashSet<>(Arrays.asList(cacheExcludedNodes));
+        this.cacheMaxTemperature = cacheMaxTemperature;
+        this.contextPoolSize = contextPoolSize;
+        this.defaultRetrievalTopK = defaultRetrievalTopK;
+        this.maxRetrievalTopK = Math.max(maxRetrievalTopK, 1);
+    }
+
+    /**
+     * 编译工作流，每个上传的工作流只需编译一次
+     */
+    public ExecutableWorkflow compile(DifyWorkflow workflow) {
+        if (workflow.getWorkflow() == null || workflow.getWorkflow().getGraph() == null) {
+            throw new IllegalStateException("工作流缺少图定义");
+        }
+        DifyWorkflow.Graph graph = workflow.getWorkflow().getGraph();
+        List<Node> nodeList = graph.getNodes() != null ? graph.getNodes() : Collections.emptyList();
+        List<Edge> edgeList = graph.getEdges() != null ? graph.getEdges() : Collections.emptyList();
+
+        // 节点放入稠密数组
+        CompiledNode[] nodes = new CompiledNode[nodeList.size()];
+        Map<String, Integer> indexById = new HashMap<>(nodeList.size() * 2);
+        int startIndex = -1;
+        for (int i = 0; i < nodes.length; i++) {
+            Node node = nodeList.get(i);
+            if (indexById.putIfAbsent(node.getId(), i) != null) {
+                throw new IllegalStateException("节点ID重复: " + node.getId());
+            }
+            nodes[i] = new CompiledNode(i, node);
+            if (startIndex < 0 && nodes[i].getKind() == NodeKind.START) {
+                startIndex = i;
+            }
+            compileClasses(nodes[i]);
+            compileModelOptions(nodes[i]);
+            compileTemplates(nodes[i]);
+            compileRetrieval(nodes[i]);
+        }
+        if (startIndex < 0) {
+            throw new IllegalStateException("无法找到起始节点");
+        }
+
+        // 变量槽位：sys.query固定为第一个，其余按节点顺序分配给节点输出和被读取的变量
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        slots.put(ExecutableWorkflow.SYS_QUERY, ExecutableWorkflow.SYS_QUERY_SLOT);
+        for (CompiledNode node : nodes) {
+            assignSlots(node, slots);
+        }
+
+        // 边放入稠密数组，并按源节点建立邻接表
+        int[] edgeTargets = new int[edgeList.size()];
+        int edgeCount = 0;
+        List<List<Integer>> outEdges = newIndexLists(nodes.length);
+        List<List<Integer>> inEdges = newIndexLists(nodes.length);
+        List<Map<String, Integer>> handleTargets = new ArrayList<>(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            handleTargets.add(new HashMap<>(4));
+        }
+        for (Edge edge : edgeList) {
+            Integer source = indexById.get(edge.getSource());
+            Integer target = indexById.get(edge.getTarget());
+            if (source == null || target == null) {
+                log.warn("忽略引用了不存在节点的边: {} -> {}", edge.getSource(), edge.getTarget());
+                continue;
+            }
+            edgeTargets[edgeCount] = target;
+            outEdges.get(source).add(edgeCount);
+            inEdges.get(target).add(edgeCount);
+            edgeCount++;
+            if (edge.getSourceHandle() != null) {
+                handleTargets.get(source).putIfAbsent(edge.getSourceHandle(), target);
+            }
+        }
+        edgeTargets = Arrays.copyOf(edgeTargets, edgeCount);
+
+        // 数据依赖：节点读取的变量所属的节点
+        List<List<Integer>> dataDependents = newIndexLists(nodes.length);
+        int dataDependencyCount = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            int[] dependencies = resolveDataDependencies(nodes[i], indexById);
+            nodes[i].setDataDependencies(dependencies);
+            for (int dependency : dependencies) {
+                dataDependents.get(dependency).add(i);
+            }
+            dataDependencyCount += dependencies.length;
+        }
+
+        for (int i = 0; i < nodes.length; i++) {
+            int[] out = toArray(outEdges.get(i));
+            int[] successors = new int[out.length];
+            for (int e = 0; e < out.length; e++) {
+                successors[e] = edgeTargets[out[e]];
+            }
+            nodes[i].setOutEdges(out);
+            nodes[i].setInEdges(toArray(inEdges.get(i)));
+            nodes[i].setSuccessors(successors);
+            nodes[i].setDataDependents(toArray(dataDependents.get(i)));
+            Map<String, Integer> handles = handleTargets.get(i);
+            nodes[i].setHandleTargets(handles.isEmpty() ? Collections.emptyMap() : handles);
+        }
+        detectCycles(nodes);
+        markStreamingNodes(nodes);
+
+        log.debug("工作流编译完成: {} 个节点, {} 条边, {} 个数据依赖, {} 个变量槽位",
+                nodes.length, edgeCount, dataDependencyCount, slots.size());
+        return new ExecutableWorkflow(workflow, nodes, indexById, startIndex, edgeTargets, dataDependencyCount,
+                slots, contextPoolSize);
+    }
+
+    /**
+     * 收集节点通过variableSelector和{{#node.var#}}引用读取的其他节点
+     */
+    @SuppressWarnings("unchecked")
+    private int[] resolveDataDependencies(CompiledNode node, Map<String, Integer> indexById) {
+        Node.NodeData data = node.getSource().getData();
+        Set<String> referencedNodeIds = new LinkedHashSet<>();
+
+        if (data.getContext() != null && data.getContext().isEnabled()
+                && data.getContext().getVariableSelector() != null
+                && !data.getContext().getVariableSelector().isEmpty()) {
+            referencedNodeIds.add(data.getContext().getVariableSelector().get(0));
+        }
+        for (CompiledTemplate template : node.getPromptTemplates()) {
+            collectReferences(template, referencedNodeIds);
+        }
+        collectReferences(node.getAnswerTemplate(), referencedNodeIds);
+        if (data.getVariables() != null) {
+            for (Map<String, Object> variable : data.getVariables()) {
+                Object selector = variable.get("value_selector");
+                if (selector instanceof List && !((List<Object>) selector).isEmpty()) {
+                    referencedNodeIds.add(String.valueOf(((List<Object>) selector).get(0)));
+                }
+            }
+        }
+
+        int[] dependencies = new int[referencedNodeIds.size()];
+        int count = 0;
+        for (String referencedNodeId : referencedNodeIds) {
+            Integer dependency = indexById.get(referencedNodeId);
+            if (dependency != null && dependency != node.getIndex()) {
+                dependencies[count++] = dependency;
+            }
+        }
+        return Arrays.copyOf(dependencies, count);
+    }
+
+    private void collectReferences(CompiledTemplate template, Set<String> referencedNodeIds) {
+        for (int i = 0; i < template.getVariableCount(); i++) {
+            String reference = template.getVariable(i);
+            int dot = reference.indexOf('.');
+            if (dot > 0) {
+                referencedNodeIds.add(reference.substring(0, dot));
+            }
+        }
+    }
+
+    /**
+     * 将LLM节点的提示模板和回答节点的回答解析为字面量与变量引用
+     */
+    private void compileTemplates(CompiledNode node) {
+        Node.NodeData data = node.getSource().getData();
+        if (node.getKind() == NodeKind.LLM && data.getPromptTemplate() != null) {
+            List<Map<String, Object>> templates = data.getPromptTemplate();
+            String[] roles = new String[templates.size()];
+            CompiledTemplate[] compiled = new CompiledTemplate[templates.size()];
+            for (int i = 0; i < compiled.length; i++) {
+                Object role = templates.get(i).get("role");
+                roles[i] = role != null ? String.valueOf(role) : "user";
+                compiled[i] = CompiledTemplate.compile((String) templates.get(i).get("text"));
+            }
+            node.setPrompt(roles, compiled);
+        } else if (node.getKind() == NodeKind.ANSWER) {
+            node.setAnswerTemplate(CompiledTemplate.compile(data.getAnswer()));
+        }
+    }
+
+    /**
+     * 为节点的输出变量、LLM上下文变量和模板中引用的变量分配上下文槽位
+     */
+    private void assignSlots(CompiledNode node, Map<String, Integer> slots) {
+        ToIntFunction<String> slotOf = variable -> slots.computeIfAbsent(variable, v -> slots.size());
+        Node.NodeData data = node.getSource().getData();
+        int outputSlot = -1;
+        int contextSlot = -1;
+        if (node.getKind() == NodeKind.LLM) {
+            outputSlot = slotOf.applyAsInt(node.getId() + ".text");
+            if (data.getContext() != null && data.getContext().isEnabled()
+                    && data.getContext().getVariableSelector() != null
+                    && data.getContext().getVariableSelector().size() >= 2) {
+                List<String> selector = data.getContext().getVariableSelector();
+                contextSlot = slotOf.applyAsInt(selector.get(0) + "." + selector.get(1));
+            }
+        } else if (node.getKind() == NodeKind.KNOWLEDGE_RETRIEVAL) {
+            outputSlot = slotOf.applyAsInt(node.getId() + ".result");
+        }
+        node.setSlots(outputSlot, contextSlot);
+
+        for (CompiledTemplate template : node.getPromptTemplates()) {
+            template.bind(slotOf, true);
+        }
+        node.getAnswerTemplate().bind(slotOf, false);
+    }
+
+    /**
+     * 标记输出被回答节点引用的LLM节点，流式运行时这些节点的内容直接推送给调用方
+     */
+    private void markStreamingNodes(CompiledNode[] nodes) {
+        for (CompiledNode node : nodes) {
+            if (node.getKind() != NodeKind.ANSWER) {
+                continue;
+            }
+            for (int dependency : node.getDataDependencies()) {
+                if (nodes[dependency].getKind() == NodeKind.LLM) {
+                    nodes[dependency].setStreamsToAnswer(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * 使用迭代式深度优先搜索检测环（包含控制边与数据依赖），存在环的工作流无法保证在有限步内结束
+     */
+    private void detectCycles(CompiledNode[] nodes) {
+        // 0: 未访问, 1: 在当前路径上, 2: 已完成
+        byte[] state = new byte[nodes.length];
+        int[] stack = new int[nodes.length];
+        int[] edgeCursor = new int[nodes.length];
+
+        for (int root = 0; root < nodes.length; root++) {
+            if (state[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            stack[depth] = root;
+            state[root] = 1;
+            edgeCursor[root] = 0;
+            while (depth >= 0) {
+                int current = stack[depth];
+                int[] successors = nodes[current].getSuccessors();
+                int[] dependents = nodes[current].getDataDependents();
+                int cursor = edgeCursor[current];
+                if (cursor < successors.length + dependents.length) {
+                    edgeCursor[current]++;
+                    int next = cursor < successors.length ? successors[cursor] : dependents[cursor - successors.length];
+                    if (state[next] == 1) {
+                        throw new IllegalStateException("工作流存在环: " + describeCycle(nodes, stack, depth, next));
+                    }
+                    if (state[next] == 0) {
+                        state[next] = 1;
+                        edgeCursor[next] = 0;
+                        stack[++depth] = next;
+                    }
+                } else {
+                    state[current] = 2;
+                    depth--;
+                }
+            }
+        }
+    }
+
+    private String describeCycle(CompiledNode[] nodes, int[] stack, int depth, int entry) {
+        StringBuilder path = new StringBuilder();
+        boolean inCycle = false;
+        for (int i = 0; i <= depth; i++) {
+            if (stack[i] == entry) {
+                inCycle = true;
+            }
+            if (inCycle) {
+                path.append(nodes[stack[i]].getId()).append(" -> ");
+            }
+        }
+        return path.append(nodes[entry].getId()).toString();
+    }
+
+    /**
+     * 把LLM与问题分类节点的模型配置解析为模型路由，并决定节点是否使用响应缓存
+     */
+    private void compileModelOptions(CompiledNode node) {
+        if (node.getKind() != NodeKind.LLM && node.getKind() != NodeKind.QUESTION_CLASSIFIER) {
+            return;
+        }
+        ModelRoute route = modelRouter.resolve(node.getSource().getData().getModel(),
+                node.getKind() == NodeKind.QUESTION_CLASSIFIER);
+
+        boolean cacheable = !cacheExcludedNodes.contains(node.getId());
+        // 节点未配置temperature时按默认参数判断
+        Float temperature = route.getOptions().getTemperature();
+        if (temperature != null && temperature > cacheMaxTemperature) {
+            cacheable = false;
+        }
+        node.setModelRoute(route, cacheable);
+    }
+
+    /**
+     * 解析知识检索节点的数据集与检索参数，retrievalMode为single时只使用最匹配的一个数据集
+     */
+    private void compileRetrieval(CompiledNode node) {
+        if (node.getKind() != NodeKind.KNOWLEDGE_RETRIEVAL) {
+            return;
+        }
+        Node.NodeData data = node.getSource().getData();
+        String[] datasetIds = data.getDatasetIds() != null ? data.getDatasetIds().toArray(new String[0]) : new String[0];
+        boolean multiple = !"single".equalsIgnoreCase(data.getRetrievalMode());
+        int topK = defaultRetrievalTopK;
+        double scoreThreshold = 0;
+        Map<String, Object> config = data.getMultipleRetrievalConfig();
+        if (multiple && config != null) {
+            Object configuredTopK = config.containsKey("top_k") ? config.get("top_k") : config.get("topK");
+            if (configuredTopK instanceof Number) {
+                topK = ((Number) configuredTopK).intValue();
+            }
+            Object threshold = config.containsKey("score_threshold") ? config.get("score_threshold") : config.get("scoreThreshold");
+            if (threshold instanceof Number) {
+                scoreThreshold = ((Number) threshold).doubleValue();
+            }
+        }
+        if (datasetIds.length == 0) {
+            log.warn("知识检索节点 {} 没有配置数据集", node.getId());
+        }
+        if (topK > maxRetrievalTopK) {
+            log.warn("知识检索节点 {} 的top_k {} 超过上限，使用 {}", node.getId(), topK, maxRetrievalTopK);
+            topK = maxRetrievalTopK;
+        }
+        node.setRetrieval(datasetIds, multiple, Math.max(topK, 1), scoreThreshold);
+    }
+
+    /**
+     * 统一问题分类节点的类别定义，兼容YAML中被解析为Map的类别
+     */
+    @SuppressWarnings("unchecked")
+    private void compileClasses(CompiledNode node) {
+        if (node.getKind() != NodeKind.QUESTION_CLASSIFIER || node.getSource().getData().getClasses() == null) {
+            return;
+        }
+        List<?> classes = node.getSource().getData().getClasses();
+        List<String> ids = new ArrayList<>(classes.size());
+        List<String> names = new ArrayList<>(classes.size());
+        for (Object cls : classes) {
+            Object id;
+            Object name;
+            if (cls instanceof Map) {
+                Map<String, Object> classMap = (Map<String, Object>) cls;
+                id = classMap.get("id");
+                name = classMap.get("name");
+            } else if (cls instanceof NodeClass) {
+                NodeClass classObj = (NodeClass) cls;
+                id = classObj.getId();
+                name = classObj.getName();
+            } else {
+                continue;
+            }
+            // 类别ID用于匹配出边，不能缺少；名称只用于提示和本地分类，缺少时按空字符串处理
+            if (id == null || String.valueOf(id).isBlank()) {
+                throw new IllegalStateException("问题分类节点 " + node.getId() + " 的类别缺少id");
+            }
+            ids.add(String.valueOf(id));
+            names.add(name != null ? String.valueOf(name) : "");
+        }
+        node.setClasses(ids.toArray(new String[0]), names.toArray(new String[0]), classifierKey(node.getId(), ids, names));
+    }
+
+    private static String classifierKey(String nodeId, List<String> ids, List<String> names) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(nodeId.getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < ids.size(); i++) {
+            digest.update((byte) 0);
+            digest.update(ids.get(i).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 1);
+            digest.update(names.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static List<List<Integer>> newIndexLists(int size) {
+        List<List<Integer>> lists = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            lists.add(new ArrayList<>(2));
+        }
+        return lists;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
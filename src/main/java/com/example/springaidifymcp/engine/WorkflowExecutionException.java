@@ -0,0 +1,32 @@
+package com.example.springaidifymcp.engine;
+
+/**
+ * 工作流运行被预算限制（步数或时间）提前终止，或被中断时抛出。
+ * status为运行的结束状态（TIMED_OUT、STEP_LIMIT_EXCEEDED或FAILED），调用方据此选择响应状态码
+ */
+public class WorkflowExecutionException extends RuntimeException {
+
+    private final WorkflowRun.Status status;
+
+    public WorkflowExecutionException(String message) {
+        this(WorkflowRun.Status.FAILED, message);
+    }
+
+    public WorkflowExecutionException(String message, Throwable cause) {
+        this(WorkflowRun.Status.FAILED, message, cause);
+    }
+
+    public WorkflowExecutionException(WorkflowRun.Status status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public WorkflowExecutionException(WorkflowRun.Status status, String message, Throwable cause) {
+        super(message, cause);
+        this.status = status;
+    }
+
+    public WorkflowRun.Status getStatus() {
+        return status;
+    }
+}
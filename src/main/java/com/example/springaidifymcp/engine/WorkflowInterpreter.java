@@ -0,0 +1,153 @@
+package com.example.springaidifymcp.engine;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * 非递归的数据流工作流解释器。
+ * 节点在依赖就绪后立即被调度，相互独立的分支在有界线程池上并发执行，
+ * 每次调度之间检查暂停与取消请求、步数上限与时间预算。
+ * 分支的生命周期不超过run()：正常结束时所有分支都已完成，出错、超时或被中断时仍在执行的分支会被取消。
+ */
+@Slf4j
+public class WorkflowInterpreter {
+
+    /**
+     * 节点处理器：执行节点并返回要触发的后继节点下标，
+     * 或者WorkflowRun.ALL_SUCCESSORS（触发全部出边）、WorkflowRun.END（不触发出边）
+     */
+    @FunctionalInterface
+    public interface NodeHandler {
+        int execute(CompiledNode node, WorkflowRun run);
+    }
+
+    /**
+     * 节点执行完成的通知
+     */
+    private static final class Completion {
+        final int node;
+        final int decision;
+
+        Completion(int node, int decision) {
+            this.node = node;
+            this.decision = decision;
+        }
+    }
+
+    // 以NodeKind.ordinal()为下标的处理器表
+    private final NodeHandler[] handlers;
+    private final Executor executor;
+    private final int maxParallelBranches;
+
+    public WorkflowInterpreter(NodeHandler[] handlers, Executor executor, int maxParallelBranches) {
+        this.handlers = handlers;
+        this.executor = executor;
+        this.maxParallelBranches = Math.max(1, maxParallelBranches);
+    }
+
+    /**
+     * 执行运行直到完成、暂停、取消或超出预算
+     */
+    public WorkflowRun run(WorkflowRun run) {
+        if (run.isFinished()) {
+            return run;
+        }
+        run.clearPauseRequest();
+        run.setStatus(WorkflowRun.Status.RUNNING);
+        run.initSchedule();
+
+        CompletionService<Completion> completions = new ExecutorCompletionService<>(executor);
+        Map<Integer, Future<Completion>> inFlight = new HashMap<>();
+
+        try {
+            while (true) {
+                // 提交所有就绪节点
+                while (run.hasReady() && inFlight.size() < maxParallelBranches
+                        && !run.isPauseRequested() && !run.isCancelRequested()) {
+                    checkBudget(run);
+                    int nodeIndex = run.pollReady();
+                    run.incrementSteps();
+                    if (inFlight.isEmpty() && !run.hasReady()) {
+                        // 只有一个可执行节点时直接在当前线程执行，省去线程切换
+                        run.completeNode(nodeIndex, execute(nodeIndex, run));
+                    } else {
+                        inFlight.put(nodeIndex, completions.submit(() -> new Completion(nodeIndex, execute(nodeIndex, run))));
+                    }
+                }
+
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+
+                // 等待任意一个节点完成
+                Future<Completion> done = completions.poll(run.remainingNanos(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    run.setStatus(WorkflowRun.Status.TIMED_OUT);
+                    throw new WorkflowExecutionException(WorkflowRun.Status.TIMED_OUT, "工作流执行超时");
+                }
+                Completion completion = getCompletion(done);
+                inFlight.remove(completion.node);
+                run.completeNode(completion.node, completion.decision);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.setStatus(WorkflowRun.Status.FAILED);
+            throw new WorkflowExecutionException("工作流执行被中断", e);
+        } catch (RuntimeException e) {
+            if (!run.isFinished()) {
+                run.setStatus(WorkflowRun.Status.FAILED);
+            }
+            throw e;
+        } finally {
+            // 运行提前结束时取消仍在执行的分支；分支可能在运行结束后才停下，轨迹在finish之后不再接受它们的写入
+            if (!inFlight.isEmpty()) {
+                inFlight.values().forEach(future -> future.cancel(true));
+            }
+        }
+
+        if (!run.hasReady()) {
+            run.setStatus(WorkflowRun.Status.COMPLETED);
+        } else {
+            run.setStatus(run.isCancelRequested() ? WorkflowRun.Status.CANCELLED : WorkflowRun.Status.PAUSED);
+        }
+        return run;
+    }
+
+    private int execute(int nodeIndex, WorkflowRun run) {
+        CompiledNode node = run.getWorkflow().node(nodeIndex);
+        log.debug("执行节点: {} ({})", node.getTitle(), node.getType());
+        WorkflowRunListener listener = run.getListener();
+        listener.onNodeStarted(node);
+        long startNanos = System.nanoTime();
+        int decision = handlers[node.getKind().ordinal()].execute(node, run);
+        listener.onNodeFinished(node, System.nanoTime() - startNanos);
+        return decision;
+    }
+
+    private void checkBudget(WorkflowRun run) {
+        if (run.getSteps() >= run.getMaxSteps()) {
+            run.setStatus(WorkflowRun.Status.STEP_LIMIT_EXCEEDED);
+            throw new WorkflowExecutionException(WorkflowRun.Status.STEP_LIMIT_EXCEEDED,
+                    "工作流执行超出步数上限: " + run.getMaxSteps());
+        }
+        if (run.remainingNanos() <= 0) {
+            run.setStatus(WorkflowRun.Status.TIMED_OUT);
+            throw new WorkflowExecutionException(WorkflowRun.Status.TIMED_OUT, "工作流执行超时");
+        }
+    }
+
+    private Completion getCompletion(Future<Completion> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new WorkflowExecutionException("节点执行失败: " + cause.getMessage(), cause);
+        }
+    }
+}
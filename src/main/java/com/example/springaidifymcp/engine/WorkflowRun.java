@@ -0,0 +1,295 @@
+package com.example.springaidifymcp.engine;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 一次工作流运行的调度状态：各节点与各条边的状态、就绪队列、已执行步数和时间预算。
+ * 节点在其所有入边都已确定（触发或失效）、且读取的变量所属节点都已结束后才会就绪；
+ * 运行可以在节点之间暂停，之后从就绪队列处继续；也可以取消，等正在执行的节点完成后结束。
+ */
+@Getter
+public class WorkflowRun {
+
+    /** 节点处理器返回该值表示不触发任何出边 */
+    public static final int END = -1;
+    /** 节点处理器返回该值表示触发全部出边 */
+    public static final int ALL_SUCCESSORS = -2;
+
+    public enum Status {
+        CREATED,
+        RUNNING,
+        PAUSED,
+        COMPLETED,
+        STEP_LIMIT_EXCEEDED,
+        TIMED_OUT,
+        FAILED,
+        // 调用方不再需要结果（如流式客户端断开）
+        CANCELLED
+    }
+
+    static final byte PENDING = 0;
+    static final byte READY = 1;
+    static final byte RUNNING = 2;
+    static final byte DONE = 3;
+    static final byte SKIPPED = 4;
+
+    private final ExecutableWorkflow workflow;
+    private final RunContext context;
+    private final int maxSteps;
+    private final long startNanos;
+    private final long deadlineNanos;
+
+    private int steps;
+    private volatile Status status = Status.CREATED;
+    private volatile boolean pauseRequested;
+    private volatile boolean cancelRequested;
+    private volatile String result;
+    private volatile WorkflowRunListener listener = WorkflowRunListener.NONE;
+    // 未被采样的运行为null
+    private volatile RunTrace trace;
+
+    // 模型调用次数与其中命中响应缓存的次数
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger llmCalls = new AtomicInteger();
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger llmCacheHits = new AtomicInteger();
+
+    // 调度状态，只由协调线程读写
+    @Getter(AccessLevel.NONE)
+    private final byte[] nodeStates;
+    @Getter(AccessLevel.NONE)
+    private final int[] pendingInEdges;
+    @Getter(AccessLevel.NONE)
+    private final boolean[] activated;
+    @Getter(AccessLevel.NONE)
+    private final int[] pendingDataDependencies;
+    @Getter(AccessLevel.NONE)
+    private final ArrayDeque<Integer> readyQueue = new ArrayDeque<>();
+    @Getter(AccessLevel.NONE)
+    private final int[] worklist;
+    @Getter(AccessLevel.NONE)
+    private boolean scheduled;
+
+    // 回答节点的输出，按节点下标存放
+    @Getter(AccessLevel.NONE)
+    private final AtomicReferenceArray<String> answers;
+
+    public WorkflowRun(ExecutableWorkflow workflow, String userQuery, int maxSteps, long timeoutNanos) {
+        this.workflow = workflow;
+        this.maxSteps = maxSteps;
+        this.startNanos = System.nanoTime();
+        this.deadlineNanos = startNanos + timeoutNanos;
+        int size = workflow.size();
+        this.nodeStates = new byte[size];
+        this.pendingInEdges = new int[size];
+        this.activated = new boolean[size];
+        this.pendingDataDependencies = new int[size];
+        this.worklist = new int[workflow.edgeCount() + workflow.getDataDependencyCount() + size + 1];
+        this.answers = new AtomicReferenceArray<>(size);
+        this.context = workflow.newContext();
+        context.set(ExecutableWorkflow.SYS_QUERY_SLOT, userQuery);
+    }
+
+    public String getQuery() {
+        return (String) context.get(ExecutableWorkflow.SYS_QUERY_SLOT);
+    }
+
+    /**
+     * 运行完成或取消后归还上下文的槽位数组（取消的运行已等待正在执行的节点完成）；
+     * 超时或失败的运行可能仍有节点在执行，不归还
+     */
+    public void releaseContext() {
+        if (status == Status.COMPLETED || status == Status.CANCELLED) {
+            context.release();
+        }
+    }
+
+    /**
+     * 请求在当前正在执行的节点完成后暂停
+     */
+    public void requestPause() {
+        this.pauseRequested = true;
+    }
+
+    /**
+     * 请求取消运行：不再调度新的节点，正在执行的节点完成后以CANCELLED结束
+     */
+    public void requestCancel() {
+        this.cancelRequested = true;
+    }
+
+    public boolean isFinished() {
+        return status != Status.CREATED && status != Status.RUNNING && status != Status.PAUSED;
+    }
+
+    /**
+     * 剩余的时间预算（纳秒），可能为负数
+     */
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    public long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+    }
+
+    public void setListener(WorkflowRunListener listener) {
+        this.listener = listener != null ? listener : WorkflowRunListener.NONE;
+    }
+
+    public void setTrace(RunTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * 是否有监听器在接收流式输出
+     */
+    public boolean isStreaming() {
+        return listener != WorkflowRunListener.NONE;
+    }
+
+    public void recordLlmCall(boolean cacheHit) {
+        llmCalls.incrementAndGet();
+        if (cacheHit) {
+            llmCacheHits.incrementAndGet();
+        }
+    }
+
+    public int getLlmCalls() {
+        return llmCalls.get();
+    }
+
+    public int getLlmCacheHits() {
+        return llmCacheHits.get();
+    }
+
+    public void setAnswer(int nodeIndex, String answer) {
+        answers.set(nodeIndex, answer);
+    }
+
+    /**
+     * 运行结果：按节点顺序拼接所有回答节点的输出，没有回答时返回节点设置的结果
+     */
+    public String getResult() {
+        StringBuilder combined = null;
+        for (int i = 0; i < answers.length(); i++) {
+            String answer = answers.get(i);
+            if (answer != null) {
+                if (combined == null) {
+                    combined = new StringBuilder(answer.length());
+                } else {
+                    combined.append('\n');
+                }
+                combined.append(answer);
+            }
+        }
+        return combined != null ? combined.toString() : result;
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+    }
+
+    void clearPauseRequest() {
+        this.pauseRequested = false;
+    }
+
+    void incrementSteps() {
+        this.steps++;
+    }
+
+    /**
+     * 初始化调度状态：激活起始节点，跳过没有入边的孤立节点
+     */
+    void initSchedule() {
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        int start = workflow.getStartIndex();
+        int top = 0;
+        for (int i = 0; i < nodeStates.length; i++) {
+            CompiledNode node = workflow.node(i);
+            pendingInEdges[i] = node.getInEdges().length;
+            pendingDataDependencies[i] = node.getDataDependencies().length;
+            if (i != start && pendingInEdges[i] == 0) {
+                worklist[top++] = i;
+            }
+        }
+        nodeStates[start] = READY;
+        readyQueue.add(start);
+        propagate(top);
+    }
+
+    boolean hasReady() {
+        return !readyQueue.isEmpty();
+    }
+
+    int readyCount() {
+        return readyQueue.size();
+    }
+
+    int pollReady() {
+        int node = readyQueue.poll();
+        nodeStates[node] = RUNNING;
+        return node;
+    }
+
+    /**
+     * 记录节点完成，按处理器的决定触发或失效各条出边，并把新就绪的节点加入就绪队列
+     */
+    void completeNode(int nodeIndex, int decision) {
+        nodeStates[nodeIndex] = DONE;
+        CompiledNode node = workflow.node(nodeIndex);
+        int top = 0;
+        for (int edge : node.getOutEdges()) {
+            int target = workflow.edgeTarget(edge);
+            boolean fired = decision == ALL_SUCCESSORS || (decision >= 0 && decision == target);
+            pendingInEdges[target]--;
+            activated[target] |= fired;
+            worklist[top++] = target;
+        }
+        for (int dependent : node.getDataDependents()) {
+            pendingDataDependencies[dependent]--;
+            worklist[top++] = dependent;
+        }
+        propagate(top);
+    }
+
+    /**
+     * 使用显式工作栈传播边的状态：所有入边失效的节点被跳过，其出边随之失效
+     */
+    private void propagate(int top) {
+        while (top > 0) {
+            int target = worklist[--top];
+            if (nodeStates[target] != PENDING || pendingInEdges[target] > 0) {
+                continue;
+            }
+            if (!activated[target]) {
+                nodeStates[target] = SKIPPED;
+                CompiledNode node = workflow.node(target);
+                for (int edge : node.getOutEdges()) {
+                    int next = workflow.edgeTarget(edge);
+                    pendingInEdges[next]--;
+                    worklist[top++] = next;
+                }
+                for (int dependent : node.getDataDependents()) {
+                    pendingDataDependencies[dependent]--;
+                    worklist[top++] = dependent;
+                }
+            } else if (pendingDataDependencies[target] == 0) {
+                nodeStates[target] = READY;
+                readyQueue.add(target);
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.springaidifymcp.engine;
+
+/**
+ * 工作流运行事件监听器。并行分支会在不同线程上回调，实现需要线程安全。
+ */
+public interface WorkflowRunListener {
+
+    /** 不做任何处理的监听器 */
+    WorkflowRunListener NONE = new WorkflowRunListener() {
+    };
+
+    default void onNodeStarted(CompiledNode node) {
+    }
+
+    default void onNodeFinished(CompiledNode node, long durationNanos) {
+    }
+
+    /**
+     * LLM节点以流式方式生成内容时，每收到一段内容回调一次
+     */
+    default void onToken(CompiledNode node, String token) {
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.springaidifymcp.limit;
+
+import com.example.springaidifymcp.engine.WorkflowExecutionException;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 限制同时执行的调用数的隔离舱。
+ * 并发数已满时最多maxQueue个调用排队等待，每个最多等待maxWait；队列已满或等待超时立即拒绝，
+ * 避免请求线程在慢上游上无限堆积。启用自适应后上限由GradientLimit按观测到的延迟调整。
+ */
+public class Bulkhead {
+
+    /**
+     * 隔离的范围：工作流或模型
+     */
+    public enum Scope {
+        WORKFLOW,
+        MODEL
+    }
+
+    @Getter
+    private final Scope scope;
+    @Getter
+    private final String name;
+    private final int maxQueue;
+    private final long maxWaitNanos;
+    // 未启用自适应时为null
+    private final GradientLimit adaptive;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private int limit;
+    private int inFlight;
+    private int waiting;
+    private long accepted;
+    private long rejected;
+    // 调用耗时的指数移动平均，用于估算Retry-After
+    private double averageRttNanos;
+
+    public Bulkhead(Scope scope, String name, int maxConcurrent, int maxQueue, Duration maxWait,
+                    boolean adaptive, int minLimit, int maxLimit) {
+        this.scope = scope;
+        this.name = name;
+        this.limit = Math.max(maxConcurrent, 1);
+        this.maxQueue = Math.max(maxQueue, 0);
+        this.maxWaitNanos = maxWait.toNanos();
+        this.adaptive = adaptive ? new GradientLimit(this.limit, minLimit, maxLimit) : null;
+        if (this.adaptive != null) {
+            this.limit = this.adaptive.getLimit();
+        }
+    }
+
+    /**
+     * 获取一个执行许可，必要时排队等待
+     *
+     * @throws BulkheadFullException 队列已满或等待超时
+     */
+    public Permit acquire() {
+        lock.lock();
+        try {
+            if (inFlight < limit) {
+                return grant();
+            }
+            if (waiting >= maxQueue) {
+                throw reject();
+            }
+            waiting++;
+            try {
+                long remaining = maxWaitNanos;
+                while (inFlight >= limit) {
+                    if (remaining <= 0) {
+                        throw reject();
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new WorkflowExecutionException("等待 " + name + " 的执行许可被中断", e);
+            } finally {
+                waiting--;
+            }
+            return grant();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前的并发上限，启用自适应时随延迟变化
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("scope", scope.name().toLowerCase());
+            stats.put("limit", limit);
+            stats.put("inFlight", inFlight);
+            stats.put("waiting", waiting);
+            stats.put("maxQueue", maxQueue);
+            stats.put("accepted", accepted);
+            stats.put("rejected", rejected);
+            stats.put("averageLatencyMs", (long) (averageRttNanos / 1_000_000));
+            stats.put("adaptive", adaptive != null);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Permit grant() {
+        inFlight++;
+        accepted++;
+        return new Permit(System.nanoTime());
+    }
+
+    private BulkheadFullException reject() {
+        rejected++;
+        return new BulkheadFullException(scope, name, retryAfterSeconds());
+    }
+
+    /**
+     * 估算排在队尾的调用需要等待的时间：平均耗时 * 排队的轮数，至少1秒，最多60秒
+     */
+    private long retryAfterSeconds() {
+        double rounds = (double) (waiting + 1) / limit;
+        long seconds = (long) Math.ceil(averageRttNanos * Math.max(rounds, 1) / TimeUnit.SECONDS.toNanos(1));
+        return Math.max(1, Math.min(60, seconds));
+    }
+
+    private void release(long rttNanos) {
+        lock.lock();
+        try {
+            int previousInFlight = inFlight;
+            inFlight--;
+            averageRttNanos = averageRttNanos == 0 ? rttNanos : averageRttNanos + (rttNanos - averageRttNanos) * 0.1;
+            int previousLimit = limit;
+            if (adaptive != null) {
+                limit = adaptive.onSample(rttNanos, previousInFlight);
+            }
+            if (limit > previousLimit) {
+                available.signalAll();
+            } else if (inFlight < limit) {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 执行许可，调用结束后关闭以归还，重复关闭无效
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final long startNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release(System.nanoTime() - startNanos);
+            }
+        }
+    }
+}
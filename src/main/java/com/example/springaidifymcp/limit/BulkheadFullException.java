@@ -0,0 +1,22 @@
+package com.example.springaidifymcp.limit;
+
+import lombok.Getter;
+
+/**
+ * 隔离舱已满：并发数达到上限且等待队列已满，或在最长等待时间内没有空闲
+ */
+@Getter
+public class BulkheadFullException extends RuntimeException {
+
+    private final Bulkhead.Scope scope;
+    private final String bulkheadName;
+    // 建议客户端重试前等待的秒数
+    private final long retryAfterSeconds;
+
+    public BulkheadFullException(Bulkhead.Scope scope, String bulkheadName, long retryAfterSeconds) {
+        super("请求过多，" + bulkheadName + " 的并发已达上限，请 " + retryAfterSeconds + " 秒后重试");
+        this.scope = scope;
+        this.bulkheadName = bulkheadName;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.springaidifymcp.limit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按工作流与按模型划分的隔离舱。
+ * 每个工作流的运行共享一个隔离舱，每个模型（provider/name）的调用共享一个隔离舱，
+ * 一个慢上游只会占满自己的并发与队列，不会拖住其他工作流与模型的请求线程。
+ */
+@Component
+@Slf4j
+public class BulkheadRegistry {
+
+    private final boolean enabled;
+    private final Duration maxWait;
+    private final boolean adaptive;
+    private final int adaptiveMinLimit;
+    private final int adaptiveMaxLimit;
+    private final int workflowMaxConcurrent;
+    private final int workflowMaxQueue;
+    private final int modelMaxConcurrent;
+    private final int modelMaxQueue;
+    private final Map<String, Integer> workflowLimits;
+    private final Map<String, Integer> modelLimits;
+    // 长期未访问的工作流与模型的隔离舱会被回收，超过运行时间预算后不会再有正在执行的调用
+    private final Cache<String, Bulkhead> bulkheads;
+
+    public BulkheadRegistry(@Value("${workflow.bulkhead.enabled:true}") boolean enabled,
+                            @Value("${workflow.bulkhead.max-wait:2s}") Duration maxWait,
+                            @Value("${workflow.bulkhead.adaptive.enabled:false}") boolean adaptive,
+                            @Value("${workflow.bulkhead.adaptive.min-limit:2}") int adaptiveMinLimit,
+                            @Value("${workflow.bulkhead.adaptive.max-limit:200}") int adaptiveMaxLimit,
+                            @Value("${workflow.bulkhead.workflow.max-concurrent:32}") int workflowMaxConcurrent,
+                            @Value("${workflow.bulkhead.workflow.max-queue:64}") int workflowMaxQueue,
+                            @Value("#{${workflow.bulkhead.workflow.limits:{:}}}") Map<String, Integer> workflowLimits,
+                            @Value("${workflow.bulkhead.model.max-concurrent:16}") int modelMaxConcurrent,
+                            @Value("${workflow.bulkhead.model.max-queue:64}") int modelMaxQueue,
+                            @Value("#{${workflow.bulkhead.model.limits:{:}}}") Map<String, Integer> modelLimits) {
+        this.enabled = enabled;
+        this.maxWait = maxWait;
+        this.adaptive = adaptive;
+        this.adaptiveMinLimit = adaptiveMinLimit;
+        this.adaptiveMaxLimit = adaptiveMaxLimit;
+        this.workflowMaxConcurrent = workflowMaxConcurrent;
+        this.workflowMaxQueue = workflowMaxQueue;
+        this.workflowLimits = workflowLimits != null ? workflowLimits : Collections.emptyMap();
+        this.modelMaxConcurrent = modelMaxConcurrent;
+        this.modelMaxQueue = modelMaxQueue;
+        this.modelLimits = modelLimits != null ? modelLimits : Collections.emptyMap();
+        this.bulkheads = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofHours(1))
+                .build();
+        log.info("隔离舱: enabled={}, 工作流并发 {}（队列 {}），模型并发 {}（队列 {}），自适应 {}",
+                enabled, workflowMaxConcurrent, workflowMaxQueue, modelMaxConcurrent, modelMaxQueue, adaptive);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 获取工作流的执行许可，未启用时返回null
+     *
+     * @param workflowKey 工作流ID与内容哈希（id@hash），同一工作流的各版本共享隔离舱
+     */
+    public Bulkhead.Permit acquireWorkflow(String workflowKey) {
+        if (!enabled) {
+            return null;
+        }
+        return bulkhead(Bulkhead.Scope.WORKFLOW, workflowId(workflowKey)).acquire();
+    }
+
+    /**
+     * 工作流当前的并发上限，未启用时为Integer.MAX_VALUE
+     */
+    public int workflowLimit(String workflowKey) {
+        if (!enabled || workflowKey == null) {
+            return Integer.MAX_VALUE;
+        }
+        return bulkhead(Bulkhead.Scope.WORKFLOW, workflowId(workflowKey)).getLimit();
+    }
+
+    private static String workflowId(String workflowKey) {
+        int separator = workflowKey.indexOf('@');
+        return separator >= 0 ? workflowKey.substring(0, separator) : workflowKey;
+    }
+
+    /**
+     * 获取模型的执行许可，未启用时返回null
+     *
+     * @param model provider/name，为null时使用default隔离舱
+     */
+    public Bulkhead.Permit acquireModel(String model) {
+        if (!enabled) {
+            return null;
+        }
+        return bulkhead(Bulkhead.Scope.MODEL, model != null ? model : "default").acquire();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("adaptive", adaptive);
+        Map<String, Object> workflows = new TreeMap<>();
+        Map<String, Object> models = new TreeMap<>();
+        bulkheads.asMap().values().forEach(bulkhead ->
+                (bulkhead.getScope() == Bulkhead.Scope.WORKFLOW ? workflows : models)
+                        .put(bulkhead.getName(), bulkhead.stats()));
+        stats.put("workflows", workflows);
+        stats.put("models", models);
+        return stats;
+    }
+
+    private Bulkhead bulkhead(Bulkhead.Scope scope, String name) {
+        String key = scope.name() + ':' + name;
+        return bulkheads.get(key, k -> {
+            int maxConcurrent;
+            int maxQueue;
+            if (scope == Bulkhead.Scope.WORKFLOW) {
+                maxConcurrent = workflowLimits.getOrDefault(name, workflowMaxConcurrent);
+                maxQueue = workflowMaxQueue;
+            } else {
+                maxConcurrent = modelLimits.getOrDefault(name, modelMaxConcurrent);
+                maxQueue = modelMaxQueue;
+            }
+            return new Bulkhead(scope, name, maxConcurrent, maxQueue, maxWait,
+                    adaptive, adaptiveMinLimit, Math.max(adaptiveMaxLimit, maxConcurrent));
+        });
+    }
+}
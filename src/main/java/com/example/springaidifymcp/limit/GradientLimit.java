@@ -0,0 +1,66 @@
+package com.example.springaidifymcp.limit;
+
+/**
+ * 根据延迟梯度调整并发上限：用长期平均延迟作为无排队时的基准，
+ * 当前延迟高于基准说明上游开始排队，按比例收缩上限；延迟接近基准时每次增加约sqrt(limit)的余量。
+ * 非线程安全，由Bulkhead在持锁时调用。
+ */
+final class GradientLimit {
+
+    // 长期平均延迟的窗口（样本数）
+    private static final int LONG_WINDOW = 600;
+    // 单次调整中新上限所占的比例
+    private static final double SMOOTHING = 0.2;
+    // 单次最多收缩到原来的一半
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private double longRttNanos;
+    private double shortRttNanos;
+
+    GradientLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+    }
+
+    int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * 记录一次调用的耗时并返回新的上限
+     *
+     * @param inFlight 调用结束前正在执行的调用数
+     */
+    int onSample(long rttNanos, int inFlight) {
+        if (rttNanos <= 0) {
+            return getLimit();
+        }
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+            shortRttNanos = rttNanos;
+        } else {
+            longRttNanos += (rttNanos - longRttNanos) * 2.0 / (LONG_WINDOW + 1);
+            shortRttNanos += (rttNanos - shortRttNanos) * 0.5;
+        }
+        // 持续高延迟后基准会被拉高，延迟回落时让基准跟着回落，避免上限长时间偏高
+        if (longRttNanos > shortRttNanos * 2) {
+            longRttNanos *= 0.95;
+        }
+
+        // 只有接近占满时才放大上限，空闲时的低延迟不能说明更高的并发也可行
+        if (inFlight < limit / 2) {
+            return getLimit();
+        }
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRttNanos / shortRttNanos));
+        double queueSize = Math.sqrt(limit);
+        double newLimit = limit * gradient + queueSize;
+        limit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+        return getLimit();
+    }
+}
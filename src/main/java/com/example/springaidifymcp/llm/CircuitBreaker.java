@@ -0,0 +1,187 @@
+package com.example.springaidifymcp.llm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个接口地址的熔断器。按最近windowSize次调用的结果统计失败率，调用数达到minimumCalls且失败率
+ * 不低于阈值时打开，在openDuration内拒绝调用；之后进入半开状态，只放行一个探测调用，
+ * 探测成功则关闭，失败则重新打开。
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // 最近调用的结果，true为失败
+    private final boolean[] outcomes;
+    private int position;
+    private int calls;
+    private int failures;
+
+    private volatile State state = State.CLOSED;
+    private volatile long openUntilNanos;
+    private boolean probeInFlight;
+    private long openedCount;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold, long openNanos) {
+        this.outcomes = new boolean[Math.max(windowSize, 1)];
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, outcomes.length));
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openNanos;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * 是否可能放行调用，用于选择接口地址，不占用半开状态的探测名额
+     */
+    public boolean isCallPermitted() {
+        State current = state;
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            return System.nanoTime() - openUntilNanos >= 0;
+        }
+        lock.lock();
+        try {
+            return !probeInFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 申请一次调用。打开状态到期后转为半开并占用探测名额；返回true时调用方必须以
+     * onSuccess、onFailure或onIgnored之一结束这次调用
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        lock.lock();
+        try {
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openUntilNanos < 0) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+            }
+            if (probeInFlight) {
+                return false;
+            }
+            probeInFlight = true;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                reset();
+                state = State.CLOSED;
+            } else if (state == State.CLOSED) {
+                record(false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onFailure() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                open();
+            } else if (state == State.CLOSED) {
+                record(true);
+                if (calls >= minimumCalls && failures >= failureRateThreshold * calls) {
+                    open();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 调用结束但结果不能说明接口是否健康（被取消、请求本身有误），只归还探测名额
+     */
+    public void onIgnored() {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                probeInFlight = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 打开状态还要持续的秒数，至少为1
+     */
+    public long retryAfterSeconds() {
+        long remaining = openUntilNanos - System.nanoTime();
+        return Math.max(1, (remaining + 999_999_999) / 1_000_000_000);
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            stats.put("state", state.name().toLowerCase());
+            stats.put("failureRate", calls == 0 ? 0.0 : Math.round(failures * 100.0 / calls) / 100.0);
+            stats.put("opened", openedCount);
+        } finally {
+            lock.unlock();
+        }
+        return stats;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntilNanos = System.nanoTime() + openNanos;
+        probeInFlight = false;
+        openedCount++;
+        reset();
+    }
+
+    private void record(boolean failure) {
+        if (calls == outcomes.length) {
+            if (outcomes[position]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[position] = failure;
+        if (failure) {
+            failures++;
+        }
+        position = (position + 1) % outcomes.length;
+    }
+
+    private void reset() {
+        position = 0;
+        calls = 0;
+        failures = 0;
+    }
+}
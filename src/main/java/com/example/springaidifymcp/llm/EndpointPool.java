@@ -0,0 +1,581 @@
+package com.example.springaidifymcp.llm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.ChatClient;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.StreamingChatClient;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 同一模型的一组OpenAI兼容接口地址。每次调用用"两次随机选择"挑选接口：随机取两个接口，
+ * 选择 响应耗时EWMA × (进行中的请求数 + 1) 较小的一个，慢接口与排队多的接口自然分到更少的请求。
+ * 每个接口有自己的熔断器，打开的接口不参与选择；失败的阻塞调用在重试预算允许时退避后换一个接口重试。
+ * 配置了执行器时，阻塞调用在执行器上运行，调用方最多等待到超时为止，超时的请求被取消（中断其执行线程）；
+ * 开启对冲时，调用在最近耗时的指定百分位后仍未返回，就向另一个接口发出相同的请求，先成功的结果被采用。
+ */
+@Slf4j
+public class EndpointPool implements ChatClient, StreamingChatClient {
+
+    // EWMA的平滑系数
+    private static final double EWMA_ALPHA = 0.3;
+    // 用于计算对冲延迟的最近耗时样本数
+    private static final int WINDOW_SIZE = 256;
+    // 每记录这么多样本重新计算一次对冲延迟
+    private static final int RECOMPUTE_INTERVAL = 32;
+    // 样本不足时不对冲
+    private static final int MIN_SAMPLES = 32;
+
+    /**
+     * 单个接口地址及其负载统计
+     */
+    public static final class Endpoint {
+        private final String baseUrl;
+        private final ChatClient client;
+        private final CircuitBreaker breaker;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        // 响应耗时的EWMA（纳秒），0表示还没有样本；并发更新时可能丢失个别样本，不影响选择
+        private volatile double ewmaNanos;
+
+        Endpoint(String baseUrl, ChatClient client, CircuitBreaker breaker) {
+            this.baseUrl = baseUrl;
+            this.client = client;
+            this.breaker = breaker;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public ChatClient getClient() {
+            return client;
+        }
+
+        public CircuitBreaker getBreaker() {
+            return breaker;
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public double getEwmaMillis() {
+            return ewmaNanos / 1_000_000.0;
+        }
+
+        void begin() {
+            requests.incrementAndGet();
+            inFlight.incrementAndGet();
+        }
+
+        void end() {
+            inFlight.decrementAndGet();
+        }
+
+        void recordLatency(long nanos) {
+            double current = ewmaNanos;
+            ewmaNanos = current == 0 ? nanos : current + EWMA_ALPHA * (nanos - current);
+        }
+
+        /**
+         * 失败的调用按至少两倍的当前耗时计入，使后续请求暂时避开该接口
+         */
+        void recordFailure(long nanos) {
+            failures.incrementAndGet();
+            recordLatency(Math.max(nanos, (long) (ewmaNanos * 2)));
+            breaker.onFailure();
+        }
+
+        double cost(double unknownLatency) {
+            double latency = ewmaNanos > 0 ? ewmaNanos : unknownLatency;
+            return latency * (inFlight.get() + 1);
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("baseUrl", baseUrl);
+            stats.put("ewmaMs", Math.round(getEwmaMillis() * 10) / 10.0);
+            stats.put("inFlight", inFlight.get());
+            stats.put("requests", requests.get());
+            stats.put("failures", failures.get());
+            stats.put("breaker", breaker.stats());
+            return stats;
+        }
+    }
+
+    private final String name;
+    private final Endpoint[] endpoints;
+    // 执行阻塞调用的执行器，为null时在调用线程上执行，不限制超时也不对冲
+    private final ExecutorService executor;
+    private final boolean hedging;
+    private final double hedgePercentile;
+    private final long hedgeMinDelayNanos;
+    private final ResiliencePolicy policy;
+
+    // 最近的成功耗时，用于计算对冲延迟
+    private final AtomicLongArray window = new AtomicLongArray(WINDOW_SIZE);
+    private final AtomicLong samples = new AtomicLong();
+    private volatile long hedgeDelayNanos = Long.MAX_VALUE;
+
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @param clients         接口地址 -> 该地址的客户端
+     * @param executor        执行阻塞调用的执行器，为null时在调用线程上执行
+     * @param hedging         是否对冲慢请求，需要executor
+     * @param hedgePercentile 发出对冲请求前等待的耗时百分位（0-1）
+     * @param hedgeMinDelay   对冲延迟的下限，纳秒
+     */
+    public EndpointPool(String name, Map<String, ChatClient> clients, ExecutorService executor, boolean hedging,
+                        double hedgePercentile, long hedgeMinDelay, ResiliencePolicy policy) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("模型 " + name + " 没有可用的接口地址");
+        }
+        this.name = name;
+        List<Endpoint> list = new ArrayList<>(clients.size());
+        clients.forEach((baseUrl, client) -> list.add(new Endpoint(baseUrl, client, policy.newCircuitBreaker())));
+        this.endpoints = list.toArray(new Endpoint[0]);
+        this.executor = executor;
+        this.hedging = hedging && executor != null;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelayNanos = hedgeMinDelay;
+        this.policy = policy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return List.of(endpoints);
+    }
+
+    /**
+     * 是否至少有一个接口地址的熔断器放行调用
+     */
+    public boolean isAvailable() {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.breaker.isCallPermitted()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 阻塞调用，超时为配置的节点超时
+     */
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return call(prompt, policy.getNodeTimeout());
+    }
+
+    /**
+     * 阻塞调用，失败时在重试预算与超时允许的范围内退避后换一个接口重试
+     *
+     * @throws ModelUnavailableException 所有接口都已熔断、超时，或重试后仍然失败
+     */
+    public ChatResponse call(Prompt prompt, Duration timeout) {
+        long deadlineNanos = System.nanoTime() + timeout.toNanos();
+        RetryBudget budget = policy.getRetryBudget();
+        budget.deposit();
+        Endpoint previous = null;
+        for (int attempt = 1; ; attempt++) {
+            Endpoint endpoint = acquire(previous);
+            if (endpoint == null) {
+                rejected.incrementAndGet();
+                throw new ModelUnavailableException(ModelUnavailableException.Reason.CIRCUIT_OPEN, name,
+                        retryAfterSeconds(), null);
+            }
+            try {
+                return executor == null ? invoke(endpoint, prompt, new AtomicBoolean())
+                        : callWithDeadline(endpoint, prompt, deadlineNanos);
+            } catch (ModelUnavailableException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                if (!policy.isRetryable(e)) {
+                    throw e;
+                }
+                long backoffNanos = policy.backoffNanos(attempt);
+                if (attempt >= policy.getMaxAttempts() || deadlineNanos - System.nanoTime() <= backoffNanos
+                        || !budget.tryAcquire()) {
+                    throw new ModelUnavailableException(ModelUnavailableException.Reason.FAILED, name, 1, e);
+                }
+                log.debug("模型 {} 调用 {} 失败，{} 毫秒后第 {} 次重试: {}", name, endpoint.baseUrl,
+                        backoffNanos / 1_000_000, attempt, e.getMessage());
+                retries.incrementAndGet();
+                sleep(backoffNanos);
+                previous = endpoint;
+            }
+        }
+    }
+
+    /**
+     * 流式调用，超时为配置的节点超时
+     */
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return stream(prompt, policy.getNodeTimeout());
+    }
+
+    /**
+     * 流式调用。已经输出的内容无法撤回，流式调用不重试也不对冲；整个流在timeout内没有结束时
+     * 以ModelUnavailableException结束
+     */
+    public Flux<ChatResponse> stream(Prompt prompt, Duration timeout) {
+        return Flux.defer(() -> {
+            Endpoint endpoint = acquire(null);
+            if (endpoint == null) {
+                rejected.incrementAndGet();
+                return Flux.error(new ModelUnavailableException(ModelUnavailableException.Reason.CIRCUIT_OPEN, name,
+                        retryAfterSeconds(), null));
+            }
+            if (!(endpoint.client instanceof StreamingChatClient)) {
+                return Flux.just(invoke(endpoint, prompt, new AtomicBoolean()));
+            }
+            long startNanos = System.nanoTime();
+            long deadlineNanos = startNanos + timeout.toNanos();
+            endpoint.begin();
+            // timeout(Duration)只限制相邻分片的间隔，这里每个分片之后重新计算到截止时间的剩余时间
+            return ((StreamingChatClient) endpoint.client).stream(prompt)
+                    .timeout(Mono.delay(timeout),
+                            chunk -> Mono.delay(Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()))))
+                    .doOnComplete(() -> {
+                        endpoint.breaker.onSuccess();
+                        recordSuccess(endpoint, System.nanoTime() - startNanos);
+                    })
+                    .doOnError(error -> {
+                        if (policy.isRetryable(error)) {
+                            endpoint.recordFailure(System.nanoTime() - startNanos);
+                        } else {
+                            endpoint.breaker.onIgnored();
+                        }
+                    })
+                    .doFinally(signal -> {
+                        if (signal == SignalType.CANCEL) {
+                            endpoint.breaker.onIgnored();
+                        }
+                        endpoint.end();
+                    })
+                    .onErrorMap(TimeoutException.class, error -> {
+                        timeouts.incrementAndGet();
+                        return new ModelUnavailableException(ModelUnavailableException.Reason.TIMEOUT, name, 1, error);
+                    });
+        });
+    }
+
+    /**
+     * 选择一个熔断器放行的接口并占用其调用名额，优先避开excluded（重试时为上次失败的接口）；
+     * 没有可用接口时返回null
+     */
+    Endpoint acquire(Endpoint excluded) {
+        // 选中的接口可能在选择后被其他调用抢走半开状态的探测名额，最多重选几次
+        for (int i = 0; i < 3; i++) {
+            Endpoint endpoint = choose(excluded);
+            if (endpoint == null && excluded != null) {
+                endpoint = choose(null);
+            }
+            if (endpoint == null) {
+                return null;
+            }
+            if (endpoint.breaker.tryAcquire()) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 两次随机选择：在熔断器放行的接口中随机取两个，返回代价较小的一个
+     */
+    private Endpoint choose(Endpoint excluded) {
+        Endpoint[] candidates = new Endpoint[endpoints.length];
+        int size = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint != excluded && endpoint.breaker.isCallPermitted()) {
+                candidates[size++] = endpoint;
+            }
+        }
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return candidates[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        return cheaper(candidates[first], candidates[second]);
+    }
+
+    private Endpoint cheaper(Endpoint first, Endpoint second) {
+        // 还没有样本的接口按已知的最小耗时估计，使新接口能尽快得到请求；都没有样本时只比较进行中的请求数
+        double unknown = Double.MAX_VALUE;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.ewmaNanos > 0 && endpoint.ewmaNanos < unknown) {
+                unknown = endpoint.ewmaNanos;
+            }
+        }
+        if (unknown == Double.MAX_VALUE) {
+            unknown = 1;
+        }
+        return first.cost(unknown) <= second.cost(unknown) ? first : second;
+    }
+
+    /**
+     * 在接口上执行一次调用，调用前必须已经通过acquire占用熔断器的名额。
+     * 每个请求只向熔断器记录一次结果，先占用outcome的一方记录：被取消的请求已由Race记录，
+     * 之后即使忽略中断正常返回也不再计为成功
+     */
+    private ChatResponse invoke(Endpoint endpoint, Prompt prompt, AtomicBoolean outcome) {
+        long startNanos = System.nanoTime();
+        endpoint.begin();
+        try {
+            ChatResponse response = endpoint.client.call(prompt);
+            if (outcome.compareAndSet(false, true)) {
+                endpoint.breaker.onSuccess();
+            }
+            recordSuccess(endpoint, System.nanoTime() - startNanos);
+            return response;
+        } catch (RuntimeException e) {
+            long nanos = System.nanoTime() - startNanos;
+            boolean record = outcome.compareAndSet(false, true);
+            if (Thread.currentThread().isInterrupted() || !record) {
+                // 超时或对冲中落败被取消的请求，已等待的时间是该接口耗时的下限
+                endpoint.recordLatency(nanos);
+                if (record) {
+                    endpoint.breaker.onIgnored();
+                }
+            } else if (policy.isRetryable(e)) {
+                endpoint.recordFailure(nanos);
+            } else {
+                endpoint.breaker.onIgnored();
+            }
+            throw e;
+        } finally {
+            endpoint.end();
+        }
+    }
+
+    private void recordSuccess(Endpoint endpoint, long nanos) {
+        endpoint.recordLatency(nanos);
+        long count = samples.getAndIncrement();
+        window.set((int) (count % WINDOW_SIZE), nanos);
+        if (hedging && (count + 1) % RECOMPUTE_INTERVAL == 0) {
+            recomputeHedgeDelay();
+        }
+    }
+
+    private void recomputeHedgeDelay() {
+        int size = (int) Math.min(samples.get(), WINDOW_SIZE);
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = window.get(i);
+        }
+        Arrays.sort(sorted);
+        int index = Math.min(size - 1, (int) Math.ceil(hedgePercentile * size) - 1);
+        hedgeDelayNanos = Math.max(hedgeMinDelayNanos, sorted[Math.max(index, 0)]);
+    }
+
+    /**
+     * 在执行器上调用并最多等待到deadline。开启对冲且第一个请求在对冲延迟内没有返回时，
+     * 向另一个接口发出相同请求，返回先成功的结果；所有请求都失败时抛出最后一个异常
+     */
+    private ChatResponse callWithDeadline(Endpoint first, Prompt prompt, long deadlineNanos) {
+        Race race = new Race();
+        race.submit(first, prompt, false);
+        boolean timedOut = false;
+        try {
+            if (hedging && samples.get() >= MIN_SAMPLES) {
+                ChatResponse response = race.await(Math.min(hedgeDelayNanos, deadlineNanos - System.nanoTime()));
+                if (response != null) {
+                    return response;
+                }
+                Endpoint second = deadlineNanos - System.nanoTime() > 0 ? acquire(first) : null;
+                if (second != null) {
+                    hedges.incrementAndGet();
+                    race.submit(second, prompt, true);
+                }
+            }
+            ChatResponse response = race.await(deadlineNanos - System.nanoTime());
+            if (response == null) {
+                timedOut = true;
+                timeouts.incrementAndGet();
+                throw new ModelUnavailableException(ModelUnavailableException.Reason.TIMEOUT, name, 1, null);
+            }
+            return response;
+        } finally {
+            race.cancel(timedOut);
+        }
+    }
+
+    private long retryAfterSeconds() {
+        long seconds = Long.MAX_VALUE;
+        for (Endpoint endpoint : endpoints) {
+            seconds = Math.min(seconds, endpoint.breaker.retryAfterSeconds());
+        }
+        return seconds;
+    }
+
+    private static void sleep(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待重试被中断", e);
+        }
+    }
+
+    /**
+     * 一次调用中的各个请求，先成功的结果完成result，全部失败时以最后一个异常完成
+     */
+    private final class Race {
+        private final CompletableFuture<ChatResponse> result = new CompletableFuture<>();
+        private final List<Attempt> attempts = new ArrayList<>(2);
+        private final AtomicInteger pending = new AtomicInteger();
+
+        void submit(Endpoint endpoint, Prompt prompt, boolean hedge) {
+            pending.incrementAndGet();
+            Attempt attempt = new Attempt(endpoint, prompt, this, hedge);
+            attempts.add(attempt);
+            try {
+                executor.execute(attempt);
+            } catch (RejectedExecutionException e) {
+                // 执行器已关闭，应用正在停止
+                if (attempt.claimOutcome()) {
+                    endpoint.breaker.onIgnored();
+                }
+                failed(e);
+            }
+        }
+
+        void succeeded(Attempt attempt, ChatResponse response) {
+            if (result.complete(response) && attempt.hedge) {
+                hedgeWins.incrementAndGet();
+            }
+        }
+
+        void failed(Throwable error) {
+            if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(error);
+            }
+        }
+
+        /**
+         * 等待结果，超时返回null
+         */
+        ChatResponse await(long timeoutNanos) {
+            try {
+                return result.get(Math.max(timeoutNanos, 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                return null;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException("模型调用失败: " + cause.getMessage(), cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待模型响应被中断", e);
+            }
+        }
+
+        /**
+         * 取消仍在执行的请求
+         *
+         * @param timedOut 是否因超时取消，超时的请求计为所在接口的失败，其余被取消的请求不计入熔断
+         */
+        void cancel(boolean timedOut) {
+            for (Attempt attempt : attempts) {
+                if (timedOut && !attempt.isDone() && attempt.claimOutcome()) {
+                    attempt.endpoint.failures.incrementAndGet();
+                    attempt.endpoint.breaker.onFailure();
+                }
+                attempt.cancel(true);
+            }
+        }
+    }
+
+    private final class Attempt extends FutureTask<ChatResponse> {
+        private final Endpoint endpoint;
+        private final Race race;
+        private final boolean hedge;
+        // 请求的结果是否已经记录到熔断器，由invoke、Race.cancel或取消回调中先到的一方占用
+        private final AtomicBoolean outcome;
+
+        Attempt(Endpoint endpoint, Prompt prompt, Race race, boolean hedge) {
+            this(endpoint, prompt, race, hedge, new AtomicBoolean());
+        }
+
+        private Attempt(Endpoint endpoint, Prompt prompt, Race race, boolean hedge, AtomicBoolean outcome) {
+            super(() -> invoke(endpoint, prompt, outcome));
+            this.endpoint = endpoint;
+            this.race = race;
+            this.hedge = hedge;
+            this.outcome = outcome;
+        }
+
+        boolean claimOutcome() {
+            return outcome.compareAndSet(false, true);
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                // 执行前被取消或在对冲中落败，归还熔断器的名额，不计入成功或失败
+                if (claimOutcome()) {
+                    endpoint.breaker.onIgnored();
+                }
+                return;
+            }
+            try {
+                race.succeeded(this, get());
+            } catch (ExecutionException e) {
+                race.failed(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        List<Map<String, Object>> endpointStats = new ArrayList<>(endpoints.length);
+        for (Endpoint endpoint : endpoints) {
+            endpointStats.add(endpoint.stats());
+        }
+        stats.put("endpoints", endpointStats);
+        stats.put("retries", retries.get());
+        stats.put("rejected", rejected.get());
+        stats.put("timeouts", timeouts.get());
+        if (hedging) {
+            stats.put("hedges", hedges.get());
+            stats.put("hedgeWins", hedgeWins.get());
+            stats.put("hedgeDelayMs", hedgeDelayNanos == Long.MAX_VALUE ? null : hedgeDelayNanos / 1_000_000);
+        }
+        return stats;
+    }
+}
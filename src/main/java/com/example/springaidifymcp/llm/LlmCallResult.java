@@ -0,0 +1,15 @@
+package com.example.springaidifymcp.llm;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 一次模型调用的结果
+ */
+@Getter
+@AllArgsConstructor
+public class LlmCallResult {
+    private final String content;
+    // 是否由响应缓存直接返回
+    private final boolean cacheHit;
+}
@@ -0,0 +1,252 @@
+package com.example.springaidifymcp.llm;
+
+import com.example.springaidifymcp.limit.Bulkhead;
+import com.example.springaidifymcp.limit.BulkheadFullException;
+import com.example.springaidifymcp.limit.BulkheadRegistry;
+import com.example.springaidifymcp.metrics.WorkflowMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 工作流节点调用模型的统一入口，在节点的模型路由之前加入响应缓存，
+ * 未命中缓存的调用需要先取得所用模型的隔离舱许可。每次调用的超时取节点超时上限与运行剩余时间中较小的一个；
+ * 模型不可用时依次改用路由配置的备用模型与已过期但仍在保留期内的缓存响应
+ */
+@Service
+@Slf4j
+public class LlmGateway {
+
+    private final LlmResponseCache responseCache;
+    private final BulkheadRegistry bulkheads;
+    private final WorkflowMetrics metrics;
+    private final ResiliencePolicy policy;
+    private final boolean cacheEnabled;
+
+    private final AtomicLong unavailable = new AtomicLong();
+    private final AtomicLong fallbackModelCalls = new AtomicLong();
+    private final AtomicLong staleAnswers = new AtomicLong();
+
+    public LlmGateway(LlmResponseCache responseCache, BulkheadRegistry bulkheads, WorkflowMetrics metrics,
+                      ResiliencePolicy policy, @Value("${workflow.llm-cache.enabled:true}") boolean cacheEnabled) {
+        this.responseCache = responseCache;
+        this.bulkheads = bulkheads;
+        this.metrics = metrics;
+        this.policy = policy;
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    /**
+     * 阻塞调用模型
+     *
+     * @param route       节点编译期解析的模型路由，其参数标识与提示一起组成缓存键
+     * @param cacheable   节点是否允许使用缓存
+     * @param budgetNanos 运行剩余的时间预算
+     * @throws com.example.springaidifymcp.limit.BulkheadFullException 模型的并发与等待队列已满
+     * @throws ModelUnavailableException 模型不可用且没有备用结果
+     */
+    public LlmCallResult call(Prompt prompt, ModelRoute route, boolean cacheable, long budgetNanos) {
+        long startNanos = System.nanoTime();
+        Duration timeout = policy.nodeTimeout(budgetNanos);
+        String model = route.getName();
+        String key = cacheEnabled && cacheable ? cacheKey(prompt, route.getOptionsKey()) : null;
+        if (key != null) {
+            String cached = responseCache.get(key);
+            if (cached != null) {
+                log.debug("模型响应缓存命中: {}", key);
+                metrics.recordLlmCall(model, System.nanoTime() - startNanos, true, 0, 0);
+                return new LlmCallResult(cached, true);
+            }
+        }
+
+        try {
+            return invoke(prompt, route, key, timeout);
+        } catch (ModelUnavailableException e) {
+            return fallback(prompt, route, key, e, startNanos + timeout.toNanos(), null);
+        }
+    }
+
+    private LlmCallResult invoke(Prompt prompt, ModelRoute route, String key, Duration timeout) {
+        long startNanos = System.nanoTime();
+        ChatResponse response;
+        try (Bulkhead.Permit permit = bulkheads.acquireModel(route.getName())) {
+            response = route.call(prompt, timeout);
+        }
+        String content = response.getResult().getOutput().getContent();
+        Usage usage = response.getMetadata() != null ? response.getMetadata().getUsage() : null;
+        metrics.recordLlmCall(route.getName(), System.nanoTime() - startNanos, false,
+                usage != null && usage.getPromptTokens() != null ? usage.getPromptTokens() : 0,
+                usage != null && usage.getGenerationTokens() != null ? usage.getGenerationTokens() : 0);
+        if (key != null && content != null) {
+            responseCache.put(key, content);
+        }
+        return new LlmCallResult(content, false);
+    }
+
+    /**
+     * 流式调用模型，每收到一段内容回调onToken；缓存命中与采用备用结果时整段内容只回调一次。
+     * 已经输出部分内容后模型不可用时不再改用备用结果
+     */
+    public LlmCallResult stream(Prompt prompt, ModelRoute route, boolean cacheable,
+                                Consumer<String> onToken, long budgetNanos) {
+        long startNanos = System.nanoTime();
+        Duration timeout = policy.nodeTimeout(budgetNanos);
+        String model = route.getName();
+        String key = cacheEnabled && cacheable ? cacheKey(prompt, route.getOptionsKey()) : null;
+        if (key != null) {
+            String cached = responseCache.get(key);
+            if (cached != null) {
+                onToken.accept(cached);
+                metrics.recordLlmCall(model, System.nanoTime() - startNanos, true, 0, 0);
+                return new LlmCallResult(cached, true);
+            }
+        }
+
+        StringBuilder content = new StringBuilder();
+        try (Bulkhead.Permit permit = bulkheads.acquireModel(model)) {
+            route.stream(prompt, timeout)
+                    .doOnNext(chunk -> {
+                        if (chunk.getResult() == null || chunk.getResult().getOutput() == null) {
+                            return;
+                        }
+                        String token = chunk.getResult().getOutput().getContent();
+                        if (token != null && !token.isEmpty()) {
+                            content.append(token);
+                            onToken.accept(token);
+                        }
+                    })
+                    .blockLast();
+        } catch (ModelUnavailableException e) {
+            if (content.length() > 0) {
+                throw e;
+            }
+            return fallback(prompt, route, key, e, startNanos + timeout.toNanos(), onToken);
+        }
+        // 流式响应不返回用量，只记录耗时
+        metrics.recordLlmCall(model, System.nanoTime() - startNanos, false, 0, 0);
+        String result = content.toString();
+        if (key != null) {
+            responseCache.put(key, result);
+        }
+        return new LlmCallResult(result, false);
+    }
+
+    /**
+     * 模型不可用时的备用结果：先调用路由配置的备用模型（超时的调用已没有剩余时间，跳过），
+     * 再读取已过期但仍在保留期内的缓存响应，都没有时抛出原来的异常
+     *
+     * @param onToken 流式调用时整段备用内容回调一次，阻塞调用为null
+     */
+    private LlmCallResult fallback(Prompt prompt, ModelRoute route, String key, ModelUnavailableException error,
+                                   long deadlineNanos, Consumer<String> onToken) {
+        unavailable.incrementAndGet();
+        String reason = error.getReason().name().toLowerCase();
+        LlmCallResult result = null;
+        String source = "none";
+        ModelRoute fallback = route.getFallback();
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (fallback != null && error.getReason() != ModelUnavailableException.Reason.TIMEOUT && remainingNanos > 0) {
+            try {
+                result = invoke(prompt, fallback, null, Duration.ofNanos(remainingNanos));
+                source = "model";
+                fallbackModelCalls.incrementAndGet();
+                log.warn("模型 {} 不可用（{}），改用 {}", route.getName(), reason, fallback.getName());
+            } catch (ModelUnavailableException | BulkheadFullException fallbackError) {
+                log.warn("模型 {} 不可用（{}），备用模型 {} 也不可用: {}", route.getName(), reason, fallback.getName(),
+                        fallbackError.getMessage());
+            }
+        }
+        if (result == null && key != null) {
+            String stale = responseCache.getStale(key);
+            if (stale != null) {
+                result = new LlmCallResult(stale, true);
+                source = "stale_cache";
+                staleAnswers.incrementAndGet();
+                log.warn("模型 {} 不可用（{}），使用过期的缓存响应", route.getName(), reason);
+            }
+        }
+        metrics.recordLlmUnavailable(route.getName(), reason, source);
+        if (result == null) {
+            throw error;
+        }
+        if (onToken != null && result.getContent() != null) {
+            onToken.accept(result.getContent());
+        }
+        return result;
+    }
+
+    public Map<String, Object> getCacheStats() {
+        return responseCache.stats();
+    }
+
+    /**
+     * 模型不可用的次数，以及改用备用模型与过期缓存响应的次数
+     */
+    public Map<String, Object> getFallbackStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("unavailable", unavailable.get());
+        stats.put("fallbackModelCalls", fallbackModelCalls.get());
+        stats.put("staleAnswers", staleAnswers.get());
+        return stats;
+    }
+
+    /**
+     * 缓存键：规范化（去除首尾空白、合并连续空白）后的各条消息与模型参数的SHA-256摘要
+     */
+    String cacheKey(Prompt prompt, String optionsKey) {
+        MessageDigest digest = sha256();
+        for (Message message : prompt.getInstructions()) {
+            digest.update(message.getMessageType().getValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 1);
+            digest.update(normalize(message.getContent()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 2);
+        }
+        if (optionsKey != null) {
+            digest.update(optionsKey.getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    normalized.append(' ');
+                    pendingSpace = false;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.springaidifymcp.llm;
+
+import java.util.Map;
+
+/**
+ * 模型响应缓存，键为提示与模型参数的摘要
+ */
+public interface LlmResponseCache {
+
+    /**
+     * 读取缓存的响应内容，不存在或已过期时返回null
+     */
+    String get(String key);
+
+    /**
+     * 读取已过期但仍在保留期内的响应，模型不可用时作为备用回答；不支持时返回null
+     */
+    default String getStale(String key) {
+        return null;
+    }
+
+    void put(String key, String content);
+
+    Map<String, Object> stats();
+}
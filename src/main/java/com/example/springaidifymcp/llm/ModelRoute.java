@@ -0,0 +1,65 @@
+package com.example.springaidifymcp.llm;
+
+import lombok.Getter;
+import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+
+/**
+ * 节点在编译期解析得到的模型路由：共享的接口地址池加上该节点的模型参数。
+ * 参数对象只在解析时构建一次，相同provider、模型与参数的节点共享同一个路由。
+ */
+@Getter
+public class ModelRoute {
+
+    // provider/模型名，用于隔离舱与指标
+    private final String name;
+    private final String provider;
+    private final String model;
+    private final String baseUrl;
+    // 模型与参数的规范化标识，用于响应缓存的键
+    private final String optionsKey;
+    private final OpenAiChatOptions options;
+    private final EndpointPool pool;
+    // 模型不可用时改用的路由（workflow.models.fallback），参数与本路由相同，没有配置时为null
+    private volatile ModelRoute fallback;
+
+    ModelRoute(String provider, String model, String baseUrl, String optionsKey, OpenAiChatOptions options,
+               EndpointPool pool) {
+        this.name = provider + "/" + model;
+        this.provider = provider;
+        this.model = model;
+        this.baseUrl = baseUrl;
+        this.optionsKey = optionsKey;
+        this.options = options;
+        this.pool = pool;
+    }
+
+    void setFallback(ModelRoute fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * 使用路由的模型参数阻塞调用，提示中携带的参数被忽略
+     *
+     * @throws ModelUnavailableException 模型不可用或在timeout内没有返回
+     */
+    public ChatResponse call(Prompt prompt, Duration timeout) {
+        return pool.call(new Prompt(prompt.getInstructions(), options), timeout);
+    }
+
+    /**
+     * 使用路由的模型参数流式调用，客户端不支持流式时整段结果作为一个分片返回
+     */
+    public Flux<ChatResponse> stream(Prompt prompt, Duration timeout) {
+        return pool.stream(new Prompt(prompt.getInstructions(), options), timeout);
+    }
+
+    @Override
+    public String toString() {
+        return name + "@" + baseUrl;
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.springaidifymcp.llm;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.ChatClient;
+import org.springframework.ai.openai.OpenAiChatClient;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.retry.backoff.NoBackOffPolicy;
+import org.springframework.retry.policy.NeverRetryPolicy;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * 把节点的模型配置（provider、name、completion_params）解析为模型路由。
+ * 每个（provider, base URL, 模型）只创建一个客户端并在所有节点间复用；路由按模型与参数的标识缓存，
+ * 工作流编译时解析一次，调用时不再构建参数对象。
+ * provider对应的接口地址与密钥由workflow.models.base-urls/api-keys配置，未配置的provider使用
+ * spring.ai.openai的地址与密钥（OpenAI兼容接口）。
+ * 一个provider可以配置多个以逗号分隔的接口地址，同一模型在这些地址间按响应耗时与进行中的请求数负载均衡，
+ * 开启workflow.models.hedging时慢请求会向另一个地址发出对冲请求，见{@link EndpointPool}。
+ * workflow.models.fallback为模型配置不可用（熔断、超时或重试后仍失败）时改用的模型，参数与原路由相同。
+ */
+@Component
+@Slf4j
+public class ModelRouter {
+
+    public static final String DEFAULT_PROVIDER = "openai";
+
+    /**
+     * 为一个接口地址与模型创建客户端
+     */
+    @FunctionalInterface
+    public interface ClientFactory {
+        ChatClient create(String baseUrl, String apiKey, String model);
+    }
+
+    private final ClientFactory clientFactory;
+    private final OpenAiChatOptions defaultOptions;
+    private final List<String> defaultBaseUrls;
+    private final String defaultApiKey;
+    private final Map<String, String> baseUrls;
+    private final Map<String, String> apiKeys;
+    // 问题分类节点使用的模型（为空时使用节点自己的模型），以及节点未配置max_tokens时的上限
+    private final String classifierModel;
+    private final int classifierMaxTokens;
+    // 模型名或provider/模型名 -> 不可用时改用的模型名（可以带provider/前缀）
+    private final Map<String, String> fallbackModels;
+    // 执行阻塞调用的执行器，为null时在调用线程上执行，不限制超时也不对冲
+    private final ExecutorService callExecutor;
+    private final boolean hedging;
+    private final double hedgePercentile;
+    private final Duration hedgeMinDelay;
+    private final ResiliencePolicy policy;
+
+    // provider|baseUrls|model -> 接口地址池
+    private final Map<String, EndpointPool> pools = new ConcurrentHashMap<>();
+    // 模型参数标识 -> 路由
+    private final Map<String, ModelRoute> routes = new ConcurrentHashMap<>();
+    // 按模型名路由的调用（未指定provider）
+    private final Map<String, ModelRoute> modelRoutes = new ConcurrentHashMap<>();
+    private final ModelRoute defaultRoute;
+
+    @Autowired
+    public ModelRouter(OpenAiChatOptions openAiChatOptions,
+                       @Value("${spring.ai.openai.base-url:https://api.openai.com}") String defaultBaseUrl,
+                       @Value("${workflow.models.default.base-urls:}") String[] defaultBaseUrls,
+                       @Value("${spring.ai.openai.api-key:}") String defaultApiKey,
+                       @Value("#{${workflow.models.base-urls:{:}}}") Map<String, String> baseUrls,
+                       @Value("#{${workflow.models.api-keys:{:}}}") Map<String, String> apiKeys,
+                       @Value("${workflow.models.classifier.model:}") String classifierModel,
+                       @Value("${workflow.models.classifier.max-tokens:32}") int classifierMaxTokens,
+                       @Value("#{${workflow.models.fallback:{:}}}") Map<String, String> fallbackModels,
+                       @Value("${workflow.models.hedging.enabled:false}") boolean hedging,
+                       @Value("${workflow.models.hedging.percentile:0.95}") double hedgePercentile,
+                       @Value("${workflow.models.hedging.min-delay:50ms}") Duration hedgeMinDelay,
+                       ExecutorService llmCallExecutor, ResiliencePolicy policy) {
+        this(ModelRouter::openAiClient, openAiChatOptions, defaultBaseUrls.length > 0 ? List.of(defaultBaseUrls) : List.of(defaultBaseUrl),
+                defaultApiKey, baseUrls, apiKeys, classifierModel, classifierMaxTokens, fallbackModels,
+                llmCallExecutor, hedging, hedgePercentile, hedgeMinDelay, policy);
+    }
+
+    /**
+     * @param defaultBaseUrls 未配置接口地址的provider使用的地址
+     * @param callExecutor    执行阻塞调用的执行器，为null时在调用线程上执行，不限制超时也不对冲
+     */
+    public ModelRouter(ClientFactory clientFactory, OpenAiChatOptions defaultOptions, List<String> defaultBaseUrls,
+                       String defaultApiKey, Map<String, String> baseUrls, Map<String, String> apiKeys,
+                       String classifierModel, int classifierMaxTokens, Map<String, String> fallbackModels,
+                       ExecutorService callExecutor, boolean hedging, double hedgePercentile, Duration hedgeMinDelay,
+                       ResiliencePolicy policy) {
+        this.clientFactory = clientFactory;
+        this.defaultOptions = defaultOptions;
+        this.defaultBaseUrls = normalize(defaultBaseUrls);
+        this.defaultApiKey = defaultApiKey;
+        this.baseUrls = baseUrls != null ? baseUrls : Collections.emptyMap();
+        this.apiKeys = apiKeys != null ? apiKeys : Collections.emptyMap();
+        this.classifierModel = classifierModel != null ? classifierModel : "";
+        this.classifierMaxTokens = classifierMaxTokens;
+        this.fallbackModels = fallbackModels != null ? fallbackModels : Collections.emptyMap();
+        this.callExecutor = callExecutor;
+        this.hedging = hedging;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelay = hedgeMinDelay;
+        this.policy = policy;
+        this.defaultRoute = resolve(null, false);
+    }
+
+    /**
+     * 未配置模型的节点与未指定模型的调用使用的路由
+     */
+    public ModelRoute defaultRoute() {
+        return defaultRoute;
+    }
+
+    /**
+     * 按模型名路由，provider为默认provider，参数使用默认值
+     */
+    public ModelRoute routeForModel(String model) {
+        if (model == null || model.equals(defaultOptions.getModel())) {
+            return defaultRoute;
+        }
+        return modelRoutes.computeIfAbsent(model, name -> {
+            Map<String, Object> config = new HashMap<>();
+            config.put("provider", DEFAULT_PROVIDER);
+            config.put("name", name);
+            return resolve(config, false);
+        });
+    }
+
+    /**
+     * 解析节点的模型配置
+     *
+     * @param model      节点的model配置，可以为null
+     * @param classifier 是否为问题分类节点，分类节点可以换用workflow.models.classifier.model并限制回答长度
+     */
+    @SuppressWarnings("unchecked")
+    public ModelRoute resolve(Map<String, Object> model, boolean classifier) {
+        String provider = model != null && model.get("provider") != null ? model.get("provider").toString() : DEFAULT_PROVIDER;
+        String name = model != null && model.get("name") != null ? model.get("name").toString() : defaultOptions.getModel();
+        if (classifier && !classifierModel.isEmpty()) {
+            name = classifierModel;
+        }
+        Map<String, Object> params = model != null && model.get("completion_params") instanceof Map
+                ? (Map<String, Object>) model.get("completion_params") : Collections.emptyMap();
+
+        ModelRoute route = resolve(provider, name, params, classifier);
+        if (route.getFallback() == null) {
+            String fallback = fallbackModels.getOrDefault(route.getName(), fallbackModels.get(name));
+            if (fallback != null && !fallback.isBlank()) {
+                // 在routes.computeIfAbsent之外解析，互为备用的两个模型不会递归
+                String fallbackProvider = provider;
+                int slash = fallback.indexOf('/');
+                if (slash > 0 && (DEFAULT_PROVIDER.equals(fallback.substring(0, slash))
+                        || baseUrls.containsKey(fallback.substring(0, slash)))) {
+                    fallbackProvider = fallback.substring(0, slash);
+                    fallback = fallback.substring(slash + 1);
+                }
+                ModelRoute fallbackRoute = resolve(fallbackProvider, fallback.trim(), params, classifier);
+                if (fallbackRoute != route) {
+                    route.setFallback(fallbackRoute);
+                }
+            }
+        }
+        return route;
+    }
+
+    private ModelRoute resolve(String provider, String name, Map<String, Object> params, boolean classifier) {
+        // 标识包含节点未配置、由默认值补齐的参数，默认值改变后旧的缓存响应不会被命中
+        Map<String, Object> effective = new TreeMap<>(params);
+        effective.putIfAbsent("temperature", defaultOptions.getTemperature());
+        effective.putIfAbsent("max_tokens", classifier ? Integer.valueOf(classifierMaxTokens) : defaultOptions.getMaxTokens());
+        StringBuilder key = new StringBuilder().append(provider).append('/').append(name);
+        effective.forEach((param, value) -> {
+            if (value != null) {
+                key.append(';').append(param).append('=').append(value);
+            }
+        });
+
+        String routeName = name;
+        return routes.computeIfAbsent(key.toString(), optionsKey -> {
+            List<String> urls = baseUrls.containsKey(provider)
+                    ? normalize(List.of(baseUrls.get(provider).split(","))) : defaultBaseUrls;
+            String apiKey = apiKeys.getOrDefault(provider, defaultApiKey);
+            if (!DEFAULT_PROVIDER.equals(provider) && !baseUrls.containsKey(provider)) {
+                log.debug("provider {} 未配置接口地址，使用 {}", provider, defaultBaseUrls);
+            }
+            String joined = String.join(",", urls);
+            EndpointPool pool = pools.computeIfAbsent(provider + '|' + joined + '|' + routeName, poolKey -> {
+                log.info("创建模型客户端: {}/{} @ {}", provider, routeName, joined);
+                Map<String, ChatClient> clients = new LinkedHashMap<>();
+                for (String url : urls) {
+                    clients.put(url, clientFactory.create(url, apiKey, routeName));
+                }
+                return new EndpointPool(provider + "/" + routeName, clients, callExecutor, hedging, hedgePercentile,
+                        hedgeMinDelay.toNanos(), policy);
+            });
+            return new ModelRoute(provider, routeName, joined, optionsKey, buildOptions(routeName, effective), pool);
+        });
+    }
+
+    /**
+     * OpenAiChatClient自带的RetryTemplate会在客户端内部重试最多10次，绕过重试预算与节点的时间预算，
+     * 这里改为不重试、不退避，重试统一由EndpointPool决定
+     */
+    static OpenAiChatClient openAiClient(String baseUrl, String apiKey, String model) {
+        OpenAiChatClient client = new OpenAiChatClient(new OpenAiApi(baseUrl, apiKey),
+                OpenAiChatOptions.builder().withModel(model).build());
+        client.retryTemplate.setRetryPolicy(new NeverRetryPolicy());
+        client.retryTemplate.setBackOffPolicy(new NoBackOffPolicy());
+        return client;
+    }
+
+    private static List<String> normalize(List<String> urls) {
+        List<String> normalized = new ArrayList<>();
+        for (String url : urls) {
+            if (url != null && !url.isBlank() && !normalized.contains(url.trim())) {
+                normalized.add(url.trim());
+            }
+        }
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("未配置模型接口地址");
+        }
+        return normalized;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("clients", pools.size());
+        stats.put("routes", routes.size());
+        stats.put("defaultModel", defaultRoute.getName());
+        Map<String, Integer> routesByModel = new TreeMap<>();
+        for (ModelRoute route : routes.values()) {
+            routesByModel.merge(route.getName(), 1, Integer::sum);
+        }
+        stats.put("routesByModel", routesByModel);
+        Map<String, Object> endpoints = new TreeMap<>();
+        for (EndpointPool pool : pools.values()) {
+            endpoints.put(pool.getName(), pool.stats());
+        }
+        stats.put("endpoints", endpoints);
+        if (hedging) {
+            stats.put("hedgePercentile", hedgePercentile);
+        }
+        stats.put("retryBudget", policy.getRetryBudget().stats());
+        return stats;
+    }
+
+    private static OpenAiChatOptions buildOptions(String model, Map<String, Object> params) {
+        OpenAiChatOptions.Builder builder = OpenAiChatOptions.builder().withModel(model);
+        Number temperature = number(params.get("temperature"));
+        if (temperature != null) {
+            builder.withTemperature(temperature.floatValue());
+        }
+        Number maxTokens = number(params.get("max_tokens"));
+        if (maxTokens != null) {
+            builder.withMaxTokens(maxTokens.intValue());
+        }
+        Number topP = number(params.get("top_p"));
+        if (topP != null) {
+            builder.withTopP(topP.floatValue());
+        }
+        Number presencePenalty = number(params.get("presence_penalty"));
+        if (presencePenalty != null) {
+            builder.withPresencePenalty(presencePenalty.floatValue());
+        }
+        Number frequencyPenalty = number(params.get("frequency_penalty"));
+        if (frequencyPenalty != null) {
+            builder.withFrequencyPenalty(frequencyPenalty.floatValue());
+        }
+        Number seed = number(params.get("seed"));
+        if (seed != null) {
+            builder.withSeed(seed.intValue());
+        }
+        Object stop = params.get("stop");
+        if (stop instanceof List && !((List<?>) stop).isEmpty()) {
+            List<String> sequences = new ArrayList<>();
+            for (Object sequence : (List<?>) stop) {
+                sequences.add(String.valueOf(sequence));
+            }
+            builder.withStop(sequences);
+        } else if (stop instanceof String && !((String) stop).isEmpty()) {
+            builder.withStop(List.of((String) stop));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 参数值可能是数字或数字字符串
+     */
+    private static Number number(Object value) {
+        if (value instanceof Number) {
+            return (Number) value;
+        }
+        if (value instanceof String && !((String) value).isBlank()) {
+            try {
+                return Double.valueOf(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
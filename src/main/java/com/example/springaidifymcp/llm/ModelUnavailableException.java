@@ -0,0 +1,35 @@
+package com.example.springaidifymcp.llm;
+
+import lombok.Getter;
+
+/**
+ * 模型当前不可用：所有接口地址都已熔断、调用在时间预算内没有返回，或重试后仍然失败。
+ * 调用方应返回503，而不是把上游故障当作请求错误
+ */
+@Getter
+public class ModelUnavailableException extends RuntimeException {
+
+    public enum Reason {
+        CIRCUIT_OPEN, TIMEOUT, FAILED
+    }
+
+    private final Reason reason;
+    private final String model;
+    // 建议客户端重试前等待的秒数
+    private final long retryAfterSeconds;
+
+    public ModelUnavailableException(Reason reason, String model, long retryAfterSeconds, Throwable cause) {
+        super(message(reason, model, cause), cause);
+        this.reason = reason;
+        this.model = model;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    private static String message(Reason reason, String model, Throwable cause) {
+        return switch (reason) {
+            case CIRCUIT_OPEN -> "模型 " + model + " 暂时不可用，所有接口地址均已熔断";
+            case TIMEOUT -> "模型 " + model + " 在时间预算内没有返回";
+            case FAILED -> "模型 " + model + " 调用失败: " + (cause != null ? cause.getMessage() : "未知错误");
+        };
+    }
+}
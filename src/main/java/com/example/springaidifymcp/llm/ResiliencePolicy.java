@@ -0,0 +1,115 @@
+package com.example.springaidifymcp.llm;
+
+import lombok.Getter;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 模型调用的容错策略：每个接口地址的熔断器参数、重试次数与退避时间、全局重试预算，
+ * 以及单个节点调用模型的超时上限（实际超时不超过运行剩余的时间预算）
+ */
+@Component
+@Getter
+public class ResiliencePolicy {
+
+    private final Duration nodeTimeout;
+    private final int maxAttempts;
+    private final Duration backoff;
+    private final Duration maxBackoff;
+    private final RetryBudget retryBudget;
+    private final int breakerWindowSize;
+    private final int breakerMinimumCalls;
+    private final double breakerFailureRate;
+    private final Duration breakerOpenDuration;
+
+    @Autowired
+    public ResiliencePolicy(@Value("${workflow.models.resilience.node-timeout:60s}") Duration nodeTimeout,
+                            @Value("${workflow.models.resilience.retry.max-attempts:3}") int maxAttempts,
+                            @Value("${workflow.models.resilience.retry.backoff:200ms}") Duration backoff,
+                            @Value("${workflow.models.resilience.retry.max-backoff:2s}") Duration maxBackoff,
+                            @Value("${workflow.models.resilience.retry.budget-ratio:0.1}") double budgetRatio,
+                            @Value("${workflow.models.resilience.retry.min-per-second:2}") int minRetriesPerSecond,
+                            @Value("${workflow.models.resilience.breaker.window-size:20}") int breakerWindowSize,
+                            @Value("${workflow.models.resilience.breaker.minimum-calls:10}") int breakerMinimumCalls,
+                            @Value("${workflow.models.resilience.breaker.failure-rate:0.5}") double breakerFailureRate,
+                            @Value("${workflow.models.resilience.breaker.open-duration:30s}") Duration breakerOpenDuration) {
+        this.nodeTimeout = nodeTimeout;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.retryBudget = new RetryBudget(budgetRatio, minRetriesPerSecond);
+        this.breakerWindowSize = breakerWindowSize;
+        this.breakerMinimumCalls = breakerMinimumCalls;
+        this.breakerFailureRate = breakerFailureRate;
+        this.breakerOpenDuration = breakerOpenDuration;
+    }
+
+    /**
+     * 不重试、不熔断的策略（失败率阈值大于1，熔断器不会打开），只限制超时
+     */
+    public static ResiliencePolicy none(Duration nodeTimeout) {
+        return new ResiliencePolicy(nodeTimeout, 1, Duration.ZERO, Duration.ZERO, 0, 0,
+                1, 1, 2.0, Duration.ZERO);
+    }
+
+    public CircuitBreaker newCircuitBreaker() {
+        return new CircuitBreaker(breakerWindowSize, breakerMinimumCalls, breakerFailureRate,
+                breakerOpenDuration.toNanos());
+    }
+
+    /**
+     * 第attempt次调用失败后的退避时间（纳秒）：在0到 backoff×2^(attempt-1)（不超过maxBackoff）之间随机，
+     * 同时失败的调用不会在同一时刻一起重试
+     */
+    public long backoffNanos(int attempt) {
+        long ceiling = Math.min(maxBackoff.toNanos(), backoff.toNanos() << Math.min(attempt - 1, 20));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * 上游返回的4xx（408与429除外）说明请求本身有误，换接口地址重试也不会成功，也不说明接口不健康。
+     * OpenAiApi把HTTP错误包装为OpenAiApiException，状态码在消息开头（"401 - {...}"）
+     */
+    public boolean isRetryable(Throwable error) {
+        if (error instanceof RestClientResponseException) {
+            return isRetryableStatus(((RestClientResponseException) error).getStatusCode().value());
+        }
+        if (error instanceof OpenAiApi.OpenAiApiException) {
+            int status = leadingStatus(error.getMessage());
+            return status < 0 || isRetryableStatus(status);
+        }
+        return true;
+    }
+
+    private static boolean isRetryableStatus(int status) {
+        return status < 400 || status >= 500 || status == 408 || status == 429;
+    }
+
+    private static int leadingStatus(String message) {
+        if (message == null || message.length() < 3) {
+            return -1;
+        }
+        for (int i = 0; i < 3; i++) {
+            if (!Character.isDigit(message.charAt(i))) {
+                return -1;
+            }
+        }
+        if (message.length() > 3 && Character.isDigit(message.charAt(3))) {
+            return -1;
+        }
+        return Integer.parseInt(message.substring(0, 3));
+    }
+
+    /**
+     * 节点调用模型的超时：配置的上限与运行剩余时间中较小的一个，至少1毫秒
+     */
+    public Duration nodeTimeout(long remainingNanos) {
+        return Duration.ofNanos(Math.max(Math.min(nodeTimeout.toNanos(), remainingNanos), 1_000_000));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.springaidifymcp.llm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全局的重试预算：每个首次调用存入ratio个令牌（上限为1000次调用的量），每次重试取出一个，
+ * 重试带来的额外请求因此不超过正常请求的ratio倍，上游故障时重试不会把流量放大；
+ * 流量很低时令牌攒得慢，每秒另外允许minRetriesPerSecond次重试。
+ */
+public class RetryBudget {
+
+    // 令牌以千分之一为单位计数
+    private static final long UNIT = 1000;
+
+    private final long depositPerCall;
+    private final long maxBalance;
+    private final int minRetriesPerSecond;
+
+    private final AtomicLong balance = new AtomicLong();
+    private final AtomicLong reserveSecond = new AtomicLong();
+    private final AtomicLong reserveUsed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public RetryBudget(double ratio, int minRetriesPerSecond) {
+        this.depositPerCall = Math.max(0, Math.round(ratio * UNIT));
+        this.maxBalance = Math.max(UNIT, depositPerCall * 1000);
+        this.minRetriesPerSecond = minRetriesPerSecond;
+    }
+
+    /**
+     * 记录一次首次调用
+     */
+    public void deposit() {
+        if (depositPerCall == 0) {
+            return;
+        }
+        long current;
+        do {
+            current = balance.get();
+            if (current >= maxBalance) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(maxBalance, current + depositPerCall)));
+    }
+
+    /**
+     * 申请一次重试，预算用完时返回false
+     */
+    public boolean tryAcquire() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < UNIT) {
+                return tryReserve();
+            }
+        } while (!balance.compareAndSet(current, current - UNIT));
+        retries.incrementAndGet();
+        return true;
+    }
+
+    private boolean tryReserve() {
+        long second = System.nanoTime() / 1_000_000_000L;
+        long current = reserveSecond.get();
+        if (current != second && reserveSecond.compareAndSet(current, second)) {
+            reserveUsed.set(0);
+        }
+        if (reserveUsed.incrementAndGet() <= minRetriesPerSecond) {
+            retries.incrementAndGet();
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("balance", balance.get() / UNIT);
+        stats.put("retries", retries.get());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.springaidifymcp.llm;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 两级模型响应缓存：有容量上限和TTL的内存缓存，以及可选的磁盘缓存。
+ * 磁盘缓存每个键一个文件，首行为过期时间，重启后仍然有效；磁盘命中的内容会提升到内存。
+ * 过期的响应再保留staleTtl，只在模型不可用时通过getStale读取（stale-if-error）。
+ * 后台线程定期删除磁盘上超过staleTtl的文件，文件数或总大小超过上限时先删除最早写入的文件；
+ * 两次清理之间写入的文件使估计值超过上限时提前清理。
+ */
+@Slf4j
+public class TieredLlmResponseCache implements LlmResponseCache {
+
+    /**
+     * 缓存的响应及其过期时间
+     */
+    private static final class Entry {
+        final String content;
+        final long expiresAt;
+
+        Entry(String content, long expiresAt) {
+            this.content = content;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Cache<String, Entry> memory;
+    private final Path diskDir;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+
+    // 磁盘缓存的上限，以及上次清理后加上新写入文件的估计值
+    private final long diskMaxEntries;
+    private final long diskMaxBytes;
+    private final AtomicLong diskEntries = new AtomicLong();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+    private final AtomicBoolean sweepPending = new AtomicBoolean();
+    // 未启用磁盘缓存时为null
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * 只使用内存缓存
+     */
+    public TieredLlmResponseCache(long maximumSize, Duration ttl, Duration staleTtl) throws IOException {
+        this(maximumSize, ttl, staleTtl, null, 0, 0, Duration.ZERO);
+    }
+
+    /**
+     * @param staleTtl       过期后仍保留、供模型不可用时使用的时间，为0时不保留
+     * @param diskDir        磁盘缓存目录，为null时只使用内存缓存
+     * @param diskMaxEntries 磁盘缓存的最大文件数
+     * @param diskMaxBytes   磁盘缓存的最大总字节数
+     * @param sweepInterval  清理磁盘缓存的间隔
+     */
+    public TieredLlmResponseCache(long maximumSize, Duration ttl, Duration staleTtl, Path diskDir,
+                                  long diskMaxEntries, long diskMaxBytes, Duration sweepInterval) throws IOException {
+        this.memory = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl.plus(staleTtl))
+                .recordStats()
+                .build();
+        this.ttlMillis = ttl.toMillis();
+        this.staleMillis = staleTtl.toMillis();
+        this.diskDir = diskDir != null ? Files.createDirectories(diskDir) : null;
+        this.diskMaxEntries = Math.max(diskMaxEntries, 1);
+        this.diskMaxBytes = Math.max(diskMaxBytes, 1);
+        if (this.diskDir == null) {
+            this.sweeper = null;
+            return;
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "llm-cache-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = Math.max(sweepInterval.toMillis(), 1000);
+        // 启动时先清理一次，得到文件数与大小的初始值
+        sweeper.scheduleWithFixedDelay(this::sweep, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台清理，由Spring在关闭时调用
+     */
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    @Override
+    public String get(String key) {
+        long now = System.currentTimeMillis();
+        Entry entry = memory.getIfPresent(key);
+        if (entry != null) {
+            if (entry.expiresAt >= now) {
+                hits.incrementAndGet();
+                return entry.content;
+            }
+        } else if (diskDir != null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                memory.put(key, entry);
+                if (entry.expiresAt >= now) {
+                    diskHits.incrementAndGet();
+                    return entry.content;
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    @Override
+    public String getStale(String key) {
+        Entry entry = memory.getIfPresent(key);
+        if (entry == null && diskDir != null) {
+            entry = readFromDisk(key);
+        }
+        if (entry == null || entry.expiresAt + staleMillis < System.currentTimeMillis()) {
+            return null;
+        }
+        staleHits.incrementAndGet();
+        return entry.content;
+    }
+
+    @Override
+    public void put(String key, String content) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        memory.put(key, new Entry(content, expiresAt));
+        if (diskDir != null) {
+            writeToDisk(key, content, expiresAt);
+        }
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", memory.estimatedSize());
+        stats.put("hits", hits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("staleHits", staleHits.get());
+        stats.put("evictions", memory.stats().evictionCount());
+        stats.put("diskEnabled", diskDir != null);
+        if (diskDir != null) {
+            stats.put("diskEntries", diskEntries.get());
+            stats.put("diskBytes", diskBytes.get());
+            stats.put("diskEvictions", diskEvictions.get());
+        }
+        return stats;
+    }
+
+    private Entry readFromDisk(String key) {
+        Path file = diskDir.resolve(key);
+        try {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            String stored = Files.readString(file, StandardCharsets.UTF_8);
+            int newline = stored.indexOf('\n');
+            long expiresAt = Long.parseLong(stored.substring(0, newline));
+            if (expiresAt + staleMillis < System.currentTimeMillis()) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            return new Entry(stored.substring(newline + 1), expiresAt);
+        } catch (Exception e) {
+            log.warn("读取磁盘缓存失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, String content, long expiresAt) {
+        try {
+            Path tempFile = Files.createTempFile(diskDir, key, ".tmp");
+            Files.writeString(tempFile, expiresAt + "\n" + content, StandardCharsets.UTF_8);
+            long size = Files.size(tempFile);
+            Files.move(tempFile, diskDir.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // 覆盖已有文件时估计值偏大，下次清理时校正
+            if (diskEntries.incrementAndGet() > diskMaxEntries || diskBytes.addAndGet(size) > diskMaxBytes) {
+                requestSweep();
+            }
+        } catch (IOException e) {
+            log.warn("写入磁盘缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private void requestSweep() {
+        if (sweepPending.compareAndSet(false, true)) {
+            try {
+                sweeper.execute(this::sweep);
+            } catch (RejectedExecutionException e) {
+                sweepPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * 删除超过staleTtl的文件和中断写入留下的临时文件，再按写入时间从早到晚删除超出上限的文件
+     */
+    void sweep() {
+        sweepPending.set(false);
+        long now = System.currentTimeMillis();
+        List<DiskFile> files = new ArrayList<>();
+        long removed = 0;
+        try (Stream<Path> paths = Files.list(diskDir)) {
+            for (Path file : (Iterable<Path>) paths::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                long modified = attributes.lastModifiedTime().toMillis();
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    if (modified < now - TimeUnit.MINUTES.toMillis(1) && Files.deleteIfExists(file)) {
+                        removed++;
+                    }
+                } else if (readExpiresAt(file) + staleMillis < now) {
+                    if (Files.deleteIfExists(file)) {
+                        removed++;
+                    }
+                } else {
+                    files.add(new DiskFile(file, modified, attributes.size()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("清理磁盘缓存失败: {}", e.getMessage());
+            return;
+        }
+
+        long bytes = 0;
+        for (DiskFile file : files) {
+            bytes += file.size;
+        }
+        int entries = files.size();
+        if (entries > diskMaxEntries || bytes > diskMaxBytes) {
+            files.sort(Comparator.comparingLong(file -> file.modified));
+            for (DiskFile file : files) {
+                if (entries <= diskMaxEntries && bytes <= diskMaxBytes) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(file.path);
+                } catch (IOException e) {
+                    log.warn("删除磁盘缓存文件失败: {}", e.getMessage());
+                    continue;
+                }
+                entries--;
+                bytes -= file.size;
+                diskEvictions.incrementAndGet();
+            }
+        }
+        diskEntries.set(entries);
+        diskBytes.set(bytes);
+        if (removed > 0) {
+            log.debug("清理磁盘缓存: 删除 {} 个过期文件, 剩余 {} 个", removed, entries);
+        }
+    }
+
+    /**
+     * 只读取首行的过期时间，格式错误的文件视为已过期
+     */
+    private static long readExpiresAt(Path file) {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            return line != null ? Long.parseLong(line) : Long.MIN_VALUE / 2;
+        } catch (IOException | NumberFormatException e) {
+            return Long.MIN_VALUE / 2;
+        }
+    }
+
+    private static final class DiskFile {
+        final Path path;
+        final long modified;
+        final long size;
+
+        DiskFile(Path path, long modified, long size) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.springaidifymcp.metrics;
+
+import com.example.springaidifymcp.classifier.ClassificationResult;
+import com.example.springaidifymcp.engine.CompiledNode;
+import com.example.springaidifymcp.engine.ExecutableWorkflow;
+import com.example.springaidifymcp.engine.WorkflowInterpreter;
+import com.example.springaidifymcp.engine.WorkflowRun;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 工作流运行的Micrometer指标：运行与节点耗时、节点错误、模型调用耗时与token数、模型不可用与备用结果、
+ * 问题分类的分支分布。
+ * 标签的基数可以配置：workflow标签为工作流名称，node_id标签默认关闭，只按节点类型统计。
+ * 节点的Timer按CompiledNode缓存（弱引用），执行节点时不需要重新查找和拼装标签。
+ */
+@Component
+public class WorkflowMetrics {
+
+    private static final String UNKNOWN = "unknown";
+
+    /**
+     * 一个节点的计时器，成功和失败分开记录
+     */
+    private static final class NodeMeters {
+        final Timer success;
+        final Timer error;
+
+        NodeMeters(Timer success, Timer error) {
+            this.success = success;
+            this.error = error;
+        }
+    }
+
+    private final MeterRegistry registry;
+    private final boolean workflowTag;
+    private final boolean nodeIdTag;
+    private final Cache<CompiledNode, NodeMeters> nodeMeters = Caffeine.newBuilder().weakKeys().build();
+
+    public WorkflowMetrics(MeterRegistry registry,
+                           @Value("${workflow.metrics.workflow-tag:true}") boolean workflowTag,
+                           @Value("${workflow.metrics.node-id-tag:false}") boolean nodeIdTag) {
+        this.registry = registry;
+        this.workflowTag = workflowTag;
+        this.nodeIdTag = nodeIdTag;
+    }
+
+    /**
+     * 为节点处理器加上计时，按节点记录耗时与是否出错
+     */
+    public WorkflowInterpreter.NodeHandler instrument(WorkflowInterpreter.NodeHandler handler) {
+        return (node, run) -> {
+            long startNanos = System.nanoTime();
+            try {
+                int decision = handler.execute(node, run);
+                meters(node, run.getWorkflow()).success.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                return decision;
+            } catch (RuntimeException | Error e) {
+                meters(node, run.getWorkflow()).error.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * 记录一次已结束的运行，status为运行的最终状态
+     */
+    public void recordRun(WorkflowRun run) {
+        Timer.builder("workflow.run")
+                .description("工作流运行耗时")
+                .tags(workflowTags(run.getWorkflow()))
+                .tag("status", run.getStatus().name().toLowerCase())
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(run.elapsedNanos(), TimeUnit.NANOSECONDS);
+        registry.counter("workflow.run.steps", workflowTags(run.getWorkflow())).increment(run.getSteps());
+    }
+
+    /**
+     * 记录一次模型调用：耗时、是否命中缓存以及提示与生成的token数（上游未返回用量时为0，不计数）
+     *
+     * @param model provider/name
+     */
+    public void recordLlmCall(String model, long durationNanos, boolean cacheHit, long promptTokens, long completionTokens) {
+        Tags tags = Tags.of("model", model != null ? model : UNKNOWN);
+        Timer.builder("workflow.llm.call")
+                .description("模型调用耗时（含缓存命中）")
+                .tags(tags)
+                .tag("cache", cacheHit ? "hit" : "miss")
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        if (promptTokens > 0) {
+            Counter.builder("workflow.llm.tokens").tags(tags).tag("type", "prompt").register(registry).increment(promptTokens);
+        }
+        if (completionTokens > 0) {
+            Counter.builder("workflow.llm.tokens").tags(tags).tag("type", "completion").register(registry).increment(completionTokens);
+        }
+    }
+
+    /**
+     * 记录一次模型不可用：reason为不可用的原因，fallback为采用的备用结果（model、stale_cache或none）
+     *
+     * @param model provider/name
+     */
+    public void recordLlmUnavailable(String model, String reason, String fallback) {
+        registry.counter("workflow.llm.unavailable",
+                "model", model != null ? model : UNKNOWN, "reason", reason, "fallback", fallback).increment();
+    }
+
+    /**
+     * 记录问题分类选择的分支与分类来源（关键词、本地模型或调用模型）
+     */
+    public void recordClassification(CompiledNode node, WorkflowRun run, String classId, ClassificationResult.Source source) {
+        Tags tags = workflowTags(run.getWorkflow())
+                .and("class", classId)
+                .and("source", source.name().toLowerCase());
+        if (nodeIdTag) {
+            tags = tags.and("node_id", node.getId());
+        }
+        registry.counter("workflow.classifier.branch", tags).increment();
+    }
+
+    private NodeMeters meters(CompiledNode node, ExecutableWorkflow workflow) {
+        NodeMeters meters = nodeMeters.getIfPresent(node);
+        if (meters != null) {
+            return meters;
+        }
+        Tags tags = workflowTags(workflow).and("node_type", node.getType() != null ? node.getType() : UNKNOWN);
+        if (nodeIdTag) {
+            tags = tags.and("node_id", node.getId());
+        }
+        meters = new NodeMeters(nodeTimer(tags.and("outcome", "success")), nodeTimer(tags.and("outcome", "error")));
+        nodeMeters.put(node, meters);
+        return meters;
+    }
+
+    private Timer nodeTimer(Tags tags) {
+        return Timer.builder("workflow.node")
+                .description("工作流节点执行耗时")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Tags workflowTags(ExecutableWorkflow workflow) {
+        if (!workflowTag) {
+            return Tags.empty();
+        }
+        return Tags.of("workflow", workflow.getName() != null ? workflow.getName() : UNKNOWN);
+    }
+}
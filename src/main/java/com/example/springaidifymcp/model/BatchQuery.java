@@ -0,0 +1,15 @@
+package com.example.springaidifymcp.model;
+
+import lombok.Data;
+
+/**
+ * 批量处理中的一条查询
+ */
+@Data
+public class BatchQuery {
+    // 调用方提供的标识，原样返回
+    private String id;
+    private String query;
+    // 在请求中的位置
+    private int index;
+}
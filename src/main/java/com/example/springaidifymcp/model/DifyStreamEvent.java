@@ -0,0 +1,70 @@
+package com.example.springaidifymcp.model;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * Dify流式接口（SSE）返回的单个事件
+ */
+@Data
+public class DifyStreamEvent {
+
+    public enum Type {
+        /** 回答的增量内容（message / agent_message） */
+        MESSAGE_DELTA,
+        /** 回答结束，携带用量与引用等元数据 */
+        MESSAGE_END,
+        WORKFLOW_STARTED,
+        WORKFLOW_FINISHED,
+        NODE_STARTED,
+        NODE_FINISHED,
+        ERROR,
+        PING,
+        /** 其他暂不关心的事件，例如tts_message */
+        OTHER
+    }
+
+    private Type type;
+    // Dify原始事件名
+    private String event;
+    private String taskId;
+    private String messageId;
+    private String conversationId;
+    // MESSAGE_DELTA的增量内容
+    private String answer;
+    // 工作流/节点事件的data部分
+    private Map<String, Object> data;
+    // MESSAGE_END的metadata部分
+    private Map<String, Object> metadata;
+    // ERROR事件的错误码与信息
+    private String code;
+    private String message;
+
+    public static Type typeOf(String event) {
+        if (event == null) {
+            return Type.OTHER;
+        }
+        switch (event) {
+            case "message":
+            case "agent_message":
+                return Type.MESSAGE_DELTA;
+            case "message_end":
+                return Type.MESSAGE_END;
+            case "workflow_started":
+                return Type.WORKFLOW_STARTED;
+            case "workflow_finished":
+                return Type.WORKFLOW_FINISHED;
+            case "node_started":
+                return Type.NODE_STARTED;
+            case "node_finished":
+                return Type.NODE_FINISHED;
+            case "error":
+                return Type.ERROR;
+            case "ping":
+                return Type.PING;
+            default:
+                return Type.OTHER;
+        }
+    }
+}
@@ -142,6 +142,7 @@ public class DifyWorkflow {
                 private List<String> datasetIds;
                 private Map<String, Object> memory;
                 private Map<String, Object> model;
+                private Map<String, Object> multipleRetrievalConfig;
                 private List<Map<String, Object>> promptTemplate;
                 private String queryVariableSelector;
                 private String retrievalMode;
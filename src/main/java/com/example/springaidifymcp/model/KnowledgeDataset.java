@@ -0,0 +1,24 @@
+package com.example.springaidifymcp.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 本地知识库中的数据集，知识检索节点通过datasetIds引用
+ */
+@Data
+public class KnowledgeDataset {
+    private String id;
+    private String name;
+    // 单路检索时用于说明数据集的内容
+    private String description;
+    private long createdAt;
+    private int documentCount;
+    private int chunkCount;
+    private int segmentCount;
+    // 当前有效的分段目录名，与元数据一起原子写入；不在列表中的分段目录是中断的导入或合并留下的
+    private List<String> segments;
+    // 向量维度，未启用向量检索时为0
+    private int dimensions;
+}
@@ -0,0 +1,25 @@
+package com.example.springaidifymcp.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * 执行轨迹中的一个节点
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class NodeTraceRecord {
+
+    private String nodeId;
+    private String title;
+    private String type;
+    // 相对运行开始的偏移
+    private double startMs;
+    private double durationMs;
+    // 问题分类节点选择的类别
+    private String branch;
+    // LLM与问题分类节点发送的提示长度（字符）
+    private Integer promptChars;
+    private Boolean cacheHit;
+    private boolean failed;
+}
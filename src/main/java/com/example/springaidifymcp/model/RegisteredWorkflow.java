@@ -0,0 +1,16 @@
+package com.example.springaidifymcp.model;
+
+import lombok.Data;
+
+/**
+ * 已注册的工作流：工作流ID与按内容哈希存储的YAML文件
+ */
+@Data
+public class RegisteredWorkflow {
+    private String workflowId;
+    private String contentHash;
+    private String filePath;
+    private String originalFilename;
+    private long createdAt;
+    private WorkflowSummary summary;
+}
@@ -0,0 +1,19 @@
+package com.example.springaidifymcp.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 知识检索命中的分段
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RetrievedChunk {
+    private String datasetId;
+    private String document;
+    private String content;
+    // 归一化到0~1的得分
+    private double score;
+}
@@ -0,0 +1,28 @@
+package com.example.springaidifymcp.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 一次运行的执行轨迹
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RunTraceRecord {
+
+    private String runId;
+    private String workflowId;
+    private String workflowName;
+    private long startedAt;
+    private double elapsedMs;
+    private String status;
+    private String error;
+    private int steps;
+    private int llmCalls;
+    private int cacheHits;
+    private int queryLength;
+    // 按执行顺序排列
+    private List<NodeTraceRecord> nodes;
+}
@@ -0,0 +1,33 @@
+package com.example.springaidifymcp.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * 流式处理工作流时推送给客户端的事件
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class WorkflowStreamEvent {
+
+    public static final String NODE_STARTED = "node_started";
+    public static final String NODE_FINISHED = "node_finished";
+    public static final String TOKEN = "token";
+    public static final String WORKFLOW_FINISHED = "workflow_finished";
+    public static final String ERROR = "error";
+
+    private String event;
+    private String nodeId;
+    private String nodeType;
+    private String title;
+    private String text;
+    private Long elapsedMs;
+    // 被隔离舱拒绝时建议客户端重试前等待的秒数
+    private Long retryAfter;
+
+    public static WorkflowStreamEvent of(String event) {
+        WorkflowStreamEvent streamEvent = new WorkflowStreamEvent();
+        streamEvent.setEvent(event);
+        return streamEvent;
+    }
+}
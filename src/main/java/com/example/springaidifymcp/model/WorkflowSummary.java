@@ -0,0 +1,22 @@
+package com.example.springaidifymcp.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 工作流摘要，在上传时生成，列表接口只读取摘要而不解析YAML
+ */
+@Data
+public class WorkflowSummary {
+    private String workflowId;
+    private String name;
+    private String description;
+    private String mode;
+    private int nodeCount;
+    private List<String> models;
+    private String contentHash;
+    private long createdAt;
+    // 注册顺序，用作分页游标
+    private long sequence;
+}
@@ -0,0 +1,15 @@
+package com.example.springaidifymcp.retrieval;
+
+/**
+ * 分段文件中的一个分段：所属文档名与分段文本
+ */
+final class ChunkRecord {
+
+    final String document;
+    final String text;
+
+    ChunkRecord(String document, String text) {
+        this.document = document;
+        this.text = text;
+    }
+}
@@ -0,0 +1,523 @@
+package com.example.springaidifymcp.retrieval;
+
+import com.example.springaidifymcp.model.KnowledgeDataset;
+import com.example.springaidifymcp.model.RetrievedChunk;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 本地知识库，为知识检索节点提供检索，不依赖远程的Dify数据集服务。
+ * 每个数据集由若干不可变的分段目录组成，每次导入生成一个新分段，分段过多时合并为一个；
+ * 有效的分段列表记录在dataset.json中，先写分段、再原子替换元数据，中断时只会留下不在列表中的分段目录；
+ * 检索使用BM25倒排索引，启用向量检索时与向量相似度加权组合。
+ */
+@Service
+@Slf4j
+public class KnowledgeBase {
+
+    private static final String METADATA_FILE = "dataset.json";
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+    private static final int EMBEDDING_BATCH_SIZE = 64;
+
+    private final Path storageDir;
+    private final ObjectMapper objectMapper;
+    private final TextChunker chunker;
+    private final int maxSegments;
+    // 未启用向量检索时为null
+    private final EmbeddingClient embeddingClient;
+    // 混合检索中向量得分的权重
+    private final double vectorWeight;
+    private final Map<String, Dataset> datasets = new ConcurrentHashMap<>();
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong searchNanos = new AtomicLong();
+
+    public KnowledgeBase(ObjectMapper objectMapper, ObjectProvider<EmbeddingClient> embeddingClient,
+                         @Value("${workflow.retrieval.dir:./data/datasets}") String storageDir,
+                         @Value("${workflow.retrieval.chunk-size:500}") int chunkSize,
+                         @Value("${workflow.retrieval.chunk-overlap:50}") int chunkOverlap,
+                         @Value("${workflow.retrieval.max-segments:16}") int maxSegments,
+                         @Value("${workflow.retrieval.vector.enabled:false}") boolean vectorEnabled,
+                         @Value("${workflow.retrieval.vector.weight:0.5}") double vectorWeight) throws IOException {
+        this.storageDir = Files.createDirectories(Path.of(storageDir));
+        this.objectMapper = objectMapper;
+        this.chunker = new TextChunker(chunkSize, chunkOverlap);
+        this.maxSegments = Math.max(maxSegments, 1);
+        this.embeddingClient = vectorEnabled ? embeddingClient.getIfAvailable() : null;
+        this.vectorWeight = vectorWeight;
+        if (vectorEnabled && this.embeddingClient == null) {
+            log.warn("已启用向量检索，但没有可用的EmbeddingClient，只使用关键词检索");
+        }
+    }
+
+    /**
+     * 启动时打开所有数据集的分段，清理上次中断留下的临时目录
+     */
+    @PostConstruct
+    public void restore() throws IOException {
+        long startNanos = System.nanoTime();
+        try (Stream<Path> directories = Files.list(storageDir)) {
+            for (Path directory : (Iterable<Path>) directories::iterator) {
+                Path metadataFile = directory.resolve(METADATA_FILE);
+                if (!Files.isDirectory(directory) || !Files.exists(metadataFile)) {
+                    continue;
+                }
+                KnowledgeDataset info = objectMapper.readValue(metadataFile.toFile(), KnowledgeDataset.class);
+                datasets.put(info.getId(), openDataset(directory, info));
+            }
+        }
+        log.info("知识库恢复完成: {} 个数据集, 耗时 {} ms", datasets.size(), (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    public KnowledgeDataset createDataset(String name, String description) throws IOException {
+        KnowledgeDataset info = new KnowledgeDataset();
+        info.setId(UUID.randomUUID().toString());
+        info.setName(name);
+        info.setDescription(description);
+        info.setCreatedAt(System.currentTimeMillis());
+        Path directory = Files.createDirectories(storageDir.resolve(info.getId()));
+        info.setSegments(List.of());
+        Dataset dataset = new Dataset(directory, info, List.of(), 1);
+        writeMetadata(dataset);
+        datasets.put(info.getId(), dataset);
+        log.info("创建数据集: {} ({})", name, info.getId());
+        return info;
+    }
+
+    public List<KnowledgeDataset> listDatasets() {
+        List<KnowledgeDataset> result = new ArrayList<>();
+        for (Dataset dataset : datasets.values()) {
+            result.add(dataset.info);
+        }
+        result.sort(Comparator.comparingLong(KnowledgeDataset::getCreatedAt));
+        return result;
+    }
+
+    public KnowledgeDataset getDataset(String datasetId) {
+        Dataset dataset = datasets.get(datasetId);
+        return dataset != null ? dataset.info : null;
+    }
+
+    public boolean deleteDataset(String datasetId) throws IOException {
+        Dataset dataset = datasets.remove(datasetId);
+        if (dataset == null) {
+            return false;
+        }
+        dataset.lock.lock();
+        try {
+            deleteRecursively(dataset.directory);
+        } finally {
+            dataset.lock.unlock();
+        }
+        log.info("删除数据集: {}", datasetId);
+        return true;
+    }
+
+    /**
+     * 导入一批文档：切分、计算向量并写成一个新分段
+     *
+     * @param documents 文档名 -> 文本
+     */
+    public KnowledgeDataset ingest(String datasetId, Map<String, String> documents) throws IOException {
+        Dataset dataset = requireDataset(datasetId);
+        List<ChunkRecord> chunks = new ArrayList<>();
+        for (Map.Entry<String, String> document : documents.entrySet()) {
+            for (String chunk : chunker.split(document.getValue())) {
+                chunks.add(new ChunkRecord(document.getKey(), chunk));
+            }
+        }
+        if (chunks.isEmpty()) {
+            throw new IllegalArgumentException("文档内容为空");
+        }
+        float[][] vectors = embed(chunks);
+
+        dataset.lock.lock();
+        try {
+            if (!datasets.containsKey(datasetId)) {
+                throw new IllegalStateException("数据集已删除: " + datasetId);
+            }
+            Path segmentDir = dataset.directory.resolve(segmentName(dataset.nextSegment++));
+            SegmentWriter.write(segmentDir, chunks, vectors);
+            List<Segment> segments = new ArrayList<>(dataset.segments);
+            segments.add(Segment.open(segmentDir));
+            commitSegments(dataset, segments, dataset.info.getDocumentCount() + documents.size());
+            if (segments.size() > maxSegments) {
+                mergeSegments(dataset);
+            }
+        } finally {
+            dataset.lock.unlock();
+        }
+        log.info("数据集 {} 导入 {} 个文档, {} 个分段", datasetId, documents.size(), chunks.size());
+        return dataset.info;
+    }
+
+    /**
+     * 在一个数据集中检索
+     */
+    public List<RetrievedChunk> search(String datasetId, String query, int topK) {
+        return search(requireDataset(datasetId), query, embedQuery(query), topK);
+    }
+
+    /**
+     * 知识检索节点的检索入口
+     *
+     * @param multiple       多路检索：在所有数据集中检索后合并；否则只使用最匹配的一个数据集
+     * @param scoreThreshold 低于该得分的结果被丢弃，0表示不过滤
+     */
+    public List<RetrievedChunk> retrieve(String[] datasetIds, String query, boolean multiple, int topK,
+                                         double scoreThreshold) {
+        long startNanos = System.nanoTime();
+        float[] queryVector = embedQuery(query);
+        List<RetrievedChunk> best = new ArrayList<>();
+        List<RetrievedChunk> merged = new ArrayList<>();
+        double bestScore = -1;
+        for (String datasetId : datasetIds) {
+            Dataset dataset = datasets.get(datasetId);
+            if (dataset == null) {
+                log.warn("知识检索引用了不存在的数据集: {}", datasetId);
+                continue;
+            }
+            List<RetrievedChunk> hits = search(dataset, query, queryVector, topK);
+            if (multiple) {
+                merged.addAll(hits);
+            } else if (!hits.isEmpty() && hits.get(0).getScore() > bestScore) {
+                // 单路检索：选择最高得分最大的数据集
+                bestScore = hits.get(0).getScore();
+                best = hits;
+            }
+        }
+        List<RetrievedChunk> result = multiple ? merged : best;
+        result.sort(Comparator.comparingDouble(RetrievedChunk::getScore).reversed());
+        result.removeIf(hit -> hit.getScore() < scoreThreshold);
+        if (result.size() > topK) {
+            result = new ArrayList<>(result.subList(0, topK));
+        }
+        searches.incrementAndGet();
+        searchNanos.addAndGet(System.nanoTime() - startNanos);
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long count = searches.get();
+        stats.put("datasets", datasets.size());
+        stats.put("searches", count);
+        stats.put("averageSearchMs", count > 0 ? searchNanos.get() / count / 1_000_000.0 : 0);
+        stats.put("vectorEnabled", embeddingClient != null);
+        return stats;
+    }
+
+    /**
+     * 关键词得分除以查询的BM25理论上限归一化到0~1；有向量时与余弦相似度按vectorWeight加权
+     */
+    private List<RetrievedChunk> search(Dataset dataset, String query, float[] queryVector, int topK) {
+        List<Segment> segments = dataset.segments;
+        if (segments.isEmpty() || topK <= 0) {
+            return new ArrayList<>();
+        }
+        int candidates = topK * 2;
+
+        // 整个数据集的BM25统计
+        String[] terms = new LinkedHashSet<>(TextAnalyzer.terms(query)).toArray(new String[0]);
+        long chunkCount = 0;
+        long totalLength = 0;
+        for (Segment segment : segments) {
+            chunkCount += segment.getChunkCount();
+            totalLength += segment.getTotalLength();
+        }
+        double averageLength = chunkCount > 0 ? Math.max(1.0, (double) totalLength / chunkCount) : 1.0;
+        double[] idf = new double[terms.length];
+        double maxScore = 0;
+        for (int t = 0; t < terms.length; t++) {
+            long documentFrequency = 0;
+            for (Segment segment : segments) {
+                documentFrequency += segment.documentFrequency(terms[t]);
+            }
+            idf[t] = Math.log(1 + (chunkCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+            maxScore += idf[t] * (BM25_K1 + 1);
+        }
+
+        TopHits keywordHits = new TopHits(candidates);
+        for (int s = 0; s < segments.size(); s++) {
+            segments.get(s).scoreBm25(terms, idf, averageLength, BM25_K1, BM25_B, keywordHits, s);
+        }
+        // (分段序号 << 32 | 分段号) -> {关键词得分, 向量得分}
+        Map<Long, double[]> scores = new HashMap<>();
+        for (int i = 0; i < keywordHits.size(); i++) {
+            double keywordScore = maxScore > 0 ? keywordHits.score(i) / maxScore : 0;
+            scores.put(hitKey(keywordHits.segment(i), keywordHits.chunk(i)), new double[]{keywordScore, 0});
+        }
+
+        boolean useVectors = queryVector != null && segments.stream().anyMatch(Segment::hasVectors);
+        if (useVectors) {
+            TopHits vectorHits = new TopHits(candidates);
+            for (int s = 0; s < segments.size(); s++) {
+                segments.get(s).scoreVectors(queryVector, vectorHits, s);
+            }
+            for (int i = 0; i < vectorHits.size(); i++) {
+                scores.computeIfAbsent(hitKey(vectorHits.segment(i), vectorHits.chunk(i)), key -> new double[2])[1]
+                        = Math.max(0, vectorHits.score(i));
+            }
+            // 只被关键词命中的分段补上向量得分
+            for (Map.Entry<Long, double[]> entry : scores.entrySet()) {
+                if (entry.getValue()[1] == 0) {
+                    float[] vector = segments.get((int) (entry.getKey() >>> 32)).vector((int) (long) entry.getKey());
+                    entry.getValue()[1] = vector != null ? Math.max(0, dot(queryVector, vector)) : 0;
+                }
+            }
+        }
+
+        List<RetrievedChunk> hits = new ArrayList<>(scores.size());
+        for (Map.Entry<Long, double[]> entry : scores.entrySet()) {
+            double[] score = entry.getValue();
+            double combined = useVectors ? (1 - vectorWeight) * score[0] + vectorWeight * score[1] : score[0];
+            ChunkRecord chunk = segments.get((int) (entry.getKey() >>> 32)).chunk((int) (long) entry.getKey());
+            hits.add(new RetrievedChunk(dataset.info.getId(), chunk.document, chunk.text, combined));
+        }
+        hits.sort(Comparator.comparingDouble(RetrievedChunk::getScore).reversed());
+        return hits.size() > topK ? new ArrayList<>(hits.subList(0, topK)) : hits;
+    }
+
+    /**
+     * 把全部分段合并为一个分段；只有全部分段都带有相同维度的向量时才保留向量。
+     * 合并结果写入元数据后才删除旧分段，仍持有旧分段列表的检索可以继续读取已映射的内容；
+     * 合并后的文件会超过单个分段的上限时不合并，保留现有分段。
+     */
+    private void mergeSegments(Dataset dataset) throws IOException {
+        List<Segment> segments = dataset.segments;
+        List<Path> segmentDirs = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            segmentDirs.add(segment.getDirectory());
+        }
+        if (!SegmentWriter.fitsInOneSegment(segmentDirs)) {
+            log.warn("数据集 {} 的 {} 个分段合并后超过单个分段的大小上限，跳过合并", dataset.info.getId(), segments.size());
+            return;
+        }
+        List<ChunkRecord> chunks = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        int dimensions = segments.get(0).getDimensions();
+        boolean keepVectors = dimensions > 0;
+        for (Segment segment : segments) {
+            keepVectors &= segment.hasVectors() && segment.getDimensions() == dimensions;
+            for (int chunk = 0; chunk < segment.getChunkCount(); chunk++) {
+                chunks.add(segment.chunk(chunk));
+                if (keepVectors) {
+                    vectors.add(segment.vector(chunk));
+                }
+            }
+        }
+        if (!keepVectors && dimensions > 0) {
+            log.warn("数据集 {} 的分段向量不一致，合并后不保留向量", dataset.info.getId());
+        }
+        Path merged = dataset.directory.resolve(segmentName(dataset.nextSegment++));
+        SegmentWriter.write(merged, chunks, keepVectors ? vectors.toArray(new float[0][]) : null);
+        commitSegments(dataset, List.of(Segment.open(merged)), dataset.info.getDocumentCount());
+        for (Path segmentDir : segmentDirs) {
+            deleteRecursively(segmentDir);
+        }
+        log.info("数据集 {} 合并 {} 个分段, 共 {} 个分段", dataset.info.getId(), segments.size(), chunks.size());
+    }
+
+    /**
+     * 先把新的分段列表原子写入元数据，再替换检索使用的列表；写入失败时数据集保持原状
+     */
+    private void commitSegments(Dataset dataset, List<Segment> segments, int documentCount) throws IOException {
+        List<String> names = new ArrayList<>(segments.size());
+        for (Segment segment : segments) {
+            names.add(segment.getDirectory().getFileName().toString());
+        }
+        List<String> previousNames = dataset.info.getSegments();
+        List<Segment> previous = dataset.segments;
+        int previousDocumentCount = dataset.info.getDocumentCount();
+        dataset.info.setSegments(names);
+        dataset.info.setDocumentCount(documentCount);
+        updateCounts(dataset.info, segments);
+        try {
+            writeMetadata(dataset);
+        } catch (IOException | RuntimeException e) {
+            dataset.info.setSegments(previousNames);
+            dataset.info.setDocumentCount(previousDocumentCount);
+            updateCounts(dataset.info, previous);
+            throw e;
+        }
+        dataset.segments = List.copyOf(segments);
+    }
+
+    /**
+     * 只打开元数据中列出的分段，删除临时目录和不在列表中的分段（合并或导入中断留下的）。
+     * 旧版本的元数据没有分段列表，此时打开目录下的全部分段。
+     */
+    private Dataset openDataset(Path directory, KnowledgeDataset info) throws IOException {
+        Set<String> listed = info.getSegments() != null ? new HashSet<>(info.getSegments()) : null;
+        List<Path> segmentDirs = new ArrayList<>();
+        int nextSegment = 1;
+        try (Stream<Path> children = Files.list(directory)) {
+            for (Path child : (Iterable<Path>) children::iterator) {
+                String name = child.getFileName().toString();
+                if (!name.startsWith(SEGMENT_PREFIX)) {
+                    continue;
+                }
+                if (name.endsWith(".tmp")) {
+                    // 写入过程中断的分段
+                    deleteRecursively(child);
+                    continue;
+                }
+                nextSegment = Math.max(nextSegment, Integer.parseInt(name.substring(SEGMENT_PREFIX.length())) + 1);
+                if (listed != null && !listed.contains(name)) {
+                    log.warn("数据集 {} 的分段 {} 不在元数据中，删除", info.getId(), name);
+                    deleteRecursively(child);
+                } else {
+                    segmentDirs.add(child);
+                }
+            }
+        }
+        segmentDirs.sort(Comparator.comparing(path -> path.getFileName().toString()));
+        List<Segment> segments = new ArrayList<>(segmentDirs.size());
+        for (Path segmentDir : segmentDirs) {
+            segments.add(Segment.open(segmentDir));
+        }
+        if (listed != null && segments.size() < listed.size()) {
+            log.warn("数据集 {} 有 {} 个分段目录缺失", info.getId(), listed.size() - segments.size());
+        }
+        Dataset dataset = new Dataset(directory, info, segments, nextSegment);
+        updateCounts(info, segments);
+        return dataset;
+    }
+
+    private static void updateCounts(KnowledgeDataset info, List<Segment> segments) {
+        int chunkCount = 0;
+        int dimensions = 0;
+        for (Segment segment : segments) {
+            chunkCount += segment.getChunkCount();
+            dimensions = Math.max(dimensions, segment.getDimensions());
+        }
+        info.setChunkCount(chunkCount);
+        info.setSegmentCount(segments.size());
+        info.setDimensions(dimensions);
+    }
+
+    private void writeMetadata(Dataset dataset) throws IOException {
+        Path file = dataset.directory.resolve(METADATA_FILE);
+        Path temp = dataset.directory.resolve(METADATA_FILE + ".tmp");
+        objectMapper.writeValue(temp.toFile(), dataset.info);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private float[][] embed(List<ChunkRecord> chunks) {
+        if (embeddingClient == null) {
+            return null;
+        }
+        float[][] vectors = new float[chunks.size()][];
+        for (int start = 0; start < chunks.size(); start += EMBEDDING_BATCH_SIZE) {
+            List<String> texts = new ArrayList<>();
+            for (int i = start; i < Math.min(start + EMBEDDING_BATCH_SIZE, chunks.size()); i++) {
+                texts.add(chunks.get(i).text);
+            }
+            List<List<Double>> embeddings = embeddingClient.embed(texts);
+            for (int i = 0; i < embeddings.size(); i++) {
+                vectors[start + i] = normalize(embeddings.get(i));
+            }
+        }
+        return vectors;
+    }
+
+    private float[] embedQuery(String query) {
+        if (embeddingClient == null || query == null || query.isBlank()) {
+            return null;
+        }
+        try {
+            return normalize(embeddingClient.embed(query));
+        } catch (Exception e) {
+            log.warn("计算查询向量失败，只使用关键词检索: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private Dataset requireDataset(String datasetId) {
+        Dataset dataset = datasets.get(datasetId);
+        if (dataset == null) {
+            throw new IllegalArgumentException("数据集不存在: " + datasetId);
+        }
+        return dataset;
+    }
+
+    private static float[] normalize(List<Double> embedding) {
+        float[] vector = new float[embedding.size()];
+        double norm = 0;
+        for (double value : embedding) {
+            norm += value * value;
+        }
+        double scale = norm > 0 ? 1.0 / Math.sqrt(norm) : 0;
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) (embedding.get(i) * scale);
+        }
+        return vector;
+    }
+
+    private static float dot(float[] left, float[] right) {
+        float dot = 0;
+        for (int i = 0; i < Math.min(left.length, right.length); i++) {
+            dot += left[i] * right[i];
+        }
+        return dot;
+    }
+
+    private static long hitKey(int segment, int chunk) {
+        return ((long) segment << 32) | (chunk & 0xffffffffL);
+    }
+
+    private static String segmentName(int number) {
+        return String.format("%s%06d", SEGMENT_PREFIX, number);
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * 数据集的元数据与当前分段列表；检索读取不可变的分段列表快照，导入与合并在锁内替换列表
+     */
+    private static final class Dataset {
+        final Path directory;
+        final KnowledgeDataset info;
+        final ReentrantLock lock = new ReentrantLock();
+        volatile List<Segment> segments;
+        int nextSegment;
+
+        Dataset(Path directory, KnowledgeDataset info, List<Segment> segments, int nextSegment) {
+            this.directory = directory;
+            this.info = info;
+            this.segments = List.copyOf(segments);
+            this.nextSegment = nextSegment;
+        }
+    }
+}
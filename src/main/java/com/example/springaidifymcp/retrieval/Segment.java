@@ -0,0 +1,168 @@
+package com.example.springaidifymcp.retrieval;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 只读的分段，文件格式见SegmentWriter。
+ * 三个文件都以内存映射方式打开：堆上只保留词典（词项 -> 文档频率与倒排表位置），
+ * 分段文本、倒排表与向量在查询时直接从映射区读取，打开大语料时不需要逐条加载。
+ */
+final class Segment {
+
+    @Getter
+    private final Path directory;
+    @Getter
+    private final int chunkCount;
+    @Getter
+    private final long totalLength;
+    private final ByteBuffer chunks;
+    private final IntBuffer chunkLengths;
+    private final long dataStart;
+    private final ByteBuffer postings;
+    // 词项 -> {文档频率, 倒排表起始位置}
+    private final Map<String, long[]> dictionary;
+    // 未启用向量时为null
+    private final FloatBuffer vectors;
+    @Getter
+    private final int dimensions;
+
+    private Segment(Path directory, ByteBuffer chunks, ByteBuffer postings, ByteBuffer vectorBuffer) {
+        this.directory = directory;
+        this.chunks = chunks;
+        this.chunkCount = chunks.getInt(0);
+        this.chunkLengths = chunks.duplicate().position(4).slice().asIntBuffer().limit(chunkCount);
+        this.dataStart = 4 + 4L * chunkCount + 8L * (chunkCount + 1);
+
+        this.postings = postings;
+        int termCount = postings.getInt(0);
+        this.totalLength = postings.getLong(4);
+        this.dictionary = new HashMap<>(termCount * 2);
+        int position = 12;
+        for (int i = 0; i < termCount; i++) {
+            int termLength = postings.getInt(position);
+            byte[] term = new byte[termLength];
+            postings.get(position + 4, term);
+            position += 4 + termLength;
+            int documentFrequency = postings.getInt(position);
+            dictionary.put(new String(term, StandardCharsets.UTF_8), new long[]{documentFrequency, position + 4});
+            position += 4 + 8 * documentFrequency;
+        }
+
+        if (vectorBuffer != null) {
+            this.dimensions = vectorBuffer.getInt(4);
+            this.vectors = vectorBuffer.duplicate().position(8).slice().asFloatBuffer();
+        } else {
+            this.dimensions = 0;
+            this.vectors = null;
+        }
+    }
+
+    static Segment open(Path directory) throws IOException {
+        ByteBuffer chunks = map(directory.resolve(SegmentWriter.CHUNKS_FILE));
+        ByteBuffer postings = map(directory.resolve(SegmentWriter.POSTINGS_FILE));
+        Path vectorFile = directory.resolve(SegmentWriter.VECTORS_FILE);
+        ByteBuffer vectors = Files.exists(vectorFile) ? map(vectorFile) : null;
+        return new Segment(directory, chunks, postings, vectors);
+    }
+
+    int documentFrequency(String term) {
+        long[] entry = dictionary.get(term);
+        return entry != null ? (int) entry[0] : 0;
+    }
+
+    boolean hasVectors() {
+        return vectors != null;
+    }
+
+    /**
+     * 按BM25为包含查询词的分段打分，逐个词项累加得分后把结果交给collector
+     *
+     * @param idf 与terms对应的逆文档频率，由调用方按整个数据集计算
+     */
+    void scoreBm25(String[] terms, double[] idf, double averageLength, double k1, double b,
+                   TopHits collector, int segmentOrdinal) {
+        float[] scores = null;
+        for (int t = 0; t < terms.length; t++) {
+            long[] entry = dictionary.get(terms[t]);
+            if (entry == null) {
+                continue;
+            }
+            if (scores == null) {
+                scores = new float[chunkCount];
+            }
+            int documentFrequency = (int) entry[0];
+            int chunkStart = (int) entry[1];
+            int frequencyStart = chunkStart + 4 * documentFrequency;
+            for (int i = 0; i < documentFrequency; i++) {
+                int chunk = postings.getInt(chunkStart + 4 * i);
+                int frequency = postings.getInt(frequencyStart + 4 * i);
+                double lengthNorm = k1 * (1 - b + b * chunkLengths.get(chunk) / averageLength);
+                scores[chunk] += (float) (idf[t] * frequency * (k1 + 1) / (frequency + lengthNorm));
+            }
+        }
+        if (scores == null) {
+            return;
+        }
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            if (scores[chunk] > 0) {
+                collector.offer(segmentOrdinal, chunk, scores[chunk]);
+            }
+        }
+    }
+
+    /**
+     * 逐条计算与查询向量的内积（向量已归一化，即余弦相似度）
+     */
+    void scoreVectors(float[] query, TopHits collector, int segmentOrdinal) {
+        if (vectors == null || query.length != dimensions) {
+            return;
+        }
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int base = chunk * dimensions;
+            float dot = 0;
+            for (int d = 0; d < dimensions; d++) {
+                dot += query[d] * vectors.get(base + d);
+            }
+            collector.offer(segmentOrdinal, chunk, dot);
+        }
+    }
+
+    float[] vector(int chunk) {
+        if (vectors == null) {
+            return null;
+        }
+        float[] vector = new float[dimensions];
+        vectors.get(chunk * dimensions, vector);
+        return vector;
+    }
+
+    ChunkRecord chunk(int chunk) {
+        long start = dataStart + chunks.getLong(4 + 4 * chunkCount + 8 * chunk);
+        long end = dataStart + chunks.getLong(4 + 4 * chunkCount + 8 * (chunk + 1));
+        int documentLength = chunks.getInt((int) start);
+        byte[] document = new byte[documentLength];
+        chunks.get((int) start + 4, document);
+        byte[] text = new byte[(int) (end - start - 4 - documentLength)];
+        chunks.get((int) start + 4 + documentLength, text);
+        return new ChunkRecord(new String(document, StandardCharsets.UTF_8), new String(text, StandardCharsets.UTF_8));
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.springaidifymcp.retrieval;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * 把一批分段写成不可变的分段目录：
+ * <pre>
+ * chunks.bin   int 分段数 | int[] 各分段词数 | long[] 各分段数据偏移（分段数+1个）| 分段数据（int 文档名长度, 文档名, 文本）
+ * postings.bin int 词项数 | long 总词数 | 按词项排序的（int 词项长度, 词项, int 文档频率, int[] 分段号, int[] 词频）
+ * vectors.bin  int 向量数 | int 维度 | float[] 归一化后的向量（可选）
+ * </pre>
+ * 先写入临时目录，全部刷盘后再原子重命名为正式目录，读取方不会看到写了一半的分段。
+ */
+final class SegmentWriter {
+
+    static final String CHUNKS_FILE = "chunks.bin";
+    static final String POSTINGS_FILE = "postings.bin";
+    static final String VECTORS_FILE = "vectors.bin";
+
+    // 内存映射的单个缓冲区不能超过2GB
+    private static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+
+    private SegmentWriter() {
+    }
+
+    /**
+     * @param vectors 与分段一一对应的向量，为null时不写向量文件
+     */
+    static void write(Path segmentDir, List<ChunkRecord> chunks, float[][] vectors) throws IOException {
+        Path tempDir = segmentDir.resolveSibling(segmentDir.getFileName() + ".tmp");
+        Files.createDirectories(tempDir);
+
+        int[] lengths = new int[chunks.size()];
+        Map<String, Postings> postings = new HashMap<>();
+        long totalLength = 0;
+        for (int chunk = 0; chunk < chunks.size(); chunk++) {
+            List<String> terms = TextAnalyzer.terms(chunks.get(chunk).text);
+            lengths[chunk] = terms.size();
+            totalLength += terms.size();
+            Map<String, Integer> frequencies = new HashMap<>();
+            for (String term : terms) {
+                frequencies.merge(term, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), term -> new Postings()).add(chunk, entry.getValue());
+            }
+        }
+
+        try {
+            writeChunks(tempDir.resolve(CHUNKS_FILE), chunks, lengths);
+            writePostings(tempDir.resolve(POSTINGS_FILE), new TreeMap<>(postings), totalLength);
+            if (vectors != null) {
+                writeVectors(tempDir.resolve(VECTORS_FILE), vectors);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteDirectory(tempDir);
+            throw e;
+        }
+        Files.move(tempDir, segmentDir, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 合并后各文件的大小不超过合并前对应文件的大小之和（倒排表的词项字典会去重），
+     * 用它判断合并结果能否放进单个内存映射缓冲区
+     */
+    static boolean fitsInOneSegment(List<Path> segmentDirs) throws IOException {
+        for (String name : new String[]{CHUNKS_FILE, POSTINGS_FILE, VECTORS_FILE}) {
+            long size = 0;
+            for (Path segmentDir : segmentDirs) {
+                Path file = segmentDir.resolve(name);
+                if (Files.exists(file)) {
+                    size += Files.size(file);
+                }
+            }
+            if (size >= MAX_FILE_SIZE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException ignored) {
+            // 残留的临时目录在下次启动时清理
+        }
+    }
+
+    private static void writeChunks(Path file, List<ChunkRecord> chunks, int[] lengths) throws IOException {
+        byte[][] documents = new byte[chunks.size()][];
+        byte[][] texts = new byte[chunks.size()][];
+        long[] offsets = new long[chunks.size() + 1];
+        for (int i = 0; i < chunks.size(); i++) {
+            documents[i] = chunks.get(i).document.getBytes(StandardCharsets.UTF_8);
+            texts[i] = chunks.get(i).text.getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + 4 + documents[i].length + texts[i].length;
+        }
+        checkSize(file, 4 + 4L * lengths.length + 8L * offsets.length + offsets[chunks.size()]);
+
+        try (FileOutputStream fileStream = new FileOutputStream(file.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, 1 << 16))) {
+            out.writeInt(chunks.size());
+            for (int length : lengths) {
+                out.writeInt(length);
+            }
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                out.writeInt(documents[i].length);
+                out.write(documents[i]);
+                out.write(texts[i]);
+            }
+            out.flush();
+            fileStream.getChannel().force(true);
+        }
+    }
+
+    private static void writePostings(Path file, TreeMap<String, Postings> postings, long totalLength) throws IOException {
+        try (FileOutputStream fileStream = new FileOutputStream(file.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, 1 << 16))) {
+            out.writeInt(postings.size());
+            out.writeLong(totalLength);
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                Postings termPostings = entry.getValue();
+                out.writeInt(term.length);
+                out.write(term);
+                out.writeInt(termPostings.size);
+                for (int i = 0; i < termPostings.size; i++) {
+                    out.writeInt(termPostings.chunks[i]);
+                }
+                for (int i = 0; i < termPostings.size; i++) {
+                    out.writeInt(termPostings.frequencies[i]);
+                }
+            }
+            out.flush();
+            checkSize(file, out.size());
+            fileStream.getChannel().force(true);
+        }
+    }
+
+    private static void writeVectors(Path file, float[][] vectors) throws IOException {
+        int dimensions = vectors.length > 0 ? vectors[0].length : 0;
+        checkSize(file, 8 + 4L * vectors.length * dimensions);
+        try (FileOutputStream fileStream = new FileOutputStream(file.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileStream, 1 << 16))) {
+            out.writeInt(vectors.length);
+            out.writeInt(dimensions);
+            for (float[] vector : vectors) {
+                if (vector.length != dimensions) {
+                    throw new IllegalStateException("向量维度不一致: " + vector.length + " != " + dimensions);
+                }
+                for (float value : vector) {
+                    out.writeFloat(value);
+                }
+            }
+            out.flush();
+            fileStream.getChannel().force(true);
+        }
+    }
+
+    private static void checkSize(Path file, long size) {
+        // DataOutputStream.size()超过int范围后会停在Integer.MAX_VALUE
+        if (size >= MAX_FILE_SIZE) {
+            throw new IllegalStateException("分段文件过大，请分批导入: " + file.getFileName());
+        }
+    }
+
+    /**
+     * 一个词项的倒排表，使用基本类型数组存放分段号与词频
+     */
+    private static final class Postings {
+        int[] chunks = new int[4];
+        int[] frequencies = new int[4];
+        int size;
+
+        void add(int chunk, int frequency) {
+            if (size == chunks.length) {
+                chunks = Arrays.copyOf(chunks, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            chunks[size] = chunk;
+            frequencies[size] = frequency;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.springaidifymcp.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 检索使用的分词：英文与数字按单词切分并转为小写，中文按单字和相邻二字切分
+ */
+final class TextAnalyzer {
+
+    private TextAnalyzer() {
+    }
+
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        StringBuilder word = new StringBuilder();
+        char previousIdeograph = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isIdeographic(c)) {
+                flushWord(word, terms);
+                terms.add(String.valueOf(c));
+                if (previousIdeograph != 0) {
+                    terms.add(new String(new char[]{previousIdeograph, c}));
+                }
+                previousIdeograph = c;
+            } else if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+                previousIdeograph = 0;
+            } else {
+                flushWord(word, terms);
+                previousIdeograph = 0;
+            }
+        }
+        flushWord(word, terms);
+        return terms;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> terms) {
+        if (word.length() > 0) {
+            terms.add(word.toString());
+            word.setLength(0);
+        }
+    }
+}
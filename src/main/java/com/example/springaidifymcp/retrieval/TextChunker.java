@@ -0,0 +1,72 @@
+package com.example.springaidifymcp.retrieval;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 将文档切分为检索分段：分段不超过maxChars个字符，优先在段落、句子处切分，
+ * 相邻分段重叠overlapChars个字符，避免答案被切断在两个分段之间
+ */
+final class TextChunker {
+
+    private final int maxChars;
+    private final int overlapChars;
+
+    TextChunker(int maxChars, int overlapChars) {
+        if (maxChars <= 0 || overlapChars < 0 || overlapChars >= maxChars) {
+            throw new IllegalArgumentException("分段长度必须大于0且大于重叠长度");
+        }
+        this.maxChars = maxChars;
+        this.overlapChars = overlapChars;
+    }
+
+    List<String> split(String text) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null) {
+            return chunks;
+        }
+        String normalized = text.replace("\r\n", "\n").strip();
+        int start = 0;
+        while (start < normalized.length()) {
+            int end = Math.min(start + maxChars, normalized.length());
+            if (end < normalized.length()) {
+                end = findBoundary(normalized, start, end);
+            }
+            String chunk = normalized.substring(start, end).strip();
+            if (!chunk.isEmpty()) {
+                chunks.add(chunk);
+            }
+            if (end >= normalized.length()) {
+                break;
+            }
+            // 下一个分段从重叠处开始，但至少前进一个字符
+            start = Math.max(end - overlapChars, start + 1);
+        }
+        return chunks;
+    }
+
+    /**
+     * 在分段后半部分中从后向前查找段落、句子或空白边界，找不到时按长度截断
+     */
+    private int findBoundary(String text, int start, int end) {
+        int min = start + maxChars / 2;
+        int paragraph = text.lastIndexOf("\n\n", end - 1);
+        if (paragraph >= min) {
+            return paragraph + 2;
+        }
+        for (int i = end - 1; i >= min; i--) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '。' || c == '！' || c == '？' || c == '；'
+                    || ((c == '.' || c == '!' || c == '?' || c == ';') && i + 1 < text.length()
+                    && Character.isWhitespace(text.charAt(i + 1)))) {
+                return i + 1;
+            }
+        }
+        for (int i = end - 1; i >= min; i--) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.springaidifymcp.retrieval;
+
+/**
+ * 保留得分最高的k个结果的小顶堆，使用基本类型数组存放（分段序号, 分段号, 得分）
+ */
+final class TopHits {
+
+    private final int capacity;
+    private final int[] segments;
+    private final int[] chunks;
+    private final float[] scores;
+    private int size;
+
+    TopHits(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.segments = new int[this.capacity];
+        this.chunks = new int[this.capacity];
+        this.scores = new float[this.capacity];
+    }
+
+    void offer(int segment, int chunk, float score) {
+        if (size < capacity) {
+            segments[size] = segment;
+            chunks[size] = chunk;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (score > scores[0]) {
+            segments[0] = segment;
+            chunks[0] = chunk;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    int segment(int i) {
+        return segments[i];
+    }
+
+    int chunk(int i) {
+        return chunks[i];
+    }
+
+    float score(int i) {
+        return scores[i];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= scores[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+            if (scores[i] <= scores[smallest]) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int segment = segments[a];
+        segments[a] = segments[b];
+        segments[b] = segment;
+        int chunk = chunks[a];
+        chunks[a] = chunks[b];
+        chunks[b] = chunk;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -1,33 +1,123 @@
 package com.example.springaidifymcp.service;
 
+import com.example.springaidifymcp.engine.ExecutableWorkflow;
+import com.example.springaidifymcp.engine.WorkflowCompiler;
+import com.example.springaidifymcp.model.DifyStreamEvent;
 import com.example.springaidifymcp.model.DifyWorkflow;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.yaml.snakeyaml.LoaderOptions;
 import org.yaml.snakeyaml.Yaml;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.io.InputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
 public class DifyService {
 
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+            new ParameterizedTypeReference<>() {
+            };
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
     private final WebClient webClient;
-    private final Map<String, DifyWorkflow> workflowCache = new ConcurrentHashMap<>();
+    private final WorkflowCompiler workflowCompiler;
+    private final ObjectMapper objectMapper;
+    // 按文件路径缓存编译后的工作流，按节点与边的数量计算权重
+    private final Cache<String, CachedWorkflow> workflowCache;
+    private final long cacheMaximumWeight;
+    // SnakeYAML的Yaml实例不是线程安全的，解析时从有界的池中借出、解析成功后归还，
+    // 不依赖线程复用，平台线程与虚拟线程上都只保留有限个实例；池为空时临时新建，池满时丢弃
+    private final LoaderOptions yamlLoaderOptions = new LoaderOptions();
+    private final ArrayBlockingQueue<Yaml> yamlParsers =
+            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+    // 文件修改时间变化但内容未变、因而无需重新解析的次数
+    private final AtomicLong revalidations = new AtomicLong();
+    // 文件内容变化导致重新解析的次数
+    private final AtomicLong reloads = new AtomicLong();
+    private final Timer parseTimer;
+    private final Timer compileTimer;
 
     @Value("${dify.api.api-key}")
     private String apiKey;
 
-    public DifyService(@Value("${dify.api.base-url}") String baseUrl) {
+    /**
+     * 缓存项：编译后的工作流，以及用于校验的文件修改时间、大小和内容哈希
+     */
+    private static final class CachedWorkflow {
+        final ExecutableWorkflow workflow;
+        final String contentHash;
+        final long size;
+        volatile long lastModified;
+
+        CachedWorkflow(ExecutableWorkflow workflow, String contentHash, long size, long lastModified) {
+            this.workflow = workflow;
+            this.contentHash = contentHash;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public DifyService(@Value("${dify.api.base-url}") String baseUrl, WorkflowCompiler workflowCompiler,
+                       ObjectMapper objectMapper,
+                       @Value("${dify.workflow-cache.maximum-weight:200000}") long maximumWeight,
+                       @Value("${dify.workflow-cache.expire-after-access:6h}") Duration expireAfterAccess,
+                       MeterRegistry meterRegistry) {
+        this.workflowCompiler = workflowCompiler;
+        this.objectMapper = objectMapper;
+        this.cacheMaximumWeight = maximumWeight;
+        this.workflowCache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String path, CachedWorkflow cached) -> cacheWeight(cached.workflow))
+                .expireAfterAccess(expireAfterAccess)
+                .recordStats()
+                .build();
+        // 命中、未命中、淘汰等计数导出为cache.*指标
+        CaffeineCacheMetrics.monitor(meterRegistry, workflowCache, "workflowDefinitions");
+        FunctionCounter.builder("dify.workflow.revalidations", revalidations, AtomicLong::get)
+                .description("文件修改时间变化但内容未变的次数")
+                .register(meterRegistry);
+        FunctionCounter.builder("dify.workflow.reloads", reloads, AtomicLong::get)
+                .description("文件内容变化导致重新解析的次数")
+                .register(meterRegistry);
+        this.parseTimer = Timer.builder("dify.workflow.parse")
+                .description("YAML解析耗时")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.compileTimer = Timer.builder("dify.workflow.compile")
+                .description("工作流编译耗时")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
         this.webClient = WebClient.builder()
                 .baseUrl(baseUrl)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
@@ -38,17 +128,40 @@ public class DifyService {
      * 从YAML文件加载Dify工作流
      */
     public DifyWorkflow loadWorkflowFromYaml(String yamlPath) {
+        return loadExecutableWorkflow(yamlPath).getSource();
+    }
+
+    /**
+     * 从YAML文件加载并编译工作流，编译结果与解析结果一起缓存。
+     * 命中缓存时先比较文件的修改时间和大小，不一致再比较内容哈希，内容变化则重新解析。
+     */
+    public ExecutableWorkflow loadExecutableWorkflow(String yamlPath) {
         try {
-            if (workflowCache.containsKey(yamlPath)) {
-                return workflowCache.get(yamlPath);
+            Path path = Path.of(yamlPath);
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long lastModified = attributes.lastModifiedTime().toMillis();
+
+            CachedWorkflow cached = workflowCache.getIfPresent(yamlPath);
+            if (cached != null && cached.lastModified == lastModified && cached.size == attributes.size()) {
+                return cached.workflow;
             }
 
-            Yaml yaml = new Yaml();
-            InputStream inputStream = Files.newInputStream(Path.of(yamlPath));
-            DifyWorkflow workflow = yaml.loadAs(inputStream, DifyWorkflow.class);
-            workflowCache.put(yamlPath, workflow);
-            log.info("成功加载工作流: {}", workflow.getApp().getName());
-            return workflow;
+            byte[] content = Files.readAllBytes(path);
+            String contentHash = sha256Hex(content);
+            if (cached != null && cached.contentHash.equals(contentHash)) {
+                cached.lastModified = lastModified;
+                revalidations.incrementAndGet();
+                return cached.workflow;
+            }
+            if (cached != null) {
+                reloads.incrementAndGet();
+                log.info("工作流文件已变化，重新加载: {}", yamlPath);
+            }
+
+            ExecutableWorkflow executable = parseAndCompile(content);
+            workflowCache.put(yamlPath, new CachedWorkflow(executable, contentHash, content.length, lastModified));
+            log.info("成功加载工作流: {}", executable.getName());
+            return executable;
         } catch (Exception e) {
             log.error("加载工作流失败: {}", e.getMessage(), e);
             throw new RuntimeException("无法加载工作流文件: " + yamlPath, e);
@@ -56,9 +169,87 @@ public class DifyService {
     }
 
     /**
-     * 向Dify API发送请求
+     * 解析并编译YAML内容
      */
-    public Mono<Map<String, Object>> sendMessageToDify(String appId, String query, Map<String, Object> inputs) {
+    public ExecutableWorkflow parseAndCompile(byte[] content) {
+        DifyWorkflow workflow = parseTimer.record(() -> parseYaml(content));
+        if (workflow == null) {
+            throw new IllegalArgumentException("工作流文件为空");
+        }
+        return compileTimer.record(() -> workflowCompiler.compile(workflow));
+    }
+
+    private DifyWorkflow parseYaml(byte[] content) {
+        Yaml yaml = yamlParsers.poll();
+        if (yaml == null) {
+            yaml = new Yaml(yamlLoaderOptions);
+        }
+        DifyWorkflow workflow = yaml.loadAs(new ByteArrayInputStream(content), DifyWorkflow.class);
+        // 解析失败的实例可能残留中间状态，不再复用
+        yamlParsers.offer(yaml);
+        return workflow;
+    }
+
+    /**
+     * 将已编译的工作流放入缓存，避免刚保存的文件被再次读取和解析
+     */
+    public void cacheWorkflow(String yamlPath, ExecutableWorkflow workflow, String contentHash, long size) {
+        try {
+            long lastModified = Files.getLastModifiedTime(Path.of(yamlPath)).toMillis();
+            workflowCache.put(yamlPath, new CachedWorkflow(workflow, contentHash, size, lastModified));
+        } catch (IOException e) {
+            log.warn("无法读取工作流文件的修改时间: {}", yamlPath);
+        }
+    }
+
+    /**
+     * 使某个工作流文件的缓存失效，删除或替换文件时调用
+     */
+    public void invalidateWorkflow(String yamlPath) {
+        workflowCache.invalidate(yamlPath);
+    }
+
+    /**
+     * 工作流缓存的统计信息
+     */
+    /**
+     * 工作流在缓存中的权重：节点数与边数之和加1
+     */
+    public static int cacheWeight(ExecutableWorkflow workflow) {
+        return 1 + workflow.size() + workflow.edgeCount();
+    }
+
+    public long getCacheMaximumWeight() {
+        return cacheMaximumWeight;
+    }
+
+    public Map<String, Object> getCacheStats() {
+        CacheStats stats = workflowCache.stats();
+        Map<String, Object> result = new HashMap<>();
+        result.put("size", workflowCache.estimatedSize());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictions", stats.evictionCount());
+        result.put("evictionWeight", stats.evictionWeight());
+        result.put("revalidations", revalidations.get());
+        result.put("reloads", reloads.get());
+        return result;
+    }
+
+    static String sha256Hex(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 以流式方式调用Dify API，逐个解析SSE中的data事件，不缓冲整个响应体。
+     * 返回的Flux按订阅方的需求拉取数据，Dify返回error事件时以异常结束。
+     */
+    public Flux<DifyStreamEvent> streamMessageFromDify(String appId, String query, Map<String, Object> inputs) {
         Map<String, Object> requestBody = new HashMap<>();
         requestBody.put("query", query);
         requestBody.put("inputs", inputs);
@@ -68,13 +259,84 @@ public class DifyService {
         return webClient.post()
                 .uri("/v1/app-api/{appId}/chat-messages", appId)
                 .header("Authorization", "Bearer " + apiKey)
+                .accept(MediaType.TEXT_EVENT_STREAM)
                 .bodyValue(requestBody)
                 .retrieve()
-                .bodyToMono(Map.class)
-                .doOnSuccess(response -> log.debug("Dify API响应: {}", response))
+                .bodyToFlux(SSE_TYPE)
+                .filter(sse -> sse.data() != null && !sse.data().isBlank())
+                .map(sse -> parseStreamEvent(sse.event(), sse.data()))
+                .<DifyStreamEvent>handle((event, sink) -> {
+                    if (event.getType() == DifyStreamEvent.Type.ERROR) {
+                        sink.error(new RuntimeException("Dify API返回错误: " + event.getCode() + " " + event.getMessage()));
+                    } else {
+                        sink.next(event);
+                    }
+                })
                 .doOnError(error -> log.error("Dify API错误: {}", error.getMessage(), error));
     }
 
+    /**
+     * 向Dify API发送请求，汇总流式事件后返回完整回答与元数据
+     */
+    public Mono<Map<String, Object>> sendMessageToDify(String appId, String query, Map<String, Object> inputs) {
+        return streamMessageFromDify(appId, query, inputs)
+                .reduceWith(() -> new HashMap<String, Object>(), (response, event) -> {
+                    switch (event.getType()) {
+                        case MESSAGE_DELTA:
+                            response.merge("answer", event.getAnswer() != null ? event.getAnswer() : "",
+                                    (previous, delta) -> previous + (String) delta);
+                            break;
+                        case MESSAGE_END:
+                            response.put("metadata", event.getMetadata());
+                            break;
+                        default:
+                            break;
+                    }
+                    if (event.getMessageId() != null) {
+                        response.put("message_id", event.getMessageId());
+                    }
+                    if (event.getConversationId() != null) {
+                        response.put("conversation_id", event.getConversationId());
+                    }
+                    return response;
+                })
+                .map(response -> (Map<String, Object>) response)
+                .doOnSuccess(response -> log.debug("Dify API响应: {}", response));
+    }
+
+    /**
+     * 将单个SSE事件的data解析为类型化事件，Dify的事件名在data的event字段中
+     */
+    @SuppressWarnings("unchecked")
+    DifyStreamEvent parseStreamEvent(String sseEvent, String data) {
+        Map<String, Object> payload;
+        try {
+            payload = objectMapper.readValue(data, MAP_TYPE);
+        } catch (Exception e) {
+            throw new IllegalStateException("无法解析Dify事件: " + data, e);
+        }
+
+        DifyStreamEvent event = new DifyStreamEvent();
+        String name = payload.get("event") != null ? String.valueOf(payload.get("event")) : sseEvent;
+        event.setEvent(name);
+        event.setType(DifyStreamEvent.typeOf(name));
+        event.setTaskId((String) payload.get("task_id"));
+        event.setMessageId((String) payload.get("message_id"));
+        event.setConversationId((String) payload.get("conversation_id"));
+        event.setAnswer((String) payload.get("answer"));
+        if (payload.get("data") instanceof Map) {
+            event.setData((Map<String, Object>) payload.get("data"));
+        }
+        if (payload.get("metadata") instanceof Map) {
+            event.setMetadata((Map<String, Object>) payload.get("metadata"));
+        }
+        if (event.getType() == DifyStreamEvent.Type.ERROR) {
+            event.setCode(payload.get("code") != null ? String.valueOf(payload.get("code")) : null);
+            event.setMessage((String) payload.get("message"));
+        }
+        return event;
+    }
+
     /**
      * 分析工作流并提取模型信息
      */
@@ -100,4 +362,4 @@ public class DifyService {
                 
         return modelInfo;
     }
-}
\ No newline at end of file
+}
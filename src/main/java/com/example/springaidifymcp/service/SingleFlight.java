@@ -0,0 +1,96 @@
+package com.example.springaidifymcp.service;
+
+import com.example.springaidifymcp.engine.WorkflowExecutionException;
+import com.example.springaidifymcp.engine.WorkflowRun;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 合并相同键的并发调用：同一时刻每个键只执行一次，执行期间到达的相同调用等待并共享同一个结果或异常。
+ * 执行结束后立即移除，之后到达的调用会重新执行，不会拿到过期的结果。
+ */
+public class SingleFlight<V> {
+
+    /**
+     * 调用结果，shared表示结果来自另一个调用的执行
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Result<V> {
+        private final V value;
+        private final boolean shared;
+    }
+
+    private final Map<String, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * 执行或等待正在进行的相同调用
+     *
+     * @param timeout 等待其他调用结果的最长时间
+     */
+    public Result<V> execute(String key, Supplier<V> supplier, Duration timeout) {
+        CompletableFuture<V> created = new CompletableFuture<>();
+        CompletableFuture<V> existing = calls.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return new Result<>(await(existing, timeout), true);
+        }
+
+        executions.incrementAndGet();
+        try {
+            V value = supplier.get();
+            // 先移除再通知等待方，之后的调用不会拿到这次的结果
+            calls.remove(key, created);
+            created.complete(value);
+            return new Result<>(value, false);
+        } catch (RuntimeException | Error e) {
+            calls.remove(key, created);
+            created.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public int inFlight() {
+        return calls.size();
+    }
+
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private V await(CompletableFuture<V> future, Duration timeout) {
+        try {
+            return future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new WorkflowExecutionException("共享的执行失败: " + cause.getMessage(), cause);
+        } catch (TimeoutException e) {
+            throw new WorkflowExecutionException(WorkflowRun.Status.TIMED_OUT, "等待相同查询的执行结果超时");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WorkflowExecutionException("等待相同查询的执行结果被中断", e);
+        }
+    }
+}
@@ -1,17 +1,50 @@
 package com.example.springaidifymcp.service;
 
+import com.example.springaidifymcp.classifier.ClassificationResult;
+import com.example.springaidifymcp.classifier.QuestionClassifier;
+import com.example.springaidifymcp.engine.CompiledNode;
+import com.example.springaidifymcp.engine.CompiledTemplate;
+import com.example.springaidifymcp.engine.ExecutableWorkflow;
+import com.example.springaidifymcp.engine.NodeKind;
+import com.example.springaidifymcp.engine.RunContext;
+import com.example.springaidifymcp.engine.RunTrace;
+import com.example.springaidifymcp.engine.WorkflowCompiler;
+import com.example.springaidifymcp.engine.WorkflowInterpreter;
+import com.example.springaidifymcp.engine.WorkflowRun;
+import com.example.springaidifymcp.engine.WorkflowRunListener;
+import com.example.springaidifymcp.limit.Bulkhead;
+import com.example.springaidifymcp.limit.BulkheadFullException;
+import com.example.springaidifymcp.limit.BulkheadRegistry;
+import com.example.springaidifymcp.llm.LlmCallResult;
+import com.example.springaidifymcp.llm.LlmGateway;
+import com.example.springaidifymcp.llm.ModelUnavailableException;
+import com.example.springaidifymcp.metrics.WorkflowMetrics;
+import com.example.springaidifymcp.model.BatchQuery;
 import com.example.springaidifymcp.model.DifyWorkflow;
-import com.example.springaidifymcp.model.DifyWorkflow.Graph.Node;
+import com.example.springaidifymcp.model.RetrievedChunk;
+import com.example.springaidifymcp.model.WorkflowStreamEvent;
+import com.example.springaidifymcp.retrieval.KnowledgeBase;
+import com.example.springaidifymcp.trace.RunTraceRecorder;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.chat.ChatClient;
-import org.springframework.ai.chat.ChatResponse;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+import java.text.Normalizer;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 工作流处理器，负责执行工作流中的节点逻辑
@@ -21,289 +54,516 @@ import java.util.*;
 public class WorkflowProcessor {
 
     private final DifyService difyService;
-    private final ChatClient chatClient;
+    private final LlmGateway llmGateway;
+    private final QuestionClassifier questionClassifier;
+    private final KnowledgeBase knowledgeBase;
+    private final WorkflowCompiler workflowCompiler;
+    private final BulkheadRegistry bulkheads;
+    private final WorkflowMetrics workflowMetrics;
+    private final RunTraceRecorder runTraceRecorder;
+    private final WorkflowInterpreter interpreter;
+    private final Scheduler workflowScheduler;
+    private final int maxSteps;
+    private final Duration timeout;
 
-    public WorkflowProcessor(DifyService difyService, ChatClient chatClient) {
+    // 合并相同(工作流, 内容哈希, 查询)的并发运行
+    private final boolean coalescingEnabled;
+    private final SingleFlight<WorkflowRun> inFlightRuns = new SingleFlight<>();
+    private final Map<String, Flux<WorkflowStreamEvent>> inFlightStreams = new ConcurrentHashMap<>();
+    private final AtomicLong streamExecutions = new AtomicLong();
+    private final AtomicLong streamsCoalesced = new AtomicLong();
+
+    public WorkflowProcessor(DifyService difyService, LlmGateway llmGateway, QuestionClassifier questionClassifier,
+                             KnowledgeBase knowledgeBase, WorkflowCompiler workflowCompiler,
+                             BulkheadRegistry bulkheads, WorkflowMetrics workflowMetrics,
+                             RunTraceRecorder runTraceRecorder,
+                             ExecutorService workflowNodeExecutor,
+                             Scheduler workflowScheduler,
+                             @Value("${workflow.execution.max-steps:1000}") int maxSteps,
+                             @Value("${workflow.execution.timeout:60s}") Duration timeout,
+                             @Value("${workflow.execution.max-parallel-branches:4}") int maxParallelBranches,
+                             @Value("${workflow.coalescing.enabled:true}") boolean coalescingEnabled) {
         this.difyService = difyService;
-        this.chatClient = chatClient;
+        this.llmGateway = llmGateway;
+        this.questionClassifier = questionClassifier;
+        this.knowledgeBase = knowledgeBase;
+        this.workflowCompiler = workflowCompiler;
+        this.bulkheads = bulkheads;
+        this.workflowMetrics = workflowMetrics;
+        this.runTraceRecorder = runTraceRecorder;
+        this.workflowScheduler = workflowScheduler;
+        this.maxSteps = maxSteps;
+        this.timeout = timeout;
+        this.coalescingEnabled = coalescingEnabled;
+
+        WorkflowInterpreter.NodeHandler[] handlers = new WorkflowInterpreter.NodeHandler[NodeKind.values().length];
+        handlers[NodeKind.START.ordinal()] = (node, run) -> WorkflowRun.ALL_SUCCESSORS;
+        handlers[NodeKind.QUESTION_CLASSIFIER.ordinal()] = this::executeQuestionClassifier;
+        handlers[NodeKind.KNOWLEDGE_RETRIEVAL.ordinal()] = this::executeKnowledgeRetrieval;
+        handlers[NodeKind.LLM.ordinal()] = this::executeLlmNode;
+        handlers[NodeKind.ANSWER.ordinal()] = this::executeAnswerNode;
+        handlers[NodeKind.UNKNOWN.ordinal()] = (node, run) -> {
+            log.warn("未知节点类型: {}", node.getType());
+            run.setResult("未能处理该节点类型: " + node.getType());
+            return WorkflowRun.END;
+        };
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i] = RunTrace.instrument(workflowMetrics.instrument(handlers[i]));
+        }
+        this.interpreter = new WorkflowInterpreter(handlers, workflowNodeExecutor, maxParallelBranches);
     }
 
     /**
-     * 处理一个完整的工作流
+     * 处理一个完整的工作流（未编译的工作流会先被编译）
      */
     public String processWorkflow(DifyWorkflow workflow, String userQuery) {
-        log.info("开始处理工作流: {}", workflow.getApp().getName());
-        
-        // 获取起始节点
-        Node startNode = findStartNode(workflow);
-        if (startNode == null) {
-            throw new IllegalStateException("无法找到起始节点");
-        }
-        
-        // 执行工作流节点
-        Map<String, Object> context = new HashMap<>();
-        context.put("sys.query", userQuery);
+        return processWorkflow(workflowCompiler.compile(workflow), userQuery);
+    }
+
+    /**
+     * 处理一个已编译的工作流
+     */
+    public String processWorkflow(ExecutableWorkflow workflow, String userQuery) {
+        return execute(workflow, userQuery).getResult();
+    }
+
+    /**
+     * 执行一个已编译的工作流并返回运行状态，包含结果以及步数、模型调用与缓存命中等信息
+     */
+    public WorkflowRun execute(ExecutableWorkflow workflow, String userQuery) {
+        return execute(null, workflow, userQuery);
+    }
+
+    private WorkflowRun execute(String workflowKey, ExecutableWorkflow workflow, String userQuery) {
+        log.info("开始处理工作流: {}", workflow.getName());
         
-        // 模拟工作流执行过程
-        String result = executeWorkflowFromNode(workflow, startNode.getId(), context);
+        WorkflowRun run = resume(startRun(workflowKey, workflow, userQuery));
         
-        log.info("工作流处理完成，返回结果");
-        return result;
+        log.info("工作流处理完成，共执行 {} 个节点，模型调用 {} 次，缓存命中 {} 次",
+                run.getSteps(), run.getLlmCalls(), run.getLlmCacheHits());
+        return run;
     }
-    
+
     /**
-     * 从指定节点开始执行工作流
+     * 执行工作流，同一工作流版本上相同查询的并发请求共享一次运行的结果。
+     * 只有实际执行的请求占用工作流隔离舱的许可，共享结果的请求不占用
+     *
+     * @param workflowKey 工作流ID与内容哈希，内容变化后不会与旧版本的运行合并
+     * @throws com.example.springaidifymcp.limit.BulkheadFullException 工作流的并发与等待队列已满
      */
-    private String executeWorkflowFromNode(DifyWorkflow workflow, String nodeId, Map<String, Object> context) {
-        // 获取当前节点
-        Node currentNode = findNodeById(workflow, nodeId);
-        if (currentNode == null) {
-            throw new IllegalStateException("找不到节点: " + nodeId);
+    public SingleFlight.Result<WorkflowRun> executeShared(String workflowKey, ExecutableWorkflow workflow, String userQuery) {
+        if (!coalescingEnabled) {
+            return new SingleFlight.Result<>(executeLimited(workflowKey, workflow, userQuery), false);
         }
-        
-        log.debug("执行节点: {} ({})", currentNode.getData().getTitle(), currentNode.getData().getType());
-        
-        // 根据节点类型处理
-        String nodeType = currentNode.getData().getType();
-        String result;
-        
-        switch (nodeType) {
-            case "start":
-                // 起始节点，找到下一个节点继续执行
-                result = executeNextNode(workflow, nodeId, context);
-                break;
-                
-            case "question-classifier":
-                // 问题分类节点
-                result = executeQuestionClassifier(workflow, currentNode, context);
-                break;
-                
-            case "knowledge-retrieval":
-                // 知识检索节点
-                result = executeKnowledgeRetrieval(workflow, currentNode, context);
-                break;
-                
-            case "llm":
-                // LLM节点
-                result = executeLlmNode(workflow, currentNode, context);
-                break;
-                
-            case "answer":
-                // 回答节点
-                result = executeAnswerNode(workflow, currentNode, context);
-                break;
-                
-            default:
-                log.warn("未知节点类型: {}", nodeType);
-                result = "未能处理该节点类型: " + nodeType;
-                break;
+        SingleFlight.Result<WorkflowRun> result = inFlightRuns.execute(coalescingKey(workflowKey, userQuery),
+                () -> executeLimited(workflowKey, workflow, userQuery), timeout.plusSeconds(1));
+        if (result.isShared()) {
+            log.debug("相同查询正在执行，共享其结果: {}", workflow.getName());
         }
-        
         return result;
     }
+
+    private WorkflowRun executeLimited(String workflowKey, ExecutableWorkflow workflow, String userQuery) {
+        try (Bulkhead.Permit permit = bulkheads.acquireWorkflow(workflowKey)) {
+            return execute(workflowKey, workflow, userQuery);
+        }
+    }
+
+    /**
+     * 以事件流的方式处理工作流，相同查询的并发请求订阅同一次运行的事件流，
+     * 后加入的订阅方会先收到之前已推送的事件。
+     * 工作流隔离舱的许可在订阅时获取、在运行结束或所有订阅方断开时归还，返回的事件流没有被订阅时不占用许可；
+     * 已满时事件流以BulkheadFullException结束
+     */
+    public Flux<WorkflowStreamEvent> streamShared(String workflowKey, ExecutableWorkflow workflow, String userQuery) {
+        if (!coalescingEnabled) {
+            return streamLimited(workflowKey, workflow, userQuery);
+        }
+        String key = coalescingKey(workflowKey, userQuery);
+        return Flux.defer(() -> {
+            Flux<WorkflowStreamEvent> existing = inFlightStreams.get(key);
+            if (existing != null) {
+                streamsCoalesced.incrementAndGet();
+                return existing;
+            }
+            AtomicReference<Flux<WorkflowStreamEvent>> created = new AtomicReference<>();
+            Flux<WorkflowStreamEvent> shared = inFlightStreams.computeIfAbsent(key, k -> {
+                Flux<WorkflowStreamEvent> flux = streamLimited(workflowKey, workflow, userQuery)
+                        // 运行结束、许可被拒绝或所有订阅方都断开后移除，之后的请求重新执行
+                        .doFinally(signal -> inFlightStreams.remove(k, created.get()))
+                        .replay()
+                        .refCount();
+                created.set(flux);
+                return flux;
+            });
+            if (shared == created.get()) {
+                streamExecutions.incrementAndGet();
+            } else {
+                streamsCoalesced.incrementAndGet();
+            }
+            return shared;
+        });
+    }
+
+    private Flux<WorkflowStreamEvent> streamLimited(String workflowKey, ExecutableWorkflow workflow, String userQuery) {
+        return Flux.using(() -> bulkheads.acquireWorkflow(workflowKey),
+                permit -> streamWorkflow(workflowKey, workflow, userQuery),
+                WorkflowProcessor::closePermit);
+    }
+
+    private static void closePermit(Bulkhead.Permit permit) {
+        if (permit != null) {
+            permit.close();
+        }
+    }
+
+    public Map<String, Object> getCoalescingStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", coalescingEnabled);
+        stats.put("inFlight", inFlightRuns.inFlight() + inFlightStreams.size());
+        stats.put("executions", inFlightRuns.getExecutions());
+        stats.put("coalesced", inFlightRuns.getCoalesced());
+        stats.put("streamExecutions", streamExecutions.get());
+        stats.put("streamsCoalesced", streamsCoalesced.get());
+        return stats;
+    }
+
+    /**
+     * 合并键：工作流ID、内容哈希与规范化（去除首尾空白、合并连续空白、NFKC）后的查询
+     */
+    private static String coalescingKey(String workflowKey, String userQuery) {
+        String normalized = Normalizer.normalize(userQuery.strip(), Normalizer.Form.NFKC).replaceAll("\\s+", " ");
+        // 规范化后的查询不含换行，可以作为分隔符
+        return workflowKey + '\n' + normalized;
+    }
+
+    /**
+     * 以事件流的方式处理工作流：推送各节点的开始/结束事件，
+     * 输出直接进入回答的LLM节点通过流式客户端逐段推送内容
+     */
+    public Flux<WorkflowStreamEvent> streamWorkflow(ExecutableWorkflow workflow, String userQuery) {
+        return streamWorkflow(null, workflow, userQuery);
+    }
+
+    private Flux<WorkflowStreamEvent> streamWorkflow(String workflowKey, ExecutableWorkflow workflow, String userQuery) {
+        return Flux.<WorkflowStreamEvent>create(sink -> {
+            WorkflowRun run = startRun(workflowKey, workflow, userQuery);
+            run.setListener(new StreamingRunListener(sink));
+            // 客户端断开后不再调度新的节点，正在执行的节点完成后运行以CANCELLED结束并照常记录
+            sink.onDispose(run::requestCancel);
+            try {
+                resume(run);
+                WorkflowStreamEvent finished = WorkflowStreamEvent.of(WorkflowStreamEvent.WORKFLOW_FINISHED);
+                finished.setText(run.getResult());
+                finished.setElapsedMs(run.elapsedNanos() / 1_000_000);
+                sink.next(finished);
+            } catch (Exception e) {
+                log.error("流式处理工作流失败: {}", e.getMessage(), e);
+                WorkflowStreamEvent error = WorkflowStreamEvent.of(WorkflowStreamEvent.ERROR);
+                error.setText(e.getMessage());
+                if (e instanceof ModelUnavailableException) {
+                    error.setRetryAfter(((ModelUnavailableException) e).getRetryAfterSeconds());
+                }
+                sink.next(error);
+            }
+            sink.complete();
+        }).subscribeOn(workflowScheduler);
+    }
+
+    /**
+     * 使用同一个已编译的工作流批量处理查询，最多同时执行concurrency条，且不超过工作流隔离舱当前的并发上限，
+     * 超出上限的查询在批次内排队，而不是在隔离舱上等满max-wait后被拒绝；
+     * 按完成顺序输出每条查询的结果、错误与耗时；批次内外相同的并发查询共享同一次运行
+     */
+    public Flux<Map<String, Object>> processBatch(String workflowKey, ExecutableWorkflow workflow,
+                                                  List<BatchQuery> queries, int concurrency) {
+        int parallelism = Math.max(1, Math.min(concurrency, bulkheads.workflowLimit(workflowKey)));
+        log.info("开始批量处理工作流: {}, 共 {} 条查询, 并发 {}", workflow.getName(), queries.size(), parallelism);
+        return Flux.fromIterable(queries)
+                .flatMap(query -> Mono.fromCallable(() -> processBatchItem(workflowKey, workflow, query))
+                        .subscribeOn(workflowScheduler), parallelism);
+    }
+
+    private Map<String, Object> processBatchItem(String workflowKey, ExecutableWorkflow workflow, BatchQuery query) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("index", query.getIndex());
+        if (query.getId() != null) {
+            item.put("id", query.getId());
+        }
+        long startNanos = System.nanoTime();
+        try {
+            if (query.getQuery() == null || query.getQuery().isEmpty()) {
+                throw new IllegalArgumentException("查询不能为空");
+            }
+            SingleFlight.Result<WorkflowRun> shared = executeShared(workflowKey, workflow, query.getQuery());
+            WorkflowRun run = shared.getValue();
+            item.put("status", "success");
+            item.put("result", run.getResult());
+            item.put("steps", run.getSteps());
+            item.put("cacheHits", run.getLlmCacheHits());
+            item.put("coalesced", shared.isShared());
+        } catch (BulkheadFullException e) {
+            log.warn("批量处理第 {} 条查询被拒绝: {}", query.getIndex(), e.getMessage());
+            item.put("status", "rejected");
+            item.put("message", e.getMessage());
+            item.put("retryAfter", e.getRetryAfterSeconds());
+        } catch (ModelUnavailableException e) {
+            log.warn("批量处理第 {} 条查询失败，模型不可用: {}", query.getIndex(), e.getMessage());
+            item.put("status", "unavailable");
+            item.put("message", e.getMessage());
+            item.put("retryAfter", e.getRetryAfterSeconds());
+        } catch (Exception e) {
+            log.warn("批量处理第 {} 条查询失败: {}", query.getIndex(), e.getMessage());
+            item.put("status", "error");
+            item.put("message", e.getMessage());
+        }
+        item.put("elapsedMs", (System.nanoTime() - startNanos) / 1_000_000);
+        return item;
+    }
+
+    /**
+     * 创建一次运行，每个节点最多执行一次，步数上限不超过配置值和节点数
+     */
+    public WorkflowRun startRun(ExecutableWorkflow workflow, String userQuery) {
+        return startRun(null, workflow, userQuery);
+    }
+
+    /**
+     * 创建一次运行，按采样率为其附加执行轨迹
+     *
+     * @param workflowKey 工作流ID与内容哈希，用于按工作流查询轨迹；未注册的工作流为null
+     */
+    public WorkflowRun startRun(String workflowKey, ExecutableWorkflow workflow, String userQuery) {
+        int stepBudget = Math.min(maxSteps, Math.max(workflow.size(), 1));
+        WorkflowRun run = new WorkflowRun(workflow, userQuery, stepBudget, timeout.toNanos());
+        runTraceRecorder.start(run, workflowKey);
+        return run;
+    }
+
+    /**
+     * 执行或继续执行一次运行，直到完成或被暂停
+     */
+    public WorkflowRun resume(WorkflowRun run) {
+        Throwable failure = null;
+        try {
+            interpreter.run(run);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            if (run.isFinished()) {
+                workflowMetrics.recordRun(run);
+                runTraceRecorder.finish(run, failure);
+            }
+        }
+        if (run.getStatus() == WorkflowRun.Status.COMPLETED && run.getResult() == null) {
+            run.setResult("工作流执行完成");
+        }
+        // 结果已写入运行状态，上下文可以交给下一次运行复用
+        run.releaseContext();
+        return run;
+    }
     
     /**
      * 执行问题分类节点
      */
-    private String executeQuestionClassifier(DifyWorkflow workflow, Node node, Map<String, Object> context) {
-        String query = (String) context.get("sys.query");
+    private int executeQuestionClassifier(CompiledNode node, WorkflowRun run) {
+        ExecutableWorkflow workflow = run.getWorkflow();
+        String query = run.getQuery();
         log.debug("执行问题分类，用户查询: {}", query);
         
-        // 使用Spring AI进行分类
-        List<Object> classes = node.getData().getClasses();
-        if (classes == null || classes.isEmpty()) {
+        String[] classIds = node.getClassIds();
+        if (classIds.length == 0) {
             log.warn("问题分类节点没有定义类别");
-            return executeNextNode(workflow, node.getId(), context);
+            return defaultNextNode(node, run);
         }
         
-        // 构建分类提示
-        StringBuilder promptBuilder = new StringBuilder();
-        promptBuilder.append("请将以下问题分类到最合适的类别中，只返回类别ID：\n\n");
-        promptBuilder.append("问题: ").append(query).append("\n\n");
-        promptBuilder.append("类别:\n");
-        
-        classes.forEach(cls -> {
-            if (cls instanceof Map) {
-                Map<String, Object> classMap = (Map<String, Object>) cls;
-                promptBuilder.append("- ID: ").append(classMap.get("id"))
-                        .append(", 名称: ").append(classMap.get("name")).append("\n");
-            } else if (cls instanceof DifyWorkflow.Graph.Node.NodeData.NodeClass) {
-                DifyWorkflow.Graph.Node.NodeData.NodeClass classObj = (DifyWorkflow.Graph.Node.NodeData.NodeClass) cls;
-                promptBuilder.append("- ID: ").append(classObj.getId())
-                        .append(", 名称: ").append(classObj.getName()).append("\n");
-            }
-        });
-        
-        // 发送请求到模型
-        Prompt prompt = new Prompt(new UserMessage(promptBuilder.toString()));
-        String classificationResult = chatClient.call(prompt).getResult().getOutput().getContent();
-        classificationResult = classificationResult.trim();
-        
-        log.debug("分类结果: {}", classificationResult);
+        // 本地分类置信度不足时才调用模型
+        ClassificationResult classification = questionClassifier.classify(node, run, query);
+        String classId = classIds[classification.getClassIndex()];
+        log.debug("分类结果: {} ({}, 置信度 {})", classId, classification.getSource(), classification.getConfidence());
+        workflowMetrics.recordClassification(node, run, classId, classification.getSource());
+        if (run.getTrace() != null) {
+            run.getTrace().setBranch(node.getIndex(), classId);
+        }
         
         // 根据分类结果找到下一个节点
-        String nextEdgeId = findEdgeBySourceAndSourceHandle(workflow, node.getId(), classificationResult)
-                .map(edge -> edge.getTarget())
-                .orElseGet(() -> {
-                    log.warn("无法找到分类结果对应的边，使用默认边");
-                    return findDefaultNextEdge(workflow, node.getId()).map(edge -> edge.getTarget()).orElse(null);
-                });
+        int nextIndex = workflow.nextByHandle(node.getIndex(), classId);
+        if (nextIndex < 0) {
+            log.warn("无法找到分类结果对应的边，使用默认边");
+            nextIndex = workflow.defaultNext(node.getIndex());
+        }
         
-        if (nextEdgeId == null) {
+        if (nextIndex < 0) {
             log.warn("没有找到下一个节点");
-            return "无法继续处理，未找到下一个节点";
+            run.setResult("无法继续处理，未找到下一个节点");
+            return WorkflowRun.END;
         }
         
-        return executeWorkflowFromNode(workflow, nextEdgeId, context);
+        return nextIndex;
     }
     
     /**
      * 执行知识检索节点
      */
-    private String executeKnowledgeRetrieval(DifyWorkflow workflow, Node node, Map<String, Object> context) {
-        String query = (String) context.get("sys.query");
+    private int executeKnowledgeRetrieval(CompiledNode node, WorkflowRun run) {
+        String query = run.getQuery();
         log.debug("执行知识检索，用户查询: {}", query);
         
-        // 这里应该调用实际的知识检索，但示例中模拟检索结果
-        String retrievalResult = "这是一个模拟的知识检索结果，包含了与查询相关的信息。";
-        
-        // 将检索结果添加到上下文
-        context.put(node.getId() + ".result", retrievalResult);
+        // 在本地知识库中检索，检索结果作为分段内容列表写入上下文
+        List<String> contents = new ArrayList<>();
+        if (node.getDatasetIds().length > 0) {
+            List<RetrievedChunk> hits = knowledgeBase.retrieve(node.getDatasetIds(), query, node.isMultipleRetrieval(),
+                    node.getRetrievalTopK(), node.getRetrievalScoreThreshold());
+            for (RetrievedChunk hit : hits) {
+                contents.add(hit.getContent());
+            }
+            log.debug("知识检索命中 {} 个分段", hits.size());
+        }
+        run.getContext().set(node.getOutputSlot(), contents);
         
-        // 执行下一个节点
-        return executeNextNode(workflow, node.getId(), context);
+        return WorkflowRun.ALL_SUCCESSORS;
     }
     
     /**
      * 执行LLM节点
      */
-    private String executeLlmNode(DifyWorkflow workflow, Node node, Map<String, Object> context) {
+    private int executeLlmNode(CompiledNode node, WorkflowRun run) {
         log.debug("执行LLM节点");
+        RunContext context = run.getContext();
         
         // 获取上下文内容
-        String contextContent = "";
-        if (node.getData().getContext() != null && node.getData().getContext().isEnabled()) {
-            List<String> variableSelector = node.getData().getContext().getVariableSelector();
-            if (variableSelector != null && variableSelector.size() >= 2) {
-                String contextNodeId = variableSelector.get(0);
-                String contextVarName = variableSelector.get(1);
-                String contextKey = contextNodeId + "." + contextVarName;
-                contextContent = (String) context.getOrDefault(contextKey, "");
-            }
+        Object contextContent = node.getContextSlot() >= 0 ? context.get(node.getContextSlot()) : "";
+        if (contextContent == null) {
+            contextContent = "";
         }
         
         // 获取提示模板
-        List<Map<String, Object>> promptTemplates = node.getData().getPromptTemplate();
-        if (promptTemplates == null || promptTemplates.isEmpty()) {
+        CompiledTemplate[] promptTemplates = node.getPromptTemplates();
+        if (promptTemplates.length == 0) {
             log.warn("LLM节点没有提示模板");
-            return "无法处理，LLM节点没有提示模板";
+            run.setResult("无法处理，LLM节点没有提示模板");
+            return WorkflowRun.END;
         }
         
-        // 构建提示
-        String systemPrompt = "";
-        for (Map<String, Object> template : promptTemplates) {
-            if ("system".equals(template.get("role"))) {
-                systemPrompt = (String) template.get("text");
-                break;
+        // 渲染提示，{{#context#}}为上下文内容，其余变量从运行上下文读取
+        String[] roles = node.getPromptRoles();
+        List<Message> messages = new ArrayList<>(promptTemplates.length + 1);
+        boolean hasUserMessage = false;
+        int promptChars = 0;
+        for (int i = 0; i < promptTemplates.length; i++) {
+            String text = promptTemplates[i].render(context, contextContent);
+            promptChars += text.length();
+            switch (roles[i]) {
+                case "system" -> messages.add(new SystemMessage(text));
+                case "assistant" -> messages.add(new AssistantMessage(text));
+                default -> {
+                    messages.add(new UserMessage(text));
+                    hasUserMessage = true;
+                }
             }
         }
         
-        // 替换提示中的变量
-        if (systemPrompt.contains("{{#context#}}")) {
-            systemPrompt = systemPrompt.replace("{{#context#}}", contextContent);
+        // 模板中没有用户消息时，用户查询作为用户消息
+        if (!hasUserMessage) {
+            messages.add(new UserMessage(run.getQuery()));
+            promptChars += run.getQuery() != null ? run.getQuery().length() : 0;
         }
         
-        String userQuery = (String) context.get("sys.query");
-        
         // 使用Spring AI执行LLM请求
-        Prompt prompt = new Prompt(
-                Arrays.asList(
-                        new SystemMessage(systemPrompt),
-                        new UserMessage(userQuery)
-                )
-        );
-        
-        ChatResponse response = chatClient.call(prompt);
-        String llmResult = response.getResult().getOutput().getContent();
+        Prompt prompt = new Prompt(messages);
+        
+        LlmCallResult callResult;
+        if (run.isStreaming() && node.isStreamsToAnswer()) {
+            // 输出直接进入回答的节点逐段推送内容
+            WorkflowRunListener listener = run.getListener();
+            callResult = llmGateway.stream(prompt, node.getModelRoute(), node.isLlmCacheable(),
+                    token -> listener.onToken(node, token), run.remainingNanos());
+        } else {
+            callResult = llmGateway.call(prompt, node.getModelRoute(), node.isLlmCacheable(), run.remainingNanos());
+        }
+        run.recordLlmCall(callResult.isCacheHit());
+        RunTrace trace = run.getTrace();
+        if (trace != null) {
+            trace.setPromptChars(node.getIndex(), promptChars);
+            trace.setCacheHit(node.getIndex(), callResult.isCacheHit());
+        }
+        String llmResult = callResult.getContent();
         
         // 保存结果到上下文
-        context.put(node.getId() + ".text", llmResult);
+        context.set(node.getOutputSlot(), llmResult != null ? llmResult : "");
         
-        // 执行下一个节点
-        return executeNextNode(workflow, node.getId(), context);
+        return WorkflowRun.ALL_SUCCESSORS;
     }
     
     /**
-     * 执行回答节点
+     * 执行回答节点，回答节点是分支的终点
      */
-    private String executeAnswerNode(DifyWorkflow workflow, Node node, Map<String, Object> context) {
+    private int executeAnswerNode(CompiledNode node, WorkflowRun run) {
         log.debug("执行回答节点");
         
-        // 获取回答内容
-        String answer = node.getData().getAnswer();
-        
-        // 如果回答包含变量引用，替换为上下文中的值
-        if (answer != null && answer.startsWith("{{#") && answer.endsWith("#}}")) {
-            String varRef = answer.substring(3, answer.length() - 3);
-            answer = (String) context.getOrDefault(varRef, "无法获取回答内容");
+        // 渲染回答内容中的变量引用
+        CompiledTemplate template = node.getAnswerTemplate();
+        RunContext context = run.getContext();
+        String answer = template.render(context, null);
+        if (template.isSingleVariable() && context.get(template.getSlot(0)) == null) {
+            answer = "无法获取回答内容";
         }
         
-        return answer;
+        if (!answer.isEmpty()) {
+            run.setAnswer(node.getIndex(), answer);
+        }
+        return WorkflowRun.END;
     }
     
     /**
-     * 查找并执行下一个节点
+     * 查找默认的下一个节点（第一条出边的目标）
      */
-    private String executeNextNode(DifyWorkflow workflow, String currentNodeId, Map<String, Object> context) {
-        Optional<DifyWorkflow.Graph.Edge> nextEdge = findDefaultNextEdge(workflow, currentNodeId);
-        
-        if (nextEdge.isPresent()) {
-            String nextNodeId = nextEdge.get().getTarget();
-            return executeWorkflowFromNode(workflow, nextNodeId, context);
-        } else {
+    private int defaultNextNode(CompiledNode currentNode, WorkflowRun run) {
+        int nextIndex = run.getWorkflow().defaultNext(currentNode.getIndex());
+        if (nextIndex < 0) {
             log.warn("没有找到下一个节点");
-            return "工作流执行完成";
         }
+        return nextIndex;
     }
-    
-    // 辅助方法
-    
-    /**
-     * 查找起始节点
-     */
-    private Node findStartNode(DifyWorkflow workflow) {
-        return workflow.getWorkflow().getGraph().getNodes().stream()
-                .filter(node -> "start".equals(node.getData().getType()))
-                .findFirst()
-                .orElse(null);
-    }
-    
-    /**
-     * 通过ID查找节点
-     */
-    private Node findNodeById(DifyWorkflow workflow, String nodeId) {
-        return workflow.getWorkflow().getGraph().getNodes().stream()
-                .filter(node -> nodeId.equals(node.getId()))
-                .findFirst()
-                .orElse(null);
-    }
-    
-    /**
-     * 查找默认的下一个边
-     */
-    private Optional<DifyWorkflow.Graph.Edge> findDefaultNextEdge(DifyWorkflow workflow, String sourceNodeId) {
-        return workflow.getWorkflow().getGraph().getEdges().stream()
-                .filter(edge -> sourceNodeId.equals(edge.getSource()))
-                .findFirst();
-    }
-    
+
     /**
-     * 按源节点ID和源句柄查找边
+     * 将运行事件转换为推送给客户端的流式事件
      */
-    private Optional<DifyWorkflow.Graph.Edge> findEdgeBySourceAndSourceHandle(
-            DifyWorkflow workflow, String sourceNodeId, String sourceHandle) {
-        return workflow.getWorkflow().getGraph().getEdges().stream()
-                .filter(edge -> sourceNodeId.equals(edge.getSource()) && sourceHandle.equals(edge.getSourceHandle()))
-                .findFirst();
+    private static class StreamingRunListener implements WorkflowRunListener {
+
+        private final FluxSink<WorkflowStreamEvent> sink;
+
+        StreamingRunListener(FluxSink<WorkflowStreamEvent> sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void onNodeStarted(CompiledNode node) {
+            sink.next(nodeEvent(WorkflowStreamEvent.NODE_STARTED, node));
+        }
+
+        @Override
+        public void onNodeFinished(CompiledNode node, long durationNanos) {
+            WorkflowStreamEvent event = nodeEvent(WorkflowStreamEvent.NODE_FINISHED, node);
+            event.setElapsedMs(durationNanos / 1_000_000);
+            sink.next(event);
+        }
+
+        @Override
+        public void onToken(CompiledNode node, String token) {
+            WorkflowStreamEvent event = WorkflowStreamEvent.of(WorkflowStreamEvent.TOKEN);
+            event.setNodeId(node.getId());
+            event.setText(token);
+            sink.next(event);
+        }
+
+        private WorkflowStreamEvent nodeEvent(String type, CompiledNode node) {
+            WorkflowStreamEvent event = WorkflowStreamEvent.of(type);
+            event.setNodeId(node.getId());
+            event.setNodeType(node.getType());
+            event.setTitle(node.getTitle());
+            return event;
+        }
     }
-}
\ No newline at end of file
+}
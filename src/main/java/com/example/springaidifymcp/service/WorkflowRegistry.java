@@ -0,0 +1,365 @@
+package com.example.springaidifymcp.service;
+
+import com.example.springaidifymcp.engine.CompiledNode;
+import com.example.springaidifymcp.engine.ExecutableWorkflow;
+import com.example.springaidifymcp.model.DifyWorkflow;
+import com.example.springaidifymcp.model.RegisteredWorkflow;
+import com.example.springaidifymcp.model.WorkflowSummary;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 工作流注册表，维护工作流ID与存储文件的对应关系。
+ * 文件按内容哈希存储，内容完全相同的上传共享同一个文件、同一个编译结果和同一个工作流ID。
+ * 注册表通过WorkflowRegistryJournal持久化到存储目录，重启后从快照和日志恢复，无需扫描目录或解析YAML。
+ */
+@Service
+@Slf4j
+public class WorkflowRegistry {
+
+    /**
+     * 注册结果
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Registration {
+        private final RegisteredWorkflow workflow;
+        private final ExecutableWorkflow executable;
+        // 是否与已注册的工作流内容相同
+        private final boolean deduplicated;
+    }
+
+    private final DifyService difyService;
+    private final Path storageDir;
+    private final WorkflowRegistryJournal journal;
+    private final boolean fsync;
+    private final int compactThreshold;
+    private final String warmup;
+    private final Map<String, RegisteredWorkflow> workflowsById = new ConcurrentHashMap<>();
+    private final Map<String, RegisteredWorkflow> workflowsByHash = new ConcurrentHashMap<>();
+    // 按注册顺序排列的摘要索引
+    private final ConcurrentSkipListMap<Long, WorkflowSummary> summaries = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    // 串行化新内容的保存与日志写入
+    private final ReentrantLock registrationLock = new ReentrantLock();
+    // 注册表每次变化都递增，用于生成列表的ETag；以启动时间为初值，避免重启前后的ETag相同
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+    // 后台预编译的线程池，关闭时停止
+    private volatile ExecutorService warmupExecutor;
+    private volatile boolean closed;
+
+    public WorkflowRegistry(DifyService difyService, ObjectMapper objectMapper,
+                            @Value("${workflow.storage.dir:./data/workflows}") String storageDir,
+                            @Value("${workflow.registry.fsync:true}") boolean fsync,
+                            @Value("${workflow.registry.compact-threshold:1000}") int compactThreshold,
+                            @Value("${workflow.registry.warmup:lazy}") String warmup)
+            throws IOException {
+        this.difyService = difyService;
+        this.storageDir = Files.createDirectories(Path.of(storageDir));
+        this.fsync = fsync;
+        this.compactThreshold = compactThreshold;
+        this.warmup = warmup;
+        this.journal = new WorkflowRegistryJournal(this.storageDir, objectMapper, fsync);
+    }
+
+    /**
+     * 启动时从快照和日志恢复注册表。摘要随注册表一起恢复，工作流按配置延迟编译或在后台并行编译。
+     */
+    @PostConstruct
+    public void restore() throws IOException {
+        long startNanos = System.nanoTime();
+        Map<String, RegisteredWorkflow> recovered = journal.recover();
+        int missing = 0;
+        for (RegisteredWorkflow workflow : recovered.values()) {
+            Path file = storageDir.resolve(workflow.getContentHash() + ".yml");
+            if (!Files.exists(file)) {
+                missing++;
+                log.warn("工作流文件不存在，跳过: {}", workflow.getWorkflowId());
+                continue;
+            }
+            workflow.setFilePath(file.toString());
+            workflowsById.put(workflow.getWorkflowId(), workflow);
+            workflowsByHash.put(workflow.getContentHash(), workflow);
+            summaries.put(workflow.getSummary().getSequence(), workflow.getSummary());
+            sequence.accumulateAndGet(workflow.getSummary().getSequence(), Math::max);
+        }
+        log.info("注册表恢复完成: {} 个工作流, {} 个文件缺失, 耗时 {} ms",
+                workflowsById.size(), missing, (System.nanoTime() - startNanos) / 1_000_000);
+
+        if (missing > 0 || journal.isDamaged() || journal.getPendingRecords() >= compactThreshold) {
+            journal.compact(workflowsById::values);
+        }
+        if ("parallel".equalsIgnoreCase(warmup) && !workflowsById.isEmpty()) {
+            warmUpInBackground();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        closed = true;
+        ExecutorService executor = warmupExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (journal.getPendingRecords() > 0) {
+            journal.compact(workflowsById::values);
+        }
+        journal.close();
+    }
+
+    /**
+     * 从上传流注册工作流：读取一遍流的同时计算内容哈希，
+     * 内容已注册时直接复用，否则解析、编译并按哈希保存文件
+     */
+    public Registration register(InputStream inputStream, String originalFilename) throws IOException {
+        byte[] content;
+        String contentHash;
+        try (DigestInputStream digestStream = new DigestInputStream(inputStream, sha256())) {
+            content = digestStream.readAllBytes();
+            contentHash = HexFormat.of().formatHex(digestStream.getMessageDigest().digest());
+        }
+
+        RegisteredWorkflow existing = workflowsByHash.get(contentHash);
+        // 哈希索引可能还指向正在删除的工作流，以ID索引为准，已删除时按新内容注册
+        if (existing != null && workflowsById.get(existing.getWorkflowId()) == existing) {
+            log.debug("工作流内容已存在，复用工作流: {}", existing.getWorkflowId());
+            return new Registration(existing, difyService.loadExecutableWorkflow(existing.getFilePath()), true);
+        }
+
+        // 解析与编译只占用CPU，在锁外进行；写文件与日志在registrationLock中进行，
+        // 不放在ConcurrentHashMap.computeIfAbsent里，避免持有内置锁做I/O而钉住虚拟线程
+        ExecutableWorkflow compiled = difyService.parseAndCompile(content);
+        RegisteredWorkflow registered;
+        registrationLock.lock();
+        try {
+            existing = workflowsByHash.get(contentHash);
+            if (existing != null) {
+                // 并发上传了相同内容，由另一个请求完成了注册
+                return new Registration(existing, difyService.loadExecutableWorkflow(existing.getFilePath()), true);
+            }
+            RegisteredWorkflow workflow = store(contentHash, content, originalFilename);
+            workflow.setSummary(summarize(workflow, compiled));
+            difyService.cacheWorkflow(workflow.getFilePath(), compiled, contentHash, content.length);
+            try {
+                journal.appendPut(workflow, () -> {
+                    workflowsById.put(workflow.getWorkflowId(), workflow);
+                    summaries.put(workflow.getSummary().getSequence(), workflow.getSummary());
+                    version.incrementAndGet();
+                });
+            } catch (IOException e) {
+                // 注册没有记入日志，重启后不会恢复，不留下无人引用的文件
+                Files.deleteIfExists(Path.of(workflow.getFilePath()));
+                difyService.invalidateWorkflow(workflow.getFilePath());
+                throw e;
+            }
+            workflowsByHash.put(contentHash, workflow);
+            registered = workflow;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            registrationLock.unlock();
+        }
+        compactIfNeeded();
+        return new Registration(registered, compiled, false);
+    }
+
+    public RegisteredWorkflow get(String workflowId) {
+        return workflowsById.get(workflowId);
+    }
+
+    public boolean contains(String workflowId) {
+        return workflowsById.containsKey(workflowId);
+    }
+
+    public Collection<RegisteredWorkflow> list() {
+        return workflowsById.values();
+    }
+
+    /**
+     * 按注册顺序分页读取摘要，cursor为上一页最后一项的序号，mode/model为空时不过滤
+     */
+    public List<WorkflowSummary> listSummaries(Long cursor, int limit, String mode, String model) {
+        Map<Long, WorkflowSummary> page = cursor != null ? summaries.tailMap(cursor, false) : summaries;
+        List<WorkflowSummary> result = new ArrayList<>(Math.min(limit, 64));
+        for (WorkflowSummary summary : page.values()) {
+            if (mode != null && !mode.equals(summary.getMode())) {
+                continue;
+            }
+            if (model != null && !summary.getModels().contains(model)) {
+                continue;
+            }
+            result.add(summary);
+            if (result.size() >= limit) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * 删除工作流及其文件，并使缓存失效。
+     * 与注册在同一把锁中进行，避免并发上传相同内容时刚写好的文件被删除；
+     * 哈希已被重新注册时只删除注册记录，保留文件
+     */
+    public boolean remove(String workflowId) throws IOException {
+        registrationLock.lock();
+        try {
+            RegisteredWorkflow workflow = workflowsById.get(workflowId);
+            if (workflow == null) {
+                return false;
+            }
+            journal.appendDelete(workflowId, () -> {
+                workflowsById.remove(workflowId);
+                summaries.remove(workflow.getSummary().getSequence());
+                version.incrementAndGet();
+            });
+            workflowsByHash.remove(workflow.getContentHash(), workflow);
+            if (!workflowsByHash.containsKey(workflow.getContentHash())) {
+                Files.deleteIfExists(Path.of(workflow.getFilePath()));
+                difyService.invalidateWorkflow(workflow.getFilePath());
+            }
+        } finally {
+            registrationLock.unlock();
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        if (journal.getPendingRecords() >= compactThreshold) {
+            journal.compact(workflowsById::values);
+        }
+    }
+
+    /**
+     * 在后台线程池中从最近注册的工作流开始并行编译，不阻塞启动。
+     * 编译结果的总权重达到缓存上限后停止，再加载只会淘汰之前加载的工作流
+     */
+    private void warmUpInBackground() {
+        AtomicInteger counter = new AtomicInteger();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "workflow-warmup-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        warmupExecutor = executor;
+        long startNanos = System.nanoTime();
+        AtomicLong remainingWeight = new AtomicLong(difyService.getCacheMaximumWeight());
+        AtomicLong remaining = new AtomicLong(summaries.size());
+        AtomicLong loaded = new AtomicLong();
+        for (WorkflowSummary summary : summaries.descendingMap().values()) {
+            RegisteredWorkflow workflow = workflowsById.get(summary.getWorkflowId());
+            executor.execute(() -> {
+                if (workflow != null && remainingWeight.get() > 0 && !closed) {
+                    try {
+                        ExecutableWorkflow executable = difyService.loadExecutableWorkflow(workflow.getFilePath());
+                        remainingWeight.addAndGet(-DifyService.cacheWeight(executable));
+                        loaded.incrementAndGet();
+                    } catch (Exception e) {
+                        if (!closed) {
+                            log.warn("预编译工作流失败 {}: {}", workflow.getWorkflowId(), e.getMessage());
+                        }
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    log.info("工作流预编译完成: {} 个, 耗时 {} ms", loaded.get(), (System.nanoTime() - startNanos) / 1_000_000);
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * 生成工作流摘要：基本信息、节点数和LLM/分类节点使用的模型
+     */
+    private WorkflowSummary summarize(RegisteredWorkflow registered, ExecutableWorkflow executable) {
+        DifyWorkflow.App app = executable.getSource().getApp();
+        Set<String> models = new LinkedHashSet<>();
+        for (int i = 0; i < executable.size(); i++) {
+            CompiledNode node = executable.node(i);
+            Map<String, Object> model = node.getSource().getData().getModel();
+            if (model != null && model.get("name") != null) {
+                models.add(String.valueOf(model.get("name")));
+            }
+        }
+
+        WorkflowSummary summary = new WorkflowSummary();
+        summary.setWorkflowId(registered.getWorkflowId());
+        summary.setName(app != null ? app.getName() : null);
+        summary.setDescription(app != null ? app.getDescription() : null);
+        summary.setMode(app != null ? app.getMode() : null);
+        summary.setNodeCount(executable.size());
+        summary.setModels(List.copyOf(models));
+        summary.setContentHash(registered.getContentHash());
+        summary.setCreatedAt(registered.getCreatedAt());
+        summary.setSequence(sequence.incrementAndGet());
+        return summary;
+    }
+
+    private RegisteredWorkflow store(String contentHash, byte[] content, String originalFilename) {
+        try {
+            Path target = storageDir.resolve(contentHash + ".yml");
+            Path tempFile = Files.createTempFile(storageDir, contentHash, ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (fsync) {
+                    channel.force(true);
+                }
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            RegisteredWorkflow workflow = new RegisteredWorkflow();
+            workflow.setWorkflowId(UUID.randomUUID().toString());
+            workflow.setContentHash(contentHash);
+            workflow.setFilePath(target.toString());
+            workflow.setOriginalFilename(originalFilename);
+            workflow.setCreatedAt(System.currentTimeMillis());
+            return workflow;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
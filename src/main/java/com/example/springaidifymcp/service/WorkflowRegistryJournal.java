@@ -0,0 +1,292 @@
+package com.example.springaidifymcp.service;
+
+import com.example.springaidifymcp.model.RegisteredWorkflow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * 工作流注册表的持久化日志。
+ * 每次注册或删除向registry.log追加一行带CRC32校验的记录，记录数达到阈值时把完整注册表写入
+ * registry.idx快照并清空日志。启动时读取快照并重放日志，崩溃时写了一半的末尾记录会被丢弃；
+ * 日志中间校验失败的记录被跳过，其后的记录照常重放。追加失败时日志截回写入前的位置，
+ * 截断也失败时不再接受追加，直到快照成功清空日志。
+ */
+@Slf4j
+class WorkflowRegistryJournal implements Closeable {
+
+    private static final String LOG_FILE = "registry.log";
+    private static final String INDEX_FILE = "registry.idx";
+
+    /**
+     * 日志记录
+     */
+    @Data
+    static class JournalRecord {
+        static final String PUT = "PUT";
+        static final String DELETE = "DEL";
+
+        private String op;
+        private String workflowId;
+        private RegisteredWorkflow workflow;
+    }
+
+    /**
+     * 快照文件内容
+     */
+    @Data
+    static class Snapshot {
+        private long createdAt;
+        private List<RegisteredWorkflow> workflows;
+    }
+
+    private final Path logFile;
+    private final Path indexFile;
+    private final ObjectMapper objectMapper;
+    private final boolean fsync;
+    // 追加日志与写快照互斥，注册表的内存状态也在该锁内更新，保证快照与日志一致
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel logChannel;
+    private int pendingRecords;
+    // 追加失败且无法截回时的错误，非null时拒绝追加
+    private IOException failure;
+    // 恢复时跳过了日志中间的损坏记录，需要写快照清理
+    private boolean damaged;
+
+    WorkflowRegistryJournal(Path directory, ObjectMapper objectMapper, boolean fsync) {
+        this.logFile = directory.resolve(LOG_FILE);
+        this.indexFile = directory.resolve(INDEX_FILE);
+        this.objectMapper = objectMapper;
+        this.fsync = fsync;
+    }
+
+    /**
+     * 读取快照并重放日志，返回按工作流ID索引的注册表
+     */
+    Map<String, RegisteredWorkflow> recover() throws IOException {
+        Map<String, RegisteredWorkflow> workflows = new LinkedHashMap<>();
+        if (Files.exists(indexFile)) {
+            Snapshot snapshot = objectMapper.readValue(indexFile.toFile(), Snapshot.class);
+            if (snapshot.getWorkflows() != null) {
+                for (RegisteredWorkflow workflow : snapshot.getWorkflows()) {
+                    workflows.put(workflow.getWorkflowId(), workflow);
+                }
+            }
+        }
+
+        // validLength为最后一条有效记录的结束位置，之后的内容是写了一半的末尾，会被截掉
+        long offset = 0;
+        long validLength = 0;
+        int skipped = 0;
+        if (Files.exists(logFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(logFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                    JournalRecord record = decode(line);
+                    if (record == null) {
+                        // 写入失败留下的半行会与下一条记录连在一起，尝试从行内恢复完整的记录
+                        record = decodeSuffix(line);
+                    }
+                    if (record == null) {
+                        skipped++;
+                        continue;
+                    }
+                    if (JournalRecord.PUT.equals(record.getOp())) {
+                        workflows.put(record.getWorkflow().getWorkflowId(), record.getWorkflow());
+                    } else if (JournalRecord.DELETE.equals(record.getOp())) {
+                        workflows.remove(record.getWorkflowId());
+                    }
+                    validLength = offset;
+                    pendingRecords += skipped + 1;
+                    if (skipped > 0) {
+                        log.error("注册表日志中间有 {} 行记录损坏，已跳过", skipped);
+                        damaged = true;
+                        skipped = 0;
+                    }
+                }
+            }
+        }
+        if (skipped > 0) {
+            log.warn("注册表日志末尾存在不完整的记录，已丢弃");
+        }
+
+        logChannel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        long size = logChannel.size();
+        if (size > validLength) {
+            logChannel.truncate(validLength);
+        } else if (size < validLength) {
+            // 最后一条记录完整但缺少换行符
+            logChannel.position(size);
+            logChannel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+        }
+        logChannel.position(validLength);
+        return workflows;
+    }
+
+    /**
+     * 追加注册记录，写入成功后在锁内执行内存状态的更新
+     */
+    void appendPut(RegisteredWorkflow workflow, Runnable apply) throws IOException {
+        JournalRecord record = new JournalRecord();
+        record.setOp(JournalRecord.PUT);
+        record.setWorkflowId(workflow.getWorkflowId());
+        record.setWorkflow(workflow);
+        append(record, apply);
+    }
+
+    /**
+     * 追加删除记录，写入成功后在锁内执行内存状态的更新
+     */
+    void appendDelete(String workflowId, Runnable apply) throws IOException {
+        JournalRecord record = new JournalRecord();
+        record.setOp(JournalRecord.DELETE);
+        record.setWorkflowId(workflowId);
+        append(record, apply);
+    }
+
+    int getPendingRecords() {
+        return pendingRecords;
+    }
+
+    boolean isDamaged() {
+        return damaged;
+    }
+
+    /**
+     * 将当前注册表写入快照并清空日志
+     */
+    void compact(Supplier<Collection<RegisteredWorkflow>> workflows) throws IOException {
+        lock.lock();
+        try {
+            Snapshot snapshot = new Snapshot();
+            snapshot.setCreatedAt(System.currentTimeMillis());
+            snapshot.setWorkflows(new ArrayList<>(workflows.get()));
+
+            Path tempFile = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.wrap(objectMapper.writeValueAsBytes(snapshot)));
+                channel.force(true);
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            // 快照落盘后才清空日志，两步之间崩溃时重放日志是幂等的
+            logChannel.truncate(0);
+            logChannel.position(0);
+            logChannel.force(true);
+            pendingRecords = 0;
+            failure = null;
+            damaged = false;
+            log.info("注册表快照完成，共 {} 个工作流", snapshot.getWorkflows().size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (logChannel != null) {
+                logChannel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(JournalRecord record, Runnable apply) throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(record);
+        CRC32 crc = new CRC32();
+        crc.update(json);
+        String line = String.format("%08x\t", crc.getValue()) + new String(json, StandardCharsets.UTF_8) + "\n";
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new IOException("注册表日志写入失败且无法恢复，暂停追加", failure);
+            }
+            long position = logChannel.position();
+            try {
+                while (buffer.hasRemaining()) {
+                    logChannel.write(buffer);
+                }
+                if (fsync) {
+                    logChannel.force(false);
+                }
+            } catch (IOException e) {
+                rollback(position, e);
+                throw e;
+            }
+            pendingRecords++;
+            apply.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把日志截回写入前的位置，避免写了一部分的记录夹在之后的记录前面；截断失败时停止追加
+     */
+    private void rollback(long position, IOException error) {
+        try {
+            logChannel.truncate(position);
+            logChannel.position(position);
+        } catch (IOException e) {
+            error.addSuppressed(e);
+            failure = error;
+            log.error("注册表日志写入失败后无法截回，停止追加: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 在行内查找以校验和开头的完整记录，用于恢复接在半行之后的记录
+     */
+    private JournalRecord decodeSuffix(String line) {
+        for (int tab = line.indexOf('\t', 9); tab > 0; tab = line.indexOf('\t', tab + 1)) {
+            JournalRecord record = decode(line.substring(tab - 8));
+            if (record != null) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解析并校验一行日志，格式或校验和不正确时返回null
+     */
+    private JournalRecord decode(String line) {
+        int tab = line.indexOf('\t');
+        if (tab != 8) {
+            return null;
+        }
+        try {
+            byte[] json = line.substring(tab + 1).getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(json);
+            if (crc.getValue() != Long.parseLong(line.substring(0, tab), 16)) {
+                return null;
+            }
+            return objectMapper.readValue(json, JournalRecord.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.springaidifymcp.trace;
+
+import com.example.springaidifymcp.engine.CompiledNode;
+import com.example.springaidifymcp.engine.RunTrace;
+import com.example.springaidifymcp.engine.WorkflowRun;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把运行轨迹转换为OTLP/JSON的ExportTraceServiceRequest：每次运行一个根span，每个执行过的节点一个子span。
+ * 根span的ID取trace ID的后8字节，节点span的ID由根span ID与节点下标得到，同一轨迹多次导出的ID相同。
+ */
+final class OtlpJson {
+
+    private static final HexFormat HEX = HexFormat.of();
+    private static final int SPAN_KIND_INTERNAL = 1;
+    private static final int SPAN_KIND_SERVER = 2;
+    private static final int STATUS_OK = 1;
+    private static final int STATUS_ERROR = 2;
+
+    private OtlpJson() {
+    }
+
+    static Map<String, Object> exportRequest(List<RunTrace> traces, String serviceName) {
+        List<Object> spans = new ArrayList<>();
+        for (RunTrace trace : traces) {
+            addSpans(trace, spans);
+        }
+
+        Map<String, Object> resource = new LinkedHashMap<>();
+        resource.put("attributes", List.of(attribute("service.name", serviceName)));
+        Map<String, Object> scopeSpans = new LinkedHashMap<>();
+        scopeSpans.put("scope", Map.of("name", "spring-ai-dify-mcp.workflow"));
+        scopeSpans.put("spans", spans);
+        Map<String, Object> resourceSpans = new LinkedHashMap<>();
+        resourceSpans.put("resource", resource);
+        resourceSpans.put("scopeSpans", List.of(scopeSpans));
+        return Map.of("resourceSpans", List.of(resourceSpans));
+    }
+
+    private static void addSpans(RunTrace trace, List<Object> spans) {
+        String traceId = trace.getTraceId();
+        long rootId = Long.parseUnsignedLong(traceId.substring(16), 16);
+        long startEpochNanos = trace.getStartEpochMillis() * 1_000_000;
+
+        List<Object> rootAttributes = new ArrayList<>();
+        String workflowId = RunTraceRecorder.workflowIdOf(trace);
+        if (workflowId != null) {
+            rootAttributes.add(attribute("workflow.id", workflowId));
+        }
+        if (trace.getWorkflow().getName() != null) {
+            rootAttributes.add(attribute("workflow.name", trace.getWorkflow().getName()));
+        }
+        rootAttributes.add(attribute("workflow.status", trace.getStatus().name().toLowerCase()));
+        rootAttributes.add(attribute("workflow.steps", trace.getSteps()));
+        rootAttributes.add(attribute("workflow.llm_calls", trace.getLlmCalls()));
+        rootAttributes.add(attribute("workflow.cache_hits", trace.getLlmCacheHits()));
+        rootAttributes.add(attribute("workflow.query_length", trace.getQueryLength()));
+        boolean rootFailed = trace.getStatus() != WorkflowRun.Status.COMPLETED;
+        spans.add(span(traceId, HEX.toHexDigits(rootId), null, "workflow " + (trace.getWorkflow().getName() != null
+                        ? trace.getWorkflow().getName() : "run"), SPAN_KIND_SERVER,
+                startEpochNanos, startEpochNanos + trace.getDurationNanos(), rootAttributes,
+                rootFailed, trace.getError()));
+
+        for (int i = 0; i < trace.executedNodes(); i++) {
+            int index = trace.executedNode(i);
+            CompiledNode node = trace.getWorkflow().node(index);
+            List<Object> attributes = new ArrayList<>();
+            attributes.add(attribute("workflow.node.id", node.getId()));
+            attributes.add(attribute("workflow.node.type", node.getType()));
+            if (trace.branch(index) != null) {
+                attributes.add(attribute("workflow.node.branch", trace.branch(index)));
+            }
+            if (trace.promptChars(index) > 0) {
+                attributes.add(attribute("llm.prompt_chars", trace.promptChars(index)));
+            }
+            if (trace.nodeCacheHit(index) != null) {
+                attributes.add(attribute("llm.cache_hit", trace.nodeCacheHit(index)));
+            }
+            long start = startEpochNanos + trace.nodeOffsetNanos(index);
+            spans.add(span(traceId, HEX.toHexDigits(rootId ^ (index + 1L)), HEX.toHexDigits(rootId),
+                    node.getTitle() != null ? node.getTitle() : node.getId(), SPAN_KIND_INTERNAL,
+                    start, start + trace.nodeDurationNanos(index), attributes, trace.nodeFailed(index), null));
+        }
+    }
+
+    private static Map<String, Object> span(String traceId, String spanId, String parentSpanId, String name, int kind,
+                                            long startNanos, long endNanos, List<Object> attributes,
+                                            boolean failed, String message) {
+        Map<String, Object> span = new LinkedHashMap<>();
+        span.put("traceId", traceId);
+        span.put("spanId", spanId);
+        if (parentSpanId != null) {
+            span.put("parentSpanId", parentSpanId);
+        }
+        span.put("name", name);
+        span.put("kind", kind);
+        // OTLP/JSON中64位整数以字符串表示
+        span.put("startTimeUnixNano", Long.toString(startNanos));
+        span.put("endTimeUnixNano", Long.toString(endNanos));
+        span.put("attributes", attributes);
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("code", failed ? STATUS_ERROR : STATUS_OK);
+        if (failed && message != null) {
+            status.put("message", message);
+        }
+        span.put("status", status);
+        return span;
+    }
+
+    private static Map<String, Object> attribute(String key, Object value) {
+        Map<String, Object> typed;
+        if (value instanceof Boolean) {
+            typed = Map.of("boolValue", value);
+        } else if (value instanceof Number) {
+            typed = Map.of("intValue", value.toString());
+        } else {
+            typed = Map.of("stringValue", String.valueOf(value));
+        }
+        return Map.of("key", key, "value", typed);
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.springaidifymcp.trace;
+
+import com.example.springaidifymcp.engine.RunTrace;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把运行轨迹以OTLP/HTTP JSON格式批量发送到OpenTelemetry Collector，未配置endpoint时不启用。
+ * 运行结束时只把轨迹放入无锁队列，由单独的后台线程定时批量发送；队列已满时丢弃，不阻塞请求线程。
+ */
+@Component
+@Slf4j
+public class OtlpTraceExporter {
+
+    private final String endpoint;
+    private final int batchSize;
+    private final int maxQueue;
+    private final Duration interval;
+    @Getter
+    private final String serviceName;
+    private final Queue<RunTrace> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong exported = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private WebClient webClient;
+    private ScheduledExecutorService flusher;
+
+    public OtlpTraceExporter(@Value("${workflow.trace.otlp.endpoint:}") String endpoint,
+                             @Value("${workflow.trace.otlp.batch-size:64}") int batchSize,
+                             @Value("${workflow.trace.otlp.max-queue:2048}") int maxQueue,
+                             @Value("${workflow.trace.otlp.interval:5s}") Duration interval,
+                             @Value("${spring.application.name:spring-ai-dify-mcp}") String serviceName) {
+        this.endpoint = endpoint;
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxQueue = maxQueue;
+        this.interval = interval;
+        this.serviceName = serviceName;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        this.webClient = WebClient.builder().baseUrl(endpoint).build();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "otlp-trace-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("运行轨迹将导出到: {}", endpoint);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdown();
+            flush();
+        }
+    }
+
+    public boolean isEnabled() {
+        return endpoint != null && !endpoint.isBlank();
+    }
+
+    void offer(RunTrace trace) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueue) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(trace);
+    }
+
+    public long getExported() {
+        return exported.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void flush() {
+        while (true) {
+            List<RunTrace> batch = new ArrayList<>(batchSize);
+            RunTrace trace;
+            while (batch.size() < batchSize && (trace = queue.poll()) != null) {
+                batch.add(trace);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            queued.addAndGet(-batch.size());
+            try {
+                webClient.post()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(OtlpJson.exportRequest(batch, serviceName))
+                        .retrieve()
+                        .toBodilessEntity()
+                        .block(Duration.ofSeconds(10));
+                exported.addAndGet(batch.size());
+            } catch (Exception e) {
+                // 导出失败不重试，避免Collector不可用时积压
+                dropped.addAndGet(batch.size());
+                log.warn("导出运行轨迹失败: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.springaidifymcp.trace;
+
+import com.example.springaidifymcp.engine.CompiledNode;
+import com.example.springaidifymcp.engine.RunTrace;
+import com.example.springaidifymcp.engine.WorkflowRun;
+import com.example.springaidifymcp.model.NodeTraceRecord;
+import com.example.springaidifymcp.model.RunTraceRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 运行轨迹的采样与保存。
+ * 运行开始时按采样率决定是否记录，未采样的运行不分配任何轨迹对象；
+ * 结束的轨迹放入固定容量的无锁环形缓冲区，查询时才转换为RunTraceRecord。
+ */
+@Service
+@Slf4j
+public class RunTraceRecorder {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final TraceRingBuffer<RunTrace> traces;
+    private final OtlpTraceExporter exporter;
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public RunTraceRecorder(OtlpTraceExporter exporter,
+                            @Value("${workflow.trace.enabled:true}") boolean enabled,
+                            @Value("${workflow.trace.sample-rate:1.0}") double sampleRate,
+                            @Value("${workflow.trace.capacity:1024}") int capacity) {
+        this.exporter = exporter;
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.traces = new TraceRingBuffer<>(capacity);
+    }
+
+    /**
+     * 运行开始时调用，被采样时为运行附加轨迹
+     *
+     * @param workflowKey 工作流ID与内容哈希，直接执行未注册的工作流时为null
+     */
+    public void start(WorkflowRun run, String workflowKey) {
+        if (!enabled || (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        sampled.incrementAndGet();
+        run.setTrace(new RunTrace(newTraceId(), workflowKey, run));
+    }
+
+    /**
+     * 运行结束（完成、失败或超出预算）时调用，保存轨迹并交给导出器
+     */
+    public void finish(WorkflowRun run, Throwable error) {
+        RunTrace trace = run.getTrace();
+        if (trace == null || !run.isFinished()) {
+            return;
+        }
+        trace.finish(run, error != null ? error.getMessage() : null);
+        traces.add(trace);
+        exporter.offer(trace);
+    }
+
+    /**
+     * 按从新到旧的顺序返回工作流最近的轨迹
+     */
+    public List<RunTrace> recent(String workflowId, int limit) {
+        String prefix = workflowId + "@";
+        return traces.recent(trace -> trace.getWorkflowKey() != null && trace.getWorkflowKey().startsWith(prefix), limit);
+    }
+
+    public RunTrace find(String workflowId, String runId) {
+        String prefix = workflowId + "@";
+        List<RunTrace> found = traces.recent(trace -> trace.getTraceId().equals(runId)
+                && trace.getWorkflowKey() != null && trace.getWorkflowKey().startsWith(prefix), 1);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * 转换为OTLP/JSON格式（ExportTraceServiceRequest），可以直接导入支持OpenTelemetry的后端
+     */
+    public Map<String, Object> toOtlp(List<RunTrace> runTraces) {
+        return OtlpJson.exportRequest(runTraces, exporter.getServiceName());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sampleRate", sampleRate);
+        stats.put("sampled", sampled.get());
+        stats.put("skipped", skipped.get());
+        stats.put("capacity", traces.capacity());
+        stats.put("recorded", traces.written());
+        stats.put("exported", exporter.getExported());
+        stats.put("exportDropped", exporter.getDropped());
+        return stats;
+    }
+
+    /**
+     * 转换为接口返回的格式，节点按执行顺序排列
+     */
+    public static RunTraceRecord toRecord(RunTrace trace) {
+        RunTraceRecord record = new RunTraceRecord();
+        record.setRunId(trace.getTraceId());
+        record.setWorkflowId(workflowIdOf(trace));
+        record.setWorkflowName(trace.getWorkflow().getName());
+        record.setStartedAt(trace.getStartEpochMillis());
+        record.setElapsedMs(trace.getDurationNanos() / 1e6);
+        record.setStatus(trace.getStatus().name().toLowerCase());
+        record.setError(trace.getError());
+        record.setSteps(trace.getSteps());
+        record.setLlmCalls(trace.getLlmCalls());
+        record.setCacheHits(trace.getLlmCacheHits());
+        record.setQueryLength(trace.getQueryLength());
+
+        int executed = trace.executedNodes();
+        List<NodeTraceRecord> nodes = new ArrayList<>(executed);
+        for (int i = 0; i < executed; i++) {
+            int index = trace.executedNode(i);
+            CompiledNode node = trace.getWorkflow().node(index);
+            NodeTraceRecord nodeRecord = new NodeTraceRecord();
+            nodeRecord.setNodeId(node.getId());
+            nodeRecord.setTitle(node.getTitle());
+            nodeRecord.setType(node.getType());
+            nodeRecord.setStartMs(trace.nodeOffsetNanos(index) / 1e6);
+            nodeRecord.setDurationMs(trace.nodeDurationNanos(index) / 1e6);
+            nodeRecord.setBranch(trace.branch(index));
+            nodeRecord.setPromptChars(trace.promptChars(index) > 0 ? trace.promptChars(index) : null);
+            nodeRecord.setCacheHit(trace.nodeCacheHit(index));
+            nodeRecord.setFailed(trace.nodeFailed(index));
+            nodes.add(nodeRecord);
+        }
+        record.setNodes(nodes);
+        return record;
+    }
+
+    static String workflowIdOf(RunTrace trace) {
+        String key = trace.getWorkflowKey();
+        if (key == null) {
+            return null;
+        }
+        int separator = key.indexOf('@');
+        return separator >= 0 ? key.substring(0, separator) : key;
+    }
+
+    /**
+     * 16字节随机数的十六进制表示，与OpenTelemetry的trace ID格式相同
+     */
+    private static String newTraceId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return HEX.toHexDigits(random.nextLong()) + HEX.toHexDigits(random.nextLong());
+    }
+}
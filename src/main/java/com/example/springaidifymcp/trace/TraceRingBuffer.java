@@ -0,0 +1,61 @@
+package com.example.springaidifymcp.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * 固定容量的无锁环形缓冲区，写满后覆盖最旧的元素。
+ * 写入只有一次getAndIncrement与一次volatile写；读取从最新的序号向前扫描，
+ * 并发写入时可能漏读正在被覆盖的元素，但不会读到不完整的元素或重复的元素。
+ */
+final class TraceRingBuffer<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param capacity 向上取整为2的幂
+     */
+    TraceRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    void add(T element) {
+        slots.set((int) (sequence.getAndIncrement() & mask), element);
+    }
+
+    /**
+     * 按从新到旧的顺序返回最多limit个满足条件的元素
+     */
+    List<T> recent(Predicate<T> filter, int limit) {
+        List<T> result = new ArrayList<>(Math.min(limit, 64));
+        // 扫描期间槽位可能被更新的元素覆盖，已返回的元素不再重复返回
+        Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        long head = sequence.get();
+        long oldest = Math.max(0, head - slots.length());
+        for (long i = head - 1; i >= oldest && result.size() < limit; i--) {
+            T element = slots.get((int) (i & mask));
+            if (element != null && filter.test(element) && seen.add(element)) {
+                result.add(element);
+            }
+        }
+        return result;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    long written() {
+        return sequence.get();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.springaidifymcp.engine;
+
+import com.example.springaidifymcp.model.DifyWorkflow;
+import com.example.springaidifymcp.model.DifyWorkflow.Graph.Edge;
+import com.example.springaidifymcp.model.DifyWorkflow.Graph.Node;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在测试中按节点和边构造工作流定义
+ */
+final class TestWorkflows {
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final List<Edge> edges = new ArrayList<>();
+
+    static TestWorkflows graph() {
+        return new TestWorkflows();
+    }
+
+    TestWorkflows node(String id, String type) {
+        Node.NodeData data = new Node.NodeData();
+        data.setType(type);
+        data.setTitle(id);
+        Node node = new Node();
+        node.setId(id);
+        node.setData(data);
+        nodes.add(node);
+        return this;
+    }
+
+    TestWorkflows edge(String source, String target) {
+        return edge(source, target, null);
+    }
+
+    TestWorkflows edge(String source, String target, String sourceHandle) {
+        Edge edge = new Edge();
+        edge.setId(source + "-" + target);
+        edge.setSource(source);
+        edge.setTarget(target);
+        edge.setSourceHandle(sourceHandle);
+        edges.add(edge);
+        return this;
+    }
+
+    DifyWorkflow build() {
+        DifyWorkflow.Graph graph = new DifyWorkflow.Graph();
+        graph.setNodes(nodes);
+        graph.setEdges(edges);
+        DifyWorkflow.Workflow workflow = new DifyWorkflow.Workflow();
+        workflow.setGraph(graph);
+        DifyWorkflow definition = new DifyWorkflow();
+        definition.setWorkflow(workflow);
+        return definition;
+    }
+
+    static WorkflowCompiler compiler() {
+        return new WorkflowCompiler(null, new String[0], 1.0, 4, 4, 100);
+    }
+}
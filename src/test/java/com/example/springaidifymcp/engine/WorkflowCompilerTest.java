@@ -0,0 +1,57 @@
+package com.example.springaidifymcp.engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WorkflowCompilerTest {
+
+    private final WorkflowCompiler compiler = TestWorkflows.compiler();
+
+    @Test
+    void controlFlowCycleIsRejected() {
+        TestWorkflows graph = TestWorkflows.graph()
+                .node("start", "start")
+                .node("a", "step")
+                .node("b", "step")
+                .edge("start", "a")
+                .edge("a", "b")
+                .edge("b", "a");
+
+        assertThatThrownBy(() -> compiler.compile(graph.build()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("工作流存在环");
+    }
+
+    @Test
+    void selfLoopIsRejected() {
+        TestWorkflows graph = TestWorkflows.graph()
+                .node("start", "start")
+                .node("a", "step")
+                .edge("start", "a")
+                .edge("a", "a");
+
+        assertThatThrownBy(() -> compiler.compile(graph.build()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("工作流存在环");
+    }
+
+    @Test
+    void diamondIsNotACycle() {
+        TestWorkflows graph = TestWorkflows.graph()
+                .node("start", "start")
+                .node("left", "step")
+                .node("right", "step")
+                .node("join", "step")
+                .edge("start", "left")
+                .edge("start", "right")
+                .edge("left", "join")
+                .edge("right", "join");
+
+        ExecutableWorkflow workflow = compiler.compile(graph.build());
+
+        assertThat(workflow.size()).isEqualTo(4);
+        assertThat(workflow.node(workflow.indexOf("join")).getInEdges()).hasSize(2);
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.springaidifymcp.engine;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntBiFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WorkflowInterpreterTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void parallelBranchesRunConcurrentlyAndJoinOnce() {
+        CyclicBarrier bothBranches = new CyclicBarrier(2);
+        ExecutableWorkflow workflow = TestWorkflows.compiler().compile(TestWorkflows.graph()
+                .node("start", "start")
+                .node("a", "step")
+                .node("b", "step")
+                .node("join", "step")
+                .edge("start", "a")
+                .edge("start", "b")
+                .edge("a", "join")
+                .edge("b", "join")
+                .build());
+
+        WorkflowRun run = run(workflow, (node, current) -> {
+            if (!node.getId().equals("join")) {
+                // 两个分支都到达屏障才能继续，串行调度会在这里超时
+                await(bothBranches);
+            }
+            return WorkflowRun.ALL_SUCCESSORS;
+        });
+
+        assertThat(run.getStatus()).isEqualTo(WorkflowRun.Status.COMPLETED);
+        assertThat(executed).containsExactlyInAnyOrder("start", "a", "b", "join");
+        assertThat(executed.get(executed.size() - 1)).isEqualTo("join");
+    }
+
+    @Test
+    void unselectedBranchIsSkippedAndJoinStillRuns() {
+        ExecutableWorkflow workflow = TestWorkflows.compiler().compile(TestWorkflows.graph()
+                .node("start", "start")
+                .node("branch", "step")
+                .node("left", "step")
+                .node("leftTail", "step")
+                .node("right", "step")
+                .node("rightTail", "step")
+                .node("join", "step")
+                .edge("start", "branch")
+                .edge("branch", "left", "left")
+                .edge("branch", "right", "right")
+                .edge("left", "leftTail")
+                .edge("right", "rightTail")
+                .edge("leftTail", "join")
+                .edge("rightTail", "join")
+                .build());
+
+        WorkflowRun run = run(workflow, (node, current) -> node.getId().equals("branch")
+                ? current.getWorkflow().nextByHandle(node.getIndex(), "left")
+                : WorkflowRun.ALL_SUCCESSORS);
+
+        assertThat(run.getStatus()).isEqualTo(WorkflowRun.Status.COMPLETED);
+        assertThat(executed).containsExactly("start", "branch", "left", "leftTail", "join");
+    }
+
+    @Test
+    void endDecisionSkipsEverythingDownstream() {
+        ExecutableWorkflow workflow = TestWorkflows.compiler().compile(TestWorkflows.graph()
+                .node("start", "start")
+                .node("stop", "step")
+                .node("a", "step")
+                .node("b", "step")
+                .edge("start", "stop")
+                .edge("stop", "a")
+                .edge("a", "b")
+                .build());
+
+        WorkflowRun run = run(workflow, (node, current) -> node.getId().equals("stop")
+                ? WorkflowRun.END
+                : WorkflowRun.ALL_SUCCESSORS);
+
+        assertThat(run.getStatus()).isEqualTo(WorkflowRun.Status.COMPLETED);
+        assertThat(executed).containsExactly("start", "stop");
+    }
+
+    @Test
+    void stepLimitStopsTheRun() {
+        ExecutableWorkflow workflow = chain("a", "b", "c");
+        WorkflowRun run = new WorkflowRun(workflow, "query", 2, TimeUnit.SECONDS.toNanos(10));
+
+        assertThatThrownBy(() -> interpreter((node, current) -> WorkflowRun.ALL_SUCCESSORS).run(run))
+                .isInstanceOf(WorkflowExecutionException.class)
+                .extracting(e -> ((WorkflowExecutionException) e).getStatus())
+                .isEqualTo(WorkflowRun.Status.STEP_LIMIT_EXCEEDED);
+        assertThat(run.getStatus()).isEqualTo(WorkflowRun.Status.STEP_LIMIT_EXCEEDED);
+        assertThat(executed).containsExactly("start", "a");
+    }
+
+    @Test
+    void runTimesOutWhileBranchesAreInFlight() {
+        ExecutableWorkflow workflow = TestWorkflows.compiler().compile(TestWorkflows.graph()
+                .node("start", "start")
+                .node("a", "step")
+                .node("b", "step")
+                .edge("start", "a")
+                .edge("start", "b")
+                .build());
+        WorkflowRun run = new WorkflowRun(workflow, "query", 100, TimeUnit.MILLISECONDS.toNanos(100));
+        WorkflowInterpreter interpreter = interpreter((node, current) -> {
+            if (!node.getId().equals("start")) {
+                sleep(TimeUnit.SECONDS.toMillis(5));
+            }
+            return WorkflowRun.ALL_SUCCESSORS;
+        });
+
+        long startNanos = System.nanoTime();
+        assertThatThrownBy(() -> interpreter.run(run))
+                .isInstanceOf(WorkflowExecutionException.class)
+                .extracting(e -> ((WorkflowExecutionException) e).getStatus())
+                .isEqualTo(WorkflowRun.Status.TIMED_OUT);
+        assertThat(run.getStatus()).isEqualTo(WorkflowRun.Status.TIMED_OUT);
+        // 等待的是时间预算而不是仍在执行的分支
+        assertThat(System.nanoTime() - startNanos).isLessThan(TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void exhaustedBudgetStopsBeforeTheFirstNode() {
+        WorkflowRun run = new WorkflowRun(chain("a"), "query", 100, 0);
+
+        assertThatThrownBy(() -> interpreter((node, current) -> WorkflowRun.ALL_SUCCESSORS).run(run))
+                .isInstanceOf(WorkflowExecutionException.class);
+        assertThat(run.getStatus()).isEqualTo(WorkflowRun.Status.TIMED_OUT);
+        assertThat(executed).isEmpty();
+    }
+
+    @Test
+    void pausedRunResumesFromTheNextNode() {
+        WorkflowInterpreter interpreter = interpreter((node, current) -> {
+            if (node.getId().equals("a")) {
+                current.requestPause();
+            }
+            return WorkflowRun.ALL_SUCCESSORS;
+        });
+        WorkflowRun run = new WorkflowRun(chain("a", "b"), "query", 100, TimeUnit.SECONDS.toNanos(10));
+
+        interpreter.run(run);
+
+        assertThat(run.getStatus()).isEqualTo(WorkflowRun.Status.PAUSED);
+        assertThat(executed).containsExactly("start", "a");
+
+        interpreter.run(run);
+
+        assertThat(run.getStatus()).isEqualTo(WorkflowRun.Status.COMPLETED);
+        assertThat(executed).containsExactly("start", "a", "b");
+        assertThat(run.getSteps()).isEqualTo(3);
+    }
+
+    /**
+     * start依次连接到给定的节点
+     */
+    private static ExecutableWorkflow chain(String... nodeIds) {
+        TestWorkflows graph = TestWorkflows.graph().node("start", "start");
+        String previous = "start";
+        for (String nodeId : nodeIds) {
+            graph.node(nodeId, "step").edge(previous, nodeId);
+            previous = nodeId;
+        }
+        return TestWorkflows.compiler().compile(graph.build());
+    }
+
+    private WorkflowRun run(ExecutableWorkflow workflow, ToIntBiFunction<CompiledNode, WorkflowRun> decide) {
+        return interpreter(decide).run(new WorkflowRun(workflow, "query", 100, TimeUnit.SECONDS.toNanos(10)));
+    }
+
+    private WorkflowInterpreter interpreter(ToIntBiFunction<CompiledNode, WorkflowRun> decide) {
+        WorkflowInterpreter.NodeHandler handler = (node, run) -> {
+            executed.add(node.getId());
+            return decide.applyAsInt(node, run);
+        };
+        WorkflowInterpreter.NodeHandler[] handlers = new WorkflowInterpreter.NodeHandler[NodeKind.values().length];
+        handlers[NodeKind.START.ordinal()] = handler;
+        handlers[NodeKind.UNKNOWN.ordinal()] = handler;
+        return new WorkflowInterpreter(handlers, executor, 4);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // 运行超时后分支被取消
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException("分支没有并发执行", e);
+        }
+    }
+}
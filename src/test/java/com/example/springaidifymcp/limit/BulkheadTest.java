@@ -0,0 +1,83 @@
+package com.example.springaidifymcp.limit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BulkheadTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void rejectsImmediatelyWhenQueueIsFull() {
+        Bulkhead bulkhead = bulkhead(1, 0, Duration.ofSeconds(5));
+        Bulkhead.Permit permit = bulkhead.acquire();
+
+        long startNanos = System.nanoTime();
+        assertThatThrownBy(bulkhead::acquire)
+                .isInstanceOf(BulkheadFullException.class)
+                .satisfies(e -> assertThat(((BulkheadFullException) e).getRetryAfterSeconds()).isPositive());
+        assertThat(System.nanoTime() - startNanos).isLessThan(TimeUnit.SECONDS.toNanos(1));
+        assertThat(bulkhead.stats()).containsEntry("rejected", 1L).containsEntry("inFlight", 1);
+        permit.close();
+    }
+
+    @Test
+    void rejectsAfterMaxWait() {
+        Bulkhead bulkhead = bulkhead(1, 1, Duration.ofMillis(100));
+        Bulkhead.Permit permit = bulkhead.acquire();
+
+        long startNanos = System.nanoTime();
+        assertThatThrownBy(bulkhead::acquire).isInstanceOf(BulkheadFullException.class);
+        assertThat(System.nanoTime() - startNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(90));
+        assertThat(bulkhead.stats()).containsEntry("waiting", 0);
+        permit.close();
+    }
+
+    @Test
+    void releasedPermitWakesWaiter() throws Exception {
+        Bulkhead bulkhead = bulkhead(1, 1, Duration.ofSeconds(5));
+        Bulkhead.Permit permit = bulkhead.acquire();
+        Future<Bulkhead.Permit> waiter = executor.submit(bulkhead::acquire);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!Integer.valueOf(1).equals(bulkhead.stats().get("waiting")) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        permit.close();
+
+        waiter.get(5, TimeUnit.SECONDS).close();
+        assertThat(bulkhead.stats()).containsEntry("inFlight", 0).containsEntry("accepted", 2L);
+    }
+
+    @Test
+    void closingPermitTwiceReleasesOnce() {
+        Bulkhead bulkhead = bulkhead(1, 0, Duration.ZERO);
+        Bulkhead.Permit permit = bulkhead.acquire();
+
+        permit.close();
+        permit.close();
+
+        Bulkhead.Permit next = bulkhead.acquire();
+        assertThatThrownBy(bulkhead::acquire).isInstanceOf(BulkheadFullException.class);
+        next.close();
+        assertThat(bulkhead.stats()).containsEntry("inFlight", 0);
+    }
+
+    private static Bulkhead bulkhead(int maxConcurrent, int maxQueue, Duration maxWait) {
+        return new Bulkhead(Bulkhead.Scope.WORKFLOW, "test", maxConcurrent, maxQueue, maxWait, false, 1, maxConcurrent);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.springaidifymcp.limit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GradientLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    void initialLimitIsClamped() {
+        assertThat(new GradientLimit(100, 2, 20).getLimit()).isEqualTo(20);
+        assertThat(new GradientLimit(0, 2, 20).getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void growsUpToMaxUnderSteadyLatency() {
+        GradientLimit limit = new GradientLimit(4, 2, 20);
+        for (int i = 0; i < 200; i++) {
+            int current = limit.onSample(FAST, limit.getLimit());
+            assertThat(current).isBetween(2, 20);
+        }
+        assertThat(limit.getLimit()).isEqualTo(20);
+    }
+
+    @Test
+    void shrinksButNotBelowMinWhenLatencyRises() {
+        GradientLimit limit = new GradientLimit(20, 2, 20);
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(FAST, limit.getLimit());
+        }
+        for (int i = 0; i < 30; i++) {
+            int current = limit.onSample(SLOW, limit.getLimit());
+            assertThat(current).isBetween(2, 20);
+        }
+        assertThat(limit.getLimit()).isLessThan(20);
+    }
+
+    @Test
+    void idleSamplesDoNotRaiseLimit() {
+        GradientLimit limit = new GradientLimit(10, 2, 20);
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(FAST, 1);
+        }
+        assertThat(limit.getLimit()).isEqualTo(10);
+    }
+}
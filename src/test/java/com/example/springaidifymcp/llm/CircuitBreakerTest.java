@@ -0,0 +1,69 @@
+package com.example.springaidifymcp.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    @Test
+    void opensWhenFailureRateReachesThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5, TimeUnit.HOURS.toNanos(1));
+
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.isCallPermitted()).isFalse();
+    }
+
+    @Test
+    void halfOpenAdmitsSingleProbeAndClosesOnSuccess() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, 0.5, 0);
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.isCallPermitted()).isFalse();
+
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void failedProbeReopens() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, 0.5, TimeUnit.MILLISECONDS.toNanos(200));
+        breaker.onFailure();
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        Thread.sleep(250);
+        assertThat(breaker.tryAcquire()).isTrue();
+        breaker.onFailure();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+        assertThat(breaker.stats()).containsEntry("opened", 2L);
+    }
+
+    @Test
+    void ignoredProbeReturnsTheSlot() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1, 0.5, 0);
+        breaker.onFailure();
+        assertThat(breaker.tryAcquire()).isTrue();
+
+        breaker.onIgnored();
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.isCallPermitted()).isTrue();
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.springaidifymcp.llm;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.openai.OpenAiChatClient;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResiliencePolicyTest {
+
+    private final ResiliencePolicy policy = ResiliencePolicy.none(Duration.ofSeconds(1));
+
+    @Test
+    void clientErrorsFromOpenAiApiAreNotRetried() {
+        assertThat(policy.isRetryable(new OpenAiApi.OpenAiApiException("400 - {\"error\":\"bad request\"}"))).isFalse();
+        assertThat(policy.isRetryable(new OpenAiApi.OpenAiApiException("401 - {\"error\":\"invalid key\"}"))).isFalse();
+        assertThat(policy.isRetryable(new OpenAiApi.OpenAiApiException("404 - {\"error\":\"no such model\"}"))).isFalse();
+    }
+
+    @Test
+    void throttlingTimeoutAndServerErrorsFromOpenAiApiAreRetried() {
+        assertThat(policy.isRetryable(new OpenAiApi.OpenAiApiException("408 - timeout"))).isTrue();
+        assertThat(policy.isRetryable(new OpenAiApi.OpenAiApiException("429 - rate limited"))).isTrue();
+        assertThat(policy.isRetryable(new OpenAiApi.OpenAiApiException("503 - overloaded"))).isTrue();
+    }
+
+    @Test
+    void openAiApiExceptionWithoutStatusIsRetried() {
+        assertThat(policy.isRetryable(new OpenAiApi.OpenAiApiException("connection reset"))).isTrue();
+        assertThat(policy.isRetryable(new OpenAiApi.OpenAiApiException("4000 - unexpected"))).isTrue();
+    }
+
+    @Test
+    void restClientStatusIsClassified() {
+        assertThat(policy.isRetryable(new HttpClientErrorException(HttpStatus.BAD_REQUEST))).isFalse();
+        assertThat(policy.isRetryable(new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS))).isTrue();
+        assertThat(policy.isRetryable(new HttpServerErrorException(HttpStatus.BAD_GATEWAY))).isTrue();
+        assertThat(policy.isRetryable(new IllegalStateException("io"))).isTrue();
+    }
+
+    @Test
+    void openAiClientDoesNotRetryInternally() {
+        OpenAiChatClient client = ModelRouter.openAiClient("http://localhost:1", "key", "gpt-test");
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> client.retryTemplate.execute(context -> {
+            attempts.incrementAndGet();
+            throw new OpenAiApi.OpenAiApiException("503 - overloaded");
+        })).isInstanceOf(OpenAiApi.OpenAiApiException.class);
+        assertThat(attempts).hasValue(1);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.springaidifymcp.llm;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class RetryBudgetTest {
+
+    @Test
+    void retriesAreLimitedToDepositedRatio() {
+        RetryBudget budget = new RetryBudget(0.5, 0);
+        assertThat(budget.tryAcquire()).isFalse();
+
+        budget.deposit();
+        budget.deposit();
+        budget.deposit();
+
+        assertThat(budget.tryAcquire()).isTrue();
+        assertThat(budget.tryAcquire()).isFalse();
+        assertThat(budget.stats())
+                .containsEntry("retries", 1L)
+                .containsEntry("rejected", 2L);
+    }
+
+    @Test
+    void reservePermitsMinimumRetriesPerSecond() {
+        RetryBudget budget = new RetryBudget(0, 2);
+        long second = System.nanoTime() / 1_000_000_000L;
+
+        boolean first = budget.tryAcquire();
+        boolean secondRetry = budget.tryAcquire();
+        boolean third = budget.tryAcquire();
+        // 三次申请跨过了秒边界时预留名额会重新计数
+        assumeTrue(second == System.nanoTime() / 1_000_000_000L);
+
+        assertThat(first).isTrue();
+        assertThat(secondRetry).isTrue();
+        assertThat(third).isFalse();
+    }
+
+    @Test
+    void balanceIsCapped() {
+        RetryBudget budget = new RetryBudget(0.1, 0);
+        for (int i = 0; i < 5000; i++) {
+            budget.deposit();
+        }
+
+        assertThat(budget.stats()).containsEntry("balance", 100L);
+        for (int i = 0; i < 100; i++) {
+            assertThat(budget.tryAcquire()).isTrue();
+        }
+        assertThat(budget.tryAcquire()).isFalse();
+    }
+}
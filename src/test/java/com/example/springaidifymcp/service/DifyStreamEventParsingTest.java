@@ -0,0 +1,74 @@
+package com.example.springaidifymcp.service;
+
+import com.example.springaidifymcp.model.DifyStreamEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DifyStreamEventParsingTest {
+
+    private final DifyService difyService = new DifyService("http://localhost", null, new ObjectMapper(),
+            1000, Duration.ofMinutes(1), new SimpleMeterRegistry());
+
+    @Test
+    void messageDeltaCarriesAnswerAndIds() {
+        DifyStreamEvent event = difyService.parseStreamEvent(null,
+                "{\"event\":\"message\",\"task_id\":\"t1\",\"message_id\":\"m1\",\"conversation_id\":\"c1\",\"answer\":\"你好\"}");
+
+        assertThat(event.getType()).isEqualTo(DifyStreamEvent.Type.MESSAGE_DELTA);
+        assertThat(event.getTaskId()).isEqualTo("t1");
+        assertThat(event.getMessageId()).isEqualTo("m1");
+        assertThat(event.getConversationId()).isEqualTo("c1");
+        assertThat(event.getAnswer()).isEqualTo("你好");
+    }
+
+    @Test
+    void messageEndCarriesMetadata() {
+        DifyStreamEvent event = difyService.parseStreamEvent("message",
+                "{\"event\":\"message_end\",\"message_id\":\"m1\",\"metadata\":{\"usage\":{\"total_tokens\":42}}}");
+
+        assertThat(event.getType()).isEqualTo(DifyStreamEvent.Type.MESSAGE_END);
+        assertThat(event.getMetadata()).containsKey("usage");
+        assertThat(event.getAnswer()).isNull();
+    }
+
+    @Test
+    void errorCarriesCodeAndMessage() {
+        DifyStreamEvent event = difyService.parseStreamEvent(null,
+                "{\"event\":\"error\",\"status\":400,\"code\":\"invalid_param\",\"message\":\"参数错误\"}");
+
+        assertThat(event.getType()).isEqualTo(DifyStreamEvent.Type.ERROR);
+        assertThat(event.getCode()).isEqualTo("invalid_param");
+        assertThat(event.getMessage()).isEqualTo("参数错误");
+    }
+
+    @Test
+    void sseEventNameIsUsedWhenPayloadHasNone() {
+        DifyStreamEvent event = difyService.parseStreamEvent("node_finished",
+                "{\"task_id\":\"t1\",\"data\":{\"node_id\":\"llm\"}}");
+
+        assertThat(event.getType()).isEqualTo(DifyStreamEvent.Type.NODE_FINISHED);
+        assertThat(event.getEvent()).isEqualTo("node_finished");
+        assertThat(event.getData()).containsEntry("node_id", "llm");
+    }
+
+    @Test
+    void unknownEventIsOther() {
+        DifyStreamEvent event = difyService.parseStreamEvent(null, "{\"event\":\"tts_message\",\"audio\":\"\"}");
+
+        assertThat(event.getType()).isEqualTo(DifyStreamEvent.Type.OTHER);
+        assertThat(event.getEvent()).isEqualTo("tts_message");
+    }
+
+    @Test
+    void invalidJsonIsRejected() {
+        assertThatThrownBy(() -> difyService.parseStreamEvent("message", "{\"event\":\"mess"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("无法解析Dify事件");
+    }
+}
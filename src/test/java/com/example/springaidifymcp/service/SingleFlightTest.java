@@ -0,0 +1,126 @@
+package com.example.springaidifymcp.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private static final int FOLLOWERS = 4;
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final SingleFlight<String> singleFlight = new SingleFlight<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(FOLLOWERS + 1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallersShareOneExecution() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        Future<SingleFlight.Result<String>> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            executions.incrementAndGet();
+            awaitRelease();
+            return "result";
+        }, TIMEOUT));
+        List<Future<SingleFlight.Result<String>>> followers = startFollowers(() -> "unused");
+
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS).isShared()).isFalse();
+        for (Future<SingleFlight.Result<String>> follower : followers) {
+            SingleFlight.Result<String> result = follower.get(5, TimeUnit.SECONDS);
+            assertThat(result.getValue()).isEqualTo("result");
+            assertThat(result.isShared()).isTrue();
+        }
+        assertThat(executions).hasValue(1);
+        assertThat(singleFlight.getExecutions()).isEqualTo(1);
+        assertThat(singleFlight.getCoalesced()).isEqualTo(FOLLOWERS);
+    }
+
+    @Test
+    void exceptionReachesEveryWaiter() throws Exception {
+        IllegalStateException failure = new IllegalStateException("上游失败");
+        Future<SingleFlight.Result<String>> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+            awaitRelease();
+            throw failure;
+        }, TIMEOUT));
+        List<Future<SingleFlight.Result<String>>> followers = startFollowers(() -> "unused");
+
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCause(failure);
+        for (Future<SingleFlight.Result<String>> follower : followers) {
+            assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCause(failure);
+        }
+    }
+
+    @Test
+    void keyIsRemovedAfterCompletion() {
+        assertThat(singleFlight.execute("key", () -> "first", TIMEOUT).getValue()).isEqualTo("first");
+        assertThat(singleFlight.inFlight()).isZero();
+
+        SingleFlight.Result<String> second = singleFlight.execute("key", () -> "second", TIMEOUT);
+
+        assertThat(second.getValue()).isEqualTo("second");
+        assertThat(second.isShared()).isFalse();
+        assertThat(singleFlight.getExecutions()).isEqualTo(2);
+
+        assertThatThrownBy(() -> singleFlight.execute("key", () -> {
+            throw new IllegalStateException("失败");
+        }, TIMEOUT)).isInstanceOf(IllegalStateException.class);
+        assertThat(singleFlight.inFlight()).isZero();
+    }
+
+    /**
+     * 在首个调用执行期间发起其余调用，并等到它们都已加入等待
+     */
+    private List<Future<SingleFlight.Result<String>>> startFollowers(Supplier<String> supplier)
+            throws InterruptedException {
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        List<Future<SingleFlight.Result<String>>> followers = new ArrayList<>();
+        for (int i = 0; i < FOLLOWERS; i++) {
+            followers.add(executor.submit(() -> singleFlight.execute("key", supplier, TIMEOUT)));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.getCoalesced() < FOLLOWERS && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(singleFlight.getCoalesced()).isEqualTo(FOLLOWERS);
+        return followers;
+    }
+
+    private void awaitRelease() {
+        started.countDown();
+        try {
+            if (!release.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("等待释放超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.springaidifymcp.service;
+
+import com.example.springaidifymcp.model.RegisteredWorkflow;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WorkflowRegistryJournalTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void tornTailIsDiscardedAndTruncated() throws IOException {
+        write(journal -> {
+            journal.appendPut(workflow("a"), () -> { });
+            journal.appendPut(workflow("b"), () -> { });
+        });
+        Path logFile = directory.resolve("registry.log");
+        long intactLength = Files.size(logFile);
+        // 崩溃时只写入了一半的记录
+        Files.write(logFile, "0badc0de\t{\"op\":\"PUT\",\"workfl".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        try (WorkflowRegistryJournal journal = new WorkflowRegistryJournal(directory, objectMapper, false)) {
+            assertThat(journal.recover()).containsOnlyKeys("a", "b");
+            assertThat(Files.size(logFile)).isEqualTo(intactLength);
+            journal.appendPut(workflow("c"), () -> { });
+        }
+
+        assertThat(recover()).containsOnlyKeys("a", "b", "c");
+    }
+
+    @Test
+    void lastRecordWithBadChecksumIsDropped() throws IOException {
+        write(journal -> {
+            journal.appendPut(workflow("a"), () -> { });
+            journal.appendPut(workflow("b"), () -> { });
+        });
+        Path logFile = directory.resolve("registry.log");
+        List<String> lines = Files.readAllLines(logFile, StandardCharsets.UTF_8);
+        lines.set(1, lines.get(1).replace("\"b\"", "\"x\""));
+        Files.write(logFile, lines, StandardCharsets.UTF_8);
+
+        assertThat(recover()).containsOnlyKeys("a");
+    }
+
+    @Test
+    void corruptRecordInTheMiddleIsSkipped() throws IOException {
+        write(journal -> {
+            journal.appendPut(workflow("a"), () -> { });
+            journal.appendPut(workflow("b"), () -> { });
+            journal.appendPut(workflow("c"), () -> { });
+        });
+        Path logFile = directory.resolve("registry.log");
+        List<String> lines = Files.readAllLines(logFile, StandardCharsets.UTF_8);
+        lines.set(1, lines.get(1).replace("\"b\"", "\"x\""));
+        Files.write(logFile, lines, StandardCharsets.UTF_8);
+        long length = Files.size(logFile);
+
+        try (WorkflowRegistryJournal journal = new WorkflowRegistryJournal(directory, objectMapper, false)) {
+            assertThat(journal.recover()).containsOnlyKeys("a", "c");
+            assertThat(journal.isDamaged()).isTrue();
+            assertThat(Files.size(logFile)).isEqualTo(length);
+        }
+    }
+
+    @Test
+    void recordAfterPartialWriteIsRecovered() throws IOException {
+        write(journal -> {
+            journal.appendPut(workflow("a"), () -> { });
+            journal.appendPut(workflow("b"), () -> { });
+        });
+        Path logFile = directory.resolve("registry.log");
+        List<String> lines = Files.readAllLines(logFile, StandardCharsets.UTF_8);
+        // 写了一半的记录后面紧接着下一条完整的记录
+        Files.writeString(logFile, lines.get(0) + "\n0badc0de\t{\"op\":\"PU" + lines.get(1) + "\n");
+
+        assertThat(recover()).containsOnlyKeys("a", "b");
+    }
+
+    @Test
+    void lastRecordWithoutNewlineIsKept() throws IOException {
+        write(journal -> {
+            journal.appendPut(workflow("a"), () -> { });
+            journal.appendPut(workflow("b"), () -> { });
+        });
+        Path logFile = directory.resolve("registry.log");
+        byte[] content = Files.readAllBytes(logFile);
+        Files.write(logFile, Arrays.copyOf(content, content.length - 1));
+
+        try (WorkflowRegistryJournal journal = new WorkflowRegistryJournal(directory, objectMapper, false)) {
+            assertThat(journal.recover()).containsOnlyKeys("a", "b");
+            journal.appendPut(workflow("c"), () -> { });
+        }
+
+        assertThat(recover()).containsOnlyKeys("a", "b", "c");
+    }
+
+    @Test
+    void logIsReplayedOnTopOfSnapshot() throws IOException {
+        write(journal -> {
+            journal.appendPut(workflow("a"), () -> { });
+            journal.appendPut(workflow("b"), () -> { });
+            journal.compact(() -> List.of(workflow("a"), workflow("b")));
+            journal.appendDelete("a", () -> { });
+            journal.appendPut(workflow("c"), () -> { });
+        });
+
+        assertThat(recover()).containsOnlyKeys("b", "c");
+    }
+
+    private interface JournalAction {
+        void run(WorkflowRegistryJournal journal) throws IOException;
+    }
+
+    private void write(JournalAction action) throws IOException {
+        try (WorkflowRegistryJournal journal = new WorkflowRegistryJournal(directory, objectMapper, false)) {
+            journal.recover();
+            action.run(journal);
+        }
+    }
+
+    private Map<String, RegisteredWorkflow> recover() throws IOException {
+        try (WorkflowRegistryJournal journal = new WorkflowRegistryJournal(directory, objectMapper, false)) {
+            return journal.recover();
+        }
+    }
+
+    private static RegisteredWorkflow workflow(String workflowId) {
+        RegisteredWorkflow workflow = new RegisteredWorkflow();
+        workflow.setWorkflowId(workflowId);
+        workflow.setContentHash("hash-" + workflowId);
+        workflow.setFilePath("workflows/" + workflowId + ".yml");
+        return workflow;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.springaidifymcp.trace;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TraceRingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertThat(new TraceRingBuffer<Integer>(5).capacity()).isEqualTo(8);
+        assertThat(new TraceRingBuffer<Integer>(8).capacity()).isEqualTo(8);
+        assertThat(new TraceRingBuffer<Integer>(1).capacity()).isEqualTo(2);
+    }
+
+    @Test
+    void returnsNewestFirstBeforeWrapping() {
+        TraceRingBuffer<Integer> buffer = new TraceRingBuffer<>(4);
+        buffer.add(1);
+        buffer.add(2);
+
+        assertThat(buffer.recent(element -> true, 10)).containsExactly(2, 1);
+    }
+
+    @Test
+    void overwritesOldestAfterWrapping() {
+        TraceRingBuffer<Integer> buffer = new TraceRingBuffer<>(4);
+        for (int i = 1; i <= 10; i++) {
+            buffer.add(i);
+        }
+
+        assertThat(buffer.written()).isEqualTo(10);
+        assertThat(buffer.recent(element -> true, 10)).containsExactly(10, 9, 8, 7);
+    }
+
+    @Test
+    void filterAndLimitApplyAcrossWrap() {
+        TraceRingBuffer<Integer> buffer = new TraceRingBuffer<>(4);
+        for (int i = 1; i <= 6; i++) {
+            buffer.add(i);
+        }
+
+        assertThat(buffer.recent(element -> element % 2 == 1, 10)).containsExactly(5, 3);
+        assertThat(buffer.recent(element -> true, 2)).containsExactly(6, 5);
+    }
+}